@@ -0,0 +1,184 @@
+package com.bazaarvoice.ostrich.benchmarks;
+
+import com.bazaarvoice.ostrich.AsyncServicePool;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder;
+import com.bazaarvoice.ostrich.pool.ServicePoolBuilder;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares an {@link AsyncServicePool} whose executor uses platform threads with one that uses virtual threads, with
+ * {@value #NUM_IN_FLIGHT_CALLS} calls in flight at once against a service whose calls block for a few milliseconds.
+ * Throughput is reported per call, and the {@code peakPlatformThreads} counter shows how many platform threads the JVM
+ * needed to keep that many calls in flight.
+ * <p/>
+ * Virtual threads need Java 21 or newer.  On older JVMs the {@code VIRTUAL} runs fall back to platform threads.
+ * <pre>
+ * mvn -pl benchmarks -am package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar AsyncServicePoolFanOutBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AsyncServicePoolFanOutBenchmark {
+    private static final int NUM_IN_FLIGHT_CALLS = 10000;
+    private static final int NUM_END_POINTS = 10;
+    private static final RetryPolicy NEVER_RETRY = new RetryNTimes(1);
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public enum Threads {
+        PLATFORM, VIRTUAL
+    }
+
+    @Param
+    public Threads threads;
+
+    @Param({"10"})
+    public long callLatencyMillis;
+
+    private AsyncServicePool<Service> _pool;
+    private ServiceCallback<Service, Integer> _callback;
+
+    @Setup
+    public void setup() {
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < NUM_END_POINTS; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName(Service.NAME)
+                    .withId("end-point-" + i)
+                    .build());
+        }
+
+        ServicePoolBuilder<Service> builder = ServicePoolBuilder.create(Service.class)
+                .withHostDiscovery(new FixedHostDiscovery(endPoints))
+                .withServiceFactory(new ServiceFactory<Service>() {
+                    private final Service _service = new Service(callLatencyMillis);
+
+                    @Override
+                    public String getServiceName() {
+                        return Service.NAME;
+                    }
+
+                    @Override
+                    public void configure(ServicePoolBuilder<Service> servicePoolBuilder) {
+                    }
+
+                    @Override
+                    public Service create(ServiceEndPoint endPoint) {
+                        return _service;
+                    }
+
+                    @Override
+                    public void destroy(ServiceEndPoint endPoint, Service service) {
+                    }
+
+                    @Override
+                    public boolean isHealthy(ServiceEndPoint endPoint) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isRetriableException(Exception exception) {
+                        return true;
+                    }
+                })
+                .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING);
+        if (threads == Threads.VIRTUAL) {
+            builder.withVirtualThreads();
+        }
+        _pool = builder.buildAsync();
+
+        _callback = new ServiceCallback<Service, Integer>() {
+            @Override
+            public Integer call(Service service) throws ServiceException {
+                return service.get();
+            }
+        };
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        _pool.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_IN_FLIGHT_CALLS)
+    public List<Integer> fanOut(ThreadCounters counters) throws Exception {
+        List<ListenableFuture<Integer>> futures = Lists.newArrayListWithCapacity(NUM_IN_FLIGHT_CALLS);
+        for (int i = 0; i < NUM_IN_FLIGHT_CALLS; i++) {
+            futures.add(_pool.executeListenable(NEVER_RETRY, _callback));
+        }
+        List<Integer> results = Futures.allAsList(futures).get();
+
+        counters.peakPlatformThreads = Math.max(counters.peakPlatformThreads, THREADS.getPeakThreadCount());
+        return results;
+    }
+
+    /** Reports the most platform threads that were alive at once during an iteration. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ThreadCounters {
+        public long peakPlatformThreads;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            THREADS.resetPeakThreadCount();
+            peakPlatformThreads = 0;
+        }
+    }
+
+    public static class Service {
+        static final String NAME = "benchmark";
+
+        private final long _latencyMillis;
+        private final Integer _value = 42;
+
+        Service(long latencyMillis) {
+            _latencyMillis = latencyMillis;
+        }
+
+        /** Simulates a remote call that blocks its thread while waiting for the response. */
+        public Integer get() throws ServiceException {
+            try {
+                Thread.sleep(_latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException(e);
+            }
+            return _value;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.bazaarvoice.ostrich.benchmarks;
+
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ServicePool;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.pool.ServiceCachingPolicy;
+import com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder;
+import com.bazaarvoice.ostrich.pool.ServicePoolBuilder;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of {@link ServicePool#execute} with caching enabled when many threads check service instances
+ * out of and back in to the cache at once.  Each call checks an instance out and back in around a callback that does
+ * no work, so the cache is what's being measured.
+ * <p/>
+ * The {@code perEndPointLimit} is the most instances the cache keeps for each end point.  With a limit of 64 every
+ * thread can have its own instance, with a limit of 8 most threads are waiting for an instance to be checked in, as
+ * set by the {@code exhaustionAction}.
+ * <pre>
+ * mvn -pl benchmarks -am package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar ServiceCacheContentionBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class ServiceCacheContentionBenchmark {
+    private static final RetryPolicy NEVER_RETRY = new RetryNTimes(1);
+    private static final ServiceCallback<Service, Integer> CALLBACK = new ServiceCallback<Service, Integer>() {
+        @Override
+        public Integer call(Service service) throws ServiceException {
+            return service.get();
+        }
+    };
+
+    @Param({"1", "10"})
+    public int numEndPoints;
+
+    @Param({"64", "8"})
+    public int perEndPointLimit;
+
+    @Param({"WAIT", "GROW"})
+    public ServiceCachingPolicy.ExhaustionAction exhaustionAction;
+
+    private ServicePool<Service> _pool;
+
+    @Setup
+    public void setup() {
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < numEndPoints; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName(Service.NAME)
+                    .withId("end-point-" + i)
+                    .build());
+        }
+
+        _pool = ServicePoolBuilder.create(Service.class)
+                .withHostDiscovery(new FixedHostDiscovery(endPoints))
+                .withServiceFactory(new ServiceFactory<Service>() {
+                    @Override
+                    public String getServiceName() {
+                        return Service.NAME;
+                    }
+
+                    @Override
+                    public void configure(ServicePoolBuilder<Service> servicePoolBuilder) {
+                    }
+
+                    @Override
+                    public Service create(ServiceEndPoint endPoint) {
+                        return new Service();
+                    }
+
+                    @Override
+                    public void destroy(ServiceEndPoint endPoint, Service service) {
+                    }
+
+                    @Override
+                    public boolean isHealthy(ServiceEndPoint endPoint) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isRetriableException(Exception exception) {
+                        return true;
+                    }
+                })
+                .withCachingPolicy(new ServiceCachingPolicyBuilder()
+                        .withMaxNumServiceInstancesPerEndPoint(perEndPointLimit)
+                        .withCacheExhaustionAction(exhaustionAction)
+                        .build())
+                .build();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        _pool.close();
+    }
+
+    @Benchmark
+    public Integer execute() {
+        return _pool.execute(NEVER_RETRY, CALLBACK);
+    }
+
+    public static class Service {
+        static final String NAME = "benchmark";
+
+        // Return a cached Integer so that the callback itself doesn't allocate.
+        private final Integer _value = 42;
+
+        public Integer get() {
+            return _value;
+        }
+    }
+}
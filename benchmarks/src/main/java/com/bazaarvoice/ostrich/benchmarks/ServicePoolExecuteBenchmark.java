@@ -0,0 +1,127 @@
+package com.bazaarvoice.ostrich.benchmarks;
+
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ServicePool;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder;
+import com.bazaarvoice.ostrich.pool.ServicePoolBuilder;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of {@link ServicePool#execute} when the first attempt succeeds against an in-memory service.
+ * <p/>
+ * Run with the GC profiler to see the number of bytes allocated per call ({@code gc.alloc.rate.norm}):
+ * <pre>
+ * mvn -pl benchmarks -am package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar ServicePoolExecuteBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServicePoolExecuteBenchmark {
+    private static final RetryPolicy NEVER_RETRY = new RetryNTimes(1);
+    private static final ServiceCallback<Service, Integer> CALLBACK = new ServiceCallback<Service, Integer>() {
+        @Override
+        public Integer call(Service service) throws ServiceException {
+            return service.get();
+        }
+    };
+
+    @Param({"1", "10", "500"})
+    public int numEndPoints;
+
+    private ServicePool<Service> _pool;
+
+    @Setup
+    public void setup() {
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < numEndPoints; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName(Service.NAME)
+                    .withId("end-point-" + i)
+                    .build());
+        }
+
+        _pool = ServicePoolBuilder.create(Service.class)
+                .withHostDiscovery(new FixedHostDiscovery(endPoints))
+                .withServiceFactory(new ServiceFactory<Service>() {
+                    private final Service _service = new Service();
+
+                    @Override
+                    public String getServiceName() {
+                        return Service.NAME;
+                    }
+
+                    @Override
+                    public void configure(ServicePoolBuilder<Service> servicePoolBuilder) {
+                    }
+
+                    @Override
+                    public Service create(ServiceEndPoint endPoint) {
+                        return _service;
+                    }
+
+                    @Override
+                    public void destroy(ServiceEndPoint endPoint, Service service) {
+                    }
+
+                    @Override
+                    public boolean isHealthy(ServiceEndPoint endPoint) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isRetriableException(Exception exception) {
+                        return true;
+                    }
+                })
+                .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING)
+                .build();
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        _pool.close();
+    }
+
+    @Benchmark
+    public Integer execute() {
+        return _pool.execute(NEVER_RETRY, CALLBACK);
+    }
+
+    public static class Service {
+        static final String NAME = "benchmark";
+
+        // Return a cached Integer so that the callback itself doesn't allocate.
+        private final Integer _value = 42;
+
+        public Integer get() {
+            return _value;
+        }
+    }
+}
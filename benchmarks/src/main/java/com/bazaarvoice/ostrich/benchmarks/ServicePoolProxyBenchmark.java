@@ -0,0 +1,184 @@
+package com.bazaarvoice.ostrich.benchmarks;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ServicePool;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.pool.ServiceCachingPolicyBuilder;
+import com.bazaarvoice.ostrich.pool.ServicePoolBuilder;
+import com.bazaarvoice.ostrich.pool.ServicePoolProxies;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.AbstractInvocationHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of calling an in-memory service through a proxy built by
+ * {@link ServicePoolBuilder#buildProxy}, compared with calling {@link ServicePool#execute} directly and with a proxy
+ * that dispatches every call the way proxies used to, working out how to handle the method on each call.
+ * <p/>
+ * Run with the GC profiler to see the number of bytes allocated per call ({@code gc.alloc.rate.norm}):
+ * <pre>
+ * mvn -pl benchmarks -am package -DskipTests
+ * java -jar benchmarks/target/benchmarks.jar ServicePoolProxyBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServicePoolProxyBenchmark {
+    private static final RetryPolicy NEVER_RETRY = new RetryNTimes(1);
+    private static final ServiceCallback<Service, Integer> CALLBACK = new ServiceCallback<Service, Integer>() {
+        @Override
+        public Integer call(Service service) throws ServiceException {
+            return service.add(1, 2);
+        }
+    };
+
+    private ServicePool<Service> _pool;
+    private Service _proxy;
+    private Service _reflectiveProxy;
+
+    @Setup
+    public void setup() {
+        ServiceEndPoint endPoint = new ServiceEndPointBuilder()
+                .withServiceName(Service.NAME)
+                .withId("end-point")
+                .build();
+
+        ServicePoolBuilder<Service> builder = ServicePoolBuilder.create(Service.class)
+                .withHostDiscovery(new FixedHostDiscovery(ImmutableList.of(endPoint)))
+                .withServiceFactory(new ServiceFactory<Service>() {
+                    private final Service _service = new InMemoryService();
+
+                    @Override
+                    public String getServiceName() {
+                        return Service.NAME;
+                    }
+
+                    @Override
+                    public void configure(ServicePoolBuilder<Service> servicePoolBuilder) {
+                    }
+
+                    @Override
+                    public Service create(ServiceEndPoint endPoint) {
+                        return _service;
+                    }
+
+                    @Override
+                    public void destroy(ServiceEndPoint endPoint, Service service) {
+                    }
+
+                    @Override
+                    public boolean isHealthy(ServiceEndPoint endPoint) {
+                        return true;
+                    }
+
+                    @Override
+                    public boolean isRetriableException(Exception exception) {
+                        return true;
+                    }
+                })
+                .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING);
+
+        _proxy = builder.buildProxy(NEVER_RETRY);
+        _pool = ServicePoolProxies.getPool(_proxy);
+        _reflectiveProxy = Service.class.cast(Proxy.newProxyInstance(Service.class.getClassLoader(),
+                new Class<?>[] {Service.class}, new ReflectiveInvocationHandler(_pool)));
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        _pool.close();
+    }
+
+    @Benchmark
+    public Integer execute() {
+        return _pool.execute(NEVER_RETRY, CALLBACK);
+    }
+
+    @Benchmark
+    public Integer proxy() {
+        return _proxy.add(1, 2);
+    }
+
+    @Benchmark
+    public Integer reflectiveProxy() {
+        return _reflectiveProxy.add(1, 2);
+    }
+
+    public interface Service {
+        String NAME = "benchmark";
+
+        Integer add(int a, int b);
+    }
+
+    public static class InMemoryService implements Service {
+        // Return a cached Integer so that the service itself doesn't allocate.
+        private final Integer _value = 3;
+
+        @Override
+        public Integer add(int a, int b) {
+            return _value;
+        }
+    }
+
+    /**
+     * Dispatches calls the way proxies used to: checking for the special methods by name on every call, looking up
+     * the partition context and invoking the method without skipping its access check.
+     */
+    private static class ReflectiveInvocationHandler extends AbstractInvocationHandler {
+        private final ServicePool<Service> _pool;
+
+        ReflectiveInvocationHandler(ServicePool<Service> pool) {
+            _pool = pool;
+        }
+
+        @Override
+        protected Object handleInvocation(Object proxy, final Method method, final Object[] args) throws Throwable {
+            if (args.length == 0 && method.getName().equals("close")) {
+                _pool.close();
+                return null;
+            }
+
+            PartitionContext partitionContext = PartitionContextBuilder.empty();
+            return _pool.execute(partitionContext, NEVER_RETRY, new ServiceCallback<Service, Object>() {
+                @Override
+                public Object call(Service service) throws ServiceException {
+                    try {
+                        return method.invoke(service, args);
+                    } catch (IllegalAccessException e) {
+                        throw Throwables.propagate(e);
+                    } catch (InvocationTargetException e) {
+                        throw Throwables.propagate(e.getTargetException());
+                    }
+                }
+            });
+        }
+    }
+}
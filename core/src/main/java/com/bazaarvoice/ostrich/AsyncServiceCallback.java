@@ -0,0 +1,21 @@
+package com.bazaarvoice.ostrich;
+
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * A callback that starts a call on a service and returns without waiting for it to finish.  This is meant for
+ * services whose clients are themselves non-blocking.  The service instance is held on to until the returned future
+ * completes, and the outcome of the future decides whether the call succeeded, failed or should be retried, just like
+ * the outcome of {@link ServiceCallback#call}.
+ *
+ * @param <S>      The service interface.
+ * @param <RETURN> The return type for the call.
+ */
+public interface AsyncServiceCallback<S, RETURN> {
+    /**
+     * Starts a call on the service.  This should return quickly, failing the returned future rather than throwing
+     * once the call has been started.
+     */
+    ListenableFuture<RETURN> call(S service) throws ServiceException;
+}
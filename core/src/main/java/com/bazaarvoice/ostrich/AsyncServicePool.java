@@ -1,12 +1,23 @@
 package com.bazaarvoice.ostrich;
 
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.io.Closeable;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * An asynchronous service pool.  This mimics the behavior of a {@link ServicePool}, but instead of executing its
  * callbacks synchronously, it will run them in the background.
+ * <p/>
+ * Most of the futures returned are {@link ListenableFuture}s, so rather than blocking a thread on {@link Future#get()}
+ * a caller can register a listener to be told when a call completes, or compose calls with
+ * {@link com.google.common.util.concurrent.Futures}.  The original {@code execute} methods still return a plain
+ * {@link Future}, their {@code executeListenable} counterparts return a {@code ListenableFuture}.
  *
  * @param <S> The service interface that this pool keeps track of end points for.
  */
@@ -34,6 +45,172 @@ public interface AsyncServicePool<S> extends Closeable {
      */
     <R> Future<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
 
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool}, returning
+     * a listenable future representing the asynchronous call.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.
+     */
+    <R> ListenableFuture<R> executeListenable(RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, returning a listenable future
+     * representing the asynchronous call.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> executeListenable(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                              ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool}, giving up once
+     * the deadline has passed.  No attempt is started after the deadline, and no retry is started that the retry policy
+     * would make wait until past it.  The callback can use {@link Deadline#current()} to limit each attempt to the
+     * time that remains.
+     *
+     * @param deadline    The deadline for the operation.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.
+     */
+    <R> ListenableFuture<R> execute(Deadline deadline, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, giving up once the deadline has
+     * passed.  No attempt is started after the deadline, and no retry is started that the retry policy would make wait
+     * until past it.  The callback can use {@link Deadline#current()} to limit each attempt to the time that remains.
+     *
+     * @param partitionContext The partition context.
+     * @param deadline         The deadline for the operation.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retryPolicy,
+                                    ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool}, sending a
+     * hedged request to a second end point if the first one is slow to respond.  The returned future completes with
+     * the result of whichever request finishes first.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param hedgePolicy The hedge policy that decides when to send a hedged request.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.
+     */
+    <R> ListenableFuture<R> execute(RetryPolicy retryPolicy, HedgePolicy hedgePolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, sending a hedged request to a
+     * second end point if the first one is slow to respond.  The returned future completes with the result of
+     * whichever request finishes first.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param hedgePolicy      The hedge policy that decides when to send a hedged request.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                    HedgePolicy hedgePolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, sending a hedged request to a
+     * second end point if the first one is slow to respond and giving up on retries once the deadline has passed.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param partitionContext The partition context.
+     * @param deadline         The deadline for the operation.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param hedgePolicy      The hedge policy that decides when to send a hedged request.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retryPolicy,
+                                    HedgePolicy hedgePolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute an asynchronous callback against one of the remote services in this {@code ServicePool}.  Unlike a
+     * {@link ServiceCallback}, no thread is tied up while the call is in flight.  The service instance is held on to
+     * until the callback's future completes, and its outcome decides whether the call is retried.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback that starts the call.
+     * @param <R>         The return type for the call.
+     * @return            A future representing the call.
+     */
+    <R> ListenableFuture<R> executeAsync(RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback);
+
+    /**
+     * Execute an asynchronous callback against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points.  Unlike a
+     * {@link ServiceCallback}, no thread is tied up while the call is in flight.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback that starts the call with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> executeAsync(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                         AsyncServiceCallback<S, R> callback);
+
+    /**
+     * Execute an asynchronous callback against one of the remote services in this {@code ServicePool} using the
+     * specified partition information to narrow down the suitable service end points, giving up once the deadline has
+     * passed.  The callback can use {@link Deadline#current()} while it starts the call.
+     *
+     * @param partitionContext The partition context.
+     * @param deadline         The deadline for the operation.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback that starts the call with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A future representing the call.
+     */
+    <R> ListenableFuture<R> executeAsync(PartitionContext partitionContext, Deadline deadline,
+                                         RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously for a batch of items, using each item's partition information to choose the end
+     * point that should handle it.  Items that are handled by the same end point are grouped together so that each end
+     * point is only called once, and the groups are called in parallel.  A group that fails is retried, as allowed by
+     * the retry policy, without retrying the groups that succeeded.  Cancelling the returned future cancels the groups
+     * that are still running.
+     *
+     * @param retryPolicy The retry policy for each group of items.
+     * @param items       The items in the batch.
+     * @param partitioner Returns the partition context for an item.
+     * @param callback    The user provided callback to invoke with a service end point and its group of items.
+     * @param <K>         The type of the items in the batch.
+     * @param <R>         The type of the result for each item.
+     * @return            A future for the results of every group, merged together.
+     */
+    <K, R> ListenableFuture<Map<K, R>> executeBatch(RetryPolicy retryPolicy, Collection<K> items,
+                                                    Function<K, PartitionContext> partitioner,
+                                                    BatchServiceCallback<S, K, R> callback);
+
     /**
      * Execute a request asynchronously against <b>ALL</b> of the remote services in this {@code ServicePool},
      * returning a future for each asynchronous call.
@@ -65,6 +242,102 @@ public interface AsyncServicePool<S> extends Closeable {
     <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, RetryPolicy retryPolicy,
                                         ServiceCallback<S, R> callback);
 
+    /**
+     * Execute a request asynchronously against <b>ALL</b> of the remote services in this {@code ServicePool},
+     * returning a single future that combines the results of every call.  The combined future succeeds with one result
+     * per end point once every call has succeeded, or fails as soon as any one of the calls fails.  Cancelling it
+     * cancels the calls that are still running.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code executeOnAllCombined} operation is executing.
+     *
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future for the list of results, one for each end point being called.
+     */
+    <R> ListenableFuture<List<R>> executeOnAllCombined(RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against some of the remote services in this {@code ServicePool}, returning a
+     * single future that combines the results of every call.  The combined future succeeds with one result per end
+     * point once every call has succeeded, or fails as soon as any one of the calls fails.  Cancelling it cancels the
+     * calls that are still running.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code executeOnCombined} operation is executing.
+     *
+     * @param predicate   A predicate indicating which service end points the request should be executed against.  If
+     *                    the predicate returns {@code true} then the request will be executed against that end point.
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future for the list of results, one for each end point being called.
+     */
+    <R> ListenableFuture<List<R>> executeOnCombined(ServiceEndPointPredicate predicate, RetryPolicy retryPolicy,
+                                                   ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against some of the remote services in this {@code ServicePool}, returning the
+     * first result to succeed.  Once one call has succeeded the others are cancelled, so a read from replicated end
+     * points finishes as quickly as the fastest replica.  The returned future only fails if every call fails.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code executeOnFirst} operation is executing.
+     *
+     * @param predicate   A predicate indicating which service end points the request should be executed against.  If
+     *                    the predicate returns {@code true} then the request will be executed against that end point.
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future for the first successful result.
+     * @throws com.bazaarvoice.ostrich.exceptions.QuorumNotReachedException (in the future) If every call failed.
+     */
+    <R> ListenableFuture<R> executeOnFirst(ServiceEndPointPredicate predicate, RetryPolicy retryPolicy,
+                                           ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against some of the remote services in this {@code ServicePool}, returning as
+     * soon as a given number of the calls have succeeded.  The calls that are still running at that point are
+     * cancelled.  The returned future fails as soon as so many calls have failed that the rest can't make up the
+     * number.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code executeOnQuorum} operation is executing.
+     *
+     * @param predicate   A predicate indicating which service end points the request should be executed against.  If
+     *                    the predicate returns {@code true} then the request will be executed against that end point.
+     * @param numResults  The number of successful results that are needed, 1 or more.
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future for the list of results, in the order the calls finished in.
+     * @throws com.bazaarvoice.ostrich.exceptions.QuorumNotReachedException (in the future) If too many calls failed, or
+     *                                                                      too few end points were called.
+     */
+    <R> ListenableFuture<List<R>> executeOnQuorum(ServiceEndPointPredicate predicate, int numResults,
+                                                 RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against some of the remote services in this {@code ServicePool}, returning the
+     * results of the calls that succeed within a timeout.  The calls that are still running once the timeout passes
+     * are cancelled.  Calls that fail are left out of the results rather than failing the returned future.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code executeOnWithTimeout} operation is executing.
+     *
+     * @param predicate   A predicate indicating which service end points the request should be executed against.  If
+     *                    the predicate returns {@code true} then the request will be executed against that end point.
+     * @param timeout     How long to wait for the calls to finish.
+     * @param unit        The unit of time the {@code timeout} is in.
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A future for the list of results, in the order the calls finished in.
+     */
+    <R> ListenableFuture<List<R>> executeOnWithTimeout(ServiceEndPointPredicate predicate, long timeout, TimeUnit unit,
+                                                      RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
     /**
      * Return the number of valid end points that this service pool knows about.  This will include end points that have
      * never thrown exceptions during execution (even those that have never been interacted with) and end points that
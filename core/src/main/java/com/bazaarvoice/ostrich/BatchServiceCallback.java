@@ -0,0 +1,24 @@
+package com.bazaarvoice.ostrich;
+
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A callback that handles many items with a single call to a service, for example a multi-get.  A batch is split into
+ * one group of items per end point, and the callback is called once for each group with the items that end point
+ * should handle.
+ *
+ * @param <S>      The service interface.
+ * @param <K>      The type of the items in the batch.
+ * @param <RETURN> The type of the result for each item.
+ */
+public interface BatchServiceCallback<S, K, RETURN> {
+    /**
+     * Handles a group of items with the service.
+     *
+     * @return The result for each item.  Items without a result may be left out.
+     */
+    Map<K, RETURN> call(S service, Collection<K> items) throws ServiceException;
+}
@@ -0,0 +1,43 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a single item method of a service interface whose concurrent calls a service pool proxy may combine into calls
+ * of a bulk method of the same interface.  Calls that arrive within a short window are collected, grouped by the end
+ * point that their partition maps to, and sent as one call of the bulk method per end point.  Each caller then gets
+ * the result for its own item.
+ * <p/>
+ * The single item method must take exactly one argument.  The bulk method must take a single {@code Collection} or
+ * {@code List} of those arguments, and return a {@code Map} from each argument to its result.  Arguments missing from
+ * the map get a {@code null} result, or, if the single item method returns a primitive, an
+ * {@code IllegalStateException}.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Batched {
+    /**
+     * The name of the bulk method.
+     */
+    String value();
+
+    /**
+     * The most items to collect into a single batch.  A batch that fills up is sent right away.
+     */
+    int maxSize() default 100;
+
+    /**
+     * How long to wait for more items after the first item of a batch arrives, in {@link #unit()}s.
+     */
+    long maxDelay() default 5;
+
+    /**
+     * The unit of {@link #maxDelay()}.
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
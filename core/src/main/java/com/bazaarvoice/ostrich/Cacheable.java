@@ -0,0 +1,40 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface whose results a service pool proxy may cache.  Calls with arguments equal to
+ * those of a cached call are answered from the cache until the result is older than the time to live.  Exceptions are
+ * never cached.
+ * <p/>
+ * Only use this for methods that read, and whose callers can tolerate results that are up to the time to live old.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Cacheable {
+    /**
+     * How long a result is served from the cache, in {@link #unit()}s.
+     */
+    long ttl();
+
+    /**
+     * How long after its time to live a result may still be served while a fresh one is fetched in the background, in
+     * {@link #unit()}s.  By default a result is never served once its time to live has passed.
+     */
+    long staleWhileRevalidate() default 0;
+
+    /**
+     * The unit of {@link #ttl()} and {@link #staleWhileRevalidate()}.
+     */
+    TimeUnit unit() default TimeUnit.SECONDS;
+
+    /**
+     * The most results of the method to keep in the cache at once.
+     */
+    long maxSize() default 1000;
+}
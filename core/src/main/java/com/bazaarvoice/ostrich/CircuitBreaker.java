@@ -0,0 +1,58 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the outcome of the calls made to a single service end point and decides whether or not that end point should
+ * continue to receive traffic.
+ * <p/>
+ * A circuit breaker starts out {@link State#CLOSED}, allowing all requests through.  When it decides the end point is
+ * failing it moves to {@link State#OPEN} and the service pool stops using the end point.  Once the breaker has been
+ * open for {@link #getOpenDuration} it moves to {@link State#HALF_OPEN} and lets a limited number of real requests
+ * through to probe the end point.  Depending on the outcome of those probes the breaker either closes again or
+ * re-opens.
+ * <p/>
+ * Implementations must be thread safe since a single breaker is shared by every caller using its end point.
+ */
+public interface CircuitBreaker {
+    /**
+     * Called before a request is sent to the end point.  A {@link State#HALF_OPEN} breaker will only permit a limited
+     * number of requests, and each permitted request must report its outcome via {@link #recordSuccess} or
+     * {@link #recordFailure}.
+     *
+     * @return {@code true} if the request may be sent to the end point, {@code false} otherwise.
+     */
+    boolean allowRequest();
+
+    /** Records that a request to the end point completed without an end point related failure. */
+    void recordSuccess();
+
+    /** Records that a request to the end point failed in a way that indicates a problem with the end point. */
+    void recordFailure();
+
+    /** Forcibly closes the breaker, forgetting any history.  Called when a health check shows the end point is fine. */
+    void reset();
+
+    /** @return The current state of the breaker. */
+    State getState();
+
+    /**
+     * The amount of time the breaker stays open before it lets probe requests through.
+     *
+     * @param unit The {@code TimeUnit} the duration should be in.
+     * @return The open duration, or a negative value if the breaker never half-opens on its own and should only be
+     *         closed by a successful health check.
+     */
+    long getOpenDuration(TimeUnit unit);
+
+    enum State {
+        /** The end point is considered healthy and receives all traffic. */
+        CLOSED,
+
+        /** The end point is considered unhealthy and receives no traffic. */
+        OPEN,
+
+        /** The end point receives a trickle of probe requests to decide whether it has recovered. */
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,13 @@
+package com.bazaarvoice.ostrich;
+
+/** Abstracts the strategy of deciding when a service end point should stop receiving traffic. */
+public interface CircuitBreakerPolicy {
+    /**
+     * Creates the circuit breaker that will track calls to a single end point.  A service pool creates one breaker for
+     * each end point it makes calls to.
+     *
+     * @param endPoint The end point the breaker is for.
+     * @return A new circuit breaker in the {@link CircuitBreaker.State#CLOSED} state.
+     */
+    CircuitBreaker newCircuitBreaker(ServiceEndPoint endPoint);
+}
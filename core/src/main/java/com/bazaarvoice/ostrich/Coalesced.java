@@ -0,0 +1,19 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface whose identical concurrent calls may share a single call.  While a service
+ * pool proxy has a call to the method in flight, other calls to it with equal arguments wait for that call's result,
+ * or exception, instead of making calls of their own.
+ * <p/>
+ * Only use this for methods that read, since callers that share a call all see the same result.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Coalesced {
+}
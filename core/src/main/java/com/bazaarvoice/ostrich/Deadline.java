@@ -0,0 +1,95 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A point in time by which an operation must be complete.  When a deadline is given to a {@link ServicePool} it will
+ * not start a retry, or back off before one, once there's no time left to finish it.
+ * <p/>
+ * While a {@link ServiceCallback} is running, the deadline of its operation is available from {@link #current()}.
+ * This allows service clients, including those called through a dynamic proxy, to limit each attempt to the time that
+ * remains, for example by setting a socket timeout.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<Deadline>();
+
+    private final Ticker _ticker;
+    private final long _startNanos;
+    private final long _durationNanos;
+
+    /**
+     * Creates a deadline that expires after the given amount of time from now.
+     *
+     * @param duration The amount of time until the deadline expires.
+     * @param unit     The units (milliseconds, seconds, etc.) of {@code duration}.
+     * @return The deadline.
+     */
+    public static Deadline after(long duration, TimeUnit unit) {
+        return after(duration, unit, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    static Deadline after(long duration, TimeUnit unit, Ticker ticker) {
+        checkArgument(duration >= 0);
+        checkNotNull(unit);
+        checkNotNull(ticker);
+        return new Deadline(ticker, ticker.read(), unit.toNanos(duration));
+    }
+
+    /**
+     * Returns the deadline of the operation whose callback is running on the current thread, or {@code null} if there
+     * isn't one.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    private Deadline(Ticker ticker, long startNanos, long durationNanos) {
+        _ticker = ticker;
+        _startNanos = startNanos;
+        _durationNanos = durationNanos;
+    }
+
+    /**
+     * Returns the amount of time left until the deadline expires, or 0 if it has already expired.
+     */
+    public long getRemaining(TimeUnit unit) {
+        long remainingNanos = _durationNanos - (_ticker.read() - _startNanos);
+        return unit.convert(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+    }
+
+    public boolean isExpired() {
+        return _ticker.read() - _startNanos >= _durationNanos;
+    }
+
+    /**
+     * Makes this the deadline returned by {@link #current()} on this thread.  Service pools do this around each call to
+     * a {@link ServiceCallback}, and each call to {@code attach} must be followed by a call to {@link #detach}.
+     *
+     * @return The deadline that was current before, which must be passed to {@code detach}.
+     */
+    public Deadline attach() {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Restores the deadline that was current before this one was attached.
+     *
+     * @param previous The value returned by {@link #attach()}.
+     */
+    public void detach(Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Abstracts the strategy of determining when a hedged request should be sent.  A hedged request is a second attempt at
+ * an operation that is sent to a different end point when the first attempt is taking longer than usual.  Whichever
+ * attempt finishes first provides the result and the other one is ignored.
+ * <p/>
+ * Since the operation may end up being executed twice, hedging should only be used for idempotent operations.
+ */
+public interface HedgePolicy {
+    /**
+     * Returns how long to wait for the first attempt at an operation before sending a hedged attempt.
+     *
+     * @param statistics Statistics about the service pool the operation is executing in.
+     * @param unit       The unit of time to return the delay in.
+     * @return The amount of time to wait before hedging, or a negative value if the operation should not be hedged.
+     */
+    long getHedgeDelay(ServicePoolStatistics statistics, TimeUnit unit);
+}
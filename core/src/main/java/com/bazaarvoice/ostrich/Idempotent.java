@@ -0,0 +1,16 @@
+package com.bazaarvoice.ostrich;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a method of a service interface as safe to execute more than once for a single call.  Service pool proxies
+ * only send hedged requests for methods with this annotation.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Idempotent {
+}
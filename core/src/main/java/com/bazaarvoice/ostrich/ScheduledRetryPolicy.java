@@ -0,0 +1,19 @@
+package com.bazaarvoice.ostrich;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A retry policy that can say how long to wait before the next attempt instead of waiting itself.  This lets a service
+ * pool decide whether the wait fits within a {@link Deadline}, and schedule the next attempt rather than block a thread.
+ */
+public interface ScheduledRetryPolicy extends RetryPolicy {
+    /**
+     * Called when an operation has failed for some reason.  Unlike {@link #allowRetry} this never waits.
+     *
+     * @param numAttempts   The number of attempts that have happened so far.  This must be greater than zero.
+     * @param elapsedTimeMs The amount of time in milliseconds that the operation has been attempted.
+     * @param unit          The unit of time to return the delay in.
+     * @return The amount of time to wait before retrying the operation, or a negative value if it shouldn't be retried.
+     */
+    long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit);
+}
@@ -1,6 +1,10 @@
 package com.bazaarvoice.ostrich;
 
+import com.google.common.base.Function;
+
 import java.io.Closeable;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * A <code>ServicePool</code> keeps track of service end points for a particular service.  Internally it
@@ -53,6 +57,126 @@ public interface ServicePool<S> extends Closeable {
      */
     <R> R execute(PartitionContext partitionContext, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
 
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code>, giving up
+     * once the deadline has passed.  No attempt is started after the deadline, and no retry is started that the retry
+     * policy would make wait until past it.  The callback can use {@link Deadline#current()} to limit each attempt to
+     * the time that remains.
+     *
+     * @param deadline The deadline for the operation.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     * @throws com.bazaarvoice.ostrich.exceptions.DeadlineExceededException If the deadline kept the operation from
+     *                                                                      being attempted or retried.
+     */
+    <R> R execute(Deadline deadline, RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code> using
+     * the specified partition information to narrow down the suitable service end points, giving up once the deadline
+     * has passed.  No attempt is started after the deadline, and no retry is started that the retry policy would make
+     * wait until past it.  The callback can use {@link Deadline#current()} to limit each attempt to the time that
+     * remains.
+     *
+     * @param partitionContext The partition context.
+     * @param deadline The deadline for the operation.
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     * @throws com.bazaarvoice.ostrich.exceptions.DeadlineExceededException If the deadline kept the operation from
+     *                                                                      being attempted or retried.
+     */
+    <R> R execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retryPolicy,
+                  ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code>, sending a
+     * hedged request to a second end point if the first one is slow to respond.  The result of whichever request
+     * finishes first is returned.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param hedgePolicy The hedge policy that decides when to send a hedged request.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     */
+    <R> R execute(RetryPolicy retryPolicy, HedgePolicy hedgePolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code> using
+     * the specified partition information to narrow down the suitable service end points, sending a hedged request to a
+     * second end point if the first one is slow to respond.  The result of whichever request finishes first is
+     * returned.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy The retry policy for the operation.
+     * @param hedgePolicy The hedge policy that decides when to send a hedged request.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     */
+    <R> R execute(PartitionContext partitionContext, RetryPolicy retryPolicy, HedgePolicy hedgePolicy,
+                  ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request synchronously against one of the remote services in this <code>ServicePool</code> using
+     * the specified partition information to narrow down the suitable service end points, sending a hedged request to a
+     * second end point if the first one is slow to respond and giving up on retries once the deadline has passed.
+     * <p/>
+     * NOTE: The callback may be executed more than once, so this should only be used for idempotent operations.
+     *
+     * @param partitionContext The partition context.
+     * @param deadline The deadline for the operation.
+     * @param retryPolicy The retry policy for the operation.
+     * @param hedgePolicy The hedge policy that decides when to send a hedged request.
+     * @param callback The user provided callback to invoke with a service end point.
+     * @param <R> The return type for the call.
+     * @return The result provided by the callback.
+     */
+    <R> R execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retryPolicy,
+                  HedgePolicy hedgePolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request synchronously for a batch of items, using each item's partition information to choose the end
+     * point that should handle it.  Items that are handled by the same end point are grouped together so that each end
+     * point is only called once, and the groups are called in parallel.  A group that fails is retried, as allowed by
+     * the retry policy, without retrying the groups that succeeded.
+     *
+     * @param retryPolicy The retry policy for each group of items.
+     * @param items The items in the batch.
+     * @param partitioner Returns the partition context for an item.
+     * @param callback The user provided callback to invoke with a service end point and its group of items.
+     * @param <K> The type of the items in the batch.
+     * @param <R> The type of the result for each item.
+     * @return The results of every group, merged together.
+     */
+    <K, R> Map<K, R> executeBatch(RetryPolicy retryPolicy, Collection<K> items,
+                                  Function<K, PartitionContext> partitioner, BatchServiceCallback<S, K, R> callback);
+
+    /**
+     * Execute a request synchronously for a batch of items, using each item's partition information to choose the end
+     * point that should handle it, and giving up on retries once the deadline has passed.  Items are grouped and
+     * retried the same way as by {@link #executeBatch(RetryPolicy, Collection, Function, BatchServiceCallback)}.
+     *
+     * @param deadline The deadline for the whole batch.
+     * @param retryPolicy The retry policy for each group of items.
+     * @param items The items in the batch.
+     * @param partitioner Returns the partition context for an item.
+     * @param callback The user provided callback to invoke with a service end point and its group of items.
+     * @param <K> The type of the items in the batch.
+     * @param <R> The type of the result for each item.
+     * @return The results of every group, merged together.
+     */
+    <K, R> Map<K, R> executeBatch(Deadline deadline, RetryPolicy retryPolicy, Collection<K> items,
+                                  Function<K, PartitionContext> partitioner, BatchServiceCallback<S, K, R> callback);
+
     /**
      * Attempts to find a healthy end point. Performs health checks until a healthy end point is found, all available
      * end points are exhausted, or execution of a health check throws an exception that is deemed not retriable.
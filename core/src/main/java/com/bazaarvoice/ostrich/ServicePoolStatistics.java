@@ -1,5 +1,7 @@
 package com.bazaarvoice.ostrich;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * A provider of statistics relating to the state of the {@link ServicePool}. Mainly useful for making decisions for
  * load balancing, a {@code ServicePool} will pass an instance to the {@link ServiceFactory} when requesting a
@@ -22,4 +24,13 @@ public interface ServicePoolStatistics {
      * @return The number of service instances actively serving callbacks for the given end point.
      */
     int getNumActiveInstances(ServiceEndPoint endPoint);
+
+    /**
+     * The callback execution time that the given fraction of recent calls in the pool finished within.  For example a
+     * {@code quantile} of {@code 0.95} returns the 95th percentile of recent execution times.
+     * @param quantile The fraction of calls, between 0 and 1 inclusive.
+     * @param unit The unit of time to return the execution time in.
+     * @return The execution time, or 0 if the pool has not executed any callbacks yet.
+     */
+    long getCallbackExecutionTime(double quantile, TimeUnit unit);
 }
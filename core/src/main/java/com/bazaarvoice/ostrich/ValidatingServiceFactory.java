@@ -0,0 +1,24 @@
+package com.bazaarvoice.ostrich;
+
+/**
+ * A service factory that can check whether a service instance still works.  When a service pool caches service
+ * instances, it uses this to test instances while they sit idle, so that an instance whose connection has gone away,
+ * for example one that a load balancer or firewall closed for being idle, is replaced before a call gets to use it.
+ * Checking an instance can also serve as a keepalive that stops its connection from being closed in the first place.
+ * <p/>
+ * How often idle instances are checked is configured by the pool's
+ * {@link com.bazaarvoice.ostrich.pool.ServiceCachingPolicy}.
+ *
+ * @param <S> The type of the service.
+ */
+public interface ValidatingServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Checks whether an idle service instance can still be used, for example by pinging the end point over the
+     * instance's connection.  Called in the background, and never while the instance is in use.
+     *
+     * @param endPoint The end point of the instance to check.
+     * @param service  The service instance to check.
+     * @return {@code true} if the instance can still be used, {@code false} if it should be destroyed and replaced.
+     */
+    boolean isValid(ServiceEndPoint endPoint, S service);
+}
@@ -0,0 +1,219 @@
+package com.bazaarvoice.ostrich.circuitbreaker;
+
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.CircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A circuit breaker policy that opens an end point's breaker once the fraction of failed calls in a sliding window of
+ * recent calls reaches a threshold.  After the breaker has been open for a fixed duration it half-opens and lets a
+ * small number of real calls through to probe the end point.  If all of the probes succeed the breaker closes, if any
+ * of them fail it opens again.
+ * <p/>
+ * Unlike {@link SingleFailureCircuitBreakerPolicy}, a single transient failure won't take an otherwise healthy end
+ * point out of service.
+ */
+public class FailureRateCircuitBreakerPolicy implements CircuitBreakerPolicy {
+    private final Ticker _ticker;
+    private final int _windowSize;
+    private final int _minNumCalls;
+    private final double _failureRateThreshold;
+    private final long _openDurationNanos;
+    private final int _numProbeCalls;
+
+    /**
+     * Open a breaker when at least {@code failureRateThreshold} of the last {@code windowSize} calls to its end point
+     * failed, and probe the end point with a single call after it has been open for {@code openDuration}.
+     *
+     * @param windowSize           The number of most recent calls the failure rate is computed over.
+     * @param failureRateThreshold The fraction of failed calls, greater than 0 and at most 1, that opens the breaker.
+     * @param openDuration         The amount of time the breaker stays open before probing the end point.
+     * @param unit                 The units (milliseconds, seconds, etc.) of {@code openDuration}.
+     */
+    public FailureRateCircuitBreakerPolicy(int windowSize, double failureRateThreshold, long openDuration,
+                                           TimeUnit unit) {
+        this(windowSize, windowSize, failureRateThreshold, openDuration, unit, 1);
+    }
+
+    /**
+     * Open a breaker when at least {@code failureRateThreshold} of the last {@code windowSize} calls to its end point
+     * failed, and probe the end point with {@code numProbeCalls} calls after it has been open for
+     * {@code openDuration}.
+     *
+     * @param windowSize           The number of most recent calls the failure rate is computed over.
+     * @param minNumCalls          The minimum number of calls that must be in the window before the failure rate is
+     *                             considered.  This must be between one and {@code windowSize}.
+     * @param failureRateThreshold The fraction of failed calls, greater than 0 and at most 1, that opens the breaker.
+     * @param openDuration         The amount of time the breaker stays open before probing the end point.
+     * @param unit                 The units (milliseconds, seconds, etc.) of {@code openDuration}.
+     * @param numProbeCalls        The number of calls let through while half-open.  All of them must succeed for the
+     *                             breaker to close.
+     */
+    public FailureRateCircuitBreakerPolicy(int windowSize, int minNumCalls, double failureRateThreshold,
+                                           long openDuration, TimeUnit unit, int numProbeCalls) {
+        this(Ticker.systemTicker(), windowSize, minNumCalls, failureRateThreshold, openDuration, unit, numProbeCalls);
+    }
+
+    @VisibleForTesting
+    FailureRateCircuitBreakerPolicy(Ticker ticker, int windowSize, int minNumCalls, double failureRateThreshold,
+                                    long openDuration, TimeUnit unit, int numProbeCalls) {
+        checkArgument(windowSize > 0);
+        checkArgument(minNumCalls > 0 && minNumCalls <= windowSize);
+        checkArgument(failureRateThreshold > 0 && failureRateThreshold <= 1);
+        checkArgument(openDuration >= 0);
+        checkNotNull(unit);
+        checkArgument(numProbeCalls > 0);
+
+        _ticker = checkNotNull(ticker);
+        _windowSize = windowSize;
+        _minNumCalls = minNumCalls;
+        _failureRateThreshold = failureRateThreshold;
+        _openDurationNanos = unit.toNanos(openDuration);
+        _numProbeCalls = numProbeCalls;
+    }
+
+    @Override
+    public CircuitBreaker newCircuitBreaker(ServiceEndPoint endPoint) {
+        return new FailureRateCircuitBreaker();
+    }
+
+    private final class FailureRateCircuitBreaker implements CircuitBreaker {
+        // A ring buffer of the outcomes of the most recent calls, true means the call failed.
+        private final boolean[] _outcomes = new boolean[_windowSize];
+        private int _nextOutcome;
+        private int _numCalls;
+        private int _numFailures;
+
+        private State _state = State.CLOSED;
+        private long _stateChangedAtNanos;
+        private int _numProbesRemaining;
+        private int _numProbeSuccesses;
+
+        @Override
+        public synchronized boolean allowRequest() {
+            switch (_state) {
+                case CLOSED:
+                    return true;
+
+                case OPEN:
+                    if (_ticker.read() - _stateChangedAtNanos < _openDurationNanos) {
+                        return false;
+                    }
+                    halfOpen();
+                    break;
+
+                case HALF_OPEN:
+                    // If the probes we handed out never reported back then hand out new ones rather than staying
+                    // half-open forever.
+                    if (_numProbesRemaining == 0 && _ticker.read() - _stateChangedAtNanos >= _openDurationNanos) {
+                        halfOpen();
+                    }
+                    break;
+            }
+
+            if (_numProbesRemaining == 0) {
+                return false;
+            }
+
+            _numProbesRemaining--;
+            return true;
+        }
+
+        @Override
+        public synchronized void recordSuccess() {
+            switch (_state) {
+                case CLOSED:
+                    record(false);
+                    break;
+
+                case HALF_OPEN:
+                    if (++_numProbeSuccesses >= _numProbeCalls) {
+                        close();
+                    }
+                    break;
+
+                case OPEN:
+                    // A call that started before the breaker opened, it doesn't tell us anything new.
+                    break;
+            }
+        }
+
+        @Override
+        public synchronized void recordFailure() {
+            switch (_state) {
+                case CLOSED:
+                    record(true);
+                    if (_numCalls >= _minNumCalls && _numFailures >= _failureRateThreshold * _numCalls) {
+                        open();
+                    }
+                    break;
+
+                case HALF_OPEN:
+                    open();
+                    break;
+
+                case OPEN:
+                    break;
+            }
+        }
+
+        @Override
+        public synchronized void reset() {
+            close();
+        }
+
+        @Override
+        public synchronized State getState() {
+            return _state;
+        }
+
+        @Override
+        public long getOpenDuration(TimeUnit unit) {
+            return unit.convert(_openDurationNanos, TimeUnit.NANOSECONDS);
+        }
+
+        private void record(boolean failed) {
+            if (_numCalls == _windowSize) {
+                // The window is full, so the oldest outcome falls out of it.
+                if (_outcomes[_nextOutcome]) {
+                    _numFailures--;
+                }
+            } else {
+                _numCalls++;
+            }
+
+            _outcomes[_nextOutcome] = failed;
+            if (failed) {
+                _numFailures++;
+            }
+            _nextOutcome = (_nextOutcome + 1) % _windowSize;
+        }
+
+        private void open() {
+            _state = State.OPEN;
+            _stateChangedAtNanos = _ticker.read();
+        }
+
+        private void halfOpen() {
+            _state = State.HALF_OPEN;
+            _stateChangedAtNanos = _ticker.read();
+            _numProbesRemaining = _numProbeCalls;
+            _numProbeSuccesses = 0;
+        }
+
+        private void close() {
+            _state = State.CLOSED;
+            _stateChangedAtNanos = _ticker.read();
+            _nextOutcome = 0;
+            _numCalls = 0;
+            _numFailures = 0;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.bazaarvoice.ostrich.circuitbreaker;
+
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.CircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A circuit breaker policy that opens an end point's breaker on its very first failure and keeps it open until a
+ * health check shows that the end point is healthy again.  This is the policy service pools use when no other policy
+ * has been configured.
+ */
+public class SingleFailureCircuitBreakerPolicy implements CircuitBreakerPolicy {
+    @Override
+    public CircuitBreaker newCircuitBreaker(ServiceEndPoint endPoint) {
+        return new SingleFailureCircuitBreaker();
+    }
+
+    private static final class SingleFailureCircuitBreaker implements CircuitBreaker {
+        private volatile State _state = State.CLOSED;
+
+        @Override
+        public boolean allowRequest() {
+            return _state != State.OPEN;
+        }
+
+        @Override
+        public void recordSuccess() {
+            // Nothing to do, only a health check can close the breaker.
+        }
+
+        @Override
+        public void recordFailure() {
+            _state = State.OPEN;
+        }
+
+        @Override
+        public void reset() {
+            _state = State.CLOSED;
+        }
+
+        @Override
+        public State getState() {
+            return _state;
+        }
+
+        @Override
+        public long getOpenDuration(TimeUnit unit) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception to be thrown when something has been tried unsuccessfully and there's no time left before its
+ * {@link com.bazaarvoice.ostrich.Deadline} to try again, even though the
+ * {@link com.bazaarvoice.ostrich.RetryPolicy} may still allow retries.
+ */
+public class DeadlineExceededException extends MaxRetriesException {
+    private static final long serialVersionUID = 0;
+}
@@ -0,0 +1,14 @@
+package com.bazaarvoice.ostrich.exceptions;
+
+/**
+ * An exception indicating that a call made to several end points at once couldn't get as many successful results as
+ * it needed, either because too many of the calls failed or because there weren't enough end points to call.  The
+ * cause, if there is one, is the failure of the last call that was needed.
+ */
+public class QuorumNotReachedException extends ServiceException {
+    private static final long serialVersionUID = 0;
+
+    public QuorumNotReachedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,29 @@
+package com.bazaarvoice.ostrich.hedge;
+
+import com.bazaarvoice.ostrich.HedgePolicy;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/** A hedge policy that sends a hedged request once the first attempt has taken a fixed amount of time. */
+public class FixedDelayHedgePolicy implements HedgePolicy {
+    private final long _delayNanos;
+
+    /**
+     * @param delay The amount of time to wait for the first attempt before hedging.
+     * @param unit  The units (milliseconds, seconds, etc.) of {@code delay}.
+     */
+    public FixedDelayHedgePolicy(long delay, TimeUnit unit) {
+        checkArgument(delay >= 0);
+        checkNotNull(unit);
+        _delayNanos = unit.toNanos(delay);
+    }
+
+    @Override
+    public long getHedgeDelay(ServicePoolStatistics statistics, TimeUnit unit) {
+        return unit.convert(_delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,40 @@
+package com.bazaarvoice.ostrich.hedge;
+
+import com.bazaarvoice.ostrich.HedgePolicy;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A hedge policy that sends a hedged request once the first attempt has taken longer than most recent calls in the
+ * pool, for example longer than the 95th percentile of callback execution times.
+ */
+public class PercentileHedgePolicy implements HedgePolicy {
+    private final double _quantile;
+    private final long _minDelayNanos;
+
+    /**
+     * @param quantile The fraction of recent calls, between 0 and 1, that should finish before a hedge is sent.  For
+     *                 example {@code 0.95} hedges calls that are slower than the pool's 95th percentile.
+     * @param minDelay The minimum amount of time to wait before hedging.  This keeps a pool that has seen few calls, or
+     *                 only very fast ones, from hedging every call.
+     * @param unit     The units (milliseconds, seconds, etc.) of {@code minDelay}.
+     */
+    public PercentileHedgePolicy(double quantile, long minDelay, TimeUnit unit) {
+        checkArgument(quantile > 0 && quantile < 1);
+        checkArgument(minDelay >= 0);
+        checkNotNull(unit);
+        _quantile = quantile;
+        _minDelayNanos = unit.toNanos(minDelay);
+    }
+
+    @Override
+    public long getHedgeDelay(ServicePoolStatistics statistics, TimeUnit unit) {
+        long delayNanos = Math.max(_minDelayNanos,
+                statistics.getCallbackExecutionTime(_quantile, TimeUnit.NANOSECONDS));
+        return unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -9,6 +9,7 @@ import com.google.common.collect.Lists;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.RandomAccess;
 
 public class RandomAlgorithm implements LoadBalanceAlgorithm {
     private final Random _rnd = new Random();
@@ -17,6 +18,19 @@ public class RandomAlgorithm implements LoadBalanceAlgorithm {
     public ServiceEndPoint choose(Iterable<ServiceEndPoint> endPoints, ServicePoolStatistics statistics) {
         Preconditions.checkNotNull(endPoints);
 
+        // The service pool passes an immutable random access list, so pick from it directly instead of copying it.
+        if (endPoints instanceof List && endPoints instanceof RandomAccess) {
+            List<ServiceEndPoint> list = (List<ServiceEndPoint>) endPoints;
+            switch (list.size()) {
+                case 0:
+                    return null;
+                case 1:
+                    return list.get(0);
+                default:
+                    return list.get(_rnd.nextInt(list.size()));
+            }
+        }
+
         Iterator<ServiceEndPoint> iter = endPoints.iterator();
         if (!iter.hasNext()) {
             return null;
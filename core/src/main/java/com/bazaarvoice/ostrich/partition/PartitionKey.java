@@ -13,4 +13,12 @@ public @interface PartitionKey {
      * Defines name of the property key, i.e. the key in the {@link com.bazaarvoice.ostrich.PartitionContext}.
      */
     String value() default "";
+
+    /**
+     * Optionally, a dot separated path to a property of the argument to use as the value of the key instead of the
+     * argument itself, for example {@code "tenant.id"}.  Each step of the path is a public no argument method, a getter
+     * following the JavaBeans naming conventions, or a public field.  If any step along the way is {@code null} then
+     * the key is left out of the partition context.
+     */
+    String path() default "";
 }
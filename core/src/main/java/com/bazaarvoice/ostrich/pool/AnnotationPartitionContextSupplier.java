@@ -5,10 +5,13 @@ import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.partition.PartitionKey;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Map;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -21,7 +24,7 @@ import static com.google.common.base.Preconditions.checkState;
  * context from method arguments.
  */
 class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
-    private final Map<Method, String[]> _keyMappings;
+    private final Map<Method, KeyExtractor> _keyExtractors;
 
     /**
      * Introspects the specified service interface and client implementation class, looking for {@link PartitionKey}
@@ -35,7 +38,7 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
     <S> AnnotationPartitionContextSupplier(Class<S> ifc, Class<? extends S> impl) {
         checkArgument(ifc.isAssignableFrom(impl));
 
-        ImmutableMap.Builder<Method, String[]> builder = ImmutableMap.builder();
+        ImmutableMap.Builder<Method, KeyExtractor> builder = ImmutableMap.builder();
         for (Method ifcMethod : ifc.getDeclaredMethods()) {
             Method implMethod;
             try {
@@ -44,41 +47,36 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
                 throw Throwables.propagate(e);  // Should never happen if impl implements ifc.
             }
 
-            String[] keyMappings = collectPartitionKeyAnnotations(implMethod);
-            if (keyMappings == null) {
+            KeyExtractor keyExtractor = compileKeyExtractor(implMethod);
+            if (keyExtractor == null) {
                 continue;  // Not annotated
             }
 
             // Index by the ifcMethod because that's the method provided when a dynamic proxy method is invoked.
-            builder.put(ifcMethod, keyMappings);
+            builder.put(ifcMethod, keyExtractor);
         }
-        _keyMappings = builder.build();
+        _keyExtractors = builder.build();
     }
 
     @Override
     public PartitionContext forCall(Method method, Object... args) {
-        String[] mappings = _keyMappings.get(method);
-        if (mappings == null) {
+        KeyExtractor keyExtractor = _keyExtractors.get(method);
+        if (keyExtractor == null) {
             return PartitionContextBuilder.empty();
         }
-
-        PartitionContextBuilder builder = new PartitionContextBuilder();
-        for (int i = 0; i < mappings.length; i++) {
-            if (mappings[i] != null && args[i] != null) {
-                builder.put(mappings[i], args[i]);
-            }
-        }
-        return builder.build();
+        return keyExtractor.extract(args);
     }
 
     /**
-     * Returns an array indexed by argument index with the value of the @PartitionKey annotation for each argument,
-     * or null if no arguments are annotated with @PartitionKey.
+     * Returns an extractor for the arguments annotated with @PartitionKey, or null if no arguments are annotated with
+     * @PartitionKey.
      */
-    private String[] collectPartitionKeyAnnotations(Method method) {
+    private KeyExtractor compileKeyExtractor(Method method) {
         Annotation[][] annotations = method.getParameterAnnotations();
-        String[] keyMappings = new String[annotations.length];
-        boolean keyMappingFound = false;
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        List<String> keys = Lists.newArrayList();
+        List<Integer> argIndexes = Lists.newArrayList();
+        List<PropertyPath> paths = Lists.newArrayList();
         Map<String, Integer> unique = Maps.newHashMap();
         for (int i = 0; i < annotations.length; i++) {
             PartitionKey annotation = findPartitionKeyAnnotation(annotations[i]);
@@ -89,10 +87,71 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
             Integer prev = unique.put(key, i);
             checkState(prev == null, "Method '%s' has multiple arguments annotated with the same @PartitionKey " +
                     "value '%s': arguments %s and %s", method, key, prev, i);
-            keyMappings[i] = key;
-            keyMappingFound = true;
+
+            PropertyPath path = null;
+            if (!annotation.path().isEmpty()) {
+                try {
+                    path = PropertyPath.compile(parameterTypes[i], annotation.path());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException(String.format("Method '%s' has an invalid @PartitionKey path " +
+                            "for argument %s: %s", method, i, e.getMessage()), e);
+                }
+            }
+
+            keys.add(key);
+            argIndexes.add(i);
+            paths.add(path);
+        }
+        return !keys.isEmpty() ? new KeyExtractor(keys, argIndexes, paths) : null;
+    }
+
+    /**
+     * Pulls the partition keys of a single method out of its arguments.  Everything about the method is worked out
+     * ahead of time, so a call only reads its arguments, and the properties of them that keys have paths to.
+     */
+    private static final class KeyExtractor {
+        private final String[] _keys;
+        private final int[] _argIndexes;
+        private final PropertyPath[] _paths;
+
+        KeyExtractor(List<String> keys, List<Integer> argIndexes, List<PropertyPath> paths) {
+            _keys = keys.toArray(new String[keys.size()]);
+            _argIndexes = Ints.toArray(argIndexes);
+            _paths = paths.toArray(new PropertyPath[paths.size()]);
+        }
+
+        PartitionContext extract(Object[] args) {
+            Object[] values = new Object[_keys.length];
+            int numValues = 0;
+            for (int i = 0; i < _keys.length; i++) {
+                Object value = args[_argIndexes[i]];
+                if (value != null && _paths[i] != null) {
+                    value = _paths[i].get(value);
+                }
+                if (value != null) {
+                    values[i] = value;
+                    numValues++;
+                }
+            }
+
+            if (numValues == _keys.length) {
+                return new ArrayPartitionContext(_keys, values);
+            }
+            if (numValues == 0) {
+                return PartitionContextBuilder.empty();
+            }
+
+            // Leave out the keys without values.
+            String[] keys = new String[numValues];
+            Object[] nonNullValues = new Object[numValues];
+            for (int i = 0, j = 0; i < _keys.length; i++) {
+                if (values[i] != null) {
+                    keys[j] = _keys[i];
+                    nonNullValues[j++] = values[i];
+                }
+            }
+            return new ArrayPartitionContext(keys, nonNullValues);
         }
-        return keyMappingFound ? keyMappings : null;
     }
 
     private static PartitionKey findPartitionKeyAnnotation(Annotation[] annotations) {
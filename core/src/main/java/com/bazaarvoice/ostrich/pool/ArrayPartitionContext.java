@@ -0,0 +1,86 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A partition context backed by parallel arrays of keys and values, for contexts that are built on every call.
+ * Partition filters usually only look up a key or two, so the context doesn't build a map unless {@link #asMap()} is
+ * called.
+ */
+final class ArrayPartitionContext implements PartitionContext {
+    private final String[] _keys;
+    private final Object[] _values;
+    private volatile Map<String, Object> _map;
+
+    /**
+     * The arrays are used as is rather than copied, so they must not be changed afterwards.  Keys must be unique and
+     * neither keys nor values may be {@code null}.
+     */
+    ArrayPartitionContext(String[] keys, Object[] values) {
+        checkArgument(keys.length == values.length);
+        _keys = keys;
+        _values = values;
+    }
+
+    @Override
+    public Object get() {
+        return get("");
+    }
+
+    @Override
+    public Object get(String key) {
+        for (int i = 0; i < _keys.length; i++) {
+            if (_keys[i].equals(key)) {
+                return _values[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> asMap() {
+        Map<String, Object> map = _map;
+        if (map == null) {
+            ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+            for (int i = 0; i < _keys.length; i++) {
+                builder.put(_keys[i], _values[i]);
+            }
+            map = _map = builder.build();
+        }
+        return map;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ArrayPartitionContext)) {
+            return false;
+        }
+        ArrayPartitionContext that = (ArrayPartitionContext) o;
+        return Arrays.equals(_keys, that._keys) && Arrays.equals(_values, that._values)
+                || asMap().equals(that.asMap());
+    }
+
+    @Override
+    public int hashCode() {
+        // The same as the hash code of the map, without having to build it.
+        int hashCode = 0;
+        for (int i = 0; i < _keys.length; i++) {
+            hashCode += _keys[i].hashCode() ^ _values[i].hashCode();
+        }
+        return 95261 + hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+}
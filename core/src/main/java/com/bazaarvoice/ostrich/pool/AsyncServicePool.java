@@ -1,15 +1,29 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.HedgePolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
@@ -17,11 +31,16 @@ import com.yammer.metrics.core.TimerContext;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S> {
@@ -32,24 +51,52 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         }
     };
 
+    // The timer only hands retries off to a pool's executor and gives up on slow calls, so a single shared thread is
+    // plenty.
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newScheduledThreadPool(1,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("AsyncServicePool-RetryTimerThread-%d")
+                    .setDaemon(true)
+                    .build());
+
     private final Ticker _ticker;
     private final ServicePool<S> _pool;
     private final boolean _shutdownPoolOnClose;
     private final ExecutorService _executor;
+    private final ListeningExecutorService _listeningExecutor;
     private final boolean _shutdownExecutorOnClose;
+    private final ScheduledExecutorService _retryTimer;
     private final Metrics _metrics;
     private final Timer _executionTime;
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteFailures;
     private final Histogram _executeBatchSize;
+    private final ConcurrencyLimiter _concurrencyLimiter;
 
     AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
                             ExecutorService executor, boolean shutdownExecutorOnClose) {
+        this(ticker, pool, shutdownPoolOnClose, executor, shutdownExecutorOnClose,
+                ConcurrencyLimitPolicyBuilder.NO_CONCURRENCY_LIMIT);
+    }
+
+    AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ConcurrencyLimitPolicy concurrencyLimitPolicy) {
+        this(ticker, pool, shutdownPoolOnClose, executor, shutdownExecutorOnClose, concurrencyLimitPolicy,
+                RETRY_TIMER);
+    }
+
+    @VisibleForTesting
+    AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ConcurrencyLimitPolicy concurrencyLimitPolicy, ScheduledExecutorService retryTimer) {
         _ticker = checkNotNull(ticker);
         _pool = checkNotNull(pool);
         _shutdownPoolOnClose = shutdownPoolOnClose;
         _executor = checkNotNull(executor);
+        _listeningExecutor = MoreExecutors.listeningDecorator(executor);
         _shutdownExecutorOnClose = shutdownExecutorOnClose;
+        _retryTimer = checkNotNull(retryTimer);
 
         String serviceName = _pool.getServiceName();
         _metrics = Metrics.forInstance(this, serviceName);
@@ -57,6 +104,10 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         _numExecuteSuccesses = _metrics.newMeter(serviceName, "num-execute-successes", "successes", TimeUnit.SECONDS);
         _numExecuteFailures = _metrics.newMeter(serviceName, "num-execute-failures", "failures", TimeUnit.SECONDS);
         _executeBatchSize = _metrics.newHistogram(serviceName, "execute-batch-size", false);
+        _concurrencyLimiter = new ConcurrencyLimiter(concurrencyLimitPolicy, ticker,
+                _metrics.newTimer(serviceName, "queue-wait-time", TimeUnit.MILLISECONDS, TimeUnit.SECONDS),
+                _metrics.newMeter(serviceName, "num-rejected-executions", "rejections", TimeUnit.SECONDS),
+                _metrics.newMeter(serviceName, "num-shed-executions", "sheds", TimeUnit.SECONDS));
     }
 
     @Override
@@ -73,8 +124,26 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     }
 
     @Override
-    public <R> Future<R> execute(final RetryPolicy retryPolicy, final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+    public <R> Future<R> execute(RetryPolicy retryPolicy, ServiceCallback<S, R> callback) {
+        return executeListenable(retryPolicy, callback);
+    }
+
+    @Override
+    public <R> Future<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                 ServiceCallback<S, R> callback) {
+        return executeListenable(partitionContext, retryPolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeListenable(final RetryPolicy retryPolicy,
+                                                     final ServiceCallback<S, R> callback) {
+        if (retryPolicy instanceof ScheduledRetryPolicy) {
+            return executeWithScheduledRetries(PartitionContextBuilder.empty(), null,
+                    (ScheduledRetryPolicy) retryPolicy, callback);
+        }
+
+        // The retry policy waits out its own delays, so it has to be given a thread to wait on.
+        return submit(new Callable<R>() {
             @Override
             public R call() throws Exception {
                 return _pool.execute(retryPolicy, callback);
@@ -83,9 +152,14 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     }
 
     @Override
-    public <R> Future<R> execute(final PartitionContext partitionContext, final RetryPolicy retryPolicy,
-                                 final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+    public <R> ListenableFuture<R> executeListenable(final PartitionContext partitionContext,
+                                                     final RetryPolicy retryPolicy,
+                                                     final ServiceCallback<S, R> callback) {
+        if (retryPolicy instanceof ScheduledRetryPolicy) {
+            return executeWithScheduledRetries(partitionContext, null, (ScheduledRetryPolicy) retryPolicy, callback);
+        }
+
+        return submit(new Callable<R>() {
             @Override
             public R call() throws Exception {
                 return _pool.execute(partitionContext, retryPolicy, callback);
@@ -93,27 +167,294 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         });
     }
 
+    @Override
+    public <R> ListenableFuture<R> execute(Deadline deadline, RetryPolicy retryPolicy,
+                                           ServiceCallback<S, R> callback) {
+        return execute(PartitionContextBuilder.empty(), deadline, retryPolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> execute(final PartitionContext partitionContext, final Deadline deadline,
+                                           final RetryPolicy retryPolicy, final ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        if (retryPolicy instanceof ScheduledRetryPolicy) {
+            return executeWithScheduledRetries(partitionContext, deadline, (ScheduledRetryPolicy) retryPolicy,
+                    callback);
+        }
+
+        return submit(new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                return _pool.execute(partitionContext, deadline, retryPolicy, callback);
+            }
+        });
+    }
+
+    /**
+     * Submits a call that blocks a thread of the executor for as long as it runs.
+     */
+    private <R> ListenableFuture<R> submit(Callable<R> call) {
+        return _concurrencyLimiter.submit(_listeningExecutor, call);
+    }
+
+    /**
+     * Starts a call once the concurrency limit has room for it.
+     */
+    private <R> ListenableFuture<R> admit(Callable<ListenableFuture<R>> call) {
+        return _concurrencyLimiter.submit(call);
+    }
+
+    /**
+     * Executes a callback with each attempt submitted to the executor and each retry scheduled on the retry timer, so
+     * that no thread is tied up while the call waits to be retried.
+     */
+    private <R> ListenableFuture<R> executeWithScheduledRetries(final PartitionContext partitionContext,
+                                                                final Deadline deadline,
+                                                                final ScheduledRetryPolicy retry,
+                                                                final ServiceCallback<S, R> callback) {
+        if (deadline != null && deadline.isExpired()) {
+            return Futures.immediateFailedFuture(new DeadlineExceededException());
+        }
+
+        return admit(new Callable<ListenableFuture<R>>() {
+            @Override
+            public ListenableFuture<R> call() throws Exception {
+                _pool.recordCall();
+                return new ScheduledRetryExecution<R>(_ticker, _executor, _retryTimer) {
+                    private boolean _choseEndPoint;
+
+                    @Override
+                    protected ListenableFuture<R> attempt() throws Exception {
+                        _choseEndPoint = false;
+                        ServiceEndPoint endPoint = _pool.chooseAllowedEndPoint(partitionContext, null);
+                        _choseEndPoint = true;
+                        return Futures.immediateFuture(_pool.executeAttempt(endPoint, deadline, callback));
+                    }
+
+                    @Override
+                    protected boolean isRetriableException(Exception e) {
+                        // Like a synchronous call, give up right away if there's no end point to try.
+                        return _choseEndPoint && _pool.isRetriableException(e);
+                    }
+
+                    @Override
+                    protected long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+                        return AsyncServicePool.this.getRetryDelay(retry, numAttempts, elapsedTimeMs, deadline,
+                                unit);
+                    }
+                }.start();
+            }
+        });
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeAsync(RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback) {
+        return executeAsyncCallback(PartitionContextBuilder.empty(), null, retryPolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeAsync(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                                AsyncServiceCallback<S, R> callback) {
+        return executeAsyncCallback(partitionContext, null, retryPolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeAsync(PartitionContext partitionContext, Deadline deadline,
+                                                RetryPolicy retryPolicy, AsyncServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        return executeAsyncCallback(partitionContext, deadline, retryPolicy, callback);
+    }
+
+    /**
+     * Executes an asynchronous callback.  Attempts are started on the executor, but nothing waits on a thread while a
+     * call is in flight, and each attempt's outcome is acted on once its future completes.
+     */
+    private <R> ListenableFuture<R> executeAsyncCallback(final PartitionContext partitionContext,
+                                                         final Deadline deadline, final RetryPolicy retry,
+                                                         final AsyncServiceCallback<S, R> callback) {
+        checkNotNull(partitionContext);
+        checkNotNull(retry);
+        checkNotNull(callback);
+        if (deadline != null && deadline.isExpired()) {
+            return Futures.immediateFailedFuture(new DeadlineExceededException());
+        }
+
+        return admit(new Callable<ListenableFuture<R>>() {
+            @Override
+            public ListenableFuture<R> call() throws Exception {
+                _pool.recordCall();
+                return new ScheduledRetryExecution<R>(_ticker, _executor, _retryTimer) {
+                    private boolean _choseEndPoint;
+
+                    @Override
+                    protected ListenableFuture<R> attempt() throws Exception {
+                        _choseEndPoint = false;
+                        ServiceEndPoint endPoint = _pool.chooseAllowedEndPoint(partitionContext, null);
+                        _choseEndPoint = true;
+                        return _pool.executeAttempt(endPoint, deadline, callback);
+                    }
+
+                    @Override
+                    protected boolean isRetriableException(Exception e) {
+                        return _choseEndPoint && _pool.isRetriableException(e);
+                    }
+
+                    @Override
+                    protected long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+                        return AsyncServicePool.this.getRetryDelay(retry, numAttempts, elapsedTimeMs, deadline,
+                                unit);
+                    }
+                }.start();
+            }
+        });
+    }
+
+    private long getRetryDelay(RetryPolicy retry, int numAttempts, long elapsedTimeMs, Deadline deadline,
+                               TimeUnit unit) {
+        if (retry instanceof ScheduledRetryPolicy) {
+            long delayNanos = _pool.getRetryDelay((ScheduledRetryPolicy) retry, numAttempts, elapsedTimeMs, deadline);
+            return (delayNanos < 0) ? -1 : unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        // A policy that waits out its own delay does so here, which is on the executor rather than on whichever thread
+        // finished the failed attempt.
+        return _pool.allowRetry(retry, numAttempts, elapsedTimeMs, deadline) ? 0 : -1;
+    }
+
+    @Override
+    public <R> ListenableFuture<R> execute(RetryPolicy retryPolicy, HedgePolicy hedgePolicy,
+                                           ServiceCallback<S, R> callback) {
+        return execute(PartitionContextBuilder.empty(), retryPolicy, hedgePolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                           HedgePolicy hedgePolicy, ServiceCallback<S, R> callback) {
+        return executeHedged(partitionContext, null, retryPolicy, hedgePolicy, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<R> execute(PartitionContext partitionContext, Deadline deadline,
+                                           RetryPolicy retryPolicy, HedgePolicy hedgePolicy,
+                                           ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        return executeHedged(partitionContext, deadline, retryPolicy, hedgePolicy, callback);
+    }
+
+    private <R> ListenableFuture<R> executeHedged(final PartitionContext partitionContext, final Deadline deadline,
+                                                  final RetryPolicy retry, final HedgePolicy hedge,
+                                                  final ServiceCallback<S, R> callback) {
+        return admit(new Callable<ListenableFuture<R>>() {
+            @Override
+            public ListenableFuture<R> call() throws Exception {
+                return _pool.executeHedged(_executor, partitionContext, deadline, retry, hedge, callback);
+            }
+        });
+    }
+
+    @Override
+    public <K, R> ListenableFuture<Map<K, R>> executeBatch(final RetryPolicy retry, final Collection<K> items,
+                                                           final Function<K, PartitionContext> partitioner,
+                                                           final BatchServiceCallback<S, K, R> callback) {
+        return admit(new Callable<ListenableFuture<Map<K, R>>>() {
+            @Override
+            public ListenableFuture<Map<K, R>> call() throws Exception {
+                return _pool.executeBatch(_executor, retry, items, partitioner, callback);
+            }
+        });
+    }
+
     @Override
     public <R> Collection<Future<R>> executeOnAll(RetryPolicy retry, ServiceCallback<S, R> callback) {
         return executeOn(ALL_END_POINTS, retry, callback);
     }
 
     @Override
-    public <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, final RetryPolicy retry,
-                                               final ServiceCallback<S, R> callback) {
-        Collection<Future<R>> futures = Lists.newArrayList();
+    public <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, RetryPolicy retry,
+                                               ServiceCallback<S, R> callback) {
+        return Lists.<Future<R>>newArrayList(executeOnEndPoints(predicate, retry, callback));
+    }
+
+    @Override
+    public <R> ListenableFuture<List<R>> executeOnAllCombined(RetryPolicy retry, ServiceCallback<S, R> callback) {
+        return executeOnCombined(ALL_END_POINTS, retry, callback);
+    }
+
+    @Override
+    public <R> ListenableFuture<List<R>> executeOnCombined(ServiceEndPointPredicate predicate, RetryPolicy retry,
+                                                          ServiceCallback<S, R> callback) {
+        final List<ListenableFuture<R>> futures = executeOnEndPoints(predicate, retry, callback);
+        final ListenableFuture<List<R>> combined = Futures.allAsList(futures);
+
+        // Giving up on the combined call gives up on each of the calls that make it up.
+        combined.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (combined.isCancelled()) {
+                    for (Future<R> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return combined;
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeOnFirst(ServiceEndPointPredicate predicate, RetryPolicy retry,
+                                                  ServiceCallback<S, R> callback) {
+        return Futures.transform(executeOnQuorum(predicate, 1, retry, callback), new Function<List<R>, R>() {
+            @Override
+            public R apply(List<R> results) {
+                return results.get(0);
+            }
+        });
+    }
+
+    @Override
+    public <R> ListenableFuture<List<R>> executeOnQuorum(ServiceEndPointPredicate predicate, int numResults,
+                                                        RetryPolicy retry, ServiceCallback<S, R> callback) {
+        checkArgument(numResults > 0);
+        return QuorumExecution.ofSuccesses(executeOnEndPoints(predicate, retry, callback), numResults).start();
+    }
+
+    @Override
+    public <R> ListenableFuture<List<R>> executeOnWithTimeout(ServiceEndPointPredicate predicate, long timeout,
+                                                             TimeUnit unit, RetryPolicy retry,
+                                                             ServiceCallback<S, R> callback) {
+        checkArgument(timeout >= 0);
+        checkNotNull(unit);
+        return QuorumExecution.ofAllSuccesses(executeOnEndPoints(predicate, retry, callback))
+                .start(timeout, unit, _retryTimer);
+    }
+
+    private <R> List<ListenableFuture<R>> executeOnEndPoints(ServiceEndPointPredicate predicate,
+                                                             final RetryPolicy retry,
+                                                             final ServiceCallback<S, R> callback) {
+        List<ListenableFuture<R>> futures = Lists.newArrayList();
 
         for (final ServiceEndPoint endPoint : _pool.getAllEndPoints()) {
             if (!predicate.apply(endPoint)) {
                 continue;
             }
 
-            Future<R> future = _executor.submit(new Callable<R>() {
+            if (retry instanceof ScheduledRetryPolicy) {
+                futures.add(admit(new Callable<ListenableFuture<R>>() {
+                    @Override
+                    public ListenableFuture<R> call() throws Exception {
+                        return executeOnWithScheduledRetries(endPoint, (ScheduledRetryPolicy) retry, callback);
+                    }
+                }));
+                continue;
+            }
+
+            ListenableFuture<R> future = submit(new Callable<R>() {
                 @Override
                 public R call() throws Exception {
                     TimerContext timer = _executionTime.time();
                     Stopwatch sw = new Stopwatch(_ticker).start();
                     int numAttempts = 0;
+                    _pool.recordCall();
 
                     try {
                         do {
@@ -124,12 +465,12 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
                             } catch (Exception e) {
                                 _numExecuteFailures.mark();
 
-                                // Don't retry if exception is too severe.
-                                if (!_pool.isRetriableException(e)) {
+                                // Don't retry if exception is too severe, or if the call was cancelled.
+                                if (!_pool.isRetriableException(e) || Thread.currentThread().isInterrupted()) {
                                     throw e;
                                 }
                             }
-                        } while (retry.allowRetry(++numAttempts, sw.elapsedMillis()));
+                        } while (_pool.allowRetry(retry, ++numAttempts, sw.elapsedMillis(), null));
 
                         throw new MaxRetriesException();
                     } finally {
@@ -145,6 +486,45 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
         return futures;
     }
 
+    private <R> ListenableFuture<R> executeOnWithScheduledRetries(final ServiceEndPoint endPoint,
+                                                                  final ScheduledRetryPolicy retry,
+                                                                  final ServiceCallback<S, R> callback) {
+        final TimerContext timer = _executionTime.time();
+        _pool.recordCall();
+        ListenableFuture<R> future = new ScheduledRetryExecution<R>(_ticker, _executor, _retryTimer) {
+            @Override
+            protected ListenableFuture<R> attempt() throws Exception {
+                try {
+                    R result = _pool.executeOnEndPoint(endPoint, callback);
+                    _numExecuteSuccesses.mark();
+                    return Futures.immediateFuture(result);
+                } catch (Exception e) {
+                    _numExecuteFailures.mark();
+                    throw e;
+                }
+            }
+
+            @Override
+            protected boolean isRetriableException(Exception e) {
+                return _pool.isRetriableException(e);
+            }
+
+            @Override
+            protected long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+                long delayNanos = _pool.getRetryDelay(retry, numAttempts, elapsedTimeMs, null);
+                return (delayNanos < 0) ? -1 : unit.convert(delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }.start();
+
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                timer.stop();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
     @Override
     public int getNumValidEndPoints() {
         return _pool.getNumValidEndPoints();
@@ -0,0 +1,133 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Combines concurrent single item calls into bulk calls.  The first caller of a batch waits for up to the maximum delay
+ * for other callers to add their items, or until the batch is full, and then makes the bulk call for all of them.
+ * Every caller then gets the result for its own item.  Callers with equal items share a single slot in the batch.
+ * <p/>
+ * No threads are needed besides the callers', since the caller that starts a batch would be waiting for its result
+ * anyway.
+ */
+class CallBatcher {
+    /**
+     * Makes the bulk call for a batch of items.
+     */
+    interface BulkCall {
+        /**
+         * @return The result for each item, items that are missing get a {@code null} result.
+         */
+        Map<?, ?> call(List<Object> items) throws Exception;
+    }
+
+    private final int _maxSize;
+    private final long _maxDelayNanos;
+    private final BulkCall _bulkCall;
+
+    // Guarded by this.
+    private Batch _pending;
+
+    CallBatcher(int maxSize, long maxDelayNanos, BulkCall bulkCall) {
+        checkArgument(maxSize > 0, "Batch size must be positive.");
+        checkArgument(maxDelayNanos >= 0, "Batch delay must not be negative.");
+
+        _maxSize = maxSize;
+        _maxDelayNanos = maxDelayNanos;
+        _bulkCall = checkNotNull(bulkCall);
+    }
+
+    /**
+     * Adds the item to a batch and waits for the batch's result for it.
+     *
+     * @throws Throwable Whatever the bulk call threw.
+     */
+    Object execute(Object item) throws Throwable {
+        Batch batch;
+        SettableFuture<Object> future;
+        boolean first = false;
+        synchronized (this) {
+            if (_pending == null) {
+                _pending = new Batch();
+                first = true;
+            }
+            batch = _pending;
+            future = batch.add(item);
+            if (batch.size() >= _maxSize) {
+                _pending = null;
+                batch._full.countDown();
+            }
+        }
+
+        if (first) {
+            Uninterruptibles.awaitUninterruptibly(batch._full, _maxDelayNanos, TimeUnit.NANOSECONDS);
+            synchronized (this) {
+                if (_pending == batch) {
+                    _pending = null;
+                }
+            }
+            batch.execute();
+        }
+
+        return await(future);
+    }
+
+    private Object await(SettableFuture<Object> future) throws Throwable {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private final class Batch {
+        // Guarded by the batcher until the batch is no longer pending, and only read by its first caller after that.
+        private final Map<Object, SettableFuture<Object>> _items = Maps.newLinkedHashMap();
+        private final CountDownLatch _full = new CountDownLatch(1);
+
+        SettableFuture<Object> add(Object item) {
+            SettableFuture<Object> future = _items.get(item);
+            if (future == null) {
+                future = SettableFuture.create();
+                _items.put(item, future);
+            }
+            return future;
+        }
+
+        int size() {
+            return _items.size();
+        }
+
+        void execute() {
+            Map<?, ?> results;
+            try {
+                results = checkNotNull(_bulkCall.call(Lists.newArrayList(_items.keySet())));
+            } catch (Throwable t) {
+                for (SettableFuture<Object> future : _items.values()) {
+                    future.setException(t);
+                }
+                return;
+            }
+
+            for (Map.Entry<Object, SettableFuture<Object>> entry : _items.entrySet()) {
+                entry.getValue().set(results.get(entry.getKey()));
+            }
+        }
+    }
+}
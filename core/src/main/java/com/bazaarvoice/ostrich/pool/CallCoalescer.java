@@ -0,0 +1,75 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lets identical concurrent calls share a single call.  The first caller for a key makes the call, and callers that
+ * arrive with the same key while it's in flight wait for its outcome instead of making their own.  Once the call
+ * finishes the next caller for the key makes a new call, so results are never reused after the fact.
+ */
+class CallCoalescer {
+    private final ConcurrentMap<Object, SettableFuture<Object>> _inFlight = Maps.newConcurrentMap();
+    private final AtomicInteger _numWaiting = new AtomicInteger();
+
+    /**
+     * Makes the call, or waits for the outcome of an identical call that's already in flight.  Callers that share a
+     * call all get the same result, or have the same exception thrown.
+     */
+    Object execute(Object key, Callable<?> call) throws Throwable {
+        SettableFuture<Object> future = SettableFuture.create();
+        SettableFuture<Object> inFlight = _inFlight.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+
+        // Stop sharing the call before publishing its outcome, so that no caller can find the finished call.
+        Object result;
+        try {
+            result = call.call();
+        } catch (Throwable t) {
+            _inFlight.remove(key, future);
+            future.setException(t);
+            throw t;
+        }
+        _inFlight.remove(key, future);
+        future.set(result);
+        return result;
+    }
+
+    private Object await(SettableFuture<Object> inFlight) throws Throwable {
+        _numWaiting.incrementAndGet();
+        try {
+            return inFlight.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            _numWaiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of distinct calls in flight.
+     */
+    int getNumInFlight() {
+        return _inFlight.size();
+    }
+
+    /**
+     * Returns the number of callers waiting for a call in flight rather than making their own.
+     */
+    @VisibleForTesting
+    int getNumWaiting() {
+        return _numWaiting.get();
+    }
+}
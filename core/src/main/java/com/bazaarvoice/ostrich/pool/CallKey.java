@@ -0,0 +1,52 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Identifies a call made through a service pool proxy by its method and arguments.  Arguments are compared deeply, so
+ * calls with equal array arguments have equal keys.
+ */
+final class CallKey {
+    private final Method _method;
+    private final Object[] _args;
+    private final int _hashCode;
+
+    CallKey(Method method, Object[] args) {
+        _method = checkNotNull(method);
+        _args = checkNotNull(args);
+        _hashCode = 31 * method.hashCode() + Arrays.deepHashCode(args);
+    }
+
+    Method getMethod() {
+        return _method;
+    }
+
+    Object[] getArgs() {
+        return _args;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CallKey)) {
+            return false;
+        }
+        CallKey that = (CallKey) o;
+        return _hashCode == that._hashCode && _method.equals(that._method) && Arrays.deepEquals(_args, that._args);
+    }
+
+    @Override
+    public int hashCode() {
+        return _hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return _method.getName() + Arrays.deepToString(_args);
+    }
+}
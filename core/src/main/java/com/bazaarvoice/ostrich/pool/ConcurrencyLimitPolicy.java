@@ -0,0 +1,37 @@
+package com.bazaarvoice.ostrich.pool;
+
+/**
+ * A policy for limiting how many calls an asynchronous pool has in flight at once.  Calls beyond the limit wait in a
+ * bounded queue until a call in flight finishes, and once the queue is full the policy's {@link SaturationAction}
+ * decides what happens to the next call.  This keeps a burst of calls from piling up unbounded work, and threads, in
+ * the pool's executor.
+ */
+public interface ConcurrencyLimitPolicy {
+    /**
+     * Returns the most calls that may be in flight at once, including any retries they're waiting on.
+     * <p/>
+     * NOTE: A negative value means there's no limit.
+     */
+    int getMaxConcurrency();
+
+    /**
+     * Returns the most calls that may wait for one of the calls in flight to finish.  Zero means calls never wait.
+     */
+    int getMaxQueueSize();
+
+    /**
+     * Returns what to do with a call when the maximum number of calls are in flight and the queue is full.
+     */
+    SaturationAction getSaturationAction();
+
+    enum SaturationAction {
+        /** Reject the new call, by throwing a {@link java.util.concurrent.RejectedExecutionException}. */
+        FAIL,
+
+        /** Block the caller until there's room in the queue for the new call. */
+        WAIT,
+
+        /** Fail the call that's been waiting in the queue the longest to make room for the new call. */
+        SHED_OLDEST
+    }
+}
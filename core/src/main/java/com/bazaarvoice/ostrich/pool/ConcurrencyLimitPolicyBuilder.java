@@ -0,0 +1,83 @@
+package com.bazaarvoice.ostrich.pool;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class ConcurrencyLimitPolicyBuilder {
+    public static final ConcurrencyLimitPolicy NO_CONCURRENCY_LIMIT =
+            newPolicy(-1, 0, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+
+    private int _maxConcurrency = 100;
+    private int _maxQueueSize = 1000;
+    private ConcurrencyLimitPolicy.SaturationAction _saturationAction = ConcurrencyLimitPolicy.SaturationAction.FAIL;
+
+    /**
+     * Set the most calls that the built policy allows in flight at once.  If never called, 100 calls are allowed.
+     *
+     * @param maxConcurrency The number of calls, 1 or more.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withMaxConcurrency(int maxConcurrency) {
+        checkState(maxConcurrency > 0);
+
+        _maxConcurrency = maxConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the most calls that the built policy allows to wait for a call in flight to finish.  If never called, 1000
+     * calls may wait.
+     *
+     * @param maxQueueSize The number of calls, 0 or more.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withMaxQueueSize(int maxQueueSize) {
+        checkState(maxQueueSize >= 0);
+
+        _maxQueueSize = maxQueueSize;
+        return this;
+    }
+
+    /**
+     * Set what the built policy does with a call when the queue is full.  If never called, the call is rejected.
+     *
+     * @param action The action to take.
+     * @return this
+     */
+    public ConcurrencyLimitPolicyBuilder withSaturationAction(ConcurrencyLimitPolicy.SaturationAction action) {
+        _saturationAction = checkNotNull(action);
+        return this;
+    }
+
+    /**
+     * Build the {@code ConcurrencyLimitPolicy} specified by this builder.
+     *
+     * @return The {@code ConcurrencyLimitPolicy} that was constructed.
+     */
+    public ConcurrencyLimitPolicy build() {
+        checkState(_saturationAction != ConcurrencyLimitPolicy.SaturationAction.SHED_OLDEST || _maxQueueSize > 0,
+                "Shedding the oldest call needs a queue to shed it from.");
+
+        return newPolicy(_maxConcurrency, _maxQueueSize, _saturationAction);
+    }
+
+    private static ConcurrencyLimitPolicy newPolicy(final int maxConcurrency, final int maxQueueSize,
+                                                    final ConcurrencyLimitPolicy.SaturationAction saturationAction) {
+        return new ConcurrencyLimitPolicy() {
+            @Override
+            public int getMaxConcurrency() {
+                return maxConcurrency;
+            }
+
+            @Override
+            public int getMaxQueueSize() {
+                return maxQueueSize;
+            }
+
+            @Override
+            public SaturationAction getSaturationAction() {
+                return saturationAction;
+            }
+        };
+    }
+}
@@ -0,0 +1,320 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Limits how many calls of an {@link AsyncServicePool} are in flight at once, as specified by a
+ * {@link ConcurrencyLimitPolicy}.  A call holds its slot from when it's started until its future completes, so a call
+ * waiting on a retry or on a non-blocking client still counts against the limit even though it isn't using a thread.
+ * A task submitted to an executor instead holds its slot until its body ends, so cancelling a running task doesn't free
+ * the slot while the task is still using a thread.
+ * <p/>
+ * Calls are limited rather than the tasks of the executor, because a call's later attempts and retries must never be
+ * turned away or block once the call has been accepted.
+ */
+class ConcurrencyLimiter {
+    private final boolean _enabled;
+    private final int _maxConcurrency;
+    private final int _maxQueueSize;
+    private final ConcurrencyLimitPolicy.SaturationAction _saturationAction;
+    private final Ticker _ticker;
+    private final Timer _queueWaitTime;
+    private final Meter _numRejectedExecutions;
+    private final Meter _numShedExecutions;
+
+    // Guarded by this.
+    private final Deque<QueuedCall<?>> _queue = new ArrayDeque<QueuedCall<?>>();
+    private int _numRunning;
+
+    ConcurrencyLimiter(ConcurrencyLimitPolicy policy, Ticker ticker, Timer queueWaitTime,
+                       Meter numRejectedExecutions, Meter numShedExecutions) {
+        checkNotNull(policy);
+        _enabled = policy.getMaxConcurrency() >= 0;
+        _maxConcurrency = policy.getMaxConcurrency();
+        _maxQueueSize = policy.getMaxQueueSize();
+        _saturationAction = checkNotNull(policy.getSaturationAction());
+        _ticker = checkNotNull(ticker);
+        _queueWaitTime = checkNotNull(queueWaitTime);
+        _numRejectedExecutions = checkNotNull(numRejectedExecutions);
+        _numShedExecutions = checkNotNull(numShedExecutions);
+    }
+
+    boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Starts a call if there's room for it, otherwise queues it to be started once there is.
+     *
+     * @param call Starts the call and returns a future for its result.
+     * @return A future for the result of the call.
+     * @throws RejectedExecutionException If the queue is full and the policy rejects new calls, or if the caller is
+     *                                    interrupted while waiting for room in the queue.
+     */
+    <R> ListenableFuture<R> submit(Callable<ListenableFuture<R>> call) {
+        return submit(call, false);
+    }
+
+    /**
+     * Submits a task to an executor if there's room for it, otherwise queues it to be submitted once there is.
+     *
+     * @param executor The executor to run the task on.
+     * @param task     The task to run.
+     * @return A future for the result of the task.
+     * @throws RejectedExecutionException If the queue is full and the policy rejects new calls, if the caller is
+     *                                    interrupted while waiting for room in the queue, or if the executor rejects
+     *                                    the task.
+     */
+    <R> ListenableFuture<R> submit(final ListeningExecutorService executor, final Callable<R> task) {
+        checkNotNull(executor);
+        checkNotNull(task);
+        if (!_enabled) {
+            return executor.submit(task);
+        }
+
+        return submit(new Callable<ListenableFuture<R>>() {
+            @Override
+            public ListenableFuture<R> call() throws Exception {
+                // Whichever of the task and the listener gets here first is responsible for giving up the slot.
+                final AtomicBoolean claimed = new AtomicBoolean();
+                ListenableFuture<R> future = executor.submit(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        if (!claimed.compareAndSet(false, true)) {
+                            throw new CancellationException();
+                        }
+                        try {
+                            return task.call();
+                        } finally {
+                            release();
+                        }
+                    }
+                });
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only a task that was cancelled before it started hasn't given up its slot already.
+                        if (claimed.compareAndSet(false, true)) {
+                            release();
+                        }
+                    }
+                }, MoreExecutors.sameThreadExecutor());
+                return future;
+            }
+        }, true);
+    }
+
+    /**
+     * @param releasesItself Whether the call gives up its slot itself rather than when its future completes.
+     */
+    private <R> ListenableFuture<R> submit(Callable<ListenableFuture<R>> call, boolean releasesItself) {
+        checkNotNull(call);
+        if (!_enabled) {
+            return start(call);
+        }
+
+        QueuedCall<R> queued = null;
+        QueuedCall<?> shed = null;
+        synchronized (this) {
+            while (queued == null) {
+                if (_numRunning < _maxConcurrency && _queue.isEmpty()) {
+                    _numRunning++;
+                    break;
+                }
+
+                if (_queue.size() < _maxQueueSize) {
+                    queued = new QueuedCall<R>(call, releasesItself, _ticker.read());
+                    _queue.addLast(queued);
+                } else if (_saturationAction == ConcurrencyLimitPolicy.SaturationAction.WAIT) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        _numRejectedExecutions.mark();
+                        throw new RejectedExecutionException("Interrupted while waiting to start a call.", e);
+                    }
+                } else if (_saturationAction == ConcurrencyLimitPolicy.SaturationAction.SHED_OLDEST
+                        && !_queue.isEmpty()) {
+                    shed = _queue.removeFirst();
+                } else {
+                    _numRejectedExecutions.mark();
+                    throw new RejectedExecutionException("Too many calls are in flight and waiting to start.");
+                }
+            }
+        }
+
+        if (shed != null) {
+            _numShedExecutions.mark();
+            shed.shed();
+        }
+
+        if (queued != null) {
+            queued.listenForCancel();
+            return queued._result;
+        }
+
+        ListenableFuture<R> future;
+        try {
+            future = releasesItself ? call.call() : startAndRelease(call);
+        } catch (Exception e) {
+            release();
+            throw Throwables.propagate(e);
+        }
+        return future;
+    }
+
+    private <R> ListenableFuture<R> start(Callable<ListenableFuture<R>> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Starts a call that has been given a slot, and gives the slot up again once the call is done.
+     */
+    private <R> ListenableFuture<R> startAndRelease(Callable<ListenableFuture<R>> call) throws Exception {
+        ListenableFuture<R> future = call.call();
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    /**
+     * Gives up a slot by handing it to the next queued call, or freeing it if no call is waiting.  Queued calls that
+     * finish as soon as they're started hand their slot on here rather than recursively.
+     */
+    private void release() {
+        for (;;) {
+            QueuedCall<?> next;
+            synchronized (this) {
+                next = _queue.pollFirst();
+                if (next == null) {
+                    _numRunning--;
+                }
+                notifyAll();
+            }
+
+            if (next == null || next.start()) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void remove(QueuedCall<?> queued) {
+        if (_queue.remove(queued)) {
+            notifyAll();
+        }
+    }
+
+    private final class QueuedCall<R> {
+        private final Callable<ListenableFuture<R>> _call;
+        private final boolean _releasesItself;
+        private final long _enqueuedNanos;
+        private final SettableFuture<R> _result = SettableFuture.create();
+        private volatile ListenableFuture<R> _started;
+
+        QueuedCall(Callable<ListenableFuture<R>> call, boolean releasesItself, long enqueuedNanos) {
+            _call = call;
+            _releasesItself = releasesItself;
+            _enqueuedNanos = enqueuedNanos;
+        }
+
+        void listenForCancel() {
+            _result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (_result.isCancelled()) {
+                        ListenableFuture<R> started = _started;
+                        if (started != null) {
+                            started.cancel(true);
+                        } else {
+                            remove(QueuedCall.this);
+                        }
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        void shed() {
+            _result.setException(new RejectedExecutionException("Shed to make room for a newer call."));
+        }
+
+        /**
+         * Starts the call in the slot that was handed to it, copying the call's outcome to the queued future.
+         *
+         * @return {@code true} if the call will give up the slot itself once it's done, {@code false} if the slot is
+         *         free again.
+         */
+        boolean start() {
+            if (_result.isDone()) {
+                // Cancelled while it was being handed the slot.
+                return false;
+            }
+            _queueWaitTime.update(_ticker.read() - _enqueuedNanos, TimeUnit.NANOSECONDS);
+
+            final ListenableFuture<R> started;
+            try {
+                started = _call.call();
+            } catch (Throwable t) {
+                _result.setException(t);
+                return false;
+            }
+
+            if (started.isDone() && !_releasesItself) {
+                copyOutcome(started);
+                return false;
+            }
+
+            _started = started;
+            if (_result.isCancelled()) {
+                started.cancel(true);
+            }
+
+            started.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    copyOutcome(started);
+                    if (!_releasesItself) {
+                        release();
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            return true;
+        }
+
+        private void copyOutcome(ListenableFuture<R> started) {
+            try {
+                _result.set(Uninterruptibles.getUninterruptibly(started));
+            } catch (ExecutionException e) {
+                _result.setException(e.getCause());
+            } catch (CancellationException e) {
+                _result.cancel(false);
+            }
+        }
+    }
+}
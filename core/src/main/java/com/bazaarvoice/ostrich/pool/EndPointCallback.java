@@ -0,0 +1,13 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+
+/**
+ * A callback that needs to know which end point it's executed on.  A {@link ServicePool} calls
+ * {@link #call(ServiceEndPoint, Object)} instead of {@link #call(Object)} for callbacks that implement this interface.
+ */
+interface EndPointCallback<S, RETURN> extends ServiceCallback<S, RETURN> {
+    RETURN call(ServiceEndPoint endPoint, S service) throws ServiceException;
+}
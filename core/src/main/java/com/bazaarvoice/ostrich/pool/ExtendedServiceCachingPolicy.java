@@ -0,0 +1,79 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Optional settings for a {@link ServiceCachingPolicy} that tune how a {@link ServiceCache} manages the instances it
+ * holds.  A {@link ServiceCache} checks whether its policy implements this interface, and a policy that only
+ * implements {@link ServiceCachingPolicy} gets the cache's default behavior for each of these settings.
+ * <p/>
+ * Policies built by {@link ServiceCachingPolicyBuilder} always implement this interface.
+ */
+public interface ExtendedServiceCachingPolicy extends ServiceCachingPolicy {
+    /**
+     * Returns the number of idle service instances to keep on hand for each end point.  Instances are created in the
+     * background as soon as an end point is discovered, and replaced in the background as instances are evicted, so
+     * that the first calls to an end point don't have to wait for new instances to be created.
+     * <p/>
+     * NOTE: Idle instances are never evicted for being idle if that would leave fewer than this many.  A value of 0
+     * indicates that instances are only created when they're needed, and is what a {@link ServiceCache} uses for
+     * policies that don't implement this interface.
+     */
+    int getMinNumIdleServiceInstancesPerEndPoint();
+
+    /**
+     * Returns the maximum number of service instances for a single end point that are shared by all callers at once,
+     * for services whose instances are safe to use from many threads at the same time.  Instead of checking an instance
+     * out for itself, each call uses whichever shared instance is being used by the fewest calls, and a new one is only
+     * created when all of them are in use.
+     * <p/>
+     * NOTE: A value of 0 indicates that each instance is only used by one call at a time, and is what a
+     * {@link ServiceCache} uses for policies that don't implement this interface.  When instances are shared, the other
+     * limits of the policy and {@link #getCacheExhaustionAction()} don't apply.
+     */
+    int getMaxNumSharedServiceInstancesPerEndPoint();
+
+    /**
+     * Returns the maximum number of service instances for a single end point that can be in the middle of being created
+     * at once.  Instances are created in the background, and callers that need an instance while the end point is at
+     * this limit wait for whichever instance becomes available first, either one that's being created or one that
+     * another caller checks back in.
+     * <p/>
+     * NOTE: This keeps a burst of calls to an end point that has no idle instances, for example right after it
+     * restarts, from all trying to connect to it at once.  A value less than 1 is treated as 1, which is also what a
+     * {@link ServiceCache} uses for policies that don't implement this interface.
+     */
+    int getMaxNumConcurrentCreationsPerEndPoint();
+
+    /**
+     * How often to check that the idle service instances still work, if the service factory is a
+     * {@link com.bazaarvoice.ostrich.ValidatingServiceFactory}.  Only instances that have been idle for at least this
+     * long are checked, and ones that don't work are destroyed and replaced in the background.
+     * <p/>
+     * NOTE: A non-positive value indicates idle service instances are never checked, which is also what a
+     * {@link ServiceCache} does for policies that don't implement this interface.
+     */
+    long getIdleServiceInstanceValidationInterval(TimeUnit unit);
+
+    /**
+     * Returns how many instances of an end point to keep relative to how many it has needed recently.  The cache keeps
+     * a moving average of the most instances of each end point that were in use at once between eviction runs, and
+     * destroys idle instances beyond that average times this factor, a few at a time, so that the instances created
+     * for a peak in traffic don't stay around long after it.
+     * <p/>
+     * NOTE: A value of 0 indicates that idle instances are not trimmed to fit demand, which is also what a
+     * {@link ServiceCache} does for policies that don't implement this interface.  Idle instances are never trimmed
+     * below {@link #getMinNumIdleServiceInstancesPerEndPoint()}.
+     */
+    double getIdleServiceInstanceTrimmingFactor();
+
+    /**
+     * Returns how often to look for idle service instances to evict or trim.  Each service pool's cache has its own
+     * schedule, and each run only trims part of the instances that aren't needed, so a short interval means instances
+     * go away gradually rather than all at once.
+     * <p/>
+     * NOTE: A non-positive value indicates the default of every 5 minutes, which is also the interval a
+     * {@link ServiceCache} uses for policies that don't implement this interface.
+     */
+    long getEvictionInterval(TimeUnit unit);
+}
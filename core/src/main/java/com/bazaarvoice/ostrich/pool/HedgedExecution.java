@@ -0,0 +1,227 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.core.Meter;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single hedged call against a {@link ServicePool}.  The first attempt is started right away, and if it hasn't
+ * finished by the time the hedge delay passes then a second attempt is started that prefers an end point the first
+ * attempt isn't using.  The first attempt to succeed provides the result, and the call only fails once every attempt
+ * that was started has failed.
+ * <p/>
+ * Only the first attempt is retried according to the call's retry policy, and it stops retrying once the call is over.
+ * The hedged attempt gets a single try, so a hedged call never makes more than one attempt beyond what the retry policy
+ * allows.
+ * <p/>
+ * Attempts that lose are not interrupted, since an interrupted callback would look like a failure of its end point.
+ * They run to completion, check their service instance back in to the cache as usual and their result is ignored.
+ */
+class HedgedExecution<S, R> {
+    // The timer only hands hedged attempts off to an executor, so a single shared thread is plenty.
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newScheduledThreadPool(1,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("ServicePool-HedgeTimerThread-%d")
+                    .setDaemon(true)
+                    .build());
+
+    private static final RetryPolicy SINGLE_TRY = new RetryPolicy() {
+        @Override
+        public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+            return false;
+        }
+    };
+
+    private final ServicePool<S> _pool;
+    private final ExecutorService _executor;
+    private final PartitionContext _partitionContext;
+    private final Deadline _deadline;
+    private final RetryPolicy _retry;
+    private final ServiceCallback<S, R> _callback;
+    private final Meter _numHedgedAttempts;
+    private final Meter _numHedgeWins;
+    private final Set<ServiceEndPoint> _usedEndPoints =
+            Sets.newSetFromMap(Maps.<ServiceEndPoint, Boolean>newConcurrentMap());
+    private final SettableFuture<R> _result = SettableFuture.create();
+    private final AtomicInteger _numRunningAttempts = new AtomicInteger();
+    private final AtomicReference<Throwable> _firstFailure = new AtomicReference<Throwable>();
+    private final List<Future<?>> _attempts = new CopyOnWriteArrayList<Future<?>>();
+    private volatile Future<?> _hedgeTimer;
+
+    HedgedExecution(ServicePool<S> pool, ExecutorService executor, PartitionContext partitionContext,
+                    Deadline deadline, RetryPolicy retry, ServiceCallback<S, R> callback, Meter numHedgedAttempts,
+                    Meter numHedgeWins) {
+        _pool = checkNotNull(pool);
+        _executor = checkNotNull(executor);
+        _partitionContext = checkNotNull(partitionContext);
+        _deadline = deadline;
+        _retry = stopWhenDone(checkNotNull(retry));
+        _callback = checkNotNull(callback);
+        _numHedgedAttempts = checkNotNull(numHedgedAttempts);
+        _numHedgeWins = checkNotNull(numHedgeWins);
+    }
+
+    /**
+     * Starts the first attempt on the executor and schedules the hedged attempt.
+     *
+     * @param hedgeDelayNanos How long to wait for the first attempt before hedging, a negative value never hedges.
+     * @return A future for the result of the call.
+     */
+    ListenableFuture<R> start(long hedgeDelayNanos) {
+        cancelAttemptsWhenDone();
+        submitAttempt(false);
+        scheduleHedge(hedgeDelayNanos);
+        return _result;
+    }
+
+    /**
+     * Runs the first attempt on the calling thread and schedules the hedged attempt, so that only the hedged attempt
+     * needs a thread of the executor.  If the hedged attempt wins then the first attempt isn't retried, but the calling
+     * thread still has to finish the first attempt's current try before it can return.
+     *
+     * @param hedgeDelayNanos How long to wait for the first attempt before hedging, a negative value never hedges.
+     * @return A future for the result of the call, which is only still running if the first attempt failed while the
+     *         hedged attempt is still running.
+     */
+    ListenableFuture<R> run(long hedgeDelayNanos) {
+        cancelAttemptsWhenDone();
+
+        // Count the first attempt before the hedge can start, so that a hedge that fails fast doesn't end the call.
+        _numRunningAttempts.incrementAndGet();
+        scheduleHedge(hedgeDelayNanos);
+        runAttempt(false);
+        return _result;
+    }
+
+    private void cancelAttemptsWhenDone() {
+        _result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                // Only interrupt attempts if the caller gave up on the whole call.
+                boolean mayInterruptIfRunning = _result.isCancelled();
+
+                Future<?> hedgeTimer = _hedgeTimer;
+                if (hedgeTimer != null) {
+                    hedgeTimer.cancel(false);
+                }
+                for (Future<?> attempt : _attempts) {
+                    attempt.cancel(mayInterruptIfRunning);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void scheduleHedge(long hedgeDelayNanos) {
+        if (hedgeDelayNanos >= 0) {
+            _hedgeTimer = HEDGE_TIMER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    hedge();
+                }
+            }, hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void hedge() {
+        // There's no point in hedging if the call is over or there isn't another end point to send the hedge to.
+        if (_result.isDone() || _pool.getNumValidEndPoints() < 2) {
+            return;
+        }
+
+        _numHedgedAttempts.mark();
+        submitAttempt(true);
+    }
+
+    private void submitAttempt(final boolean hedge) {
+        _numRunningAttempts.incrementAndGet();
+        try {
+            _attempts.add(_executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runAttempt(hedge);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            // An attempt that can't be started counts as a failed one.  If it's the first attempt then the caller
+            // finds out right away, otherwise the first attempt decides the outcome of the call.
+            attemptFailed(e);
+            if (!hedge) {
+                throw e;
+            }
+        }
+    }
+
+    private void runAttempt(boolean hedge) {
+        try {
+            RetryPolicy retry = hedge ? SINGLE_TRY : _retry;
+            R result = _pool.execute(_partitionContext, _deadline, retry, _callback, _usedEndPoints);
+            if (_result.set(result) && hedge) {
+                _numHedgeWins.mark();
+            }
+        } catch (Throwable t) {
+            attemptFailed(t);
+        }
+    }
+
+    /**
+     * Wraps the call's retry policy so that the first attempt isn't retried once the call is over, for example because
+     * the hedged attempt has already succeeded.  A {@link ScheduledRetryPolicy} stays one, so that the pool can still
+     * check its delays against the call's deadline.
+     */
+    private RetryPolicy stopWhenDone(final RetryPolicy retry) {
+        if (retry instanceof ScheduledRetryPolicy) {
+            final ScheduledRetryPolicy scheduledRetry = (ScheduledRetryPolicy) retry;
+            return new ScheduledRetryPolicy() {
+                @Override
+                public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+                    return !_result.isDone() && scheduledRetry.allowRetry(numAttempts, elapsedTimeMs)
+                            && !_result.isDone();
+                }
+
+                @Override
+                public long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+                    return _result.isDone() ? -1 : scheduledRetry.getRetryDelay(numAttempts, elapsedTimeMs, unit);
+                }
+            };
+        }
+
+        return new RetryPolicy() {
+            @Override
+            public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+                // Check again afterwards, since the policy may have waited out a delay in the meantime.
+                return !_result.isDone() && retry.allowRetry(numAttempts, elapsedTimeMs) && !_result.isDone();
+            }
+        };
+    }
+
+    private void attemptFailed(Throwable t) {
+        _firstFailure.compareAndSet(null, t);
+        if (_numRunningAttempts.decrementAndGet() == 0) {
+            _result.setException(_firstFailure.get());
+        }
+    }
+}
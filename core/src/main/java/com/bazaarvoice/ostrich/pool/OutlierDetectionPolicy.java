@@ -0,0 +1,44 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for determining how a {@link ServicePool} detects end points that respond much more slowly than the rest of
+ * the pool.  Such an end point is still healthy, so it isn't marked as bad, but it is temporarily ejected from the set
+ * of end points that requests are sent to.
+ * <p/>
+ * The latency of each end point is tracked as an exponentially weighted moving average of its successful callback
+ * execution times, and an end point is considered an outlier when its average exceeds the median average of the pool by
+ * more than {@link #getLatencyFactor()}.
+ */
+public interface OutlierDetectionPolicy {
+    /**
+     * Returns the maximum percentage of the pool's end points that may be ejected at the same time.  Once this many end
+     * points are ejected, no other end points will be ejected until one of them is brought back.
+     * <p/>
+     * NOTE: A value of 0 disables outlier detection.
+     */
+    int getMaxEjectedPercent();
+
+    /**
+     * Returns how many times slower than the median end point an end point must be before it is ejected.
+     */
+    double getLatencyFactor();
+
+    /**
+     * Returns the minimum number of latency samples an end point must have before it is considered, either as a
+     * candidate for ejection or when determining the median latency of the pool.
+     */
+    int getMinNumSamples();
+
+    /**
+     * The amount of time that an outlier is ejected for.  Once this time passes the end point's latency history is
+     * forgotten and it is sent requests again.
+     */
+    long getEjectionTime(TimeUnit unit);
+
+    /**
+     * The amount of time between successive checks of the pool for outliers.
+     */
+    long getDetectionInterval(TimeUnit unit);
+}
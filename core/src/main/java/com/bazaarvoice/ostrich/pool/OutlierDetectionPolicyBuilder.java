@@ -0,0 +1,130 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class OutlierDetectionPolicyBuilder {
+    public static final OutlierDetectionPolicy NO_OUTLIER_DETECTION = new OutlierDetectionPolicyBuilder()
+            .withMaxEjectedPercent(0)
+            .build();
+
+    private int _maxEjectedPercent = 10;
+    private double _latencyFactor = 3.0;
+    private int _minNumSamples = 20;
+    private long _ejectionTimeNanos = TimeUnit.SECONDS.toNanos(30);
+    private long _detectionIntervalNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Set the maximum percentage of end points that may be ejected at once for the built policy.  If never called, at
+     * most 10% of the end points will be ejected.
+     *
+     * @param maxEjectedPercent The percentage of end points, between 0 and 100, that may be ejected at once.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withMaxEjectedPercent(int maxEjectedPercent) {
+        checkState(maxEjectedPercent >= 0 && maxEjectedPercent <= 100);
+
+        _maxEjectedPercent = maxEjectedPercent;
+        return this;
+    }
+
+    /**
+     * Set how many times slower than the median end point an end point must be in order to be ejected.  If never
+     * called, end points that are 3 times slower than the median will be ejected.
+     *
+     * @param latencyFactor The multiple of the median latency above which an end point is an outlier.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withLatencyFactor(double latencyFactor) {
+        checkState(latencyFactor > 1);
+
+        _latencyFactor = latencyFactor;
+        return this;
+    }
+
+    /**
+     * Set the minimum number of latency samples an end point needs before it is considered for ejection.  If never
+     * called, 20 samples are required.
+     *
+     * @param minNumSamples The number of successful calls an end point must have made.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withMinNumSamples(int minNumSamples) {
+        checkState(minNumSamples > 0);
+
+        _minNumSamples = minNumSamples;
+        return this;
+    }
+
+    /**
+     * Set the amount of time an outlier is ejected for.  If never called, outliers are ejected for 30 seconds.
+     *
+     * @param ejectionTime The time an outlier is ejected for.
+     * @param unit         The unit of time the {@code ejectionTime} is in.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withEjectionTime(long ejectionTime, TimeUnit unit) {
+        checkState(ejectionTime > 0);
+        checkNotNull(unit);
+
+        _ejectionTimeNanos = unit.toNanos(ejectionTime);
+        return this;
+    }
+
+    /**
+     * Set how often the pool is checked for outliers.  If never called, the pool is checked every 10 seconds.
+     *
+     * @param detectionInterval The time between checks for outliers.
+     * @param unit              The unit of time the {@code detectionInterval} is in.
+     * @return this
+     */
+    public OutlierDetectionPolicyBuilder withDetectionInterval(long detectionInterval, TimeUnit unit) {
+        checkState(detectionInterval > 0);
+        checkNotNull(unit);
+
+        _detectionIntervalNanos = unit.toNanos(detectionInterval);
+        return this;
+    }
+
+    /**
+     * Build the {@code OutlierDetectionPolicy} specified by this builder.
+     *
+     * @return The {@code OutlierDetectionPolicy} that was constructed.
+     */
+    public OutlierDetectionPolicy build() {
+        final int maxEjectedPercent = _maxEjectedPercent;
+        final double latencyFactor = _latencyFactor;
+        final int minNumSamples = _minNumSamples;
+        final long ejectionTimeNanos = _ejectionTimeNanos;
+        final long detectionIntervalNanos = _detectionIntervalNanos;
+
+        return new OutlierDetectionPolicy() {
+            @Override
+            public int getMaxEjectedPercent() {
+                return maxEjectedPercent;
+            }
+
+            @Override
+            public double getLatencyFactor() {
+                return latencyFactor;
+            }
+
+            @Override
+            public int getMinNumSamples() {
+                return minNumSamples;
+            }
+
+            @Override
+            public long getEjectionTime(TimeUnit unit) {
+                return unit.convert(ejectionTimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getDetectionInterval(TimeUnit unit) {
+                return unit.convert(detectionIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
@@ -0,0 +1,187 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Tracks the latency of each end point in a {@link ServicePool} and decides which end points are slow enough relative
+ * to the rest of the pool that they should temporarily stop receiving requests.
+ */
+class OutlierDetector {
+    // How much weight each new latency sample is given in an end point's moving average.
+    private static final double SAMPLE_WEIGHT = 0.1;
+
+    private static final Comparator<Map.Entry<ServiceEndPoint, Double>> SLOWEST_FIRST =
+            new Comparator<Map.Entry<ServiceEndPoint, Double>>() {
+                @Override
+                public int compare(Map.Entry<ServiceEndPoint, Double> a, Map.Entry<ServiceEndPoint, Double> b) {
+                    return Double.compare(b.getValue(), a.getValue());
+                }
+            };
+
+    private final OutlierDetectionPolicy _policy;
+    private final Ticker _ticker;
+    private final boolean _enabled;
+    private final ConcurrentMap<ServiceEndPoint, LatencyAverage> _latencies = Maps.newConcurrentMap();
+
+    // Maps each ejected end point to the ticker time at which its ejection ends.
+    private final ConcurrentMap<ServiceEndPoint, Long> _ejectedUntil = Maps.newConcurrentMap();
+
+    OutlierDetector(OutlierDetectionPolicy policy, Ticker ticker) {
+        _policy = checkNotNull(policy);
+        _ticker = checkNotNull(ticker);
+        _enabled = policy.getMaxEjectedPercent() > 0;
+    }
+
+    boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Records how long a successful call to an end point took.
+     */
+    void recordLatency(ServiceEndPoint endPoint, long latencyNanos) {
+        if (!_enabled) {
+            return;
+        }
+
+        LatencyAverage latency = _latencies.get(endPoint);
+        if (latency == null) {
+            LatencyAverage newLatency = new LatencyAverage();
+            latency = _latencies.putIfAbsent(endPoint, newLatency);
+            if (latency == null) {
+                latency = newLatency;
+            }
+        }
+        latency.update(latencyNanos);
+    }
+
+    boolean isEjected(ServiceEndPoint endPoint) {
+        return _ejectedUntil.containsKey(endPoint);
+    }
+
+    int getNumEjectedEndPoints() {
+        return _ejectedUntil.size();
+    }
+
+    Set<ServiceEndPoint> getEjectedEndPoints() {
+        return ImmutableSet.copyOf(_ejectedUntil.keySet());
+    }
+
+    /**
+     * Forgets everything known about an end point.
+     *
+     * @return {@code true} if the end point was ejected.
+     */
+    boolean remove(ServiceEndPoint endPoint) {
+        _latencies.remove(endPoint);
+        return _ejectedUntil.remove(endPoint) != null;
+    }
+
+    /**
+     * Brings back any end points whose ejection time has passed and then ejects end points whose average latency
+     * exceeds the median of the pool by more than the policy's latency factor, slowest first, until the cap on the
+     * number of ejected end points is reached.
+     *
+     * @param endPoints All of the end points currently in the pool.
+     * @return {@code true} if the set of ejected end points changed.
+     */
+    synchronized boolean detect(Collection<ServiceEndPoint> endPoints) {
+        if (!_enabled) {
+            return false;
+        }
+
+        long now = _ticker.read();
+        boolean changed = false;
+
+        Set<ServiceEndPoint> current = Sets.newHashSet(endPoints);
+        _latencies.keySet().retainAll(current);
+
+        Iterator<Map.Entry<ServiceEndPoint, Long>> ejected = _ejectedUntil.entrySet().iterator();
+        while (ejected.hasNext()) {
+            Map.Entry<ServiceEndPoint, Long> entry = ejected.next();
+            if (now - entry.getValue() >= 0 || !current.contains(entry.getKey())) {
+                // Start over with the end point's latency, it has to prove itself to be slow again to be re-ejected.
+                _latencies.remove(entry.getKey());
+                ejected.remove();
+                changed = true;
+            }
+        }
+
+        int minNumSamples = _policy.getMinNumSamples();
+        List<Map.Entry<ServiceEndPoint, Double>> averages = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : current) {
+            LatencyAverage latency = _latencies.get(endPoint);
+            if (latency != null && latency.getNumSamples() >= minNumSamples && !isEjected(endPoint)) {
+                averages.add(Maps.immutableEntry(endPoint, latency.getAverageNanos()));
+            }
+        }
+        if (averages.isEmpty()) {
+            return changed;
+        }
+
+        Collections.sort(averages, SLOWEST_FIRST);
+        double threshold = median(averages) * _policy.getLatencyFactor();
+
+        // Always allow at least one end point to be ejected, otherwise small pools would never eject anything.
+        int maxNumEjected = Math.max(1, current.size() * _policy.getMaxEjectedPercent() / 100);
+        long ejectionTimeNanos = _policy.getEjectionTime(TimeUnit.NANOSECONDS);
+        for (Map.Entry<ServiceEndPoint, Double> average : averages) {
+            if (average.getValue() <= threshold || _ejectedUntil.size() >= maxNumEjected) {
+                break;
+            }
+            _ejectedUntil.put(average.getKey(), now + ejectionTimeNanos);
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private static double median(List<Map.Entry<ServiceEndPoint, Double>> sorted) {
+        int middle = sorted.size() / 2;
+        return (sorted.size() % 2 == 1)
+                ? sorted.get(middle).getValue()
+                : (sorted.get(middle - 1).getValue() + sorted.get(middle).getValue()) / 2;
+    }
+
+    /**
+     * An exponentially weighted moving average of an end point's latency.  Updates from concurrent calls may
+     * occasionally be lost, which is fine for an estimate that's only used to compare end points to each other.
+     */
+    private static final class LatencyAverage {
+        private volatile double _averageNanos;
+        private volatile long _numSamples;
+
+        void update(long latencyNanos) {
+            long numSamples = _numSamples;
+            _averageNanos = (numSamples == 0)
+                    ? latencyNanos
+                    : _averageNanos + SAMPLE_WEIGHT * (latencyNanos - _averageNanos);
+            _numSamples = numSamples + 1;
+        }
+
+        double getAverageNanos() {
+            return _averageNanos;
+        }
+
+        long getNumSamples() {
+            return _numSamples;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A dot separated path to a property of an object, such as {@code "tenant.id"}.  The path is resolved against the
+ * declared types once, when it's compiled, so that getting a property only has to call the methods and read the fields
+ * that were found for it.
+ */
+final class PropertyPath {
+    private final String _path;
+    private final Step[] _steps;
+
+    private PropertyPath(String path, List<Step> steps) {
+        _path = path;
+        _steps = steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Resolves each step of the path, starting from the given type.  Each step is a public no argument method with the
+     * step's name, a getter for it following the JavaBeans naming conventions, or a public field with the name.
+     *
+     * @throws IllegalArgumentException If a step of the path can't be resolved.
+     */
+    static PropertyPath compile(Class<?> type, String path) {
+        checkNotNull(type);
+        checkArgument(!path.isEmpty(), "Property path must not be empty.");
+
+        List<Step> steps = Lists.newArrayList();
+        for (String name : Splitter.on('.').split(path)) {
+            checkArgument(!name.isEmpty(), "Property path '%s' has an empty step.", path);
+            Step step = resolve(type, name);
+            checkArgument(step != null, "Property path '%s' has no property '%s' on %s.", path, name, type.getName());
+            steps.add(step);
+            type = step.getType();
+        }
+        return new PropertyPath(path, steps);
+    }
+
+    /**
+     * Returns the property at the end of the path, or {@code null} if the object, or any step along the way, is
+     * {@code null}.
+     */
+    Object get(Object object) {
+        for (Step step : _steps) {
+            if (object == null) {
+                return null;
+            }
+            object = step.get(object);
+        }
+        return object;
+    }
+
+    @Override
+    public String toString() {
+        return _path;
+    }
+
+    private static Step resolve(Class<?> type, String name) {
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String methodName : new String[] {"get" + capitalized, "is" + capitalized, name}) {
+            try {
+                Method method = type.getMethod(methodName);
+                if (method.getReturnType() != void.class) {
+                    return new MethodStep(accessible(method));
+                }
+            } catch (NoSuchMethodException e) {
+                // Try the next convention.
+            }
+        }
+
+        try {
+            return new FieldStep(accessible(type.getField(name)));
+        } catch (NoSuchFieldException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Skips the access check that reflection would otherwise make on every call, where that's allowed.  A public
+     * member of a class that isn't public still needs this to be reachable.
+     */
+    private static <T extends AccessibleObject> T accessible(T member) {
+        try {
+            member.setAccessible(true);
+        } catch (SecurityException e) {
+            // Not allowed, so every call is checked instead.
+        }
+        return member;
+    }
+
+    private interface Step {
+        Class<?> getType();
+
+        Object get(Object object);
+    }
+
+    private static final class MethodStep implements Step {
+        private final Method _method;
+
+        MethodStep(Method method) {
+            _method = method;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return _method.getReturnType();
+        }
+
+        @Override
+        public Object get(Object object) {
+            try {
+                return _method.invoke(object);
+            } catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            } catch (InvocationTargetException e) {
+                throw Throwables.propagate(e.getTargetException());
+            }
+        }
+    }
+
+    private static final class FieldStep implements Step {
+        private final Field _field;
+
+        FieldStep(Field field) {
+            _field = field;
+        }
+
+        @Override
+        public Class<?> getType() {
+            return _field.getType();
+        }
+
+        @Override
+        public Object get(Object object) {
+            try {
+                return _field.get(object);
+            } catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+}
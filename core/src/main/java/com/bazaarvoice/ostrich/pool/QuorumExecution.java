@@ -0,0 +1,177 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.QuorumNotReachedException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Waits on calls made to several end points at once, but only until enough of them have succeeded.  The calls that are
+ * still running at that point are cancelled, which returns their service instances to the pool's cache.
+ * <p/>
+ * Results are listed in the order the calls finished in, so the first result is from the fastest end point.
+ */
+class QuorumExecution<R> {
+    private final List<ListenableFuture<R>> _calls;
+    private final int _numResults;
+    private final boolean _partialResultsAllowed;
+    private final SettableFuture<List<R>> _result = SettableFuture.create();
+
+    // Guarded by this.
+    private final List<R> _successes = Lists.newArrayList();
+    private int _numFailures;
+
+    /**
+     * Succeeds once the given number of calls have succeeded, and fails as soon as too many have failed for that to
+     * happen.
+     */
+    static <R> QuorumExecution<R> ofSuccesses(List<ListenableFuture<R>> calls, int numResults) {
+        checkArgument(numResults > 0);
+        return new QuorumExecution<R>(calls, numResults, false);
+    }
+
+    /**
+     * Succeeds once every call has finished, with the results of the calls that succeeded.  Use {@link #start(long,
+     * TimeUnit, ScheduledExecutorService)} to stop waiting on slow calls.
+     */
+    static <R> QuorumExecution<R> ofAllSuccesses(List<ListenableFuture<R>> calls) {
+        return new QuorumExecution<R>(calls, calls.size(), true);
+    }
+
+    private QuorumExecution(List<ListenableFuture<R>> calls, int numResults, boolean partialResultsAllowed) {
+        _calls = ImmutableList.copyOf(calls);
+        _numResults = numResults;
+        _partialResultsAllowed = partialResultsAllowed;
+    }
+
+    ListenableFuture<List<R>> start() {
+        // Once the outcome is known, whether it's because enough calls finished or because the caller gave up, the
+        // calls still running aren't needed anymore.
+        _result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                for (Future<R> call : _calls) {
+                    call.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        if (_calls.size() < _numResults && !_partialResultsAllowed) {
+            _result.setException(new QuorumNotReachedException(
+                    "Needed " + _numResults + " results but only " + _calls.size() + " end points were called.", null));
+        } else if (_calls.isEmpty()) {
+            _result.set(Collections.<R>emptyList());
+        }
+
+        for (final ListenableFuture<R> call : _calls) {
+            call.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    callDone(call);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+        return _result;
+    }
+
+    /**
+     * Like {@link #start()}, but once the timeout passes the result is completed with whatever results there are, and
+     * the calls still running are cancelled.
+     */
+    ListenableFuture<List<R>> start(long timeout, TimeUnit unit, ScheduledExecutorService timer) {
+        checkNotNull(unit);
+        checkNotNull(timer);
+
+        ListenableFuture<List<R>> result = start();
+        if (result.isDone()) {
+            return result;
+        }
+
+        try {
+            final Future<?> timeoutFuture = timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut();
+                }
+            }, timeout, unit);
+            result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    timeoutFuture.cancel(false);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        } catch (RejectedExecutionException e) {
+            _result.setException(e);
+        }
+        return result;
+    }
+
+    private void callDone(ListenableFuture<R> call) {
+        R value = null;
+        Throwable failure = null;
+        try {
+            value = Uninterruptibles.getUninterruptibly(call);
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (CancellationException e) {
+            failure = e;
+        }
+
+        List<R> successes = null;
+        Throwable quorumFailure = null;
+        synchronized (this) {
+            if (_result.isDone()) {
+                return;
+            }
+
+            if (failure == null) {
+                _successes.add(value);
+            } else {
+                _numFailures++;
+            }
+
+            int numDone = _successes.size() + _numFailures;
+            if (_successes.size() >= _numResults || (_partialResultsAllowed && numDone == _calls.size())) {
+                successes = copyOfSuccesses();
+            } else if (!_partialResultsAllowed && _calls.size() - _numFailures < _numResults) {
+                quorumFailure = new QuorumNotReachedException("Needed " + _numResults + " results but "
+                        + _numFailures + " of " + _calls.size() + " calls failed.", failure);
+            }
+        }
+
+        // Completing the result runs its listeners, so don't do it while holding the lock.
+        if (successes != null) {
+            _result.set(successes);
+        } else if (quorumFailure != null) {
+            _result.setException(quorumFailure);
+        }
+    }
+
+    // Results may be null, for example when the callback returns Void, so they can't be put in an ImmutableList.
+    private List<R> copyOfSuccesses() {
+        return Collections.unmodifiableList(Lists.newArrayList(_successes));
+    }
+
+    private void timedOut() {
+        List<R> successes;
+        synchronized (this) {
+            successes = copyOfSuccesses();
+        }
+        _result.set(successes);
+    }
+}
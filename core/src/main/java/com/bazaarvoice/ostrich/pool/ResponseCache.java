@@ -0,0 +1,273 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.yammer.metrics.core.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the results of the methods of a service interface that are annotated with {@link Cacheable}, on behalf of a
+ * {@link ServicePoolProxy}.  Each method has a cache of its own, bounded and expired as its annotation says, which is
+ * keyed by the arguments of the call.
+ * <p/>
+ * A result that came from a partitioned call is tied to the end point that returned it.  When that end point leaves
+ * host discovery another end point takes over its partitions, so the result is invalidated rather than served until it
+ * expires.
+ */
+class ResponseCache implements HostDiscovery.EndPointListener, Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseCache.class);
+
+    // Refreshes are rare and short lived, so a single shared pool of threads that go away when idle is plenty.
+    private static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("ServicePoolProxy-CacheRefreshThread-%d")
+                    .setDaemon(true)
+                    .build());
+
+    /**
+     * Makes the call that a cache miss, or a refresh, needs the result of.
+     */
+    interface Loader {
+        Response load(CallKey key) throws Exception;
+    }
+
+    /**
+     * The result of a call, and the end point that it's tied to, if any.
+     */
+    static final class Response {
+        private final Object _value;
+        private final ServiceEndPoint _endPoint;
+
+        /**
+         * @param endPoint The end point whose removal invalidates the result, or {@code null} if the result isn't tied
+         *                 to an end point.
+         */
+        Response(Object value, ServiceEndPoint endPoint) {
+            _value = value;
+            _endPoint = endPoint;
+        }
+
+        Object getValue() {
+            return _value;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+    }
+
+    private final Map<Method, MethodCache> _caches;
+    private final Loader _loader;
+    private final Ticker _ticker;
+    private final Executor _refreshExecutor;
+    private final Metrics _metrics;
+    private final Meter _numHits;
+    private final Meter _numMisses;
+    private final Meter _numEvictions;
+
+    ResponseCache(String serviceName, Iterable<Method> methods, Loader loader) {
+        this(serviceName, methods, loader, Ticker.systemTicker(), REFRESH_EXECUTOR);
+    }
+
+    ResponseCache(String serviceName, Iterable<Method> methods, Loader loader, Ticker ticker,
+                  Executor refreshExecutor) {
+        checkNotNull(serviceName);
+        _loader = checkNotNull(loader);
+        _ticker = checkNotNull(ticker);
+        _refreshExecutor = checkNotNull(refreshExecutor);
+
+        _metrics = Metrics.forInstance(this, serviceName);
+        _numHits = _metrics.newMeter(serviceName, "num-cache-hits", "hits", TimeUnit.SECONDS);
+        _numMisses = _metrics.newMeter(serviceName, "num-cache-misses", "misses", TimeUnit.SECONDS);
+        _numEvictions = _metrics.newMeter(serviceName, "num-cache-evictions", "evictions", TimeUnit.SECONDS);
+
+        ImmutableMap.Builder<Method, MethodCache> caches = ImmutableMap.builder();
+        for (Method method : methods) {
+            Cacheable cacheable = method.getAnnotation(Cacheable.class);
+            checkArgument(cacheable != null, "Method %s isn't annotated with @Cacheable.", method);
+            caches.put(method, new MethodCache(cacheable));
+        }
+        _caches = caches.build();
+    }
+
+    /**
+     * Whether calls to the method are cached.
+     */
+    boolean isCached(Method method) {
+        return _caches.containsKey(method);
+    }
+
+    /**
+     * Returns the cached result of the call, or makes the call if there isn't one.  A result that's past its time to
+     * live but still within its stale-while-revalidate window is returned as is, and refreshed in the background.
+     * <p/>
+     * Concurrent misses for the same call share a single call.
+     *
+     * @throws Throwable Whatever the call threw.
+     */
+    Object get(final CallKey key) throws Throwable {
+        MethodCache cache = _caches.get(key.getMethod());
+        checkArgument(cache != null, "Calls to %s aren't cached.", key.getMethod());
+
+        Entry entry = cache._entries.getIfPresent(key);
+        if (entry != null) {
+            _numHits.mark();
+            if (cache.isStale(entry)) {
+                refresh(cache, key, entry);
+            }
+            return entry._response.getValue();
+        }
+
+        _numMisses.mark();
+        try {
+            entry = cache._entries.get(key, new Callable<Entry>() {
+                @Override
+                public Entry call() throws Exception {
+                    return load(key);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause();
+        } catch (ExecutionError e) {
+            throw e.getCause();
+        }
+        return entry._response.getValue();
+    }
+
+    private Entry load(CallKey key) throws Exception {
+        return new Entry(checkNotNull(_loader.load(key)), _ticker.read());
+    }
+
+    /**
+     * Fetches a fresh result for a stale entry in the background, unless a refresh is already under way.  The fresh
+     * result only replaces the entry if nothing else has replaced or invalidated it in the meantime.
+     */
+    private void refresh(final MethodCache cache, final CallKey key, final Entry stale) {
+        if (!stale._refreshing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            _refreshExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        cache._entries.asMap().replace(key, stale, load(key));
+                    } catch (Exception e) {
+                        // Keep serving the stale result, the next hit will try again.
+                        LOG.debug("Unable to refresh cached result of {}.", key, e);
+                        stale._refreshing.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            stale._refreshing.set(false);
+        }
+    }
+
+    @Override
+    public void onEndPointAdded(ServiceEndPoint endPoint) {
+        // Nothing to do, results are only ever tied to end points that are already known.
+    }
+
+    /**
+     * Invalidates every result that's tied to the end point.
+     */
+    @Override
+    public void onEndPointRemoved(ServiceEndPoint endPoint) {
+        for (MethodCache cache : _caches.values()) {
+            Iterator<Entry> entries = cache._entries.asMap().values().iterator();
+            while (entries.hasNext()) {
+                if (endPoint.equals(entries.next()._response.getEndPoint())) {
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (MethodCache cache : _caches.values()) {
+            cache._entries.invalidateAll();
+        }
+        _metrics.close();
+    }
+
+    private final class MethodCache {
+        private final long _ttlNanos;
+        private final boolean _staleWhileRevalidate;
+        private final Cache<CallKey, Entry> _entries;
+
+        MethodCache(Cacheable cacheable) {
+            checkArgument(cacheable.ttl() > 0, "Cache time to live must be positive.");
+            checkArgument(cacheable.staleWhileRevalidate() >= 0,
+                    "Cache stale-while-revalidate time must not be negative.");
+            checkArgument(cacheable.maxSize() > 0, "Cache size must be positive.");
+
+            _ttlNanos = cacheable.unit().toNanos(cacheable.ttl());
+            _staleWhileRevalidate = cacheable.staleWhileRevalidate() > 0;
+            _entries = CacheBuilder.newBuilder()
+                    .ticker(_ticker)
+                    .maximumSize(cacheable.maxSize())
+                    .expireAfterWrite(_ttlNanos + cacheable.unit().toNanos(cacheable.staleWhileRevalidate()),
+                            TimeUnit.NANOSECONDS)
+                    .removalListener(new RemovalListener<CallKey, Entry>() {
+                        @Override
+                        public void onRemoval(RemovalNotification<CallKey, Entry> notification) {
+                            if (notification.wasEvicted()) {
+                                _numEvictions.mark();
+                            }
+                        }
+                    })
+                    .build();
+        }
+
+        /**
+         * Whether the entry is past its time to live but may still be served while it's refreshed.  Without a
+         * stale-while-revalidate window entries simply expire instead.
+         */
+        boolean isStale(Entry entry) {
+            return _staleWhileRevalidate && _ticker.read() - entry._loadedNanos >= _ttlNanos;
+        }
+    }
+
+    private static final class Entry {
+        private final Response _response;
+        private final long _loadedNanos;
+        private final AtomicBoolean _refreshing = new AtomicBoolean();
+
+        Entry(Response response, long loadedNanos) {
+            _response = response;
+            _loadedNanos = loadedNanos;
+        }
+    }
+}
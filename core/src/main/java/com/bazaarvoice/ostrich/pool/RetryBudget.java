@@ -0,0 +1,118 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts the calls and retries made by a {@link ServicePool} over a sliding window and decides whether there's room
+ * left in the window for another retry.
+ */
+class RetryBudget {
+    // The window slides forward one bucket at a time.  More buckets make it smoother, at the cost of summing them.
+    private static final int NUM_BUCKETS = 10;
+
+    private final Ticker _ticker;
+    private final boolean _enabled;
+    private final int _maxRetryPercent;
+    private final long _minRetriesPerWindow;
+    private final WindowedCounter _calls;
+    private final WindowedCounter _retries;
+
+    RetryBudget(RetryBudgetPolicy policy, Ticker ticker) {
+        checkNotNull(policy);
+        _ticker = checkNotNull(ticker);
+        _enabled = policy.getMaxRetryPercent() >= 0;
+        _maxRetryPercent = policy.getMaxRetryPercent();
+
+        long windowNanos = policy.getWindow(TimeUnit.NANOSECONDS);
+        _minRetriesPerWindow = (long) (policy.getMinRetriesPerSecond() * (double) windowNanos
+                / TimeUnit.SECONDS.toNanos(1));
+
+        long bucketNanos = Math.max(1, windowNanos / NUM_BUCKETS);
+        _calls = new WindowedCounter(bucketNanos);
+        _retries = new WindowedCounter(bucketNanos);
+    }
+
+    boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Records the first attempt of a call, which adds to the number of retries the budget allows.
+     */
+    void recordCall() {
+        if (_enabled) {
+            _calls.increment(_ticker.read());
+        }
+    }
+
+    /**
+     * Takes a retry out of the budget if there is room for one.
+     *
+     * @return {@code true} if the retry may be made.
+     */
+    boolean tryRetry() {
+        if (!_enabled) {
+            return true;
+        }
+
+        // Concurrent retries may both see the last bit of room in the budget and slightly overspend it.  That's fine,
+        // the budget only needs to keep retries from growing without bound.
+        long now = _ticker.read();
+        long maxNumRetries = _minRetriesPerWindow + _calls.sum(now) * _maxRetryPercent / 100;
+        if (_retries.sum(now) >= maxNumRetries) {
+            return false;
+        }
+
+        _retries.increment(now);
+        return true;
+    }
+
+    /**
+     * A count of events over a sliding window, kept as a ring of buckets that each cover a slice of the window.
+     * Increments that race with a bucket being reused for a new slice may be lost, which is fine for a budget.
+     */
+    private static final class WindowedCounter {
+        private final long _bucketNanos;
+        private final AtomicLongArray _slices = new AtomicLongArray(NUM_BUCKETS);
+        private final AtomicLongArray _counts = new AtomicLongArray(NUM_BUCKETS);
+
+        WindowedCounter(long bucketNanos) {
+            _bucketNanos = bucketNanos;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                _slices.set(i, Long.MIN_VALUE);
+            }
+        }
+
+        void increment(long nowNanos) {
+            long slice = nowNanos / _bucketNanos;
+            int bucket = bucketOf(slice);
+            long bucketSlice = _slices.get(bucket);
+            if (bucketSlice != slice && _slices.compareAndSet(bucket, bucketSlice, slice)) {
+                _counts.set(bucket, 0);
+            }
+            _counts.incrementAndGet(bucket);
+        }
+
+        long sum(long nowNanos) {
+            long slice = nowNanos / _bucketNanos;
+            long sum = 0;
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                long age = slice - _slices.get(i);
+                if (age >= 0 && age < NUM_BUCKETS) {
+                    sum += _counts.get(i);
+                }
+            }
+            return sum;
+        }
+
+        private static int bucketOf(long slice) {
+            int bucket = (int) (slice % NUM_BUCKETS);
+            return (bucket < 0) ? bucket + NUM_BUCKETS : bucket;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for limiting how many retries a {@link ServicePool} makes across all of its calls.  Each call's
+ * {@link com.bazaarvoice.ostrich.RetryPolicy} still decides whether that call should be retried, but the retry only
+ * happens if the pool's budget has room for it.  This keeps a degraded service from being sent several times its normal
+ * load by every client retrying every call.
+ * <p/>
+ * The budget allows, over a sliding window of time, a percentage of the number of calls that were made in the window
+ * plus a small number of retries per second so that a pool that isn't being used much can still retry.
+ */
+public interface RetryBudgetPolicy {
+    /**
+     * Returns the number of retries allowed in the window as a percentage of the number of calls made in the window.
+     * <p/>
+     * NOTE: A negative value disables the retry budget, so that retries are only limited by each call's retry policy.
+     */
+    int getMaxRetryPercent();
+
+    /**
+     * Returns the number of retries per second that are allowed regardless of how many calls were made.
+     */
+    int getMinRetriesPerSecond();
+
+    /**
+     * The amount of time over which calls and retries are counted.
+     */
+    long getWindow(TimeUnit unit);
+}
@@ -0,0 +1,87 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class RetryBudgetPolicyBuilder {
+    public static final RetryBudgetPolicy NO_RETRY_BUDGET = newPolicy(-1, 0, TimeUnit.SECONDS.toNanos(10));
+
+    private int _maxRetryPercent = 20;
+    private int _minRetriesPerSecond = 10;
+    private long _windowNanos = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * Set the number of retries that are allowed as a percentage of the number of calls for the built policy.  If never
+     * called, retries may add at most 20% to the number of calls.
+     *
+     * @param maxRetryPercent The percentage of calls, 0 or more, that may be retried.
+     * @return this
+     */
+    public RetryBudgetPolicyBuilder withMaxRetryPercent(int maxRetryPercent) {
+        checkState(maxRetryPercent >= 0);
+
+        _maxRetryPercent = maxRetryPercent;
+        return this;
+    }
+
+    /**
+     * Set the number of retries per second that are allowed no matter how few calls there have been.  If never called,
+     * 10 retries per second are allowed.
+     *
+     * @param minRetriesPerSecond The number of retries per second, 0 or more.
+     * @return this
+     */
+    public RetryBudgetPolicyBuilder withMinRetriesPerSecond(int minRetriesPerSecond) {
+        checkState(minRetriesPerSecond >= 0);
+
+        _minRetriesPerSecond = minRetriesPerSecond;
+        return this;
+    }
+
+    /**
+     * Set the amount of time over which calls and retries are counted.  If never called, the last 10 seconds are
+     * counted.
+     *
+     * @param window The length of the window.
+     * @param unit   The unit of time the {@code window} is in.
+     * @return this
+     */
+    public RetryBudgetPolicyBuilder withWindow(long window, TimeUnit unit) {
+        checkState(window > 0);
+        checkNotNull(unit);
+
+        _windowNanos = unit.toNanos(window);
+        return this;
+    }
+
+    /**
+     * Build the {@code RetryBudgetPolicy} specified by this builder.
+     *
+     * @return The {@code RetryBudgetPolicy} that was constructed.
+     */
+    public RetryBudgetPolicy build() {
+        return newPolicy(_maxRetryPercent, _minRetriesPerSecond, _windowNanos);
+    }
+
+    private static RetryBudgetPolicy newPolicy(final int maxRetryPercent, final int minRetriesPerSecond,
+                                               final long windowNanos) {
+        return new RetryBudgetPolicy() {
+            @Override
+            public int getMaxRetryPercent() {
+                return maxRetryPercent;
+            }
+
+            @Override
+            public int getMinRetriesPerSecond() {
+                return minRetriesPerSecond;
+            }
+
+            @Override
+            public long getWindow(TimeUnit unit) {
+                return unit.convert(windowNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
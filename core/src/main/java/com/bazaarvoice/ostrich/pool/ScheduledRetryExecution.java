@@ -0,0 +1,211 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A single asynchronous call whose attempts run on an executor and whose retries are scheduled on a timer.  Unlike a
+ * {@link com.bazaarvoice.ostrich.RetryPolicy} that sleeps, a call that's waiting to be retried doesn't tie up a thread
+ * of the executor.
+ * <p/>
+ * Attempts never overlap, each one is only scheduled once the one before it has failed.  An attempt may finish
+ * asynchronously by returning a future that isn't done yet, in which case no thread is tied up while it runs either.
+ */
+abstract class ScheduledRetryExecution<R> {
+    private final Ticker _ticker;
+    private final ExecutorService _executor;
+    private final ScheduledExecutorService _timer;
+    private final SettableFuture<R> _result = SettableFuture.create();
+    private final AtomicReference<Future<?>> _pending = new AtomicReference<Future<?>>();
+    private volatile Future<R> _currentAttempt;
+
+    // Only ever accessed by the current attempt, and the hand off between attempts happens through the timer and the
+    // executor, so these don't need to be volatile.
+    private long _startNanos;
+    private int _numAttempts;
+
+    ScheduledRetryExecution(Ticker ticker, ExecutorService executor, ScheduledExecutorService timer) {
+        _ticker = checkNotNull(ticker);
+        _executor = checkNotNull(executor);
+        _timer = checkNotNull(timer);
+    }
+
+    /**
+     * Makes a single attempt at the call.  Throwing fails the attempt the same way that failing the returned future
+     * does.
+     */
+    protected abstract ListenableFuture<R> attempt() throws Exception;
+
+    /**
+     * Whether a failed attempt may be retried.
+     */
+    protected abstract boolean isRetriableException(Exception e);
+
+    /**
+     * Returns how long to wait before the next attempt, or a negative value if there shouldn't be one.  Any exception
+     * thrown fails the call.
+     */
+    protected abstract long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit);
+
+    /**
+     * Submits the first attempt to the executor.
+     *
+     * @return A future for the result of the call.
+     * @throws RejectedExecutionException If the executor won't accept the first attempt.
+     */
+    ListenableFuture<R> start() {
+        _result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (_result.isCancelled()) {
+                    Future<?> pending = _pending.get();
+                    if (pending != null) {
+                        pending.cancel(true);
+                    }
+                    Future<R> currentAttempt = _currentAttempt;
+                    if (currentAttempt != null) {
+                        currentAttempt.cancel(true);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        _startNanos = _ticker.read();
+        submitAttempt();
+        return _result;
+    }
+
+    private void submitAttempt() {
+        Future<?> previous = _pending.get();
+        Future<?> attempt = _executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                runAttempt();
+            }
+        });
+        setPending(previous, attempt);
+    }
+
+    /**
+     * Remembers the attempt or retry that's now pending so that it can be cancelled.  A fast attempt may have already
+     * failed and scheduled its retry by the time it's submitted, in which case the retry is what's pending.
+     */
+    private void setPending(Future<?> previous, Future<?> pending) {
+        _pending.compareAndSet(previous, pending);
+    }
+
+    private void runAttempt() {
+        if (_result.isDone()) {
+            return;
+        }
+
+        final ListenableFuture<R> attempt;
+        try {
+            attempt = attempt();
+        } catch (Throwable t) {
+            attemptFailed(t);
+            return;
+        }
+
+        if (attempt.isDone()) {
+            attemptDone(attempt);
+            return;
+        }
+
+        _currentAttempt = attempt;
+        if (_result.isCancelled()) {
+            attempt.cancel(true);
+        }
+
+        // The attempt may finish on a thread that shouldn't be kept waiting, for example an I/O thread of a
+        // non-blocking client, so the outcome is handled on the executor.
+        attempt.addListener(new Runnable() {
+            @Override
+            public void run() {
+                handleOutcome(attempt);
+            }
+        }, MoreExecutors.sameThreadExecutor());
+    }
+
+    private void handleOutcome(final ListenableFuture<R> attempt) {
+        try {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    attemptDone(attempt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The executor has been shut down or is full.  Handling the outcome here is better than never completing
+            // the call, which is what would happen if the rejection were left to the attempt's listener list.
+            attemptDone(attempt);
+        }
+    }
+
+    private void attemptDone(ListenableFuture<R> attempt) {
+        _currentAttempt = null;
+        R result;
+        try {
+            result = Uninterruptibles.getUninterruptibly(attempt);
+        } catch (ExecutionException e) {
+            attemptFailed(e.getCause());
+            return;
+        } catch (CancellationException e) {
+            _result.cancel(false);
+            return;
+        }
+        _result.set(result);
+    }
+
+    private void attemptFailed(Throwable t) {
+        if (!(t instanceof Exception) || !isRetriableException((Exception) t)) {
+            _result.setException(t);
+            return;
+        }
+
+        long delayNanos;
+        try {
+            long elapsedTimeMs = TimeUnit.NANOSECONDS.toMillis(_ticker.read() - _startNanos);
+            delayNanos = getRetryDelay(++_numAttempts, elapsedTimeMs, TimeUnit.NANOSECONDS);
+        } catch (Throwable retryFailure) {
+            _result.setException(retryFailure);
+            return;
+        }
+        if (delayNanos < 0) {
+            _result.setException(new MaxRetriesException());
+            return;
+        }
+
+        try {
+            Future<?> previous = _pending.get();
+            Future<?> retry = _timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        submitAttempt();
+                    } catch (RejectedExecutionException e) {
+                        _result.setException(e);
+                    }
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+            setPending(previous, retry);
+        } catch (RejectedExecutionException e) {
+            _result.setException(e);
+        }
+    }
+}
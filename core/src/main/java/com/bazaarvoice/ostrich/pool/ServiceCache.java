@@ -2,34 +2,74 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.MapMaker;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import com.yammer.metrics.util.RatioGauge;
-import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.helpers.MessageFormatter;
 
 import java.io.Closeable;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * A cache for service instances. Useful if there's more than insignificant overhead in creating service connections
  * from a {@link ServiceEndPoint}.  Will spawn one thread (shared by all {@code ServiceCache}s) to handle evictions of
+ * idle service instances.  Each cache also has a few threads of its own to create service instances for callers, and
+ * another for background work such as warming up and validating idle instances, so an unreachable end point of one
+ * cache can't hold up the callers of another, and background work can't hold up callers at all.  The threads of a
+ * cache go away when it has nothing to do.
+ * <p/>
+ * Checking an idle instance out and back in only touches the instances of its own end point, and doesn't take any
+ * locks: idle instances are kept on a lock-free stack per end point, and the limits of the
+ * {@link ServiceCachingPolicy} are enforced with per end point counters that only need to be updated when an instance
+ * is created or destroyed.
+ * <p/>
+ * When there's no idle instance, the caller waits while a new instance is created in the background.  Only a few
+ * instances of an end point are created at once, however many callers are waiting, and each waiting caller gets
+ * whichever instance is available first, either one that was just created or one that another caller checked back in.
+ * That way a burst of calls to an end point that has just come back doesn't turn into a burst of connections to it,
+ * and one slow connection doesn't hold up calls that could be using an instance that's already been created.
+ * <p/>
+ * If the service factory is a {@link ValidatingServiceFactory}, instances that have been idle for a while are checked
+ * in the background, and the ones that no longer work are destroyed and replaced before a call can check them out.
+ * <p/>
+ * If the policy says to {@link ServiceCachingPolicy#getMaxNumSharedServiceInstancesPerEndPoint share} instances then
+ * nothing is checked out exclusively, every caller takes a reference to whichever shared instance of the end point is
+ * in use by the fewest callers, and an instance is only destroyed once the last reference to it is gone.
  */
 class ServiceCache<S> implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(ServiceCache.class);
@@ -38,21 +78,41 @@ class ServiceCache<S> implements Closeable {
                     .setNameFormat("ServiceCache-EvictionThread-%d")
                     .setDaemon(true)
                     .build());
+    private static final int NUM_CREATION_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final long EXECUTOR_KEEP_ALIVE_IN_SECONDS = 60;
 
-    /** How often to try to evict old service instances. */
+    /** How often to try to evict old service instances, unless the policy says otherwise. */
     @VisibleForTesting
     static final long EVICTION_DURATION_IN_SECONDS = 300;
 
-    private final GenericKeyedObjectPool<ServiceEndPoint, S> _pool;
-    private final AtomicLong _revisionNumber = new AtomicLong();
-    private final Map<ServiceEndPoint, Long> _invalidRevisions = new MapMaker().weakKeys().makeMap();
-    private final Map<S, Long> _checkOutRevisions = Maps.newConcurrentMap();
+    /** How much the peak number of instances in use between eviction runs counts towards an end point's average. */
+    private static final double WORKING_SET_WEIGHT = 0.2;
+
+    private final ServiceFactory<S> _serviceFactory;
+    private final Ticker _ticker;
+    private final int _maxNumServiceInstances;
+    private final int _maxNumServiceInstancesPerEndPoint;
+    private final int _minNumIdleServiceInstancesPerEndPoint;
+    private final int _maxNumSharedServiceInstancesPerEndPoint;
+    private final int _maxNumConcurrentCreationsPerEndPoint;
+    private final long _maxServiceInstanceIdleTimeNanos;
+    private final long _validationIntervalNanos;
+    private final double _idleServiceInstanceTrimmingFactor;
+    private final ServiceCachingPolicy.ExhaustionAction _exhaustionAction;
+    private final Executor _creationExecutor;
+    private final Executor _backgroundExecutor;
+    private final boolean _ownsExecutors;
+    private final ConcurrentMap<ServiceEndPoint, EndPointInstances<S>> _endPoints = Maps.newConcurrentMap();
+    private final AtomicInteger _numInstances = new AtomicInteger();
+    private final AtomicInteger _numWaiting = new AtomicInteger();
+    private final Object _waitLock = new Object();
     private final Future<?> _evictionFuture;
+    private final Future<?> _validationFuture;
     private volatile boolean _isClosed = false;
     private final Metrics _metrics;
     private final Timer _loadTimer;
-    private final AtomicLong _requestCount = new AtomicLong();
-    private final AtomicLong _missCount = new AtomicLong();
+    private final StripedCounter _requestCount = new StripedCounter();
+    private final StripedCounter _missCount = new StripedCounter();
     private final AtomicLong _loadSuccessCount = new AtomicLong();
     private final AtomicLong _loadFailureCount = new AtomicLong();
 
@@ -75,9 +135,82 @@ class ServiceCache<S> implements Closeable {
      */
     @VisibleForTesting
     ServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor) {
+        this(policy, serviceFactory, executor,
+                newExecutor(serviceFactory, "CreationThread", NUM_CREATION_THREADS),
+                newExecutor(serviceFactory, "BackgroundThread", 1),
+                Ticker.systemTicker(), true);
+    }
+
+    /**
+     * Builds a basic service cache.
+     *
+     * @param policy             The configuration for this cache.
+     * @param serviceFactory     The factory to fall back to on cache misses.
+     * @param executor           The executor to use for checking for idle instances to evict.
+     * @param creationExecutor   The executor to use for creating service instances for callers.
+     * @param backgroundExecutor The executor to use for warming up and validating idle instances.
+     * @param ticker             The ticker to use for measuring how long instances have been idle.
+     */
+    @VisibleForTesting
+    ServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor,
+                 Executor creationExecutor, Executor backgroundExecutor, Ticker ticker) {
+        this(policy, serviceFactory, executor, creationExecutor, backgroundExecutor, ticker, false);
+    }
+
+    private ServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory,
+                         ScheduledExecutorService executor, Executor creationExecutor, Executor backgroundExecutor,
+                         Ticker ticker, boolean ownsExecutors) {
         checkNotNull(policy);
         checkNotNull(serviceFactory);
         checkNotNull(executor);
+        checkNotNull(creationExecutor);
+        checkNotNull(backgroundExecutor);
+        checkNotNull(ticker);
+
+        _serviceFactory = serviceFactory;
+        _creationExecutor = creationExecutor;
+        _backgroundExecutor = backgroundExecutor;
+        _ownsExecutors = ownsExecutors;
+        _ticker = ticker;
+        _maxNumServiceInstances = policy.getMaxNumServiceInstances();
+        _maxNumServiceInstancesPerEndPoint = policy.getMaxNumServiceInstancesPerEndPoint();
+        _maxServiceInstanceIdleTimeNanos = policy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS);
+        _exhaustionAction = checkNotNull(policy.getCacheExhaustionAction());
+
+        // The extended settings are optional, policies that don't have them keep the cache's original behavior.
+        long evictionIntervalNanos;
+        if (policy instanceof ExtendedServiceCachingPolicy) {
+            ExtendedServiceCachingPolicy extendedPolicy = (ExtendedServiceCachingPolicy) policy;
+            _maxNumSharedServiceInstancesPerEndPoint = extendedPolicy.getMaxNumSharedServiceInstancesPerEndPoint();
+
+            // Shared instances are created as calls need them, and none of them are ever idle in the exclusive sense.
+            _minNumIdleServiceInstancesPerEndPoint = (_maxNumSharedServiceInstancesPerEndPoint > 0)
+                    ? 0
+                    : extendedPolicy.getMinNumIdleServiceInstancesPerEndPoint();
+
+            // There's always room for at least one creation, otherwise callers that miss would wait forever.
+            _maxNumConcurrentCreationsPerEndPoint =
+                    Math.max(1, extendedPolicy.getMaxNumConcurrentCreationsPerEndPoint());
+
+            // Only idle instances are checked, and shared instances are never idle.
+            _validationIntervalNanos = (serviceFactory instanceof ValidatingServiceFactory)
+                    && _maxNumSharedServiceInstancesPerEndPoint == 0
+                    ? Math.max(0, extendedPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS))
+                    : 0;
+
+            // Shared instances are never idle, so there's nothing to trim.
+            _idleServiceInstanceTrimmingFactor = (_maxNumSharedServiceInstancesPerEndPoint > 0)
+                    ? 0
+                    : extendedPolicy.getIdleServiceInstanceTrimmingFactor();
+            evictionIntervalNanos = extendedPolicy.getEvictionInterval(TimeUnit.NANOSECONDS);
+        } else {
+            _maxNumSharedServiceInstancesPerEndPoint = 0;
+            _minNumIdleServiceInstancesPerEndPoint = 0;
+            _maxNumConcurrentCreationsPerEndPoint = 1;
+            _validationIntervalNanos = 0;
+            _idleServiceInstanceTrimmingFactor = 0;
+            evictionIntervalNanos = 0;
+        }
 
         String serviceName = serviceFactory.getServiceName();
         _metrics = Metrics.forInstance(this, serviceName);
@@ -105,34 +238,10 @@ class ServiceCache<S> implements Closeable {
             }
         });
 
-        GenericKeyedObjectPool.Config poolConfig = new GenericKeyedObjectPool.Config();
-
-        // Global configuration
-        poolConfig.maxTotal = policy.getMaxNumServiceInstances();
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-        poolConfig.minEvictableIdleTimeMillis = policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS);
-
-        switch (policy.getCacheExhaustionAction()) {
-            case FAIL:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL;
-                break;
-            case GROW:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW;
-                break;
-            case WAIT:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
-                break;
+        if (evictionIntervalNanos <= 0) {
+            evictionIntervalNanos = TimeUnit.SECONDS.toNanos(EVICTION_DURATION_IN_SECONDS);
         }
 
-        // Per end point configuration
-        poolConfig.maxActive = policy.getMaxNumServiceInstancesPerEndPoint();
-        poolConfig.maxIdle = policy.getMaxNumServiceInstancesPerEndPoint();
-
-        // Make sure all instances in the pool are checked for staleness during eviction runs.
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-
-        _pool = new GenericKeyedObjectPool<ServiceEndPoint, S>(new PoolServiceFactory<S>(serviceFactory), poolConfig);
-
         // Don't schedule eviction if not caching or not expiring stale instances.
         _evictionFuture = (policy.getMaxNumServiceInstances() != 0)
                 || (policy.getMaxNumServiceInstancesPerEndPoint() != 0)
@@ -141,19 +250,28 @@ class ServiceCache<S> implements Closeable {
                       @Override
                       public void run() {
                           try {
-                              _pool.evict();
+                              evictIdleInstances();
                           } catch (Exception e) {
                               // Should never happen, but log just in case. Swallow exception so thread doesn't die.
                               LOG.error("ServiceCache eviction run failed.", e);
                           }
                       }
-                  }, EVICTION_DURATION_IN_SECONDS, EVICTION_DURATION_IN_SECONDS, TimeUnit.SECONDS)
+                  }, evictionIntervalNanos, evictionIntervalNanos, TimeUnit.NANOSECONDS)
                 : null;
-    }
 
-    @VisibleForTesting
-    GenericKeyedObjectPool<ServiceEndPoint, S> getPool() {
-        return _pool;
+        _validationFuture = (_validationIntervalNanos > 0)
+                ? executor.scheduleWithFixedDelay(new Runnable() {
+                      @Override
+                      public void run() {
+                          try {
+                              validateIdleInstances();
+                          } catch (Exception e) {
+                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                              LOG.error("ServiceCache validation run failed.", e);
+                          }
+                      }
+                  }, _validationIntervalNanos, _validationIntervalNanos, TimeUnit.NANOSECONDS)
+                : null;
     }
 
     /**
@@ -162,61 +280,498 @@ class ServiceCache<S> implements Closeable {
      * out.  Once the checked out instance is no longer in use, it should be returned by calling {@link #checkIn}.
      *
      * @param endPoint The end point to retrieve a cached service instance for.
-     * @return A cached service instance for the requested end point.
+     * @return A lease on a cached service instance for the requested end point.
      * @throws NoCachedInstancesAvailableException If the cache has reached total maximum capacity, or maximum capacity
      *         for the requested end point, and no connections that aren't already checked out are available.
      */
-    public S checkOut(ServiceEndPoint endPoint) throws Exception {
+    public ServiceHandle<S> checkOut(ServiceEndPoint endPoint) throws Exception {
         checkNotNull(endPoint);
-        _requestCount.incrementAndGet();
+        _requestCount.increment();
+
+        if (_maxNumSharedServiceInstancesPerEndPoint > 0) {
+            return checkOutShared(endPoint);
+        }
+
+        EndPointInstances<S> instances = getInstances(endPoint);
+        ServiceHandle<S> handle = instances.pollIdle();
+        if (handle == null) {
+            _missCount.increment();
+            while ((handle = checkOutWhenAvailable(instances)) == null) {
+                // The end point was evicted while we were waiting, so wait for one of its new instances instead.
+                instances = getInstances(endPoint);
+            }
+        }
 
+        if (_idleServiceInstanceTrimmingFactor > 0) {
+            handle.getGeneration().recordNumActive();
+        }
+        return handle;
+    }
+
+    /**
+     * Waits for whichever instance of the end point is available first, either one that's checked in or one that's
+     * created, and starts creating one if there's room and not too many are being created already.
+     *
+     * @return The instance, or {@code null} if the end point was evicted while waiting.
+     */
+    private ServiceHandle<S> checkOutWhenAvailable(EndPointInstances<S> instances) throws Exception {
+        SettableFuture<ServiceHandle<S>> waiter = SettableFuture.create();
+        instances.addWaiter(waiter);
+        _numWaiting.incrementAndGet();
+        boolean done = false;
         try {
-            S service = _pool.borrowObject(endPoint);
+            // Waiters are woken up when the end point is evicted, unless they started waiting after that.
+            if (instances.isRetired()) {
+                done = true;
+                return null;
+            }
 
-            // Remember the revision that we've checked this service out on in case we need to invalidate it later
-            _checkOutRevisions.put(service, _revisionNumber.incrementAndGet());
+            // Instances are handed to waiters from now on, but one may have been checked in before we started waiting.
+            ServiceHandle<S> handle = instances.pollIdle();
+            if (handle != null) {
+                done = true;
+                return handle;
+            }
+
+            Creation creation = startCreation(instances, false);
+            if (creation != Creation.STARTED && _exhaustionAction == ServiceCachingPolicy.ExhaustionAction.GROW
+                    && !hasRoom(instances)) {
+                // Growing past the limits of the policy doesn't wait for anyone else's instance, the same as if there
+                // were no cache at all, unless we've just been handed one.
+                if (waiter.cancel(false)) {
+                    instances.removeWaiter(waiter);
+                    done = true;
+                    return createGrown(instances);
+                }
+            } else if (creation == Creation.FULL
+                    && _exhaustionAction == ServiceCachingPolicy.ExhaustionAction.FAIL) {
+                done = true;
+                throw new NoCachedInstancesAvailableException();
+            }
+
+            try {
+                handle = waiter.get();
+                done = true;
+                return handle;
+            } catch (ExecutionException e) {
+                // Creating the instance we were waiting for failed.
+                done = true;
+                Throwables.propagateIfPossible(e.getCause(), Exception.class);
+                throw Throwables.propagate(e.getCause());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            _numWaiting.decrementAndGet();
+            instances.removeWaiter(waiter);
+            if (!done && !waiter.cancel(false)) {
+                // We were handed an instance just as we gave up, so pass it on to somebody else.
+                ServiceHandle<S> handle = getHandedOff(waiter);
+                if (handle != null) {
+                    returnInstance(handle);
+                }
+            }
+        }
+    }
+
+    private ServiceHandle<S> getHandedOff(Future<ServiceHandle<S>> waiter) {
+        try {
+            return Uninterruptibles.getUninterruptibly(waiter);
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private ServiceHandle<S> createGrown(EndPointInstances<S> instances) throws Exception {
+        instances.forceReserve();
+        _numInstances.incrementAndGet();
+        return create(instances);
+    }
+
+    /**
+     * Whether an instance of the end point could be created without going past the limits of the policy, not counting
+     * idle instances of other end points that could be destroyed to make room.
+     */
+    private boolean hasRoom(EndPointInstances<S> instances) {
+        return (_maxNumServiceInstancesPerEndPoint < 0
+                        || instances.getNumInstances() < _maxNumServiceInstancesPerEndPoint)
+                && (_maxNumServiceInstances < 0 || _numInstances.get() < _maxNumServiceInstances);
+    }
+
+    private enum Creation { STARTED, BUSY, FULL }
+
+    /**
+     * Starts creating an instance of the end point in the background, to be handed to whoever is waiting for one
+     * first, unless as many instances of the end point are already being created as the policy allows.
+     *
+     * @param grow Whether to create the instance even if the cache is at its limit.
+     */
+    private Creation startCreation(final EndPointInstances<S> instances, boolean grow) {
+        if (!instances.startCreating(_maxNumConcurrentCreationsPerEndPoint)) {
+            return Creation.BUSY;
+        }
+        if (grow) {
+            instances.forceReserve();
+            _numInstances.incrementAndGet();
+        } else if (!reserve(instances, true)) {
+            instances.finishCreating();
+            return Creation.FULL;
+        }
+
+        Runnable creation = new Runnable() {
+            @Override
+            public void run() {
+                finishCreation(instances);
+            }
+        };
+        try {
+            _creationExecutor.execute(creation);
+        } catch (RejectedExecutionException e) {
+            // The executor is shut down or swamped, so the caller will just have to wait for the instance itself.
+            creation.run();
+        }
+        return Creation.STARTED;
+    }
+
+    private void finishCreation(EndPointInstances<S> instances) {
+        ServiceHandle<S> handle;
+        try {
+            handle = create(instances);
+        } catch (Exception e) {
+            instances.finishCreating();
+            // Everyone who was waiting for the instance fails the same way they would have if they'd created it.
+            instances.failWaiters(e);
+            startCreationsForWaiters();
+            return;
+        }
+        instances.finishCreating();
+        returnInstance(handle);
+        startCreationsForWaiters();
+    }
 
-            return service;
-        } catch (NoSuchElementException e) {
-            _missCount.incrementAndGet();
+    /**
+     * Starts creating instances for callers that are waiting for one, now that there might be room for them.
+     */
+    private void startCreationsForWaiters() {
+        if (_numWaiting.get() == 0) {
+            return;
+        }
+        for (EndPointInstances<S> instances : _endPoints.values()) {
+            while (instances.getNumWaiters() > instances.getNumCreating()
+                    && startCreationForWaiters(instances) == Creation.STARTED) {
+                // Keep going until every waiter has an instance on the way, or there's no more room.
+            }
+        }
+    }
 
-            // This will happen if there are no available connections and there is no room for a new one,
-            // or if a newly created connection is not valid.
-            throw new NoCachedInstancesAvailableException();
+    private Creation startCreationForWaiters(EndPointInstances<S> instances) {
+        Creation creation = startCreation(instances, false);
+        if (creation == Creation.FULL && _exhaustionAction == ServiceCachingPolicy.ExhaustionAction.GROW) {
+            creation = startCreation(instances, true);
+        }
+        return creation;
+    }
+
+    /**
+     * Takes a reference to the shared instance of the end point that's in use by the fewest callers, creating a new
+     * one if they're all in use and there's room for another.
+     */
+    private ServiceHandle<S> checkOutShared(ServiceEndPoint endPoint) throws Exception {
+        for (;;) {
+            EndPointInstances<S> instances = getInstances(endPoint);
+            List<ServiceHandle<S>> shared = instances.getShared();
+            ServiceHandle<S> leastUsed = null;
+            for (ServiceHandle<S> handle : shared) {
+                if (leastUsed == null || handle.getNumUsers() < leastUsed.getNumUsers()) {
+                    leastUsed = handle;
+                }
+            }
+
+            // Only one instance of an end point is created at a time, callers that come along in the meantime use the
+            // instances that already exist.
+            boolean needsMore = (leastUsed == null || leastUsed.getNumUsers() > 0)
+                    && shared.size() < _maxNumSharedServiceInstancesPerEndPoint;
+            if (needsMore && instances.startCreatingShared()) {
+                try {
+                    return createShared(instances);
+                } finally {
+                    instances.finishCreatingShared();
+                    signalWaiters();
+                }
+            }
+
+            if (leastUsed == null) {
+                awaitShared(instances);
+            } else if (leastUsed.retain()) {
+                return leastUsed;
+            }
+            // Otherwise the instance was destroyed after we saw it, so look again.
+        }
+    }
+
+    private ServiceHandle<S> createShared(EndPointInstances<S> instances) throws Exception {
+        instances.forceReserve();
+        _numInstances.incrementAndGet();
+        _missCount.increment();
+        ServiceHandle<S> handle = create(instances);
+
+        // One reference for the caller on top of the cache's own.  If the end point was evicted in the meantime the
+        // caller still gets to use the instance, and it's destroyed once it's checked in.
+        handle.retain();
+        if (!instances.addShared(handle)) {
+            handle.release();
+        }
+        return handle;
+    }
+
+    /**
+     * Waits for another caller to finish creating the first shared instance of an end point.
+     */
+    private void awaitShared(EndPointInstances<S> instances) throws InterruptedException {
+        synchronized (_waitLock) {
+            _numWaiting.incrementAndGet();
+            try {
+                while (instances.isCreatingShared() && instances.getShared().isEmpty() && !instances.isRetired()) {
+                    _waitLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw e;
+            } finally {
+                _numWaiting.decrementAndGet();
+            }
         }
     }
 
     /**
      * Returns a service instance for an end point to the cache so that it may be used by other users.
      *
-     * @param endPoint The end point that the service instance belongs to.
-     * @param service  The service instance to return to the pool.
+     * @param handle The lease on the service instance to return to the pool.
      * @throws Exception Never.
      */
-    public void checkIn(ServiceEndPoint endPoint, S service) throws Exception {
+    public void checkIn(ServiceHandle<S> handle) throws Exception {
+        checkNotNull(handle);
+
+        if (_maxNumSharedServiceInstancesPerEndPoint > 0) {
+            if (handle.release()) {
+                discard(handle);
+            }
+            return;
+        }
+
+        returnInstance(handle);
+    }
+
+    /**
+     * Hands an instance to a caller that's waiting for one, or makes it idle if nobody is.
+     */
+    private void returnInstance(ServiceHandle<S> handle) {
+        returnInstance(handle, _ticker.read());
+    }
+
+    private void returnInstance(ServiceHandle<S> handle, long idleSinceNanos) {
+        // Somebody waiting for an instance gets this one no matter what.  If it shouldn't be kept, they'll find out
+        // when they check it in.
+        while (!returnToWaiterOrIdle(handle, idleSinceNanos)) {
+            // Somebody started waiting after we looked for a waiter, but before they could see the idle instance.
+        }
+
+        // The instance may have been destroyed, and with a limit on the cache as a whole an idle instance of this end
+        // point is room for another end point, so there may be room for the instances that others are waiting for.
+        startCreationsForWaiters();
+    }
+
+    /**
+     * @return {@code false} if the instance should be offered to waiters again.
+     */
+    private boolean returnToWaiterOrIdle(ServiceHandle<S> handle, long idleSinceNanos) {
+        EndPointInstances<S> instances = handle.getGeneration();
+        if (instances.handOff(handle)) {
+            return true;
+        }
+
+        // If the end point was evicted after this instance was created, or the cache is closed, then we shouldn't
+        // check it in.
+        if (_isClosed || instances.isRetired()) {
+            discard(handle);
+            return true;
+        }
+
+        // Instances that were created while growing past the limits of the policy aren't kept.
+        if (instances.releaseIfMoreThan(_maxNumServiceInstancesPerEndPoint)) {
+            _numInstances.decrementAndGet();
+            destroy(handle);
+            return true;
+        }
+        if (releaseIfMoreThan(_numInstances, _maxNumServiceInstances)) {
+            instances.release();
+            destroy(handle);
+            return true;
+        }
+
+        IdleNode<S> node = instances.pushIdle(handle, idleSinceNanos);
+
+        // The end point may have been evicted, or the cache closed, while the instance was being checked in, in which
+        // case whoever did it might not have seen it.
+        if ((_isClosed || instances.isRetired()) && instances.reclaim(node)) {
+            discard(handle);
+            return true;
+        }
+
+        // Waiters look for an idle instance after they start waiting, so if there are none now then nobody missed it.
+        return !instances.hasWaiters() || !instances.reclaim(node);
+    }
+
+    /**
+     * Creates idle instances for an end point in the background until it has as many as the policy says to keep on
+     * hand.  Does nothing if the policy doesn't say to keep any.
+     *
+     * @param endPoint The end point to create idle instances for.
+     */
+    public void warmUp(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        checkNotNull(service);
 
-        // Figure out if we should check this revision in.  If it was created before the last known invalid revision
-        // for this particular end point, or the cache is closed, then we shouldn't check it in.
-        Long invalidRevision = _invalidRevisions.get(endPoint);
-        Long serviceRevision = _checkOutRevisions.remove(service);
+        if (_minNumIdleServiceInstancesPerEndPoint > 0 && !_isClosed) {
+            warmUp(getInstances(endPoint));
+        }
+    }
 
-        if (_isClosed || (invalidRevision != null && serviceRevision < invalidRevision)) {
-            _pool.invalidateObject(endPoint, service);
-        } else {
-            _pool.returnObject(endPoint, service);
+    private void warmUp(final EndPointInstances<S> instances) {
+        // Only one warm up at a time for each end point, otherwise they'd all see the same shortfall.
+        if (instances.getNumIdle() >= _minNumIdleServiceInstancesPerEndPoint || !instances.startWarmUp()) {
+            return;
+        }
+
+        try {
+            _backgroundExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        fillIdle(instances);
+                    } finally {
+                        instances.finishWarmUp();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            instances.finishWarmUp();
+        }
+    }
+
+    private void fillIdle(EndPointInstances<S> instances) {
+        // Never make room by evicting another end point's instances, a warm up is only worth doing if there's room.
+        while (!_isClosed && !instances.isRetired()
+                && instances.getNumIdle() < _minNumIdleServiceInstancesPerEndPoint
+                && reserve(instances, false)) {
+            ServiceHandle<S> handle;
+            try {
+                handle = create(instances);
+            } catch (Exception e) {
+                // The end point will be topped up again by the next eviction run, no need to keep trying until then.
+                LOG.warn(MessageFormatter.format("Unable to create an idle service instance. End point ID: {}",
+                        instances.getEndPoint().getId()).getMessage(), e);
+                return;
+            }
+
+            returnInstance(handle);
+        }
+    }
+
+    /**
+     * Checks the instances that have been idle for at least the validation interval, for each end point in the
+     * background, so that a slow or unreachable end point doesn't hold up the others.
+     */
+    @VisibleForTesting
+    void validateIdleInstances() {
+        for (final EndPointInstances<S> instances : _endPoints.values()) {
+            // Only one check at a time for each end point, in case checking takes longer than the interval.
+            if (!instances.startValidation()) {
+                continue;
+            }
+            try {
+                _backgroundExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            validateIdleInstances(instances);
+                        } finally {
+                            instances.finishValidation();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                instances.finishValidation();
+            }
+        }
+    }
+
+    private void validateIdleInstances(EndPointInstances<S> instances) {
+        ValidatingServiceFactory<S> factory = (ValidatingServiceFactory<S>) _serviceFactory;
+
+        // Instances that were used more recently than that are known to work.  The instances are checked one at a time
+        // so that the rest can still be checked out in the meantime.
+        for (IdleNode<S> node : instances.getIdleNodes(_ticker.read(), _validationIntervalNanos)) {
+            if (_isClosed || instances.isRetired()) {
+                return;
+            }
+            if (!instances.reclaim(node)) {
+                continue;  // Checked out since we looked.
+            }
+
+            ServiceHandle<S> handle = node._handle;
+            if (isValid(factory, handle)) {
+                // Still as idle as it was, as far as evicting idle instances is concerned.
+                returnInstance(handle, node._idleSinceNanos);
+            } else {
+                discard(handle);
+                replace(instances);
+            }
         }
     }
 
+    private boolean isValid(ValidatingServiceFactory<S> factory, ServiceHandle<S> handle) {
+        try {
+            return factory.isValid(handle.getEndPoint(), handle.getService());
+        } catch (Exception e) {
+            LOG.warn(MessageFormatter.format("Error validating idle service instance. End point ID: {}",
+                    handle.getEndPoint().getId()).getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Creates an idle instance in place of one that was destroyed for not working, so that the next caller doesn't
+     * have to wait for it.
+     */
+    private void replace(EndPointInstances<S> instances) {
+        if (_isClosed || instances.isRetired() || !reserve(instances, false)) {
+            startCreationsForWaiters();
+            return;
+        }
+
+        ServiceHandle<S> handle;
+        try {
+            handle = create(instances);
+        } catch (Exception e) {
+            LOG.warn(MessageFormatter.format("Unable to replace an idle service instance. End point ID: {}",
+                    instances.getEndPoint().getId()).getMessage(), e);
+            startCreationsForWaiters();
+            return;
+        }
+        returnInstance(handle);
+    }
+
     public int getNumIdleInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumIdle(endPoint);
+        EndPointInstances<S> instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumIdle() : 0;
     }
 
     public int getNumActiveInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumActive(endPoint);
+        EndPointInstances<S> instances = _endPoints.get(endPoint);
+        return (instances != null) ? instances.getNumActive() : 0;
     }
 
     @Override
@@ -226,46 +781,565 @@ class ServiceCache<S> implements Closeable {
         if (_evictionFuture != null) {
             _evictionFuture.cancel(false);
         }
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
+        }
 
-        _pool.clear();
+        for (ServiceEndPoint endPoint : _endPoints.keySet()) {
+            evict(endPoint);
+        }
         _metrics.close();
+
+        // Let any creations that are under way finish, so that whoever is waiting for them isn't left hanging.
+        if (_ownsExecutors) {
+            ((ExecutorService) _creationExecutor).shutdown();
+            ((ExecutorService) _backgroundExecutor).shutdown();
+        }
     }
 
     public void evict(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
-        // Mark all service instances created prior to now as invalid so that we don't inadvertently check them back in
-        _invalidRevisions.put(endPoint, _revisionNumber.incrementAndGet());
-        _pool.clear(endPoint);
+        // Retire all service instances created prior to now so that we don't inadvertently check them back in.
+        EndPointInstances<S> instances = _endPoints.remove(endPoint);
+        if (instances != null) {
+            retire(instances);
+            startCreationsForWaiters();
+        }
     }
 
-    private class PoolServiceFactory<S> extends BaseKeyedPoolableObjectFactory<ServiceEndPoint, S> {
-        private final ServiceFactory<S> _serviceFactory;
+    /**
+     * Destroys instances that have been idle for longer than the policy allows, trims idle instances that are more
+     * than an end point has needed recently, forgets about end points that no longer have any instances, and tops up
+     * end points that have fewer idle instances than the policy says to keep.
+     */
+    @VisibleForTesting
+    void evictIdleInstances() {
+        long now = _ticker.read();
+        for (Map.Entry<ServiceEndPoint, EndPointInstances<S>> entry : _endPoints.entrySet()) {
+            EndPointInstances<S> instances = entry.getValue();
+            int maxNumIdle = (_idleServiceInstanceTrimmingFactor > 0) ? getMaxNumIdle(instances) : Integer.MAX_VALUE;
+            List<ServiceHandle<S>> idle = instances.claimIdle(now, _maxServiceInstanceIdleTimeNanos,
+                    _minNumIdleServiceInstancesPerEndPoint, maxNumIdle);
+            for (ServiceHandle<S> handle : idle) {
+                discard(handle);
+            }
 
-        public PoolServiceFactory(ServiceFactory<S> serviceFactory) {
-            _serviceFactory = serviceFactory;
+            if (_minNumIdleServiceInstancesPerEndPoint > 0) {
+                // End points are only forgotten once they're evicted, even if creating instances for them failed.
+                if (!_isClosed) {
+                    warmUp(instances);
+                }
+            } else if (instances.getNumInstances() == 0 && instances.getNumWaiters() == 0
+                    && _endPoints.remove(entry.getKey(), instances)) {
+                retire(instances);
+            }
         }
+        startCreationsForWaiters();
+    }
 
-        @Override
-        public S makeObject(final ServiceEndPoint endPoint) throws Exception {
-            _missCount.incrementAndGet();
+    /**
+     * Works out how many idle instances of an end point to keep, given how many it has needed recently.  Only about
+     * half of the idle instances beyond that are trimmed on each run, so the instances left over from a peak in traffic
+     * go away gradually, and a short lull doesn't trim instances that are about to be needed again.
+     */
+    private int getMaxNumIdle(EndPointInstances<S> instances) {
+        double workingSet = instances.updateWorkingSet(WORKING_SET_WEIGHT);
+        int numIdle = instances.getNumIdle();
+        int numNeeded = (int) Math.round(workingSet * _idleServiceInstanceTrimmingFactor) - instances.getNumActive();
+        int numExtra = numIdle - Math.max(numNeeded, _minNumIdleServiceInstancesPerEndPoint);
+        return (numExtra > 0) ? numIdle - (numExtra + 1) / 2 : Integer.MAX_VALUE;
+    }
 
-            TimerContext timer = _loadTimer.time();
-            try {
-                S service = _serviceFactory.create(endPoint);
-                _loadSuccessCount.incrementAndGet();
-                return service;
-            } catch (Exception e) {
-                _loadFailureCount.incrementAndGet();
-                throw e;
-            } finally {
-                timer.stop();
+    private EndPointInstances<S> getInstances(ServiceEndPoint endPoint) {
+        EndPointInstances<S> instances = _endPoints.get(endPoint);
+        if (instances == null) {
+            EndPointInstances<S> created = new EndPointInstances<S>(endPoint);
+            instances = _endPoints.putIfAbsent(endPoint, created);
+            if (instances == null) {
+                instances = created;
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Reserves room for a new instance of an end point, optionally making room by destroying whichever instance of
+     * another end point has been idle the longest if the cache as a whole is full.
+     *
+     * @return {@code true} if there was room, {@code false} if the cache is at its limit.
+     */
+    private boolean reserve(EndPointInstances<S> instances, boolean makeRoom) {
+        if (!instances.reserve(_maxNumServiceInstancesPerEndPoint)) {
+            return false;
+        }
+        for (;;) {
+            int numInstances = _numInstances.get();
+            if (_maxNumServiceInstances < 0 || numInstances < _maxNumServiceInstances) {
+                if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                    return true;
+                }
+            } else if (!makeRoom || !discardOldestIdle()) {
+                instances.release();
+                return false;
+            }
+        }
+    }
+
+    private boolean discardOldestIdle() {
+        for (;;) {
+            IdleNode<S> oldest = null;
+            EndPointInstances<S> oldestInstances = null;
+            for (EndPointInstances<S> instances : _endPoints.values()) {
+                IdleNode<S> node = instances.peekOldestIdle();
+                if (node != null && (oldest == null || node._idleSinceNanos - oldest._idleSinceNanos < 0)) {
+                    oldest = node;
+                    oldestInstances = instances;
+                }
+            }
+            if (oldest == null) {
+                return false;
+            }
+            if (oldestInstances.reclaim(oldest)) {
+                discard(oldest._handle);
+                return true;
+            }
+        }
+    }
+
+    private ServiceHandle<S> create(EndPointInstances<S> instances) throws Exception {
+        TimerContext timer = _loadTimer.time();
+        try {
+            ServiceHandle<S> handle = new ServiceHandle<S>(instances.getEndPoint(),
+                    _serviceFactory.create(instances.getEndPoint()), instances);
+            _loadSuccessCount.incrementAndGet();
+            return handle;
+        } catch (Exception e) {
+            _loadFailureCount.incrementAndGet();
+            instances.release();
+            _numInstances.decrementAndGet();
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private void retire(EndPointInstances<S> instances) {
+        for (ServiceHandle<S> handle : instances.retire()) {
+            discard(handle);
+        }
+    }
+
+    /**
+     * Destroys an instance that is still counted against the limits of the policy.
+     */
+    private void discard(ServiceHandle<S> handle) {
+        handle.getGeneration().release();
+        _numInstances.decrementAndGet();
+        destroy(handle);
+    }
+
+    /**
+     * Destroys an instance that is no longer counted against the limits of the policy.
+     */
+    private void destroy(ServiceHandle<S> handle) {
+        try {
+            _serviceFactory.destroy(handle.getEndPoint(), handle.getService());
+        } catch (Exception e) {
+            LOG.warn(MessageFormatter.format("Error destroying cached service instance. End point ID: {}",
+                    handle.getEndPoint().getId()).getMessage(), e);
+        }
+    }
+
+    private void signalWaiters() {
+        if (_numWaiting.get() > 0) {
+            synchronized (_waitLock) {
+                _waitLock.notifyAll();
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(ServiceFactory<?> serviceFactory, String threadName, int numThreads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads,
+                EXECUTOR_KEEP_ALIVE_IN_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ServiceCache-" + serviceFactory.getServiceName() + "-" + threadName + "-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Decrements a count if it's over a limit, where a negative limit means there's no limit.
+     */
+    private static boolean releaseIfMoreThan(AtomicInteger count, int limit) {
+        if (limit < 0) {
+            return false;
+        }
+        for (;;) {
+            int current = count.get();
+            if (current <= limit) {
+                return false;
+            }
+            if (count.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * The instances of one end point.  Evicting an end point retires its {@code EndPointInstances}, and an instance
+     * created since is part of a new one, so the {@code EndPointInstances} that a {@link ServiceHandle} belongs to is
+     * the generation of the end point's instances it was created in.
+     */
+    static final class EndPointInstances<S> {
+        private final ServiceEndPoint _endPoint;
+
+        // A Treiber stack, so the most recently used instances are reused first and the rest are left to go idle.
+        private final AtomicReference<IdleNode<S>> _idle = new AtomicReference<IdleNode<S>>();
+        private final AtomicInteger _numIdle = new AtomicInteger();
+
+        // Both idle and checked out instances.
+        private final AtomicInteger _numInstances = new AtomicInteger();
+        private volatile boolean _retired;
+        private final AtomicBoolean _warmingUp = new AtomicBoolean();
+        private final AtomicBoolean _validating = new AtomicBoolean();
+
+        // The most instances in use at once since the last eviction run, and the moving average of that which only the
+        // eviction runs update.
+        private final AtomicInteger _peakNumActive = new AtomicInteger();
+        private volatile double _workingSet = Double.NaN;
+
+        // Callers waiting for an instance, in the order they started waiting, and how many instances are being created
+        // for them.  A waiter is only counted until it's taken off the queue.
+        private final Queue<SettableFuture<ServiceHandle<S>>> _waiters =
+                new ConcurrentLinkedQueue<SettableFuture<ServiceHandle<S>>>();
+        private final AtomicInteger _numWaiters = new AtomicInteger();
+        private final AtomicInteger _numCreating = new AtomicInteger();
+
+        // Only used when instances are shared.  Copied on write, since it only changes when an instance is created.
+        private volatile List<ServiceHandle<S>> _shared = Collections.emptyList();
+        private final Object _sharedLock = new Object();
+        private final AtomicBoolean _creatingShared = new AtomicBoolean();
+
+        EndPointInstances(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+
+        ServiceEndPoint getEndPoint() {
+            return _endPoint;
+        }
+
+        boolean isRetired() {
+            return _retired;
+        }
+
+        int getNumInstances() {
+            return _numInstances.get();
+        }
+
+        int getNumIdle() {
+            return Math.max(0, _numIdle.get());
+        }
+
+        int getNumActive() {
+            return Math.max(0, _numInstances.get() - _numIdle.get());
+        }
+
+        void recordNumActive() {
+            int numActive = getNumActive();
+            for (;;) {
+                int peak = _peakNumActive.get();
+                if (numActive <= peak || _peakNumActive.compareAndSet(peak, numActive)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Folds the most instances in use at once since the last call into the moving average, and starts over.
+         */
+        double updateWorkingSet(double weight) {
+            int peak = _peakNumActive.getAndSet(getNumActive());
+            double workingSet = Double.isNaN(_workingSet) ? peak : _workingSet + weight * (peak - _workingSet);
+            _workingSet = workingSet;
+            return workingSet;
+        }
+
+        boolean startValidation() {
+            return _validating.compareAndSet(false, true);
+        }
+
+        void finishValidation() {
+            _validating.set(false);
+        }
+
+        boolean startWarmUp() {
+            return _warmingUp.compareAndSet(false, true);
+        }
+
+        void finishWarmUp() {
+            _warmingUp.set(false);
+        }
+
+        void addWaiter(SettableFuture<ServiceHandle<S>> waiter) {
+            _numWaiters.incrementAndGet();
+            _waiters.add(waiter);
+        }
+
+        void removeWaiter(SettableFuture<ServiceHandle<S>> waiter) {
+            if (_waiters.remove(waiter)) {
+                _numWaiters.decrementAndGet();
+            }
+        }
+
+        private SettableFuture<ServiceHandle<S>> pollWaiter() {
+            SettableFuture<ServiceHandle<S>> waiter = _waiters.poll();
+            if (waiter != null) {
+                _numWaiters.decrementAndGet();
+            }
+            return waiter;
+        }
+
+        boolean hasWaiters() {
+            return !_waiters.isEmpty();
+        }
+
+        int getNumWaiters() {
+            return _numWaiters.get();
+        }
+
+        /**
+         * Gives an instance to the caller that has been waiting the longest, if any.
+         */
+        boolean handOff(ServiceHandle<S> handle) {
+            for (SettableFuture<ServiceHandle<S>> waiter; (waiter = pollWaiter()) != null; ) {
+                // Waiters that gave up are left in the queue until they remove themselves.
+                if (waiter.set(handle)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void failWaiters(Exception e) {
+            for (SettableFuture<ServiceHandle<S>> waiter; (waiter = pollWaiter()) != null; ) {
+                waiter.setException(e);
+            }
+        }
+
+        int getNumCreating() {
+            return _numCreating.get();
+        }
+
+        boolean startCreating(int limit) {
+            for (;;) {
+                int current = _numCreating.get();
+                if (current >= limit) {
+                    return false;
+                }
+                if (_numCreating.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void finishCreating() {
+            _numCreating.decrementAndGet();
+        }
+
+        List<ServiceHandle<S>> getShared() {
+            return _shared;
+        }
+
+        boolean isCreatingShared() {
+            return _creatingShared.get();
+        }
+
+        boolean startCreatingShared() {
+            return _creatingShared.compareAndSet(false, true);
+        }
+
+        void finishCreatingShared() {
+            _creatingShared.set(false);
+        }
+
+        /**
+         * Adds a newly created instance to the shared instances.
+         *
+         * @return {@code false} if these instances have been retired, in which case the instance wasn't added.
+         */
+        boolean addShared(ServiceHandle<S> handle) {
+            synchronized (_sharedLock) {
+                if (_retired) {
+                    return false;
+                }
+                _shared = ImmutableList.<ServiceHandle<S>>builder().addAll(_shared).add(handle).build();
+                return true;
+            }
+        }
+
+        boolean reserve(int limit) {
+            for (;;) {
+                int current = _numInstances.get();
+                if (limit >= 0 && current >= limit) {
+                    return false;
+                }
+                if (_numInstances.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void forceReserve() {
+            _numInstances.incrementAndGet();
+        }
+
+        void release() {
+            _numInstances.decrementAndGet();
+        }
+
+        boolean releaseIfMoreThan(int limit) {
+            return ServiceCache.releaseIfMoreThan(_numInstances, limit);
+        }
+
+        ServiceHandle<S> pollIdle() {
+            for (;;) {
+                IdleNode<S> head = _idle.get();
+                if (head == null) {
+                    return null;
+                }
+                if (_idle.compareAndSet(head, head._next) && reclaim(head)) {
+                    return head._handle;
+                }
+            }
+        }
+
+        IdleNode<S> pushIdle(ServiceHandle<S> handle, long nowNanos) {
+            IdleNode<S> node = new IdleNode<S>(handle, nowNanos);
+            _numIdle.incrementAndGet();
+            for (;;) {
+                IdleNode<S> head = _idle.get();
+                node._next = head;
+                if (_idle.compareAndSet(head, node)) {
+                    return node;
+                }
+            }
+        }
+
+        /**
+         * Takes an idle instance for whoever calls this.  Nodes can be claimed while they're still on the stack, in
+         * which case they're skipped when popped.
+         */
+        boolean reclaim(IdleNode<S> node) {
+            if (!node._claimed.compareAndSet(false, true)) {
+                return false;
+            }
+            _numIdle.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Returns the nodes of the instances that have been idle for at least the given amount of time, without
+         * claiming them.
+         */
+        List<IdleNode<S>> getIdleNodes(long nowNanos, long idleTimeNanos) {
+            List<IdleNode<S>> nodes = Lists.newArrayList();
+            for (IdleNode<S> node = _idle.get(); node != null; node = node._next) {
+                if (!node._claimed.get() && nowNanos - node._idleSinceNanos >= idleTimeNanos) {
+                    nodes.add(node);
+                }
+            }
+            return nodes;
+        }
+
+        IdleNode<S> peekOldestIdle() {
+            IdleNode<S> oldest = null;
+            for (IdleNode<S> node = _idle.get(); node != null; node = node._next) {
+                if (!node._claimed.get()) {
+                    oldest = node;
+                }
+            }
+            return oldest;
+        }
+
+        /**
+         * Claims the instances that have been idle for at least the given amount of time, other than the most recently
+         * used ones that are to be kept, and the least recently used ones beyond the most that are to be kept.
+         * Unlinks the nodes of every claimed instance from the stack so they don't pile up underneath instances that
+         * are in use.
+         * <p/>
+         * Only the node at the top of the stack is ever changed by a push or pop, and a node's link to the node below
+         * it is only ever changed here, so unlinking nodes below the top is safe as long as only one thread at a time
+         * does it.
+         */
+        synchronized List<ServiceHandle<S>> claimIdle(long nowNanos, long idleTimeNanos, int minNumToKeep,
+                                                      int maxNumToKeep) {
+            List<ServiceHandle<S>> claimed = Lists.newArrayList();
+            IdleNode<S> previous = null;
+            int numKept = 0;
+            for (IdleNode<S> node = _idle.get(); node != null; node = node._next) {
+                if (!node._claimed.get()) {
+                    boolean expired = idleTimeNanos > 0 && nowNanos - node._idleSinceNanos >= idleTimeNanos;
+                    if (numKept < minNumToKeep || (numKept < maxNumToKeep && !expired)) {
+                        numKept++;
+                    } else if (reclaim(node)) {
+                        claimed.add(node._handle);
+                    }
+                }
+                if (!node._claimed.get()) {
+                    previous = node;
+                } else if (previous != null) {
+                    previous._next = node._next;
+                }
             }
+            return claimed;
         }
 
-        @Override
-        public void destroyObject(ServiceEndPoint endPoint, S service) throws Exception {
-            _serviceFactory.destroy(endPoint, service);
+        /**
+         * Stops the instances from being checked in again, and claims the ones that are idle.  Shared instances stop
+         * being handed out, and the ones that nobody is using are claimed too.  Callers waiting for an instance are
+         * woken up with {@code null}.
+         */
+        List<ServiceHandle<S>> retire() {
+            _retired = true;
+
+            List<ServiceHandle<S>> claimed = Lists.newArrayList();
+            List<ServiceHandle<S>> shared;
+            synchronized (_sharedLock) {
+                shared = _shared;
+                _shared = Collections.emptyList();
+            }
+            for (ServiceHandle<S> handle : shared) {
+                if (handle.release()) {
+                    claimed.add(handle);
+                }
+            }
+
+            for (IdleNode<S> node = _idle.getAndSet(null); node != null; node = node._next) {
+                if (reclaim(node)) {
+                    claimed.add(node._handle);
+                }
+            }
+
+            // Callers waiting for an instance start over with the end point's new instances.
+            for (SettableFuture<ServiceHandle<S>> waiter; (waiter = pollWaiter()) != null; ) {
+                waiter.set(null);
+            }
+            return claimed;
+        }
+    }
+
+    private static final class IdleNode<S> {
+        private final ServiceHandle<S> _handle;
+        private final long _idleSinceNanos;
+        private final AtomicBoolean _claimed = new AtomicBoolean();
+        private volatile IdleNode<S> _next;
+
+        IdleNode(ServiceHandle<S> handle, long idleSinceNanos) {
+            _handle = handle;
+            _idleSinceNanos = idleSinceNanos;
         }
     }
-}
\ No newline at end of file
+}
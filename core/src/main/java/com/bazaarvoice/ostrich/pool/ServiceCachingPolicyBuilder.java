@@ -15,7 +15,13 @@ public class ServiceCachingPolicyBuilder {
 
     private int _maxNumServiceInstances = -1;
     private int _maxNumServiceInstancesPerEndPoint = -1;
+    private int _minNumIdleServiceInstancesPerEndPoint;
+    private int _maxNumSharedServiceInstancesPerEndPoint;
+    private int _maxNumConcurrentCreationsPerEndPoint = 1;
     private long _maxServiceInstanceIdleTimeNanos;
+    private long _idleServiceInstanceValidationIntervalNanos;
+    private double _idleServiceInstanceTrimmingFactor;
+    private long _evictionIntervalNanos;
     private ExhaustionAction _cacheExhaustionAction = ExhaustionAction.GROW;
 
     /**
@@ -48,6 +54,25 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Set the number of idle service instances to keep cached for each end point in the built policy.  Instances are
+     * created in the background when an end point is discovered and after instances are evicted.  If never called,
+     * instances will only be created when they're needed.
+     * <p/>
+     * NOTE: The minimum number of idle instances must be less than or equal to the per end point maximum, unless the
+     * maximum is unbounded.
+     *
+     * @param minNumIdleServiceInstancesPerEndPoint The number of idle service instances to keep for each end point.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMinNumIdleServiceInstancesPerEndPoint(
+            int minNumIdleServiceInstancesPerEndPoint) {
+        checkState(minNumIdleServiceInstancesPerEndPoint >= 0);
+
+        _minNumIdleServiceInstancesPerEndPoint = minNumIdleServiceInstancesPerEndPoint;
+        return this;
+    }
+
     /**
      * Set the amount of time a cached instance is allowed to sit idle in the cache before being eligible for
      * expiration.  If never called, cached instances will not expire solely due to idle time.
@@ -64,6 +89,95 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Trim the idle service instances of each end point to fit demand in the built policy.  The cache keeps a moving
+     * average of the most instances of each end point in use at once, and destroys idle instances beyond that average
+     * times the given factor, a few at a time on each eviction run.  For example a factor of 1.5 keeps half again as
+     * many instances as have been in use recently.  If never called, idle instances will only be evicted for being
+     * idle too long.
+     *
+     * @param trimmingFactor How many instances to keep relative to the number in use recently, at least 1.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withIdleServiceInstanceTrimmingFactor(double trimmingFactor) {
+        checkState(trimmingFactor >= 1);
+
+        _idleServiceInstanceTrimmingFactor = trimmingFactor;
+        return this;
+    }
+
+    /**
+     * Set how often the cache of the built policy looks for idle instances to evict or trim.  If never called, it looks
+     * every 5 minutes.
+     *
+     * @param evictionInterval The time between eviction runs.
+     * @param unit             The unit of time the {@code evictionInterval} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withEvictionInterval(int evictionInterval, TimeUnit unit) {
+        checkState(evictionInterval > 0);
+        checkNotNull(unit);
+
+        _evictionIntervalNanos = unit.toNanos(evictionInterval);
+        return this;
+    }
+
+    /**
+     * Set how often to check that idle service instances still work in the built policy.  Instances that have been idle
+     * for at least this long are checked with {@link com.bazaarvoice.ostrich.ValidatingServiceFactory#isValid}, and the
+     * ones that don't work are destroyed and replaced before a call can use them.  Only applies if the service factory
+     * is a {@code ValidatingServiceFactory}.  If never called, idle instances will not be checked.
+     *
+     * @param validationInterval The time between checks of an idle instance.
+     * @param unit               The unit of time the {@code validationInterval} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withIdleServiceInstanceValidationInterval(int validationInterval,
+                                                                              TimeUnit unit) {
+        checkState(validationInterval > 0);
+        checkNotNull(unit);
+
+        _idleServiceInstanceValidationIntervalNanos = unit.toNanos(validationInterval);
+        return this;
+    }
+
+    /**
+     * Share service instances between all callers in the built policy, instead of checking each instance out to one
+     * caller at a time.  Only use this if the service instances created by the {@code ServiceFactory} are thread safe,
+     * for example clients that multiplex many calls over a single connection.  Each call uses the shared instance of an
+     * end point that the fewest calls are using, and new instances are created as needed up to the given number.  If
+     * never called, instances will not be shared.
+     * <p/>
+     * NOTE: When instances are shared, the other limits of the policy and the {@code ExhaustionAction} don't apply.
+     *
+     * @param maxNumSharedServiceInstancesPerEndPoint The maximum number of shared service instances for one end point.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withSharedServiceInstances(int maxNumSharedServiceInstancesPerEndPoint) {
+        checkState(maxNumSharedServiceInstancesPerEndPoint > 0);
+
+        _maxNumSharedServiceInstancesPerEndPoint = maxNumSharedServiceInstancesPerEndPoint;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of service instances for a single end point that can be created at once in the built
+     * policy.  Callers that need an instance while the end point is at this limit wait for whichever instance becomes
+     * available first, either one that's being created or one that's checked back in.  If never called, only one
+     * instance of an end point will be created at a time.
+     *
+     * @param maxNumConcurrentCreationsPerEndPoint The maximum number of service instances for one end point that can be
+     *                                             created at once.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMaxNumConcurrentCreationsPerEndPoint(
+            int maxNumConcurrentCreationsPerEndPoint) {
+        checkState(maxNumConcurrentCreationsPerEndPoint > 0);
+
+        _maxNumConcurrentCreationsPerEndPoint = maxNumConcurrentCreationsPerEndPoint;
+        return this;
+    }
+
     /**
      * Set the {@code ExhaustionAction} for the built caching policy.  If never called, will default to
      * {@code ExhaustionAction.GROW}.
@@ -79,19 +193,28 @@ public class ServiceCachingPolicyBuilder {
     }
 
     /**
-     * Build the {@code ServiceCachingPolicy} specified by this builder.
+     * Build the {@code ServiceCachingPolicy} specified by this builder.  The policy also implements
+     * {@link ExtendedServiceCachingPolicy}, so the cache uses every setting made through this builder.
      *
      * @return The {@code ServiceCachingPolicy} that was constructed.
      */
     public ServiceCachingPolicy build() {
         checkState(_maxNumServiceInstances == -1 || _maxNumServiceInstancesPerEndPoint <= _maxNumServiceInstances);
+        checkState(_maxNumServiceInstancesPerEndPoint == -1
+                || _minNumIdleServiceInstancesPerEndPoint <= _maxNumServiceInstancesPerEndPoint);
 
         final int maxNumServiceInstances = _maxNumServiceInstances;
         final int maxNumServiceInstancesPerEndPoint = _maxNumServiceInstancesPerEndPoint;
+        final int minNumIdleServiceInstancesPerEndPoint = _minNumIdleServiceInstancesPerEndPoint;
+        final int maxNumSharedServiceInstancesPerEndPoint = _maxNumSharedServiceInstancesPerEndPoint;
+        final int maxNumConcurrentCreationsPerEndPoint = _maxNumConcurrentCreationsPerEndPoint;
         final long maxServiceInstanceIdleTimeNanos = _maxServiceInstanceIdleTimeNanos;
+        final long idleServiceInstanceValidationIntervalNanos = _idleServiceInstanceValidationIntervalNanos;
+        final double idleServiceInstanceTrimmingFactor = _idleServiceInstanceTrimmingFactor;
+        final long evictionIntervalNanos = _evictionIntervalNanos;
         final ExhaustionAction cacheExhaustionAction = _cacheExhaustionAction;
 
-        return new ServiceCachingPolicy() {
+        return new ExtendedServiceCachingPolicy() {
             @Override
             public int getMaxNumServiceInstances() {
                 return maxNumServiceInstances;
@@ -102,11 +225,41 @@ public class ServiceCachingPolicyBuilder {
                 return maxNumServiceInstancesPerEndPoint;
             }
 
+            @Override
+            public int getMinNumIdleServiceInstancesPerEndPoint() {
+                return minNumIdleServiceInstancesPerEndPoint;
+            }
+
+            @Override
+            public int getMaxNumSharedServiceInstancesPerEndPoint() {
+                return maxNumSharedServiceInstancesPerEndPoint;
+            }
+
+            @Override
+            public int getMaxNumConcurrentCreationsPerEndPoint() {
+                return maxNumConcurrentCreationsPerEndPoint;
+            }
+
             @Override
             public long getMaxServiceInstanceIdleTime(TimeUnit unit) {
                 return unit.convert(maxServiceInstanceIdleTimeNanos, TimeUnit.NANOSECONDS);
             }
 
+            @Override
+            public long getIdleServiceInstanceValidationInterval(TimeUnit unit) {
+                return unit.convert(idleServiceInstanceValidationIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public double getIdleServiceInstanceTrimmingFactor() {
+                return idleServiceInstanceTrimmingFactor;
+            }
+
+            @Override
+            public long getEvictionInterval(TimeUnit unit) {
+                return unit.convert(evictionIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
             @Override
             public ExhaustionAction getCacheExhaustionAction() {
                 return cacheExhaustionAction;
@@ -0,0 +1,74 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A lease on a service instance that has been checked out of a {@link ServiceCache}.  The lease is what gets checked
+ * back in, and it remembers which generation of its end point's instances it was created in, so the cache can tell
+ * whether the instance was invalidated while it was checked out without having to look anything up.
+ * <p/>
+ * When the cache shares instances between callers, every caller checks out the same lease, and the lease counts its
+ * references so that the instance is only destroyed once the last of them lets go of it.
+ */
+final class ServiceHandle<S> {
+    private final ServiceEndPoint _endPoint;
+    private final S _service;
+    private final ServiceCache.EndPointInstances<S> _generation;
+
+    // The cache holds one reference to a shared instance for as long as it hands the instance out, and every caller
+    // holds another until it checks the instance back in.
+    private final AtomicInteger _numReferences = new AtomicInteger(1);
+
+    ServiceHandle(ServiceEndPoint endPoint, S service, ServiceCache.EndPointInstances<S> generation) {
+        _endPoint = checkNotNull(endPoint);
+        _service = checkNotNull(service);
+        _generation = checkNotNull(generation);
+    }
+
+    ServiceEndPoint getEndPoint() {
+        return _endPoint;
+    }
+
+    S getService() {
+        return _service;
+    }
+
+    ServiceCache.EndPointInstances<S> getGeneration() {
+        return _generation;
+    }
+
+    /**
+     * Adds a reference to a shared instance, unless the last reference to it is already gone.
+     */
+    boolean retain() {
+        for (;;) {
+            int numReferences = _numReferences.get();
+            if (numReferences == 0) {
+                return false;
+            }
+            if (_numReferences.compareAndSet(numReferences, numReferences + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference to a shared instance.
+     *
+     * @return {@code true} if that was the last reference, in which case the instance should be destroyed.
+     */
+    boolean release() {
+        return _numReferences.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns how many callers are using a shared instance.
+     */
+    int getNumUsers() {
+        return Math.max(0, _numReferences.get() - 1);
+    }
+}
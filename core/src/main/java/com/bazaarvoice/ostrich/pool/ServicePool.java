@@ -1,25 +1,35 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.CircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.Deadline;
 import com.bazaarvoice.ostrich.HealthCheckResult;
 import com.bazaarvoice.ostrich.HealthCheckResults;
+import com.bazaarvoice.ostrich.HedgePolicy;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.bazaarvoice.ostrich.healthcheck.DefaultHealthCheckResults;
 import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
@@ -27,24 +37,42 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
-import com.yammer.metrics.core.TimerContext;
+import com.yammer.metrics.stats.Snapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
@@ -54,6 +82,9 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     @VisibleForTesting
     static final long HEALTH_CHECK_POLL_INTERVAL_IN_SECONDS = 60;
 
+    // Taking a snapshot of the callback execution times copies the whole sample, so don't do it on every call.
+    private static final long CALLBACK_EXECUTION_TIME_SNAPSHOT_TTL_IN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final Ticker _ticker;
     private final HostDiscovery _hostDiscovery;
     private final boolean _cleanupHostDiscoveryOnClose;
@@ -61,30 +92,49 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final ServiceFactory<S> _serviceFactory;
     private final ScheduledExecutorService _healthCheckExecutor;
     private final boolean _shutdownHealthCheckExecutorOnClose;
+    private final ExecutorService _hedgeExecutor;
+    private final boolean _shutdownHedgeExecutorOnClose;
     private final PartitionFilter _partitionFilter;
     private final LoadBalanceAlgorithm _loadBalanceAlgorithm;
+    private final CircuitBreakerPolicy _circuitBreakerPolicy;
+    private final ConcurrentMap<ServiceEndPoint, CircuitBreaker> _circuitBreakers;
     private final ServicePoolStatistics _servicePoolStatistics;
     private final Set<ServiceEndPoint> _badEndPoints;
     private final Predicate<ServiceEndPoint> _badEndPointFilter;
+    private final OutlierDetector _outlierDetector;
+    private final RetryBudget _retryBudget;
+    private final Predicate<ServiceEndPoint> _notEjectedFilter;
     private final Set<ServiceEndPoint> _recentlyRemovedEndPoints;
+    private volatile EndPointSnapshot _endPointSnapshot = EndPointSnapshot.EMPTY;
     private final Future<?> _batchHealthChecksFuture;
+    private final Future<?> _outlierDetectionFuture;
     private final ServiceCache<S> _serviceCache;
     private final Metrics _metrics;
     private final Timer _callbackExecutionTime;
+    private volatile Snapshot _callbackExecutionTimeSnapshot;
+    private volatile long _callbackExecutionTimeSnapshotNanos;
     private final Timer _healthCheckTime;
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteAttemptFailures;
+    private final Meter _numHedgedAttempts;
+    private final Meter _numHedgeWins;
+    private final Meter _numRetriesDeniedByBudget;
 
     ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
                 ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
                 PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
-                ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose) {
+                CircuitBreakerPolicy circuitBreakerPolicy, OutlierDetectionPolicy outlierDetectionPolicy,
+                RetryBudgetPolicy retryBudgetPolicy, ScheduledExecutorService healthCheckExecutor,
+                boolean shutdownHealthCheckExecutorOnClose, ExecutorService hedgeExecutor,
+                boolean shutdownHedgeExecutorOnClose) {
         _ticker = checkNotNull(ticker);
         _hostDiscovery = checkNotNull(hostDiscovery);
         _cleanupHostDiscoveryOnClose = cleanupHostDiscoveryOnClose;
         _serviceFactory = checkNotNull(serviceFactory);
         _healthCheckExecutor = checkNotNull(healthCheckExecutor);
         _shutdownHealthCheckExecutorOnClose = shutdownHealthCheckExecutorOnClose;
+        _hedgeExecutor = checkNotNull(hedgeExecutor);
+        _shutdownHedgeExecutorOnClose = shutdownHedgeExecutorOnClose;
         _badEndPoints = Sets.newSetFromMap(Maps.<ServiceEndPoint, Boolean>newConcurrentMap());
         _badEndPointFilter = Predicates.not(Predicates.in(_badEndPoints));
         _recentlyRemovedEndPoints = Sets.newSetFromMap(CacheBuilder.newBuilder()
@@ -96,6 +146,16 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _serviceCache = new ServiceCache<S>(cachingPolicy, serviceFactory);
         _partitionFilter = checkNotNull(partitionFilter);
         _loadBalanceAlgorithm = checkNotNull(loadBalanceAlgorithm);
+        _circuitBreakerPolicy = checkNotNull(circuitBreakerPolicy);
+        _circuitBreakers = Maps.newConcurrentMap();
+        _outlierDetector = new OutlierDetector(outlierDetectionPolicy, _ticker);
+        _notEjectedFilter = new Predicate<ServiceEndPoint>() {
+            @Override
+            public boolean apply(ServiceEndPoint endPoint) {
+                return !_outlierDetector.isEjected(endPoint);
+            }
+        };
+        _retryBudget = new RetryBudget(retryBudgetPolicy, _ticker);
 
         _servicePoolStatistics = new ServicePoolStatistics() {
             @Override
@@ -107,6 +167,15 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             public int getNumActiveInstances(ServiceEndPoint endPoint) {
                 return _serviceCache.getNumActiveInstances(endPoint);
             }
+
+            @Override
+            public long getCallbackExecutionTime(double quantile, TimeUnit unit) {
+                checkArgument(quantile >= 0 && quantile <= 1);
+
+                // The timer records its samples in milliseconds.
+                double millis = getCallbackExecutionTimeSnapshot().getValue(quantile);
+                return unit.convert((long) (millis * TimeUnit.MILLISECONDS.toNanos(1)), TimeUnit.NANOSECONDS);
+            }
         };
 
         // Watch end points as they are removed from host discovery so that we can remove them from our set of bad
@@ -131,10 +200,26 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         };
         _hostDiscovery.addListener(_hostDiscoveryListener);
 
+        // Take the initial snapshot of end points only after the listener is registered, that way we can't miss an
+        // update from host discovery.  From here on out the snapshot is only rebuilt when something changes.
+        refreshEndPoints();
+        for (ServiceEndPoint endPoint : _endPointSnapshot.getAllEndPoints()) {
+            _serviceCache.warmUp(endPoint);
+        }
+
         // Periodically wake up and check any bad end points to see if they're now healthy.
         _batchHealthChecksFuture = _healthCheckExecutor.scheduleAtFixedRate(new BatchHealthChecks(),
                 HEALTH_CHECK_POLL_INTERVAL_IN_SECONDS, HEALTH_CHECK_POLL_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
 
+        // Periodically look for end points that are much slower than the rest of the pool.
+        if (_outlierDetector.isEnabled()) {
+            long intervalNanos = outlierDetectionPolicy.getDetectionInterval(TimeUnit.NANOSECONDS);
+            _outlierDetectionFuture = _healthCheckExecutor.scheduleWithFixedDelay(new OutlierDetection(),
+                    intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            _outlierDetectionFuture = null;
+        }
+
         String serviceName = _serviceFactory.getServiceName();
         _metrics = Metrics.forInstance(this, serviceName);
         _callbackExecutionTime = _metrics.newTimer(serviceName, "callback-execution-time", TimeUnit.MILLISECONDS,
@@ -143,6 +228,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _numExecuteSuccesses = _metrics.newMeter(serviceName, "num-execute-successes", "successes", TimeUnit.SECONDS);
         _numExecuteAttemptFailures = _metrics.newMeter(serviceName, "num-execute-attempt-failures", "failures",
                 TimeUnit.SECONDS);
+        _numHedgedAttempts = _metrics.newMeter(serviceName, "num-hedged-attempts", "attempts", TimeUnit.SECONDS);
+        _numHedgeWins = _metrics.newMeter(serviceName, "num-hedge-wins", "wins", TimeUnit.SECONDS);
+        _numRetriesDeniedByBudget = _metrics.newMeter(serviceName, "num-retries-denied-by-budget", "retries",
+                TimeUnit.SECONDS);
         _metrics.newGauge(serviceName, "num-valid-end-points", new Gauge<Integer>() {
             @Override
             public Integer value() {
@@ -155,11 +244,20 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 return getNumBadEndPoints();
             }
         });
+        _metrics.newGauge(serviceName, "num-ejected-end-points", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return _outlierDetector.getNumEjectedEndPoints();
+            }
+        });
     }
 
     @Override
     public void close() {
         _batchHealthChecksFuture.cancel(true);
+        if (_outlierDetectionFuture != null) {
+            _outlierDetectionFuture.cancel(true);
+        }
 
         _hostDiscovery.removeListener(_hostDiscoveryListener);
         if (_cleanupHostDiscoveryOnClose) {
@@ -175,6 +273,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         if (_shutdownHealthCheckExecutorOnClose) {
             _healthCheckExecutor.shutdownNow();
         }
+
+        if (_shutdownHedgeExecutorOnClose) {
+            _hedgeExecutor.shutdown();
+        }
     }
 
     @Override
@@ -184,31 +286,391 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
     @Override
     public <R> R execute(PartitionContext partitionContext, RetryPolicy retry, ServiceCallback<S, R> callback) {
-        Stopwatch sw = new Stopwatch(_ticker).start();
+        return execute(partitionContext, null, retry, callback, null);
+    }
+
+    @Override
+    public <R> R execute(Deadline deadline, RetryPolicy retry, ServiceCallback<S, R> callback) {
+        return execute(PartitionContextBuilder.empty(), deadline, retry, callback);
+    }
+
+    @Override
+    public <R> R execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retry,
+                         ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        return execute(partitionContext, deadline, retry, callback, null);
+    }
+
+    @Override
+    public <R> R execute(RetryPolicy retry, HedgePolicy hedge, ServiceCallback<S, R> callback) {
+        return execute(PartitionContextBuilder.empty(), retry, hedge, callback);
+    }
+
+    @Override
+    public <R> R execute(PartitionContext partitionContext, RetryPolicy retry, HedgePolicy hedge,
+                         ServiceCallback<S, R> callback) {
+        return executeHedged(partitionContext, null, retry, hedge, callback);
+    }
+
+    @Override
+    public <R> R execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retry, HedgePolicy hedge,
+                         ServiceCallback<S, R> callback) {
+        checkNotNull(deadline);
+        return executeHedged(partitionContext, deadline, retry, hedge, callback);
+    }
+
+    private <R> R executeHedged(PartitionContext partitionContext, Deadline deadline, RetryPolicy retry,
+                                HedgePolicy hedge, ServiceCallback<S, R> callback) {
+        // The first attempt runs on this thread, so only a hedged attempt needs a thread of the hedge executor.
+        long hedgeDelayNanos = hedge.getHedgeDelay(_servicePoolStatistics, TimeUnit.NANOSECONDS);
+        return getResult(newHedgedExecution(_hedgeExecutor, partitionContext, deadline, retry, callback)
+                .run(hedgeDelayNanos));
+    }
+
+    /**
+     * Waits for the result of a call that may be running on other threads, cancelling it if this thread is interrupted.
+     */
+    private <R> R getResult(Future<R> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Execute a callback on the executor, hedging it according to the hedge policy.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <R> ListenableFuture<R> executeHedged(ExecutorService executor, PartitionContext partitionContext,
+                                          Deadline deadline, RetryPolicy retry, HedgePolicy hedge,
+                                          ServiceCallback<S, R> callback) {
+        long hedgeDelayNanos = hedge.getHedgeDelay(_servicePoolStatistics, TimeUnit.NANOSECONDS);
+        return newHedgedExecution(executor, partitionContext, deadline, retry, callback).start(hedgeDelayNanos);
+    }
+
+    private <R> HedgedExecution<S, R> newHedgedExecution(ExecutorService executor, PartitionContext partitionContext,
+                                                         Deadline deadline, RetryPolicy retry,
+                                                         ServiceCallback<S, R> callback) {
+        return new HedgedExecution<S, R>(this, executor, partitionContext, deadline, retry, callback,
+                _numHedgedAttempts, _numHedgeWins);
+    }
+
+    @Override
+    public <K, R> Map<K, R> executeBatch(RetryPolicy retry, Collection<K> items,
+                                         Function<K, PartitionContext> partitioner,
+                                         BatchServiceCallback<S, K, R> callback) {
+        return executeBatch((Deadline) null, retry, items, partitioner, callback);
+    }
+
+    @Override
+    public <K, R> Map<K, R> executeBatch(Deadline deadline, RetryPolicy retry, Collection<K> items,
+                                         Function<K, PartitionContext> partitioner,
+                                         BatchServiceCallback<S, K, R> callback) {
+        checkNotNull(retry);
+        checkNotNull(items);
+        checkNotNull(partitioner);
+        checkNotNull(callback);
+
+        recordCall();
+        Map<ServiceEndPoint, List<K>> groups = groupByEndPoint(items, partitioner);
+        if (groups.size() > 1) {
+            return getResult(executeBatchGroups(_hedgeExecutor, groups, deadline, retry, partitioner, callback));
+        }
+
+        // There's nothing to run in parallel, so the only group doesn't need to be handed to another thread.
+        Map<K, R> results = Maps.newHashMap();
+        for (Map.Entry<ServiceEndPoint, List<K>> group : groups.entrySet()) {
+            results.putAll(executeBatchGroup(group.getKey(), group.getValue(), deadline, retry, partitioner,
+                    callback));
+        }
+        return results;
+    }
+
+    /**
+     * Execute a batch callback with each end point's group of items on the executor.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <K, R> ListenableFuture<Map<K, R>> executeBatch(ExecutorService executor, RetryPolicy retry, Collection<K> items,
+                                                    Function<K, PartitionContext> partitioner,
+                                                    BatchServiceCallback<S, K, R> callback) {
+        checkNotNull(retry);
+        checkNotNull(items);
+        checkNotNull(partitioner);
+        checkNotNull(callback);
+
+        recordCall();
+        Map<ServiceEndPoint, List<K>> groups;
+        try {
+            groups = groupByEndPoint(items, partitioner);
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
+        }
+        return executeBatchGroups(executor, groups, null, retry, partitioner, callback);
+    }
+
+    private <K, R> ListenableFuture<Map<K, R>> executeBatchGroups(ExecutorService executor,
+                                                                  Map<ServiceEndPoint, List<K>> groups,
+                                                                  final Deadline deadline,
+                                                                  final RetryPolicy retry,
+                                                                  final Function<K, PartitionContext> partitioner,
+                                                                  final BatchServiceCallback<S, K, R> callback) {
+        ListeningExecutorService listeningExecutor = MoreExecutors.listeningDecorator(executor);
+        final List<ListenableFuture<Map<K, R>>> futures = Lists.newArrayList();
+        for (final Map.Entry<ServiceEndPoint, List<K>> group : groups.entrySet()) {
+            futures.add(listeningExecutor.submit(new Callable<Map<K, R>>() {
+                @Override
+                public Map<K, R> call() throws Exception {
+                    return executeBatchGroup(group.getKey(), group.getValue(), deadline, retry, partitioner,
+                            callback);
+                }
+            }));
+        }
+
+        final ListenableFuture<List<Map<K, R>>> all = Futures.allAsList(futures);
+        all.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (all.isCancelled()) {
+                    for (Future<Map<K, R>> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        return Futures.transform(all, new Function<List<Map<K, R>>, Map<K, R>>() {
+            @Override
+            public Map<K, R> apply(List<Map<K, R>> groupResults) {
+                Map<K, R> results = Maps.newHashMap();
+                for (Map<K, R> groupResult : groupResults) {
+                    results.putAll(groupResult);
+                }
+                return results;
+            }
+        });
+    }
+
+    /**
+     * Execute a batch callback with the group of items chosen for an end point.  If the group fails then its items are
+     * retried as allowed by the retry policy.  The end point that failed is usually out of rotation by then, so the
+     * items are grouped again and may be split across several end points.
+     * <p/>
+     * If a deadline is provided then no attempt is started after it has expired, the same as for a single call.
+     */
+    private <K, R> Map<K, R> executeBatchGroup(ServiceEndPoint endPoint, List<K> items, Deadline deadline,
+                                               RetryPolicy retry, Function<K, PartitionContext> partitioner,
+                                               BatchServiceCallback<S, K, R> callback) {
+        Map<K, R> results = Maps.newHashMap();
+        Map<ServiceEndPoint, List<K>> groups = Collections.singletonMap(endPoint, items);
+        long startNanos = _ticker.read();
+        int numAttempts = 0;
+        for (;;) {
+            if (deadline != null && deadline.isExpired()) {
+                throw new DeadlineExceededException();
+            }
+
+            List<K> failed = Lists.newArrayList();
+            for (Map.Entry<ServiceEndPoint, List<K>> group : groups.entrySet()) {
+                try {
+                    results.putAll(executeAttempt(group.getKey(), deadline, forItems(group.getValue(), callback)));
+                } catch (Exception e) {
+                    // Don't retry if exception is too severe.
+                    if (!isRetriableException(e)) {
+                        throw Throwables.propagate(e);
+                    }
+                    failed.addAll(group.getValue());
+                }
+            }
+
+            if (failed.isEmpty()) {
+                return results;
+            }
+            if (!allowRetry(retry, ++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - startNanos),
+                    deadline)) {
+                throw new MaxRetriesException();
+            }
+            groups = groupByEndPoint(failed, partitioner);
+        }
+    }
+
+    private static <S, K, R> ServiceCallback<S, Map<K, R>> forItems(final Collection<K> items,
+                                                                    final BatchServiceCallback<S, K, R> callback) {
+        return new ServiceCallback<S, Map<K, R>>() {
+            @Override
+            public Map<K, R> call(S service) throws ServiceException {
+                return callback.call(service, items);
+            }
+        };
+    }
+
+    /**
+     * Chooses an end point for each item and groups the items by the end point chosen for them.  Items with equal
+     * partition contexts always end up in the same group, and the partition filter only runs once for each distinct
+     * context.
+     */
+    private <K> Map<ServiceEndPoint, List<K>> groupByEndPoint(Collection<K> items,
+                                                              Function<K, PartitionContext> partitioner) {
+        Map<PartitionContext, ServiceEndPoint> chosen = Maps.newHashMap();
+        Map<ServiceEndPoint, List<K>> groups = Maps.newLinkedHashMap();
+        for (K item : items) {
+            PartitionContext partitionContext = checkNotNull(partitioner.apply(item));
+            ServiceEndPoint endPoint = chosen.get(partitionContext);
+            if (endPoint == null) {
+                endPoint = chooseAllowedEndPoint(partitionContext, null);
+                chosen.put(partitionContext, endPoint);
+            }
+
+            List<K> group = groups.get(endPoint);
+            if (group == null) {
+                group = Lists.newArrayList();
+                groups.put(endPoint, group);
+            }
+            group.add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * Execute a callback, retrying as allowed by the retry policy.  If a set of used end points is provided then end
+     * points in it are avoided when possible, and every end point that's chosen is added to it.  This is how the
+     * attempts of a hedged call keep away from each other's end points.
+     * <p/>
+     * If a deadline is provided then no attempt is started after it has expired, and no retry is started that the
+     * retry policy's delay wouldn't leave time for.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link HedgedExecution} can call it.
+     */
+    <R> R execute(PartitionContext partitionContext, Deadline deadline, RetryPolicy retry,
+                  ServiceCallback<S, R> callback, Set<ServiceEndPoint> usedEndPoints) {
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+
+        // A hedged attempt is extra load on the service rather than a new call, so it doesn't add to the retry budget.
+        if (usedEndPoints == null || usedEndPoints.isEmpty()) {
+            recordCall();
+        }
+
+        // Track the start time as a primitive rather than a Stopwatch so that the common case of a first attempt that
+        // succeeds doesn't allocate anything.
+        long startNanos = _ticker.read();
         int numAttempts = 0;
         do {
-            ServiceEndPoint endPoint = chooseEndPoint(getValidEndPoints(), partitionContext);
+            ServiceEndPoint endPoint = chooseAllowedEndPoint(partitionContext, usedEndPoints);
+            if (usedEndPoints != null) {
+                usedEndPoints.add(endPoint);
+            }
 
             try {
-                R result = executeOnEndPoint(endPoint, callback);
-                _numExecuteSuccesses.mark();
-                return result;
+                return executeAttempt(endPoint, deadline, callback);
             } catch (Exception e) {
-                _numExecuteAttemptFailures.mark();
-
                 // Don't retry if exception is too severe.
                 if (!isRetriableException(e)) {
                     throw Throwables.propagate(e);
                 }
             }
-        } while (retry.allowRetry(++numAttempts, sw.elapsedMillis()));
+        } while (allowRetry(retry, ++numAttempts, TimeUnit.NANOSECONDS.toMillis(_ticker.read() - startNanos),
+                deadline));
 
         throw new MaxRetriesException();
     }
 
+    /**
+     * Asks the retry policy whether another attempt should be made, without waiting for a retry that couldn't start
+     * before the deadline or that the retry budget doesn't have room for.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @throws DeadlineExceededException If the deadline, rather than the retry policy, is what prevents a retry.
+     */
+    boolean allowRetry(RetryPolicy retry, int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        if (deadline == null && !_retryBudget.isEnabled()) {
+            return retry.allowRetry(numAttempts, elapsedTimeMs);
+        }
+        if (!(retry instanceof ScheduledRetryPolicy)) {
+            // There's no way to know how long the policy will wait, so the best we can do is check afterwards.
+            if (deadline != null && deadline.isExpired()) {
+                throw new DeadlineExceededException();
+            }
+            if (!retry.allowRetry(numAttempts, elapsedTimeMs)) {
+                return false;
+            }
+            if (deadline != null && deadline.isExpired()) {
+                throw new DeadlineExceededException();
+            }
+            return tryRetry();
+        }
+
+        long delayNanos = getRetryDelay((ScheduledRetryPolicy) retry, numAttempts, elapsedTimeMs, deadline);
+        if (delayNanos < 0) {
+            return false;
+        }
+
+        try {
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Asks the retry policy how long to wait before another attempt is made, taking the deadline and the retry budget
+     * into account.  This never waits.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @return The delay in nanoseconds, or a negative value if there shouldn't be another attempt.
+     * @throws DeadlineExceededException If the deadline, rather than the retry policy, is what prevents a retry.
+     */
+    long getRetryDelay(ScheduledRetryPolicy retry, int numAttempts, long elapsedTimeMs, Deadline deadline) {
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+
+        long delayNanos = retry.getRetryDelay(numAttempts, elapsedTimeMs, TimeUnit.NANOSECONDS);
+        if (delayNanos < 0) {
+            return -1;
+        }
+        if (deadline != null && delayNanos >= deadline.getRemaining(TimeUnit.NANOSECONDS)) {
+            throw new DeadlineExceededException();
+        }
+        if (!tryRetry()) {
+            return -1;
+        }
+
+        return delayNanos;
+    }
+
+    /**
+     * Records the first attempt of a call with the retry budget.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    void recordCall() {
+        _retryBudget.recordCall();
+    }
+
+    private boolean tryRetry() {
+        if (_retryBudget.tryRetry()) {
+            return true;
+        }
+
+        _numRetriesDeniedByBudget.mark();
+        return false;
+    }
+
     @Override
     public int getNumValidEndPoints() {
-        return Iterables.size(_hostDiscovery.getHosts()) - _badEndPoints.size();
+        return _endPointSnapshot.getValidEndPoints().size();
     }
 
     @Override
@@ -222,8 +684,8 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
      */
     Iterable<ServiceEndPoint> getAllEndPoints() {
-        Iterable<ServiceEndPoint> hosts = _hostDiscovery.getHosts();
-        if (Iterables.isEmpty(hosts)) {
+        List<ServiceEndPoint> hosts = _endPointSnapshot.getAllEndPoints();
+        if (hosts.isEmpty()) {
             // There were no service end points available, we have no choice but to stop trying and just exit.
             throw new NoAvailableHostsException();
         }
@@ -237,8 +699,14 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
      * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
      */
     Iterable<ServiceEndPoint> getValidEndPoints() {
-        Iterable<ServiceEndPoint> goodHosts = Iterables.filter(getAllEndPoints(), _badEndPointFilter);
-        if (Iterables.isEmpty(goodHosts)) {
+        EndPointSnapshot snapshot = _endPointSnapshot;
+        if (snapshot.getAllEndPoints().isEmpty()) {
+            // There were no service end points available, we have no choice but to stop trying and just exit.
+            throw new NoAvailableHostsException();
+        }
+
+        List<ServiceEndPoint> goodHosts = snapshot.getValidEndPoints();
+        if (goodHosts.isEmpty()) {
             // All available hosts are bad, so we must give up.
             throw new OnlyBadHostsException();
         }
@@ -246,6 +714,46 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return goodHosts;
     }
 
+    /**
+     * Chooses a valid end point whose circuit breaker permits a request, preferring one that isn't in the set of end
+     * points to avoid.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    ServiceEndPoint chooseAllowedEndPoint(PartitionContext partitionContext, Set<ServiceEndPoint> avoid) {
+        Iterable<ServiceEndPoint> endPoints = getValidEndPoints();
+        if (avoid != null && !avoid.isEmpty()) {
+            try {
+                return chooseAllowedEndPoint(Iterables.filter(endPoints, Predicates.not(Predicates.in(avoid))),
+                        partitionContext);
+            } catch (NoSuitableHostsException e) {
+                // Every suitable end point is one we'd rather avoid, but using one of them beats failing.
+            }
+        }
+        return chooseAllowedEndPoint(endPoints, partitionContext);
+    }
+
+    /**
+     * Chooses an end point whose circuit breaker permits a request.  An end point with a half-open breaker may refuse
+     * requests once all of its probes are in flight, in which case one of the other end points is chosen.
+     */
+    private ServiceEndPoint chooseAllowedEndPoint(Iterable<ServiceEndPoint> endPoints,
+                                                  PartitionContext partitionContext) {
+        ServiceEndPoint endPoint = chooseEndPoint(endPoints, partitionContext);
+
+        Set<ServiceEndPoint> refused = null;
+        while (!getCircuitBreaker(endPoint).allowRequest()) {
+            if (refused == null) {
+                refused = Sets.newHashSet();
+                endPoints = Iterables.filter(endPoints, Predicates.not(Predicates.in(refused)));
+            }
+            refused.add(endPoint);
+            endPoint = chooseEndPoint(endPoints, partitionContext);
+        }
+
+        return endPoint;
+    }
+
     private ServiceEndPoint chooseEndPoint(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
         endPoints = _partitionFilter.filter(endPoints, partitionContext);
         if (endPoints == null || Iterables.isEmpty(endPoints)) {
@@ -258,48 +766,218 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return endPoint;
     }
 
+    /**
+     * Makes a single attempt at executing a callback on an end point chosen by {@link #chooseAllowedEndPoint}.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <R> R executeAttempt(ServiceEndPoint endPoint, Deadline deadline, ServiceCallback<S, R> callback)
+            throws Exception {
+        try {
+            R result = executeOnEndPoint(endPoint, deadline, callback);
+            _numExecuteSuccesses.mark();
+            return result;
+        } catch (Exception e) {
+            _numExecuteAttemptFailures.mark();
+            throw e;
+        }
+    }
+
     /**
      * Execute a callback on a specific end point.
      * <p/>
      * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
      */
     <R> R executeOnEndPoint(ServiceEndPoint endPoint, ServiceCallback<S, R> callback) throws Exception {
-        S service = null;
+        return executeOnEndPoint(endPoint, null, callback);
+    }
+
+    /**
+     * Execute a callback on a specific end point, making the deadline available to the callback through
+     * {@link Deadline#current()}.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    @SuppressWarnings("unchecked")
+    <R> R executeOnEndPoint(ServiceEndPoint endPoint, Deadline deadline, ServiceCallback<S, R> callback)
+            throws Exception {
+        CircuitBreaker circuitBreaker = getCircuitBreaker(endPoint);
+        ServiceHandle<S> handle = null;
 
         try {
-            service = _serviceCache.checkOut(endPoint);
+            handle = _serviceCache.checkOut(endPoint);
+            S service = handle.getService();
 
-            TimerContext timer = _callbackExecutionTime.time();
+            long startNanos = _ticker.read();
+            long latencyNanos;
+            R result;
+            Deadline previousDeadline = (deadline != null) ? deadline.attach() : null;
             try {
-                return callback.call(service);
+                result = (callback instanceof EndPointCallback)
+                        ? ((EndPointCallback<S, R>) callback).call(endPoint, service)
+                        : callback.call(service);
             } finally {
-                timer.stop();
+                if (deadline != null) {
+                    deadline.detach(previousDeadline);
+                }
+                latencyNanos = _ticker.read() - startNanos;
+                _callbackExecutionTime.update(latencyNanos, TimeUnit.NANOSECONDS);
             }
-        } catch (NoCachedInstancesAvailableException e) {
-            LOG.debug(MessageFormatter.format("Service cache exhausted. End point ID: {}", endPoint.getId())
-                             .getMessage(), e);
-            // Don't mark an end point as bad just because there are no cached end points for it.
-            throw e;
+
+            circuitBreaker.recordSuccess();
+            _outlierDetector.recordLatency(endPoint, latencyNanos);
+            return result;
         } catch (Exception e) {
-            if (_serviceFactory.isRetriableException(e)) {
-                // This is a known and supported exception indicating that something went wrong somewhere in the service
-                // layer while trying to communicate with the end point.  These errors are often transient, so we
-                // enqueue a health check for the end point and mark it as unavailable for the time being.
-                markEndPointAsBad(endPoint);
-                LOG.debug(MessageFormatter.format("Bad end point discovered. End point ID: {}", endPoint.getId())
-                             .getMessage(), e);
+            // A call that was interrupted, most likely because whoever was waiting on it gave up, says nothing about
+            // the end point.
+            if (!Thread.currentThread().isInterrupted()) {
+                recordFailure(endPoint, circuitBreaker, e);
             }
             throw e;
         } finally {
-            if (service != null) {
+            if (handle != null) {
+                checkIn(handle);
+            }
+        }
+    }
+
+    /**
+     * Makes a single attempt at executing an asynchronous callback on an end point chosen by
+     * {@link #chooseAllowedEndPoint}.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <R> ListenableFuture<R> executeAttempt(ServiceEndPoint endPoint, Deadline deadline,
+                                           AsyncServiceCallback<S, R> callback) {
+        final ListenableFuture<R> future = executeOnEndPoint(endPoint, deadline, callback);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) {
+                    return;
+                }
                 try {
-                    _serviceCache.checkIn(endPoint, service);
-                } catch (Exception e) {
-                    // This should never happen, but log just in case.
-                    LOG.warn(MessageFormatter.format("Error returning end point to cache. End point ID: {}",
-                                                      endPoint.getId()).getMessage(), e);
+                    Uninterruptibles.getUninterruptibly(future);
+                    _numExecuteSuccesses.mark();
+                } catch (ExecutionException e) {
+                    _numExecuteAttemptFailures.mark();
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    /**
+     * Start an asynchronous callback on a specific end point.  The service instance is checked back in to the cache,
+     * and the success or failure of the call is recorded, when the callback's future completes.  The deadline is only
+     * available to the callback through {@link Deadline#current()} while it starts the call.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <R> ListenableFuture<R> executeOnEndPoint(final ServiceEndPoint endPoint, Deadline deadline,
+                                              AsyncServiceCallback<S, R> callback) {
+        final CircuitBreaker circuitBreaker = getCircuitBreaker(endPoint);
+        final ServiceHandle<S> handle;
+        try {
+            handle = _serviceCache.checkOut(endPoint);
+        } catch (Exception e) {
+            recordFailure(endPoint, circuitBreaker, e);
+            return Futures.immediateFailedFuture(e);
+        }
+
+        final long startNanos = _ticker.read();
+        final ListenableFuture<R> call;
+        Deadline previousDeadline = (deadline != null) ? deadline.attach() : null;
+        try {
+            call = checkNotNull(callback.call(handle.getService()));
+        } catch (Exception e) {
+            _callbackExecutionTime.update(_ticker.read() - startNanos, TimeUnit.NANOSECONDS);
+            recordFailure(endPoint, circuitBreaker, e);
+            checkIn(handle);
+            return Futures.immediateFailedFuture(e);
+        } finally {
+            if (deadline != null) {
+                deadline.detach(previousDeadline);
+            }
+        }
+
+        final SettableFuture<R> result = SettableFuture.create();
+        call.addListener(new Runnable() {
+            @Override
+            public void run() {
+                long latencyNanos = _ticker.read() - startNanos;
+                _callbackExecutionTime.update(latencyNanos, TimeUnit.NANOSECONDS);
+
+                R value = null;
+                Throwable failure = null;
+                try {
+                    value = Uninterruptibles.getUninterruptibly(call);
+                    circuitBreaker.recordSuccess();
+                    _outlierDetector.recordLatency(endPoint, latencyNanos);
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    if (failure instanceof Exception) {
+                        recordFailure(endPoint, circuitBreaker, (Exception) failure);
+                    }
+                } catch (CancellationException e) {
+                    // The call was given up on, which says nothing about the health of the end point.
+                    failure = e;
                 }
+
+                // Only finish once the instance is back in the cache so that a retry can use it.
+                checkIn(handle);
+                if (failure == null) {
+                    result.set(value);
+                } else if (failure instanceof CancellationException) {
+                    result.cancel(false);
+                } else {
+                    result.setException(failure);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isCancelled()) {
+                    call.cancel(true);
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return result;
+    }
+
+    private void recordFailure(ServiceEndPoint endPoint, CircuitBreaker circuitBreaker, Exception e) {
+        if (e instanceof NoCachedInstancesAvailableException) {
+            LOG.debug(MessageFormatter.format("Service cache exhausted. End point ID: {}", endPoint.getId())
+                             .getMessage(), e);
+            // Don't mark an end point as bad just because there are no cached end points for it.
+            return;
+        }
+
+        if (_serviceFactory.isRetriableException(e)) {
+            // This is a known and supported exception indicating that something went wrong somewhere in the service
+            // layer while trying to communicate with the end point.  These errors are often transient, so we let
+            // the circuit breaker decide whether the end point should be marked as unavailable for the time being.
+            circuitBreaker.recordFailure();
+            if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                markEndPointAsBad(endPoint);
+                LOG.debug(MessageFormatter.format("Bad end point discovered. End point ID: {}", endPoint.getId())
+                             .getMessage(), e);
             }
+        } else {
+            // The end point responded, it just didn't like the request.
+            circuitBreaker.recordSuccess();
+        }
+    }
+
+    private void checkIn(ServiceHandle<S> handle) {
+        try {
+            _serviceCache.checkIn(handle);
+        } catch (Exception e) {
+            // This should never happen, but log just in case.
+            LOG.warn(MessageFormatter.format("Error returning end point to cache. End point ID: {}",
+                                              handle.getEndPoint().getId()).getMessage(), e);
         }
     }
 
@@ -320,7 +998,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return _serviceFactory.getServiceName();
     }
 
-    @VisibleForTesting
+    /**
+     * NOTE: This method is package private specifically so that {@link ServicePoolProxy} can call it.
+     * @return The host discovery that this pool gets its end points from.
+     */
     HostDiscovery getHostDiscovery() {
         return _hostDiscovery;
     }
@@ -345,6 +1026,41 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         return ImmutableSet.copyOf(_badEndPoints);
     }
 
+    @VisibleForTesting
+    CircuitBreaker getCircuitBreaker(ServiceEndPoint endPoint) {
+        CircuitBreaker circuitBreaker = _circuitBreakers.get(endPoint);
+        if (circuitBreaker == null) {
+            CircuitBreaker newCircuitBreaker = _circuitBreakerPolicy.newCircuitBreaker(endPoint);
+            circuitBreaker = _circuitBreakers.putIfAbsent(endPoint, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    @VisibleForTesting
+    Set<ServiceEndPoint> getEjectedEndPoints() {
+        return _outlierDetector.getEjectedEndPoints();
+    }
+
+    private Snapshot getCallbackExecutionTimeSnapshot() {
+        long now = _ticker.read();
+        Snapshot snapshot = _callbackExecutionTimeSnapshot;
+        long age = now - _callbackExecutionTimeSnapshotNanos;
+        if (snapshot == null || age >= CALLBACK_EXECUTION_TIME_SNAPSHOT_TTL_IN_NANOS) {
+            snapshot = _callbackExecutionTime.getSnapshot();
+            _callbackExecutionTimeSnapshot = snapshot;
+            _callbackExecutionTimeSnapshotNanos = now;
+        }
+        return snapshot;
+    }
+
+    @VisibleForTesting
+    long getEndPointSnapshotVersion() {
+        return _endPointSnapshot.getVersion();
+    }
+
     @Override
     public HealthCheckResults checkForHealthyEndPoint() {
         Set<ServiceEndPoint> endPoints;
@@ -390,6 +1106,10 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private synchronized void addEndPoint(ServiceEndPoint endPoint) {
         _recentlyRemovedEndPoints.remove(endPoint);
         _badEndPoints.remove(endPoint);
+        _circuitBreakers.remove(endPoint);
+        _outlierDetector.remove(endPoint);
+        refreshEndPoints();
+        _serviceCache.warmUp(endPoint);
         LOG.debug("End point added to service pool. End point ID: {}", endPoint.getId());
     }
 
@@ -402,13 +1122,18 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         // end points ensures that this memory leak doesn't happen.
         _recentlyRemovedEndPoints.add(endPoint);
         _badEndPoints.remove(endPoint);
+        _circuitBreakers.remove(endPoint);
+        _outlierDetector.remove(endPoint);
+        refreshEndPoints();
         _serviceCache.evict(endPoint);
         LOG.debug("End point removed from service pool. End point ID: {}", endPoint.getId());
     }
 
     private synchronized void markEndPointAsBad(ServiceEndPoint endPoint) {
         if (_recentlyRemovedEndPoints.contains(endPoint)) {
-            // Nothing to do, we've already removed this end point
+            // Nothing to do, we've already removed this end point.  Make sure a circuit breaker created by a call that
+            // was in flight during the removal doesn't stick around though.
+            _circuitBreakers.remove(endPoint);
             return;
         }
 
@@ -416,10 +1141,74 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
         // Only schedule a health check if this is the first time we've seen this end point as bad...
         if (_badEndPoints.add(endPoint)) {
+            refreshEndPoints();
             _healthCheckExecutor.submit(new HealthCheck(endPoint));
+
+            // If the circuit breaker will let probes through on its own, bring the end point back once it's ready.
+            long openDurationNanos = getCircuitBreaker(endPoint).getOpenDuration(TimeUnit.NANOSECONDS);
+            if (openDurationNanos >= 0) {
+                _healthCheckExecutor.schedule(new HalfOpen(endPoint), openDurationNanos, TimeUnit.NANOSECONDS);
+            }
         }
     }
 
+    private synchronized void markEndPointAsGood(ServiceEndPoint endPoint) {
+        CircuitBreaker circuitBreaker = _circuitBreakers.get(endPoint);
+        if (circuitBreaker != null) {
+            circuitBreaker.reset();
+        }
+
+        if (_badEndPoints.remove(endPoint)) {
+            refreshEndPoints();
+
+            // Its instances were evicted when it was marked as bad.
+            _serviceCache.warmUp(endPoint);
+        }
+    }
+
+    /**
+     * Makes a bad end point available to be chosen again without resetting its circuit breaker, so that the breaker can
+     * decide based on a limited number of probe requests whether the end point has recovered.
+     */
+    private synchronized void markEndPointAsHalfOpen(ServiceEndPoint endPoint) {
+        if (_badEndPoints.remove(endPoint)) {
+            refreshEndPoints();
+        }
+    }
+
+    private synchronized void detectOutliers() {
+        if (_outlierDetector.detect(_endPointSnapshot.getAllEndPoints())) {
+            refreshEndPoints();
+            LOG.debug("Ejected end points changed. End point IDs: {}", _outlierDetector.getEjectedEndPoints());
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot of end points that {@link #execute} chooses from.  This must be called any time the set of
+     * end points known to host discovery, the set of bad end points or the set of ejected end points changes.
+     */
+    private synchronized void refreshEndPoints() {
+        Iterable<ServiceEndPoint> hosts = _hostDiscovery.getHosts();
+        ImmutableList<ServiceEndPoint> allEndPoints = (hosts != null)
+                ? ImmutableList.copyOf(hosts)
+                : ImmutableList.<ServiceEndPoint>of();
+        ImmutableList<ServiceEndPoint> validEndPoints = _badEndPoints.isEmpty()
+                ? allEndPoints
+                : ImmutableList.copyOf(Iterables.filter(allEndPoints, _badEndPointFilter));
+        if (_outlierDetector.getNumEjectedEndPoints() > 0) {
+            ImmutableList<ServiceEndPoint> fastEndPoints =
+                    ImmutableList.copyOf(Iterables.filter(validEndPoints, _notEjectedFilter));
+
+            // A slow end point is still better than no end point at all, so only honor the ejections if something is
+            // left over.
+            if (!fastEndPoints.isEmpty()) {
+                validEndPoints = fastEndPoints;
+            }
+        }
+
+        _endPointSnapshot = new EndPointSnapshot(_endPointSnapshot.getVersion() + 1, allEndPoints, validEndPoints);
+    }
+
     @VisibleForTesting
     HealthCheckResult checkHealth(ServiceEndPoint endPoint) {
         // We have to be very careful to not allow any exceptions to make it out of of this method, if they do then
@@ -450,7 +1239,34 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         public void run() {
             HealthCheckResult result = checkHealth(_endPoint);
             if (result.isHealthy()) {
-                _badEndPoints.remove(_endPoint);
+                markEndPointAsGood(_endPoint);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    final class HalfOpen implements Runnable {
+        private final ServiceEndPoint _endPoint;
+
+        public HalfOpen(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+
+        @Override
+        public void run() {
+            markEndPointAsHalfOpen(_endPoint);
+        }
+    }
+
+    @VisibleForTesting
+    final class OutlierDetection implements Runnable {
+        @Override
+        public void run() {
+            try {
+                detectOutliers();
+            } catch (Exception e) {
+                // An exception would stop subsequent scheduled runs, so make sure one never escapes.
+                LOG.warn("Unable to detect outliers.", e);
             }
         }
     }
@@ -459,10 +1275,14 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     final class BatchHealthChecks implements Runnable {
         @Override
         public void run() {
+            // Host discovery implementations are expected to notify listeners of every change, but in case one doesn't
+            // make sure that the snapshot of end points doesn't stay stale forever.
+            refreshEndPoints();
+
             for (ServiceEndPoint endPoint : _badEndPoints) {
                 HealthCheckResult result = checkHealth(endPoint);
                 if (result.isHealthy()) {
-                    _badEndPoints.remove(endPoint);
+                    markEndPointAsGood(endPoint);
                 }
 
                 // If we were interrupted during checking the health (but weren't blocked so an InterruptedException
@@ -474,6 +1294,39 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * An immutable view of the end points known to the pool at a point in time.  Snapshots are rebuilt whenever host
+     * discovery reports a change or an end point moves in or out of the bad set, so that choosing an end point only
+     * requires a single volatile read instead of filtering the hosts on every call.
+     */
+    private static final class EndPointSnapshot {
+        static final EndPointSnapshot EMPTY = new EndPointSnapshot(0, ImmutableList.<ServiceEndPoint>of(),
+                ImmutableList.<ServiceEndPoint>of());
+
+        private final long _version;
+        private final ImmutableList<ServiceEndPoint> _allEndPoints;
+        private final ImmutableList<ServiceEndPoint> _validEndPoints;
+
+        EndPointSnapshot(long version, ImmutableList<ServiceEndPoint> allEndPoints,
+                         ImmutableList<ServiceEndPoint> validEndPoints) {
+            _version = version;
+            _allEndPoints = allEndPoints;
+            _validEndPoints = validEndPoints;
+        }
+
+        long getVersion() {
+            return _version;
+        }
+
+        ImmutableList<ServiceEndPoint> getAllEndPoints() {
+            return _allEndPoints;
+        }
+
+        ImmutableList<ServiceEndPoint> getValidEndPoints() {
+            return _validEndPoints;
+        }
+    }
+
     private static final class SuccessfulHealthCheckResult implements HealthCheckResult {
         private final String _endPointId;
         private final long _responseTimeInNanos;
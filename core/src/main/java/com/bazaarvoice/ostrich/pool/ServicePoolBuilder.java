@@ -1,10 +1,15 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.CircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.HedgePolicy;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.HostDiscoverySource;
+import com.bazaarvoice.ostrich.Idempotent;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.circuitbreaker.SingleFailureCircuitBreakerPolicy;
 import com.bazaarvoice.ostrich.loadbalance.RandomAlgorithm;
 import com.bazaarvoice.ostrich.partition.IdentityPartitionFilter;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
@@ -22,6 +27,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -40,7 +46,13 @@ public class ServicePoolBuilder<S> {
     private PartitionFilter _partitionFilter = new IdentityPartitionFilter();
     private PartitionContextSupplier _partitionContextSupplier = new EmptyPartitionContextSupplier();
     private LoadBalanceAlgorithm _loadBalanceAlgorithm = new RandomAlgorithm();
+    private CircuitBreakerPolicy _circuitBreakerPolicy = new SingleFailureCircuitBreakerPolicy();
+    private OutlierDetectionPolicy _outlierDetectionPolicy = OutlierDetectionPolicyBuilder.NO_OUTLIER_DETECTION;
+    private RetryBudgetPolicy _retryBudgetPolicy = RetryBudgetPolicyBuilder.NO_RETRY_BUDGET;
     private ExecutorService _asyncExecutor;
+    private ConcurrencyLimitPolicy _concurrencyLimitPolicy = ConcurrencyLimitPolicyBuilder.NO_CONCURRENCY_LIMIT;
+    private ExecutorService _hedgeExecutor;
+    private boolean _useVirtualThreads;
 
     public static <S> ServicePoolBuilder<S> create(Class<S> serviceType) {
         return new ServicePoolBuilder<S>(serviceType);
@@ -146,6 +158,52 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Sets the {@code ConcurrencyLimitPolicy} that limits how many calls an asynchronous pool has in flight at once,
+     * how many more may wait to start, and what happens to calls beyond that.  The policy is not used unless an
+     * asynchronous pool is built with the {@link #buildAsync} method.
+     * <p/>
+     * Specifying a concurrency limit policy is optional.  If one isn't specified then
+     * {@link ConcurrencyLimitPolicyBuilder#NO_CONCURRENCY_LIMIT} will be used, and every call is started right away.
+     *
+     * @param policy The {@link ConcurrencyLimitPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withConcurrencyLimitPolicy(ConcurrencyLimitPolicy policy) {
+        _concurrencyLimitPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Adds an {@code ExecutorService} instance to the builder for use in executing hedged requests and the groups of
+     * batch requests made through a synchronous pool or proxy.  An asynchronous pool runs these on its asynchronous
+     * executor instead.
+     * <p/>
+     * Adding an executor is optional.  If one isn't specified then one will be created and used automatically.
+     *
+     * @param executor The {@code ExecutorService} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withHedgeExecutor(ExecutorService executor) {
+        _hedgeExecutor = checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * Runs health checks, hedged requests and the requests of an asynchronous pool on virtual threads, so that a call
+     * blocked on a remote service doesn't tie up a platform thread.  This only applies to executors that the builder
+     * creates, not to ones that were added to it.
+     * <p/>
+     * Virtual threads need Java 21 or newer.  On older JVMs ordinary threads are used instead, as if this method had
+     * never been called.
+     *
+     * @return this
+     */
+    public ServicePoolBuilder<S> withVirtualThreads() {
+        _useVirtualThreads = true;
+        return this;
+    }
+
     /**
      * Enables caching of service instances in the built {@link ServicePool}.
      * <p/>
@@ -218,6 +276,54 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Sets the {@code CircuitBreakerPolicy} that decides when an end point should stop receiving traffic after
+     * failures, and when it may receive traffic again.
+     * <p/>
+     * Specifying a circuit breaker policy is optional.  If one isn't specified then a
+     * {@link SingleFailureCircuitBreakerPolicy} will be used, which takes an end point out of service on its first
+     * failure until a health check succeeds.
+     *
+     * @param policy The {@link CircuitBreakerPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withCircuitBreakerPolicy(CircuitBreakerPolicy policy) {
+        _circuitBreakerPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets the {@code OutlierDetectionPolicy} that decides when an end point is so much slower than the rest of the
+     * pool that it should temporarily stop receiving traffic.
+     * <p/>
+     * Specifying an outlier detection policy is optional.  If one isn't specified then
+     * {@link OutlierDetectionPolicyBuilder#NO_OUTLIER_DETECTION} will be used, and end points will never be ejected
+     * for being slow.
+     *
+     * @param policy The {@link OutlierDetectionPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withOutlierDetectionPolicy(OutlierDetectionPolicy policy) {
+        _outlierDetectionPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Sets the {@code RetryBudgetPolicy} that limits how many retries the pool makes across all of its calls, so that
+     * a degraded service isn't overwhelmed by retries.
+     * <p/>
+     * Specifying a retry budget policy is optional.  If one isn't specified then
+     * {@link RetryBudgetPolicyBuilder#NO_RETRY_BUDGET} will be used, and retries will only be limited by the retry
+     * policy of each call.
+     *
+     * @param policy The {@link RetryBudgetPolicy} to use
+     * @return this
+     */
+    public ServicePoolBuilder<S> withRetryBudgetPolicy(RetryBudgetPolicy policy) {
+        _retryBudgetPolicy = checkNotNull(policy);
+        return this;
+    }
+
     /**
      * Builds a {@code com.bazaarvoice.ostrich.ServicePool}.
      *
@@ -237,14 +343,16 @@ public class ServicePoolBuilder<S> {
 
         boolean shutdownAsyncExecutorOnClose = (_asyncExecutor == null);
         if (_asyncExecutor == null) {
-            ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                    .setNameFormat(_serviceName + "-AsyncExecutorThread-%d")
-                    .setDaemon(true)
-                    .build();
-            _asyncExecutor = Executors.newCachedThreadPool(threadFactory);
+            _asyncExecutor = _useVirtualThreads
+                    ? VirtualThreads.newExecutor(_serviceName + "-AsyncExecutorThread-")
+                    : Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                            .setNameFormat(_serviceName + "-AsyncExecutorThread-%d")
+                            .setDaemon(true)
+                            .build());
         }
 
-        return new AsyncServicePool<S>(Ticker.systemTicker(), pool, true, _asyncExecutor, shutdownAsyncExecutorOnClose);
+        return new AsyncServicePool<S>(Ticker.systemTicker(), pool, true, _asyncExecutor, shutdownAsyncExecutorOnClose,
+                _concurrencyLimitPolicy);
     }
 
     /**
@@ -262,6 +370,67 @@ public class ServicePoolBuilder<S> {
         return ServicePoolProxy.create(_serviceType, retryPolicy, build(), _partitionContextSupplier, true);
     }
 
+    /**
+     * Builds a dynamic proxy that wraps a {@code ServicePool} and implements the service interface directly, sending
+     * hedged requests for methods of the service interface that are annotated with {@link Idempotent}.  Methods without
+     * the annotation are never hedged.
+     * <p/>
+     * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
+     * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
+     *
+     * @param retryPolicy The retry policy to apply for every service call.
+     * @param hedgePolicy The hedge policy to apply for every call to an idempotent method.
+     * @return The dynamic proxy instance that implements the service interface {@code S} and the
+     *         {@link java.io.Closeable} interface.
+     */
+    public S buildProxy(RetryPolicy retryPolicy, HedgePolicy hedgePolicy) {
+        checkNotNull(hedgePolicy);
+        return ServicePoolProxy.create(_serviceType, retryPolicy, hedgePolicy, build(), _partitionContextSupplier,
+                true);
+    }
+
+    /**
+     * Builds a dynamic proxy that wraps a {@code ServicePool} and implements the service interface directly, giving
+     * every call to the service a deadline of the given timeout.  Service clients can use {@link Deadline#current()}
+     * to limit each attempt to the time that remains.
+     * <p/>
+     * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
+     * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
+     *
+     * @param retryPolicy The retry policy to apply for every service call.
+     * @param callTimeout The amount of time each service call, including its retries, may take.
+     * @param unit        The units (milliseconds, seconds, etc.) of {@code callTimeout}.
+     * @return The dynamic proxy instance that implements the service interface {@code S} and the
+     *         {@link java.io.Closeable} interface.
+     */
+    public S buildProxy(RetryPolicy retryPolicy, long callTimeout, TimeUnit unit) {
+        checkArgument(callTimeout >= 0);
+        return ServicePoolProxy.create(_serviceType, retryPolicy, null, unit.toNanos(callTimeout), build(),
+                _partitionContextSupplier, true);
+    }
+
+    /**
+     * Builds a dynamic proxy that wraps a {@code ServicePool} and implements the service interface directly, giving
+     * every call to the service a deadline of the given timeout and sending hedged requests for methods of the service
+     * interface that are annotated with {@link Idempotent}.
+     * <p/>
+     * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
+     * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
+     *
+     * @param retryPolicy The retry policy to apply for every service call.
+     * @param hedgePolicy The hedge policy to apply for every call to an idempotent method.
+     * @param callTimeout The amount of time each service call, including its retries, may take.
+     * @param unit        The units (milliseconds, seconds, etc.) of {@code callTimeout}.
+     * @return The dynamic proxy instance that implements the service interface {@code S} and the
+     *         {@link java.io.Closeable} interface.
+     */
+    public S buildProxy(RetryPolicy retryPolicy, HedgePolicy hedgePolicy, long callTimeout, TimeUnit unit) {
+        checkNotNull(hedgePolicy);
+        checkArgument(callTimeout >= 0);
+        return ServicePoolProxy.create(_serviceType, retryPolicy, hedgePolicy, unit.toNanos(callTimeout), build(),
+                _partitionContextSupplier, true);
+    }
+
     @VisibleForTesting
     ServicePool<S> buildInternal() {
         checkNotNull(_serviceFactory);
@@ -269,6 +438,7 @@ public class ServicePoolBuilder<S> {
         HostDiscovery hostDiscovery = findHostDiscovery(_serviceName);
 
         boolean shutdownHealthCheckExecutorOnClose = (_healthCheckExecutor == null);
+        boolean shutdownHedgeExecutorOnClose = (_hedgeExecutor == null);
 
         try {
             if (_cachingPolicy == null) {
@@ -276,16 +446,29 @@ public class ServicePoolBuilder<S> {
             }
 
             if (_healthCheckExecutor == null) {
-                _healthCheckExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_HEALTH_CHECK_THREADS,
-                        new ThreadFactoryBuilder()
+                ThreadFactory threadFactory = _useVirtualThreads
+                        ? VirtualThreads.newThreadFactory(_serviceName + "-HealthCheckThread-")
+                        : new ThreadFactoryBuilder()
                                 .setNameFormat(_serviceName + "-HealthCheckThread-%d")
                                 .setDaemon(true)
+                                .build();
+                _healthCheckExecutor = Executors.newScheduledThreadPool(DEFAULT_NUM_HEALTH_CHECK_THREADS,
+                        threadFactory);
+            }
+
+            if (_hedgeExecutor == null) {
+                _hedgeExecutor = _useVirtualThreads
+                        ? VirtualThreads.newExecutor(_serviceName + "-HedgeThread-")
+                        : Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                                .setNameFormat(_serviceName + "-HedgeThread-%d")
+                                .setDaemon(true)
                                 .build());
             }
 
             ServicePool<S> servicePool = new ServicePool<S>(Ticker.systemTicker(), hostDiscovery, _closeHostDiscovery,
-                    _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                    shutdownHealthCheckExecutorOnClose);
+                    _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _circuitBreakerPolicy,
+                    _outlierDetectionPolicy, _retryBudgetPolicy, _healthCheckExecutor,
+                    shutdownHealthCheckExecutorOnClose, _hedgeExecutor, shutdownHedgeExecutorOnClose);
 
             _closeHostDiscovery = false;
 
@@ -296,6 +479,11 @@ public class ServicePoolBuilder<S> {
                 _healthCheckExecutor = null;
             }
 
+            if (shutdownHedgeExecutorOnClose && _hedgeExecutor != null) {
+                _hedgeExecutor.shutdownNow();
+                _hedgeExecutor = null;
+            }
+
             try {
                 if (_closeHostDiscovery) {
                     hostDiscovery.close();
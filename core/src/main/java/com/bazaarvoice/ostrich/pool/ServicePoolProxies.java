@@ -1,8 +1,8 @@
 package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.HealthCheckResults;
-import com.google.common.io.Closeables;
 
+import java.io.IOException;
 import java.lang.reflect.Proxy;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -25,13 +25,17 @@ public abstract class ServicePoolProxies {
     }
 
     /**
-     * Closes the service pool associated with the specified dynamic service proxy.
+     * Closes the service pool associated with the specified dynamic service proxy, along with the proxy's response
+     * cache.
      * @param dynamicProxy A service pool dynamic proxy created by {@link ServicePoolBuilder#buildProxy}.
      * @param <S> The service interface type.
      */
     public static <S> void close(S dynamicProxy) {
-        // Use closeQuietly since ServicePool.close() doesn't throw IOException.
-        Closeables.closeQuietly(getPool(dynamicProxy));
+        try {
+            getProxy(dynamicProxy).close();
+        } catch (IOException e) {
+            // Ignored, the same as closing the pool quietly, since ServicePool.close() doesn't throw IOException.
+        }
     }
 
     /**
@@ -71,10 +75,14 @@ public abstract class ServicePoolProxies {
      * @return The {@link com.bazaarvoice.ostrich.ServicePool} used by the specified dynamic service proxy.
      */
     public static <S> com.bazaarvoice.ostrich.ServicePool<S> getPool(S dynamicProxy) {
+        return getProxy(dynamicProxy).getServicePool();
+    }
+
+    private static <S> ServicePoolProxy<S> getProxy(S dynamicProxy) {
         checkNotNull(dynamicProxy);
         checkArgument(isProxy(dynamicProxy));
         @SuppressWarnings("unchecked") ServicePoolProxy<S> poolProxy = (ServicePoolProxy<S>)
                 Proxy.getInvocationHandler(dynamicProxy);
-        return poolProxy.getServicePool();
+        return poolProxy;
     }
 }
@@ -1,49 +1,156 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.Batched;
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.Coalesced;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.HedgePolicy;
+import com.bazaarvoice.ostrich.Idempotent;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServicePool;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Throwables;
-import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-class ServicePoolProxy<S> extends AbstractInvocationHandler {
+class ServicePoolProxy<S> implements InvocationHandler {
+    static final long NO_CALL_TIMEOUT = -1;
+
+    private static final Object[] NO_ARGS = {};
+
     private final Class<S> _serviceType;
     private final RetryPolicy _retryPolicy;
+    private final HedgePolicy _hedgePolicy;
+    private final long _callTimeoutNanos;
+    private final Set<Method> _idempotentMethods;
+    private final CallCoalescer _coalescer = new CallCoalescer();
+    private final ResponseCache _responseCache;
+    private final Map<Method, CallBatcher> _batchers;
+    private final Map<Method, Dispatcher> _dispatchers;
     private final ServicePool<S> _servicePool;
     private final PartitionContextSupplier _partitionContextSupplier;
     private final boolean _shutdownPoolOnClose;
 
     static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> pool,
                         PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        return create(serviceType, retryPolicy, null, pool, partitionContextSupplier, shutdownPoolOnClose);
+    }
+
+    static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, HedgePolicy hedgePolicy, ServicePool<S> pool,
+                        PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        return create(serviceType, retryPolicy, hedgePolicy, NO_CALL_TIMEOUT, pool, partitionContextSupplier,
+                shutdownPoolOnClose);
+    }
+
+    static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, HedgePolicy hedgePolicy, long callTimeoutNanos,
+                        ServicePool<S> pool, PartitionContextSupplier partitionContextSupplier,
+                        boolean shutdownPoolOnClose) {
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         Class<?>[] interfaces = shutdownPoolOnClose
                 ? new Class<?>[] {serviceType, Closeable.class}
                 : new Class<?>[] {serviceType};
 
         ServicePoolProxy<S> proxy = new ServicePoolProxy<S>(
-                serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose);
+                serviceType, retryPolicy, hedgePolicy, callTimeoutNanos, pool, partitionContextSupplier,
+                shutdownPoolOnClose);
         return serviceType.cast(Proxy.newProxyInstance(loader, interfaces, proxy));
     }
 
     ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> servicePool,
                      PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        this(serviceType, retryPolicy, null, servicePool, partitionContextSupplier, shutdownPoolOnClose);
+    }
+
+    ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, HedgePolicy hedgePolicy,
+                     ServicePool<S> servicePool, PartitionContextSupplier partitionContextSupplier,
+                     boolean shutdownPoolOnClose) {
+        this(serviceType, retryPolicy, hedgePolicy, NO_CALL_TIMEOUT, servicePool, partitionContextSupplier,
+                shutdownPoolOnClose);
+    }
+
+    /**
+     * @param hedgePolicy      The hedge policy for methods annotated with {@link Idempotent}, or {@code null} to never
+     *                         hedge.
+     * @param callTimeoutNanos The deadline given to each call, or {@link #NO_CALL_TIMEOUT} for calls without one.
+     */
+    ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, HedgePolicy hedgePolicy, long callTimeoutNanos,
+                     ServicePool<S> servicePool, PartitionContextSupplier partitionContextSupplier,
+                     boolean shutdownPoolOnClose) {
         checkState(serviceType.isInterface(), "Proxy functionality is only available for interface service types.");
 
         _serviceType = checkNotNull(serviceType);
         _retryPolicy = checkNotNull(retryPolicy);
+        _hedgePolicy = hedgePolicy;
+        _callTimeoutNanos = callTimeoutNanos;
+        _idempotentMethods = (hedgePolicy != null)
+                ? findAnnotatedMethods(serviceType, Idempotent.class)
+                : ImmutableSet.<Method>of();
         _servicePool = checkNotNull(servicePool);
         _partitionContextSupplier = checkNotNull(partitionContextSupplier);
         _shutdownPoolOnClose = shutdownPoolOnClose;
+        _responseCache = createResponseCache(serviceType, servicePool);
+        _batchers = createBatchers(serviceType);
+        _dispatchers = createDispatchers(serviceType);
+    }
+
+    /**
+     * Creates the cache for the methods annotated with {@link Cacheable}, or returns {@code null} if there aren't any.
+     * When the pool is one of ours the cache listens to its host discovery, so that results tied to an end point are
+     * invalidated when the end point goes away.
+     */
+    private ResponseCache createResponseCache(Class<S> serviceType, ServicePool<S> servicePool) {
+        Set<Method> methods = findAnnotatedMethods(serviceType, Cacheable.class);
+        if (methods.isEmpty()) {
+            return null;
+        }
+
+        ResponseCache.Loader loader = new ResponseCache.Loader() {
+            @Override
+            public ResponseCache.Response load(CallKey key) {
+                return executeForResponse(key.getMethod(), key.getArgs());
+            }
+        };
+
+        if (!(servicePool instanceof com.bazaarvoice.ostrich.pool.ServicePool)) {
+            return new ResponseCache(serviceType.getSimpleName(), methods, loader);
+        }
+
+        com.bazaarvoice.ostrich.pool.ServicePool<S> pool = (com.bazaarvoice.ostrich.pool.ServicePool<S>) servicePool;
+        ResponseCache responseCache = new ResponseCache(pool.getServiceName(), methods, loader);
+        pool.getHostDiscovery().addListener(responseCache);
+        return responseCache;
+    }
+
+    @VisibleForTesting
+    CallCoalescer getCoalescer() {
+        return _coalescer;
     }
 
     /**
@@ -53,33 +160,315 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
         return _servicePool;
     }
 
+    /**
+     * Closes the service pool used by this proxy, along with the proxy's response cache.
+     */
+    void close() throws IOException {
+        if (_responseCache != null) {
+            closeResponseCache();
+        }
+        _servicePool.close();
+    }
+
     @Override
-    protected Object handleInvocation(Object proxy, final Method method, final Object[] args) throws Throwable {
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Dispatcher dispatcher = _dispatchers.get(method);
+        if (dispatcher == null) {
+            // Only methods of the proxy's interfaces are ever invoked, so this shouldn't happen, but just in case.
+            dispatcher = newDispatcher(method);
+        }
+        return dispatcher.dispatch(proxy, (args != null) ? args : NO_ARGS);
+    }
+
+    /**
+     * Works out up front how each method of the proxy is handled, so that a call only has to look up its method.
+     */
+    private Map<Method, Dispatcher> createDispatchers(Class<S> serviceType) {
+        Set<Method> methods = Sets.newLinkedHashSet();
+        methods.addAll(Arrays.asList(serviceType.getMethods()));
+        try {
+            methods.add(Object.class.getMethod("hashCode"));
+            methods.add(Object.class.getMethod("equals", Object.class));
+            methods.add(Object.class.getMethod("toString"));
+            if (_shutdownPoolOnClose) {
+                methods.add(Closeable.class.getMethod("close"));
+            }
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+
+        ImmutableMap.Builder<Method, Dispatcher> dispatchers = ImmutableMap.builder();
+        for (Method method : methods) {
+            dispatchers.put(method, newDispatcher(method));
+        }
+        return dispatchers.build();
+    }
+
+    private Dispatcher newDispatcher(final Method method) {
+        String name = method.getName();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+
+        // Object's methods are answered by the proxy itself, whichever interface declares them.
+        if (parameterTypes.length == 0 && name.equals("hashCode")) {
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) {
+                    return System.identityHashCode(proxy);
+                }
+            };
+        }
+        if (parameterTypes.length == 1 && name.equals("equals") && parameterTypes[0] == Object.class) {
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) {
+                    return proxy == args[0];
+                }
+            };
+        }
+        if (parameterTypes.length == 0 && name.equals("toString")) {
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) {
+                    return ServicePoolProxy.this.toString();
+                }
+            };
+        }
+
         // Special case for close() allows closing the entire pool by calling close() on the proxy.
-        if (_shutdownPoolOnClose && args.length == 0 && method.getName().equals("close")) {
-            _servicePool.close();
-            return null;
+        if (_shutdownPoolOnClose && parameterTypes.length == 0 && name.equals("close")) {
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) throws IOException {
+                    close();
+                    return null;
+                }
+            };
+        }
+
+        // Results of cacheable methods are served from the cache for as long as they're fresh.
+        if (_responseCache != null && _responseCache.isCached(method)) {
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) throws Throwable {
+                    return _responseCache.get(new CallKey(method, args));
+                }
+            };
+        }
+
+        // Identical calls that arrive while one is in flight share it rather than each going to the pool.
+        if (method.isAnnotationPresent(Coalesced.class)) {
+            final DirectDispatcher direct = new DirectDispatcher(method);
+            return new Dispatcher() {
+                @Override
+                Object dispatch(final Object proxy, final Object[] args) throws Throwable {
+                    return _coalescer.execute(new CallKey(method, args), new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return direct.dispatch(proxy, args);
+                        }
+                    });
+                }
+            };
+        }
+
+        // Concurrent calls of single item methods are combined into calls of their bulk methods.
+        final CallBatcher batcher = _batchers.get(method);
+        if (batcher != null) {
+            final boolean primitive = method.getReturnType().isPrimitive();
+            return new Dispatcher() {
+                @Override
+                Object dispatch(Object proxy, Object[] args) throws Throwable {
+                    Object result = batcher.execute(args[0]);
+                    if (result == null && primitive) {
+                        // Returning null would fail with a NullPointerException when the proxy unboxes it.
+                        throw new IllegalStateException(String.format(
+                                "The bulk call of batched method %s returned no result for item %s.", method, args[0]));
+                    }
+                    return result;
+                }
+            };
         }
 
+        return new DirectDispatcher(method);
+    }
+
+    /**
+     * Skips the access check that {@link Method#invoke} would otherwise make on every call, where that's allowed.
+     */
+    private static Method accessible(Method method) {
+        try {
+            method.setAccessible(true);
+        } catch (SecurityException e) {
+            // Not allowed, so every call is checked instead.
+        }
+        return method;
+    }
+
+    private void closeResponseCache() {
+        if (_servicePool instanceof com.bazaarvoice.ostrich.pool.ServicePool) {
+            ((com.bazaarvoice.ostrich.pool.ServicePool<S>) _servicePool).getHostDiscovery()
+                    .removeListener(_responseCache);
+        }
+        _responseCache.close();
+    }
+
+    /**
+     * Executes a call and returns its result along with the end point that it's tied to.  Only a partitioned call is
+     * tied to the end point it was executed on, since another end point could answer any other call just as well.
+     */
+    private ResponseCache.Response executeForResponse(final Method method, final Object[] args) {
         PartitionContext partitionContext = _partitionContextSupplier.forCall(method, args);
+        final boolean partitioned = !partitionContext.asMap().isEmpty();
+
+        EndPointCallback<S, ResponseCache.Response> callback = new EndPointCallback<S, ResponseCache.Response>() {
+            @Override
+            public ResponseCache.Response call(S service) throws ServiceException {
+                return new ResponseCache.Response(invokeMethod(method, service, args), null);
+            }
+
+            @Override
+            public ResponseCache.Response call(ServiceEndPoint endPoint, S service) throws ServiceException {
+                return new ResponseCache.Response(invokeMethod(method, service, args), partitioned ? endPoint : null);
+            }
+        };
+
+        return execute(partitionContext, _idempotentMethods.contains(method), callback);
+    }
+
+    private <R> R execute(PartitionContext partitionContext, boolean hedged, ServiceCallback<S, R> callback) {
+        if (_callTimeoutNanos == NO_CALL_TIMEOUT) {
+            return hedged
+                    ? _servicePool.execute(partitionContext, _retryPolicy, _hedgePolicy, callback)
+                    : _servicePool.execute(partitionContext, _retryPolicy, callback);
+        }
+
+        Deadline deadline = Deadline.after(_callTimeoutNanos, TimeUnit.NANOSECONDS);
+        return hedged
+                ? _servicePool.execute(partitionContext, deadline, _retryPolicy, _hedgePolicy, callback)
+                : _servicePool.execute(partitionContext, deadline, _retryPolicy, callback);
+    }
+
+    private Map<Method, CallBatcher> createBatchers(Class<S> serviceType) {
+        ImmutableMap.Builder<Method, CallBatcher> batchers = ImmutableMap.builder();
+        for (Method method : findAnnotatedMethods(serviceType, Batched.class)) {
+            Batched batched = method.getAnnotation(Batched.class);
+            checkArgument(method.getParameterTypes().length == 1,
+                    "Batched method %s must take exactly one argument.", method);
+            Method bulkMethod = findBulkMethod(serviceType, batched.value());
+            checkArgument(bulkMethod != null,
+                    "Bulk method %s of batched method %s must take a single collection and return a map.",
+                    batched.value(), method);
+
+            batchers.put(method, new CallBatcher(batched.maxSize(), batched.unit().toNanos(batched.maxDelay()),
+                    newBulkCall(method, bulkMethod)));
+        }
+        return batchers.build();
+    }
+
+    /**
+     * Returns the method of the service interface with the name that takes a collection of items and returns a map,
+     * or {@code null} if there isn't one.
+     */
+    private static Method findBulkMethod(Class<?> serviceType, String name) {
+        for (Method method : serviceType.getMethods()) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            if (method.getName().equals(name)
+                    && parameterTypes.length == 1
+                    && parameterTypes[0].isAssignableFrom(List.class)
+                    && Map.class.isAssignableFrom(method.getReturnType())) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a bulk call that sends each batch through the pool, grouped by the end points that the partitions of
+     * the single item calls map to.
+     */
+    private CallBatcher.BulkCall newBulkCall(final Method method, final Method bulkMethod) {
+        final Function<Object, PartitionContext> partitioner = new Function<Object, PartitionContext>() {
+            @Override
+            public PartitionContext apply(Object item) {
+                return _partitionContextSupplier.forCall(method, new Object[] {item});
+            }
+        };
+        final BatchServiceCallback<S, Object, Object> callback = new BatchServiceCallback<S, Object, Object>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Map<Object, Object> call(S service, Collection<Object> items) throws ServiceException {
+                Object[] args = {Lists.newArrayList(items)};
+                return (Map<Object, Object>) invokeMethod(bulkMethod, service, args);
+            }
+        };
 
-        // Delegate the method through to a service provider in the pool.
-        return _servicePool.execute(partitionContext, _retryPolicy, new ServiceCallback<S, Object>() {
+        return new CallBatcher.BulkCall() {
             @Override
-            public Object call(S service) throws ServiceException {
-                try {
-                    return method.invoke(service, args);
-                } catch (IllegalAccessException e) {
-                    throw Throwables.propagate(e);
-                } catch (InvocationTargetException e) {
-                    throw Throwables.propagate(e.getTargetException());
+            public Map<?, ?> call(List<Object> items) {
+                if (_callTimeoutNanos == NO_CALL_TIMEOUT) {
+                    return _servicePool.executeBatch(_retryPolicy, items, partitioner, callback);
                 }
+
+                Deadline deadline = Deadline.after(_callTimeoutNanos, TimeUnit.NANOSECONDS);
+                return _servicePool.executeBatch(deadline, _retryPolicy, items, partitioner, callback);
             }
-        });
+        };
+    }
+
+    private static Object invokeMethod(Method method, Object service, Object[] args) {
+        try {
+            return method.invoke(service, args);
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        } catch (InvocationTargetException e) {
+            throw Throwables.propagate(e.getTargetException());
+        }
+    }
+
+    private static Set<Method> findAnnotatedMethods(Class<?> serviceType, Class<? extends Annotation> annotation) {
+        ImmutableSet.Builder<Method> methods = ImmutableSet.builder();
+        for (Method method : serviceType.getMethods()) {
+            if (method.isAnnotationPresent(annotation)) {
+                methods.add(method);
+            }
+        }
+        return methods.build();
     }
 
     @Override
     public String toString() {
         return "ServicePoolProxy[" + _serviceType.getName() + "]";
     }
+
+    /**
+     * Handles the calls of a single method of the proxy.
+     */
+    private abstract static class Dispatcher {
+        abstract Object dispatch(Object proxy, Object[] args) throws Throwable;
+    }
+
+    /**
+     * Delegates the method through to a service provider in the pool.
+     */
+    private final class DirectDispatcher extends Dispatcher {
+        private final Method _method;
+        private final boolean _hedged;
+
+        DirectDispatcher(Method method) {
+            _method = accessible(method);
+            _hedged = _idempotentMethods.contains(method);
+        }
+
+        @Override
+        Object dispatch(Object proxy, final Object[] args) {
+            PartitionContext partitionContext = _partitionContextSupplier.forCall(_method, args);
+            ServiceCallback<S, Object> callback = new ServiceCallback<S, Object>() {
+                @Override
+                public Object call(S service) throws ServiceException {
+                    return invokeMethod(_method, service, args);
+                }
+            };
+            return execute(partitionContext, _hedged, callback);
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for events that many threads record at once.  Each thread increments one of several cells, each on its own
+ * cache line, so threads don't contend on a single {@code AtomicLong}.  Reading the count sums the cells, so it's only
+ * meant for things like metrics that are read far less often than they're written.
+ */
+final class StripedCounter {
+    // Cells are spaced 16 longs (128 bytes) apart so that no two of them share a cache line.
+    private static final int CELL_SPACING = 16;
+
+    private final AtomicLongArray _cells;
+    private final int _mask;
+
+    StripedCounter() {
+        int numCells = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        _cells = new AtomicLongArray(numCells * CELL_SPACING);
+        _mask = numCells - 1;
+    }
+
+    void increment() {
+        _cells.incrementAndGet(((int) Thread.currentThread().getId() & _mask) * CELL_SPACING);
+    }
+
+    long get() {
+        long sum = 0;
+        for (int i = 0; i < _cells.length(); i += CELL_SPACING) {
+            sum += _cells.get(i);
+        }
+        return sum;
+    }
+}
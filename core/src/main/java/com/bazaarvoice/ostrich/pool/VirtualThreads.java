@@ -0,0 +1,98 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates threads and executors that use virtual threads when the JVM supports them (Java 21 and newer), and ordinary
+ * daemon threads when it doesn't.  Ostrich is built for much older JVMs, so the virtual thread API is only ever
+ * reached through reflection.
+ */
+final class VirtualThreads {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    // Both are null when the JVM doesn't support virtual threads.
+    private static final Method OF_VIRTUAL;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null;
+        Method newThreadPerTaskExecutor = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        } catch (NoSuchMethodException e) {
+            // An older JVM, so both stay null.
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {}
+
+    /**
+     * Whether this JVM supports virtual threads.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns a factory for virtual threads named with the prefix and an increasing number, or a factory for daemon
+     * threads named the same way if virtual threads aren't supported.
+     */
+    static ThreadFactory newThreadFactory(String namePrefix) {
+        checkNotNull(namePrefix);
+        if (isSupported()) {
+            try {
+                return newVirtualThreadFactory(namePrefix);
+            } catch (Exception e) {
+                LOG.warn("Unable to create virtual threads, using platform threads instead.", e);
+            }
+        }
+        return newPlatformThreadFactory(namePrefix);
+    }
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or a cached pool of daemon threads if virtual
+     * threads aren't supported.
+     */
+    static ExecutorService newExecutor(String namePrefix) {
+        checkNotNull(namePrefix);
+        if (isSupported()) {
+            try {
+                ThreadFactory threadFactory = newVirtualThreadFactory(namePrefix);
+                return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+            } catch (Exception e) {
+                LOG.warn("Unable to create virtual threads, using platform threads instead.", e);
+            }
+        }
+        return Executors.newCachedThreadPool(newPlatformThreadFactory(namePrefix));
+    }
+
+    private static ThreadFactory newVirtualThreadFactory(String namePrefix) throws Exception {
+        // Thread.ofVirtual().name(namePrefix, 0).factory()
+        Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+        Object builder = OF_VIRTUAL.invoke(null);
+        builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+        return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    }
+
+    @VisibleForTesting
+    static ThreadFactory newPlatformThreadFactory(String namePrefix) {
+        return new ThreadFactoryBuilder()
+                .setNameFormat(namePrefix.replace("%", "%%") + "%d")
+                .setDaemon(true)
+                .build();
+    }
+}
@@ -1,10 +1,12 @@
 package com.bazaarvoice.ostrich.retry;
 
-import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
+
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public abstract class SleepingRetry implements RetryPolicy {
+public abstract class SleepingRetry implements ScheduledRetryPolicy {
     private final int _maxNumAttempts;
 
     protected SleepingRetry(int maxNumAttempts) {
@@ -14,13 +16,13 @@ public abstract class SleepingRetry implements RetryPolicy {
 
     @Override
     public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
-        checkArgument(numAttempts >= 1);
-        if (numAttempts >= _maxNumAttempts) {
+        long sleepTimeMs = getRetryDelay(numAttempts, elapsedTimeMs, TimeUnit.MILLISECONDS);
+        if (sleepTimeMs < 0) {
             return false;
         }
 
         try {
-            Thread.sleep(getSleepTimeMs(numAttempts, elapsedTimeMs));
+            Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return false;
@@ -29,5 +31,15 @@ public abstract class SleepingRetry implements RetryPolicy {
         return true;
     }
 
+    @Override
+    public long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+        checkArgument(numAttempts >= 1);
+        if (numAttempts >= _maxNumAttempts) {
+            return -1;
+        }
+
+        return unit.convert(getSleepTimeMs(numAttempts, elapsedTimeMs), TimeUnit.MILLISECONDS);
+    }
+
     protected abstract long getSleepTimeMs(int numAttempts, long elapsedTimeMs);
 }
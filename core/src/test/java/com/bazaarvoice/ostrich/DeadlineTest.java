@@ -0,0 +1,106 @@
+package com.bazaarvoice.ostrich;
+
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeadlineTest {
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        when(_ticker.read()).thenReturn(0L);
+    }
+
+    @After
+    public void teardown() {
+        // Don't let a failed test leak a current deadline into other tests.
+        Deadline previous = Deadline.current();
+        if (previous != null) {
+            previous.detach(null);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDuration() {
+        Deadline.after(-1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullUnit() {
+        Deadline.after(1, null);
+    }
+
+    @Test
+    public void testRemaining() {
+        Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+        assertEquals(10, deadline.getRemaining(TimeUnit.SECONDS));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(4));
+        assertEquals(6, deadline.getRemaining(TimeUnit.SECONDS));
+        assertFalse(deadline.isExpired());
+    }
+
+    @Test
+    public void testExpired() {
+        Deadline deadline = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.getRemaining(TimeUnit.NANOSECONDS));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(11));
+        assertEquals(0, deadline.getRemaining(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testZeroDurationIsExpired() {
+        assertTrue(Deadline.after(0, TimeUnit.SECONDS, _ticker).isExpired());
+    }
+
+    @Test
+    public void testVeryLongDuration() {
+        when(_ticker.read()).thenReturn(Long.MAX_VALUE - 1);
+        Deadline deadline = Deadline.after(Long.MAX_VALUE, TimeUnit.DAYS, _ticker);
+
+        when(_ticker.read()).thenReturn(Long.MIN_VALUE + 1);
+        assertFalse(deadline.isExpired());
+    }
+
+    @Test
+    public void testNoCurrentDeadline() {
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testAttachAndDetach() {
+        Deadline outer = Deadline.after(10, TimeUnit.SECONDS, _ticker);
+        Deadline inner = Deadline.after(5, TimeUnit.SECONDS, _ticker);
+
+        Deadline beforeOuter = outer.attach();
+        assertNull(beforeOuter);
+        assertSame(outer, Deadline.current());
+
+        Deadline beforeInner = inner.attach();
+        assertSame(outer, beforeInner);
+        assertSame(inner, Deadline.current());
+
+        inner.detach(beforeInner);
+        assertSame(outer, Deadline.current());
+
+        outer.detach(beforeOuter);
+        assertNull(Deadline.current());
+    }
+}
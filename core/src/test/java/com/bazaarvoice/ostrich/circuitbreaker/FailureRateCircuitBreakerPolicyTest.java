@@ -0,0 +1,218 @@
+package com.bazaarvoice.ostrich.circuitbreaker;
+
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FailureRateCircuitBreakerPolicyTest {
+    private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        when(_ticker.read()).thenReturn(0L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWindowSize() {
+        new FailureRateCircuitBreakerPolicy(0, 0.5, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinNumCallsLargerThanWindow() {
+        new FailureRateCircuitBreakerPolicy(10, 11, 0.5, 1, TimeUnit.SECONDS, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroFailureRate() {
+        new FailureRateCircuitBreakerPolicy(10, 0, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFailureRateAboveOne() {
+        new FailureRateCircuitBreakerPolicy(10, 1.5, 1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeOpenDuration() {
+        new FailureRateCircuitBreakerPolicy(10, 0.5, -1, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroProbeCalls() {
+        new FailureRateCircuitBreakerPolicy(10, 10, 0.5, 1, TimeUnit.SECONDS, 0);
+    }
+
+    @Test
+    public void testStartsClosed() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 4, 0.5, 1);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testOpenDuration() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 4, 0.5, 1);
+        assertEquals(10, breaker.getOpenDuration(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSingleFailureDoesNotOpen() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 1, 0.5, 1);
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testDoesNotOpenBeforeMinNumCalls() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 4, 0.5, 1);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testOpensAtFailureRate() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 4, 0.5, 1);
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testOldOutcomesLeaveWindow() {
+        CircuitBreaker breaker = newCircuitBreaker(4, 4, 0.5, 1);
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+        breaker.recordSuccess();
+
+        // The first failure is pushed out of the window, so this is still only 1 failure out of 4.
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpensAfterOpenDuration() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(1);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10) - 1);
+        assertFalse(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(breaker.allowRequest());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenLimitsProbes() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(2);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void testHalfOpenClosesWhenAllProbesSucceed() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(2);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenReopensWhenProbeFails() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(2);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        assertTrue(breaker.allowRequest());
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+
+        // The open duration starts over from the failed probe.
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(20));
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testHalfOpenReplenishesLostProbes() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(1);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+
+        // The probe never reports back...
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(20));
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void testClosedBreakerStartsWithEmptyWindow() {
+        CircuitBreaker breaker = newCircuitBreaker(2, 2, 1, 1);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        // Only one call in the window, which is below the minimum number of calls.
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testReset() {
+        CircuitBreaker breaker = newOpenCircuitBreaker(1);
+        breaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+
+    private CircuitBreaker newCircuitBreaker(int windowSize, int minNumCalls, double failureRate, int numProbes) {
+        return new FailureRateCircuitBreakerPolicy(_ticker, windowSize, minNumCalls, failureRate, 10, TimeUnit.SECONDS,
+                numProbes).newCircuitBreaker(END_POINT);
+    }
+
+    private CircuitBreaker newOpenCircuitBreaker(int numProbes) {
+        CircuitBreaker breaker = newCircuitBreaker(1, 1, 1, numProbes);
+        breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
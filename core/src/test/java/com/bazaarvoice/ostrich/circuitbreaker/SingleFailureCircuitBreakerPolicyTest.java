@@ -0,0 +1,50 @@
+package com.bazaarvoice.ostrich.circuitbreaker;
+
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class SingleFailureCircuitBreakerPolicyTest {
+    private final CircuitBreaker _breaker = new SingleFailureCircuitBreakerPolicy()
+            .newCircuitBreaker(mock(ServiceEndPoint.class));
+
+    @Test
+    public void testStartsClosed() {
+        assertEquals(CircuitBreaker.State.CLOSED, _breaker.getState());
+        assertTrue(_breaker.allowRequest());
+    }
+
+    @Test
+    public void testOpensOnFirstFailure() {
+        _breaker.recordSuccess();
+        _breaker.recordFailure();
+        assertEquals(CircuitBreaker.State.OPEN, _breaker.getState());
+        assertFalse(_breaker.allowRequest());
+    }
+
+    @Test
+    public void testSuccessDoesNotClose() {
+        _breaker.recordFailure();
+        _breaker.recordSuccess();
+        assertEquals(CircuitBreaker.State.OPEN, _breaker.getState());
+    }
+
+    @Test
+    public void testReset() {
+        _breaker.recordFailure();
+        _breaker.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, _breaker.getState());
+    }
+
+    @Test
+    public void testNeverHalfOpens() {
+        assertTrue(_breaker.getOpenDuration(TimeUnit.MILLISECONDS) < 0);
+    }
+}
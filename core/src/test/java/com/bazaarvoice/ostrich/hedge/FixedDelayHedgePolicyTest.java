@@ -0,0 +1,35 @@
+package com.bazaarvoice.ostrich.hedge;
+
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+public class FixedDelayHedgePolicyTest {
+    private static final ServicePoolStatistics STATISTICS = mock(ServicePoolStatistics.class);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeDelay() {
+        new FixedDelayHedgePolicy(-1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullUnit() {
+        new FixedDelayHedgePolicy(1, null);
+    }
+
+    @Test
+    public void testDelay() {
+        FixedDelayHedgePolicy hedge = new FixedDelayHedgePolicy(2, TimeUnit.SECONDS);
+        assertEquals(2000, hedge.getHedgeDelay(STATISTICS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testZeroDelay() {
+        FixedDelayHedgePolicy hedge = new FixedDelayHedgePolicy(0, TimeUnit.SECONDS);
+        assertEquals(0, hedge.getHedgeDelay(STATISTICS, TimeUnit.MILLISECONDS));
+    }
+}
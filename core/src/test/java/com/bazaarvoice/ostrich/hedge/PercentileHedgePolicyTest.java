@@ -0,0 +1,58 @@
+package com.bazaarvoice.ostrich.hedge;
+
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PercentileHedgePolicyTest {
+    private ServicePoolStatistics _statistics;
+
+    @Before
+    public void setup() {
+        _statistics = mock(ServicePoolStatistics.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroQuantile() {
+        new PercentileHedgePolicy(0, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQuantileOfOne() {
+        new PercentileHedgePolicy(1, 10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMinDelay() {
+        new PercentileHedgePolicy(0.95, -1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullUnit() {
+        new PercentileHedgePolicy(0.95, 10, null);
+    }
+
+    @Test
+    public void testUsesPercentile() {
+        when(_statistics.getCallbackExecutionTime(0.95, TimeUnit.NANOSECONDS))
+                .thenReturn(TimeUnit.MILLISECONDS.toNanos(50));
+
+        PercentileHedgePolicy hedge = new PercentileHedgePolicy(0.95, 10, TimeUnit.MILLISECONDS);
+        assertEquals(50, hedge.getHedgeDelay(_statistics, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testUsesMinDelay() {
+        when(_statistics.getCallbackExecutionTime(0.95, TimeUnit.NANOSECONDS))
+                .thenReturn(TimeUnit.MILLISECONDS.toNanos(5));
+
+        PercentileHedgePolicy hedge = new PercentileHedgePolicy(0.95, 10, TimeUnit.MILLISECONDS);
+        assertEquals(10, hedge.getHedgeDelay(_statistics, TimeUnit.MILLISECONDS));
+    }
+}
@@ -47,4 +47,22 @@ public class RandomAlgorithmTest {
 
         assertEquals(endPoints.size(), seen.size());
     }
+
+    @Test
+    public void testAllElementsCanBeSelectedFromNonListIterable() {
+        RandomAlgorithm algorithm = new RandomAlgorithm();
+
+        Set<ServiceEndPoint> endPoints = Sets.newLinkedHashSet(Lists.newArrayList(
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class),
+                mock(ServiceEndPoint.class)
+        ));
+
+        Set<ServiceEndPoint> seen = Sets.newIdentityHashSet();
+        for (int i = 0; i < 1000; i++) {
+            seen.add(algorithm.choose(endPoints, null));
+        }
+
+        assertEquals(endPoints.size(), seen.size());
+    }
 }
@@ -116,6 +116,42 @@ public class AnnotationPartitionContextSupplierTest {
         assertEquals(ImmutableMap.<String, Object>of("", "value"), partitionContext.asMap());
     }
 
+    @Test
+    public void testNullArgumentLeftOut() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(MyService.class, MyServiceImpl.class);
+
+        assertEquals(ImmutableMap.<String, Object>of("", "one", "c", "three"), contextSupplier.forCall(
+                MyService.class.getMethod("threeKey", String.class, String.class, String.class),
+                "one", null, "three").asMap());
+    }
+
+    @Test
+    public void testNestedPath() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(MyService.class, MyServiceImpl.class);
+        PartitionContext partitionContext = contextSupplier.forCall(
+                MyService.class.getMethod("nested", Request.class), new Request(new Tenant("acme")));
+
+        assertEquals("acme", partitionContext.get("tenant"));
+        assertEquals(ImmutableMap.<String, Object>of("tenant", "acme"), partitionContext.asMap());
+    }
+
+    @Test
+    public void testNestedPathThroughNull() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(MyService.class, MyServiceImpl.class);
+        PartitionContext partitionContext = contextSupplier.forCall(
+                MyService.class.getMethod("nested", Request.class), new Request(null));
+
+        assertTrue(partitionContext.asMap().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidPath() {
+        new AnnotationPartitionContextSupplier(MyService.class, MyServiceBadPath.class);
+    }
+
     private static interface MyService {
         void noArgs();
         void unnamed(String string);
@@ -126,6 +162,7 @@ public class AnnotationPartitionContextSupplierTest {
         void twoArgsOneKey(int num, String string);
         void threeKey(String a1, String a2, String a3);
         List covariant(String string);
+        void nested(Request request);
     }
 
     private static class MyServiceImpl implements MyService {
@@ -147,6 +184,33 @@ public class AnnotationPartitionContextSupplierTest {
         public void threeKey(@PartitionKey String x, @PartitionKey ("b") String y, @PartitionKey ("c") String z) {}
         @Override
         public ArrayList covariant(@PartitionKey String string) {return null;}
+        @Override
+        public void nested(@PartitionKey(value = "tenant", path = "tenant.id") Request request) {}
+    }
+
+    private static class MyServiceBadPath extends MyServiceImpl {
+        @Override
+        public void nested(@PartitionKey(path = "tenant.missing") Request request) {}
+    }
+
+    public static class Request {
+        private final Tenant _tenant;
+
+        Request(Tenant tenant) {
+            _tenant = tenant;
+        }
+
+        public Tenant getTenant() {
+            return _tenant;
+        }
+    }
+
+    public static class Tenant {
+        public final String id;
+
+        Tenant(String id) {
+            this.id = id;
+        }
     }
 
     private static class MyServiceDup extends MyServiceImpl {
@@ -0,0 +1,57 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ArrayPartitionContextTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testMismatchedArrays() {
+        new ArrayPartitionContext(new String[] {"a"}, new Object[0]);
+    }
+
+    @Test
+    public void testGetDefault() {
+        PartitionContext context = new ArrayPartitionContext(new String[] {"a", ""}, new Object[] {1, 2});
+
+        assertEquals(2, context.get());
+    }
+
+    @Test
+    public void testGet() {
+        PartitionContext context = new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 2});
+
+        assertEquals(1, context.get("a"));
+        assertEquals(2, context.get("b"));
+        assertNull(context.get("c"));
+        assertNull(context.get());
+    }
+
+    @Test
+    public void testAsMap() {
+        PartitionContext context = new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 2});
+
+        assertEquals(ImmutableMap.of("a", 1, "b", 2), context.asMap());
+    }
+
+    @Test
+    public void testEquals() {
+        PartitionContext context = new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 2});
+
+        assertEquals(new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 2}), context);
+        assertEquals(new ArrayPartitionContext(new String[] {"b", "a"}, new Object[] {2, 1}), context);
+        assertFalse(context.equals(new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 3})));
+    }
+
+    @Test
+    public void testHashCode() {
+        PartitionContext context = new ArrayPartitionContext(new String[] {"a", "b"}, new Object[] {1, 2});
+
+        assertEquals(new ArrayPartitionContext(new String[] {"b", "a"}, new Object[] {2, 1}).hashCode(),
+                context.hashCode());
+    }
+}
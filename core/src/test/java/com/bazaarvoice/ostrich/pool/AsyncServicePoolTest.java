@@ -1,48 +1,76 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.HedgePolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.google.common.base.Function;
 import com.google.common.base.Ticker;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class AsyncServicePoolTest {
     private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
+    private static final ServiceEndPointPredicate ALL = new ServiceEndPointPredicate() {
+        @Override
+        public boolean apply(ServiceEndPoint endPoint) {
+            return true;
+        }
+    };
 
     @SuppressWarnings("unchecked")
     private final ServicePool<Service> _mockPool = mock(ServicePool.class);
@@ -85,7 +113,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor).submit(any(Callable.class));
+        verify(_mockExecutor).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -112,6 +140,208 @@ public class AsyncServicePoolTest {
         verify(_mockPool).execute(same(context), same(NEVER_RETRY), same(callback));
     }
 
+    @Test
+    public void testExecutesHedgedInPool() {
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        PartitionContext context = mock(PartitionContext.class);
+        HedgePolicy hedge = mock(HedgePolicy.class);
+        pool.execute(context, NEVER_RETRY, hedge, callback);
+
+        verify(_mockPool).executeHedged(same(_mockExecutor), same(context), (Deadline) isNull(), same(NEVER_RETRY),
+                same(hedge), same(callback));
+    }
+
+    @Test
+    public void testExecutesWithDeadlineInPool() {
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        PartitionContext context = mock(PartitionContext.class);
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        pool.execute(context, deadline, NEVER_RETRY, callback);
+
+        verify(_mockPool).execute(same(context), same(deadline), same(NEVER_RETRY), same(callback));
+    }
+
+    @Test
+    public void testExecutesHedgedWithDeadlineInPool() {
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        PartitionContext context = mock(PartitionContext.class);
+        HedgePolicy hedge = mock(HedgePolicy.class);
+        Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+        pool.execute(context, deadline, NEVER_RETRY, hedge, callback);
+
+        verify(_mockPool).executeHedged(same(_mockExecutor), same(context), same(deadline), same(NEVER_RETRY),
+                same(hedge), same(callback));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSchedulesRetryInsteadOfWaitingInExecutor() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(Deadline.class), any(ServiceCallback.class)))
+                .thenThrow(new ServiceException())
+                .thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.getRetryDelay(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        Future<String> future = pool.execute(retry, mock(ServiceCallback.class));
+
+        // The first attempt failed and is waiting on the timer to be retried.
+        assertFalse(future.isDone());
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(captor.capture(), eq(10L), eq(TimeUnit.NANOSECONDS));
+        captor.getValue().run();
+
+        assertEquals("result", future.get());
+        verify(_mockPool).recordCall();
+        verify(_mockPool, never()).execute(any(RetryPolicy.class), any(ServiceCallback.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testScheduledRetryGivesUpWithoutEndPoints() throws Exception {
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        NoAvailableHostsException exception = new NoAvailableHostsException();
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenThrow(exception);
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        Future<String> future = pool.execute(retry, mock(ServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        verify(_mockPool, never()).getRetryDelay(any(ScheduledRetryPolicy.class), anyInt(), anyLong(),
+                any(Deadline.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testScheduledRetryWithExpiredDeadline() throws Exception {
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+
+        AsyncServicePool<Service> pool = newAsyncPool();
+        Future<String> future = pool.execute(Deadline.after(0, TimeUnit.SECONDS), retry,
+                mock(ServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DeadlineExceededException);
+        }
+        verify(_mockExecutor, never()).submit(any(Runnable.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAsyncCallbackDoesNotWaitForCall() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        SettableFuture<String> call = SettableFuture.create();
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), (Deadline) isNull(), same(callback))).thenReturn(call);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        Future<String> future = pool.executeAsync(NEVER_RETRY, callback);
+
+        // The call has been started, but nothing is waiting on it.
+        assertFalse(future.isDone());
+        verify(_mockPool).recordCall();
+
+        call.set("result");
+        assertEquals("result", future.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAsyncCallbackRetriedWhenCallFails() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(Deadline.class), any(AsyncServiceCallback.class)))
+                .thenReturn(Futures.immediateFailedFuture(new ServiceException()))
+                .thenReturn(Futures.immediateFuture("result"));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.getRetryDelay(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        Future<String> future = pool.executeAsync(retry, mock(AsyncServiceCallback.class));
+
+        assertFalse(future.isDone());
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(captor.capture(), eq(10L), eq(TimeUnit.NANOSECONDS));
+        captor.getValue().run();
+
+        assertEquals("result", future.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAsyncCallbackAsksRetryPolicyThatWaits() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(Deadline.class), any(AsyncServiceCallback.class)))
+                .thenReturn(Futures.immediateFailedFuture(new ServiceException()));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.allowRetry(same(retry), anyInt(), anyLong(), any(Deadline.class))).thenReturn(false);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        Future<String> future = pool.executeAsync(retry, mock(AsyncServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+        }
+        verify(_mockPool).allowRetry(same(retry), eq(1), anyLong(), any(Deadline.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAllSchedulesRetries() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint));
+        when(_mockPool.executeOnEndPoint(same(endPoint), any(ServiceCallback.class)))
+                .thenThrow(new ServiceException())
+                .thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.getRetryDelay(same(retry), anyInt(), anyLong(), (Deadline) isNull())).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        Collection<Future<String>> futures = pool.executeOnAll(retry, mock(ServiceCallback.class));
+
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(captor.capture(), eq(10L), eq(TimeUnit.NANOSECONDS));
+        captor.getValue().run();
+
+        assertEquals("result", Iterables.getOnlyElement(futures).get());
+        verify(_mockPool).recordCall();
+        verifyZeroInteractions(retry);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testExecuteAllSubmitsMultipleCallablesToExecutor() {
@@ -125,7 +355,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOnAll(NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, times(endPoints.size())).submit(any(Callable.class));
+        verify(_mockExecutor, times(endPoints.size())).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -218,6 +448,35 @@ public class AsyncServicePoolTest {
         }
     }
 
+    @Test
+    public void testExecuteOnAllAsksPoolBeforeRetrying() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint));
+        when(_mockPool.executeOnEndPoint(same(endPoint), anyCallback())).thenThrow(mock(ServiceException.class));
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+
+        // The call's own retry policy always allows a retry, but the pool (e.g. its retry budget) only allows one.
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        when(_mockPool.allowRetry(same(retry), anyInt(), anyLong(), (Deadline) isNull())).thenReturn(true, false);
+
+        // Use a real executor so that it can actually call into the callback
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        Future<Void> future = pool.executeOnAll(retry, callback).iterator().next();
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+        }
+
+        verify(_mockPool).recordCall();
+        verify(_mockPool, times(2)).executeOnEndPoint(same(endPoint), same(callback));
+        verifyZeroInteractions(retry);
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testExecuteOnSubmitsValidCallablesToExecutor() {
@@ -234,7 +493,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOn(predicate, NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, times(2)).submit(any(Callable.class));
+        verify(_mockExecutor, times(2)).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -253,7 +512,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOn(predicate, NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, never()).submit(any(Callable.class));
+        verify(_mockExecutor, never()).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -343,6 +602,155 @@ public class AsyncServicePoolTest {
         verify(_mockPool).isRetriableException(exception);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteNotifiesListenerOnCompletion() throws Exception {
+        when(_mockPool.execute(same(NEVER_RETRY), any(ServiceCallback.class))).thenReturn("result");
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeListenable(NEVER_RETRY, mock(ServiceCallback.class));
+
+        Runnable listener = mock(Runnable.class);
+        future.addListener(listener, MoreExecutors.sameThreadExecutor());
+
+        verify(listener).run();
+        assertEquals("result", future.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteOnAllCombinedReturnsAllValues() throws Exception {
+        ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+        ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(FOO, BAR));
+        when(_mockPool.executeOnEndPoint(same(FOO), any(ServiceCallback.class))).thenReturn("FOO");
+        when(_mockPool.executeOnEndPoint(same(BAR), any(ServiceCallback.class))).thenReturn("BAR");
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<List<String>> future = pool.executeOnAllCombined(NEVER_RETRY, mock(ServiceCallback.class));
+
+        assertEquals(Lists.newArrayList("FOO", "BAR"), future.get(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteOnCombinedFailsWhenAnyCallFails() throws Exception {
+        ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+        ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+        RuntimeException exception = mock(RuntimeException.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(FOO, BAR));
+        when(_mockPool.executeOnEndPoint(same(FOO), any(ServiceCallback.class))).thenReturn("FOO");
+        when(_mockPool.executeOnEndPoint(same(BAR), any(ServiceCallback.class))).thenThrow(exception);
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(false);
+
+        ServiceEndPointPredicate predicate = mock(ServiceEndPointPredicate.class);
+        when(predicate.apply(any(ServiceEndPoint.class))).thenReturn(true);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<List<String>> future =
+                pool.executeOnCombined(predicate, NEVER_RETRY, mock(ServiceCallback.class));
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancellingCombinedFutureCancelsCalls() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint));
+        when(_mockPool.executeOnEndPoint(same(endPoint), any(ServiceCallback.class)))
+                .thenThrow(new ServiceException());
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(retry.getRetryDelay(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> scheduledRetry = mock(ScheduledFuture.class);
+        when(timer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenReturn((ScheduledFuture) scheduledRetry);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        ListenableFuture<List<String>> future = pool.executeOnAllCombined(retry, mock(ServiceCallback.class));
+        future.cancel(false);
+
+        // The only call is waiting on its retry, which is given up on along with the combined call.
+        verify(scheduledRetry).cancel(true);
+    }
+
+    @Test
+    public void testExecuteOnFirstReturnsFirstSuccess() throws Exception {
+        ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+        ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+        @SuppressWarnings("unchecked") ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(FOO, BAR));
+        when(_mockPool.executeOnEndPoint(same(FOO), same(callback))).thenThrow(new ServiceException());
+        when(_mockPool.executeOnEndPoint(same(BAR), same(callback))).thenReturn("BAR");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(false);
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeOnFirst(ALL, NEVER_RETRY, callback);
+
+        assertEquals("BAR", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testExecuteOnQuorumCancelsCallsThatAreNotNeeded() throws Exception {
+        ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+        ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        @SuppressWarnings("unchecked") ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(FOO, BAR));
+        when(_mockPool.executeOnEndPoint(same(FOO), same(callback))).thenReturn("FOO");
+        when(_mockPool.executeOnEndPoint(same(BAR), same(callback))).thenThrow(new ServiceException());
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.getRetryDelay(same(retry), anyInt(), anyLong(), (Deadline) isNull())).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> scheduledRetry = mock(ScheduledFuture.class);
+        doReturn(scheduledRetry).when(timer).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        ListenableFuture<List<String>> future = pool.executeOnQuorum(ALL, 1, retry, callback);
+
+        assertEquals(Lists.newArrayList("FOO"), future.get(10, TimeUnit.SECONDS));
+        verify(scheduledRetry).cancel(true);
+        verify(_mockPool, times(2)).recordCall();
+    }
+
+    @Test
+    public void testExecuteOnWithTimeoutReturnsResultsSoFar() throws Exception {
+        ServiceEndPoint FOO = mock(ServiceEndPoint.class);
+        ServiceEndPoint BAR = mock(ServiceEndPoint.class);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        @SuppressWarnings("unchecked") ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(FOO, BAR));
+        when(_mockPool.executeOnEndPoint(same(FOO), same(callback))).thenReturn("FOO");
+        when(_mockPool.executeOnEndPoint(same(BAR), same(callback))).thenThrow(new ServiceException());
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(_mockPool.getRetryDelay(same(retry), anyInt(), anyLong(), (Deadline) isNull())).thenReturn(10L);
+
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(timer).schedule(any(Runnable.class), anyLong(),
+                any(TimeUnit.class));
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(), timer);
+        ListenableFuture<List<String>> future = pool.executeOnWithTimeout(ALL, 5, TimeUnit.SECONDS, retry, callback);
+        assertFalse(future.isDone());
+
+        // The retry of BAR was scheduled with the delay the pool allowed.
+        verify(timer).schedule(any(Runnable.class), eq(10L), eq(TimeUnit.NANOSECONDS));
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(timer).schedule(timeout.capture(), eq(5L), eq(TimeUnit.SECONDS));
+        timeout.getValue().run();
+
+        assertEquals(Lists.newArrayList("FOO"), future.get(10, TimeUnit.SECONDS));
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testRetriableExceptionIsRetried() throws Exception {
@@ -358,8 +766,9 @@ public class AsyncServicePoolTest {
         // Use a real executor so that it can actually call into the callback
         AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
 
+        // The pool checks the retry policy on the callback's behalf.
         RetryPolicy retry = mock(RetryPolicy.class);
-        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        when(_mockPool.allowRetry(same(retry), anyInt(), anyLong(), (Deadline) isNull())).thenReturn(true);
 
         Collection<Future<Void>> futures = pool.executeOnAll(retry, mock(ServiceCallback.class));
         assertEquals(1, futures.size());
@@ -368,6 +777,66 @@ public class AsyncServicePoolTest {
         future.get(10, TimeUnit.SECONDS);
     }
 
+    @Test
+    public void testExecuteBatchRunsOnExecutor() {
+        RetryPolicy retry = mock(RetryPolicy.class);
+        Collection<String> items = Lists.newArrayList("a", "b");
+        @SuppressWarnings("unchecked") Function<String, PartitionContext> partitioner = mock(Function.class);
+        @SuppressWarnings("unchecked")
+        BatchServiceCallback<Service, String, String> callback = mock(BatchServiceCallback.class);
+        ListenableFuture<Map<String, String>> expected = SettableFuture.create();
+        when(_mockPool.executeBatch(_mockExecutor, retry, items, partitioner, callback)).thenReturn(expected);
+
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        assertSame(expected, pool.executeBatch(retry, items, partitioner, callback));
+    }
+
+    @Test
+    public void testConcurrencyLimitRejectsCallsBeyondLimit() {
+        AsyncServicePool<Service> pool = newAsyncPool(new ConcurrencyLimitPolicyBuilder()
+                .withMaxConcurrency(1)
+                .withMaxQueueSize(0)
+                .build());
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+
+        // The mock executor never runs the first call, so it stays in flight.
+        pool.execute(NEVER_RETRY, callback);
+        try {
+            pool.execute(NEVER_RETRY, callback);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        verify(_mockExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void testConcurrencyLimitQueuesCallsBeyondLimit() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        SettableFuture<String> first = SettableFuture.create();
+        @SuppressWarnings("unchecked")
+        AsyncServiceCallback<Service, String> callback = mock(AsyncServiceCallback.class);
+        when(_mockPool.chooseAllowedEndPoint(any(PartitionContext.class), anySetOf(ServiceEndPoint.class)))
+                .thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(Deadline.class), same(callback)))
+                .thenReturn(first).thenReturn(Futures.immediateFuture("second"));
+
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor(),
+                new ConcurrencyLimitPolicyBuilder()
+                        .withMaxConcurrency(1)
+                        .withMaxQueueSize(1)
+                        .build());
+        ListenableFuture<String> firstResult = pool.executeAsync(NEVER_RETRY, callback);
+        ListenableFuture<String> secondResult = pool.executeAsync(NEVER_RETRY, callback);
+        assertFalse(secondResult.isDone());
+
+        first.set("first");
+
+        assertEquals("first", firstResult.get());
+        assertEquals("second", secondResult.get());
+    }
+
     @Test
     public void testCloseDoesShutdownExecutor() throws IOException {
         AsyncServicePool<Service> pool = newAsyncPool(_mockExecutor, true);
@@ -437,6 +906,26 @@ public class AsyncServicePoolTest {
         return pool;
     }
 
+    private AsyncServicePool<Service> newAsyncPool(ExecutorService executor, ScheduledExecutorService retryTimer) {
+        AsyncServicePool<Service> pool =
+                new AsyncServicePool<Service>(_mockTicker, _mockPool, true, executor, true,
+                        ConcurrencyLimitPolicyBuilder.NO_CONCURRENCY_LIMIT, retryTimer);
+        _asyncServicePools.add(pool);
+        return pool;
+    }
+
+    private AsyncServicePool<Service> newAsyncPool(ConcurrencyLimitPolicy concurrencyLimitPolicy) {
+        return newAsyncPool(_mockExecutor, concurrencyLimitPolicy);
+    }
+
+    private AsyncServicePool<Service> newAsyncPool(ExecutorService executor,
+                                                   ConcurrencyLimitPolicy concurrencyLimitPolicy) {
+        AsyncServicePool<Service> pool =
+                new AsyncServicePool<Service>(_mockTicker, _mockPool, true, executor, true, concurrencyLimitPolicy);
+        _asyncServicePools.add(pool);
+        return pool;
+    }
+
     private AsyncServicePool<Service> newAsyncPool(ServicePool<Service> pool, boolean shutdownPoolOnClose) {
         AsyncServicePool<Service> asyncPool =
                 new AsyncServicePool<Service>(_mockTicker, pool, shutdownPoolOnClose, _mockExecutor, true);
@@ -444,6 +933,10 @@ public class AsyncServicePoolTest {
         return asyncPool;
     }
 
+    private static <R> ServiceCallback<Service, R> anyCallback() {
+        return any();
+    }
+
     private static interface Service {
     }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CallBatcherTest {
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+    private final List<List<Object>> _batches = new CopyOnWriteArrayList<List<Object>>();
+
+    private final CallBatcher.BulkCall _doubler = new CallBatcher.BulkCall() {
+        @Override
+        public Map<?, ?> call(List<Object> items) {
+            _batches.add(items);
+            Map<Object, Object> results = Maps.newHashMap();
+            for (Object item : items) {
+                results.put(item, (Integer) item * 2);
+            }
+            return results;
+        }
+    };
+
+    @After
+    public void teardown() {
+        _executor.shutdownNow();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroMaxSize() {
+        new CallBatcher(0, 0, _doubler);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeMaxDelay() {
+        new CallBatcher(1, -1, _doubler);
+    }
+
+    @Test
+    public void testSingleCall() throws Throwable {
+        CallBatcher batcher = new CallBatcher(10, 0, _doubler);
+
+        assertEquals(2, batcher.execute(1));
+        assertEquals(1, _batches.size());
+        assertEquals(Lists.<Object>newArrayList(1), _batches.get(0));
+    }
+
+    @Test(timeout = 10000)
+    public void testFullBatchDoesNotWaitForDelay() throws Throwable {
+        CallBatcher batcher = new CallBatcher(1, TimeUnit.HOURS.toNanos(1), _doubler);
+
+        assertEquals(2, batcher.execute(1));
+        assertEquals(4, batcher.execute(2));
+        assertEquals(2, _batches.size());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentCallsShareBatch() throws Exception {
+        final CallBatcher batcher = new CallBatcher(5, TimeUnit.HOURS.toNanos(1), _doubler);
+
+        // The batch only goes out once it's full, so all five calls must end up in it.
+        List<Future<Object>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(_executor.submit(execute(batcher, i)));
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i * 2, futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, _batches.size());
+        assertEquals(5, _batches.get(0).size());
+    }
+
+    @Test(timeout = 10000)
+    public void testEqualItemsShareSlot() throws Exception {
+        final CallBatcher batcher = new CallBatcher(10, TimeUnit.MILLISECONDS.toNanos(200), _doubler);
+
+        List<Future<Object>> futures = Lists.newArrayList();
+        futures.add(_executor.submit(execute(batcher, 1)));
+        futures.add(_executor.submit(execute(batcher, 1)));
+        futures.add(_executor.submit(execute(batcher, 2)));
+
+        assertEquals(2, futures.get(0).get(10, TimeUnit.SECONDS));
+        assertEquals(2, futures.get(1).get(10, TimeUnit.SECONDS));
+        assertEquals(4, futures.get(2).get(10, TimeUnit.SECONDS));
+        for (List<Object> batch : _batches) {
+            assertEquals(Sets.newHashSet(batch).size(), batch.size());
+        }
+    }
+
+    @Test
+    public void testMissingResultIsNull() throws Throwable {
+        CallBatcher batcher = new CallBatcher(10, 0, new CallBatcher.BulkCall() {
+            @Override
+            public Map<?, ?> call(List<Object> items) {
+                return ImmutableMap.of();
+            }
+        });
+
+        assertNull(batcher.execute(1));
+    }
+
+    @Test
+    public void testExceptionThrownToCaller() throws Throwable {
+        final IllegalStateException exception = new IllegalStateException();
+        CallBatcher batcher = new CallBatcher(10, 0, new CallBatcher.BulkCall() {
+            @Override
+            public Map<?, ?> call(List<Object> items) {
+                throw exception;
+            }
+        });
+
+        try {
+            batcher.execute(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testExceptionSharedByBatch() throws Exception {
+        final CallBatcher batcher = new CallBatcher(2, TimeUnit.HOURS.toNanos(1), new CallBatcher.BulkCall() {
+            @Override
+            public Map<?, ?> call(List<Object> items) {
+                throw new IllegalStateException();
+            }
+        });
+
+        Future<Object> first = _executor.submit(execute(batcher, 1));
+        Future<Object> second = _executor.submit(execute(batcher, 2));
+        for (Future<Object> future : ImmutableList.of(first, second)) {
+            try {
+                future.get(10, TimeUnit.SECONDS);
+                fail();
+            } catch (java.util.concurrent.ExecutionException e) {
+                assertEquals(IllegalStateException.class, e.getCause().getCause().getClass());
+            }
+        }
+    }
+
+    private static Callable<Object> execute(final CallBatcher batcher, final Object item) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return batcher.execute(item);
+                } catch (Throwable t) {
+                    throw new Exception(t);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,153 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CallCoalescerTest {
+    private final CallCoalescer _coalescer = new CallCoalescer();
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+
+    @After
+    public void teardown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testReturnsResult() throws Throwable {
+        assertEquals("result", _coalescer.execute("key", new Callable<String>() {
+            @Override
+            public String call() {
+                return "result";
+            }
+        }));
+        assertEquals(0, _coalescer.getNumInFlight());
+    }
+
+    @Test
+    public void testThrowsException() throws Throwable {
+        final IllegalStateException exception = new IllegalStateException();
+        try {
+            _coalescer.execute("key", new Callable<String>() {
+                @Override
+                public String call() {
+                    throw exception;
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+        assertEquals(0, _coalescer.getNumInFlight());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrentCallsWithSameKeyShareCall() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger numCalls = new AtomicInteger();
+        final Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                numCalls.incrementAndGet();
+                release.await();
+                return "result";
+            }
+        };
+
+        List<Future<Object>> futures = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            futures.add(_executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return _coalescer.execute("key", call);
+                    } catch (Throwable t) {
+                        throw new Exception(t);
+                    }
+                }
+            }));
+        }
+
+        // Wait for the other callers to join the call in flight, then let it finish.
+        while (_coalescer.getNumWaiting() < 4) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        for (Future<Object> future : futures) {
+            assertEquals("result", future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, numCalls.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testCallsWithDifferentKeysAreNotShared() throws Throwable {
+        final CountDownLatch inFlight = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Object> first = _executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return _coalescer.execute("first", new Callable<String>() {
+                        @Override
+                        public String call() throws Exception {
+                            inFlight.countDown();
+                            release.await();
+                            return "first";
+                        }
+                    });
+                } catch (Throwable t) {
+                    throw new Exception(t);
+                }
+            }
+        });
+        inFlight.await();
+
+        assertEquals("second", _coalescer.execute("second", new Callable<String>() {
+            @Override
+            public String call() {
+                return "second";
+            }
+        }));
+
+        release.countDown();
+        assertEquals("first", first.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFinishedCallIsNotReused() throws Throwable {
+        final AtomicInteger numCalls = new AtomicInteger();
+        Callable<Integer> call = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return numCalls.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, _coalescer.execute("key", call));
+        assertEquals(2, _coalescer.execute("key", call));
+    }
+
+    @Test
+    public void testCallKeysCompareArgumentsDeeply() throws Exception {
+        java.lang.reflect.Method method = Object.class.getMethod("equals", Object.class);
+
+        assertEquals(new CallKey(method, new Object[] {new int[] {1, 2}}),
+                new CallKey(method, new Object[] {new int[] {1, 2}}));
+        assertEquals(new CallKey(method, new Object[] {new int[] {1, 2}}).hashCode(),
+                new CallKey(method, new Object[] {new int[] {1, 2}}).hashCode());
+    }
+}
@@ -0,0 +1,66 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConcurrencyLimitPolicyBuilderTest {
+    @Test
+    public void testNoConcurrencyLimit() {
+        assertTrue(ConcurrencyLimitPolicyBuilder.NO_CONCURRENCY_LIMIT.getMaxConcurrency() < 0);
+    }
+
+    @Test
+    public void testMaxConcurrencySet() {
+        ConcurrencyLimitPolicyBuilder builder = new ConcurrencyLimitPolicyBuilder();
+        builder.withMaxConcurrency(5);
+
+        assertEquals(5, builder.build().getMaxConcurrency());
+    }
+
+    @Test
+    public void testMaxQueueSizeSet() {
+        ConcurrencyLimitPolicyBuilder builder = new ConcurrencyLimitPolicyBuilder();
+        builder.withMaxQueueSize(0);
+
+        assertEquals(0, builder.build().getMaxQueueSize());
+    }
+
+    @Test
+    public void testSaturationActionSet() {
+        ConcurrencyLimitPolicyBuilder builder = new ConcurrencyLimitPolicyBuilder();
+        builder.withSaturationAction(ConcurrencyLimitPolicy.SaturationAction.WAIT);
+
+        assertEquals(ConcurrencyLimitPolicy.SaturationAction.WAIT, builder.build().getSaturationAction());
+    }
+
+    @Test
+    public void testDefaultSaturationAction() {
+        assertEquals(ConcurrencyLimitPolicy.SaturationAction.FAIL,
+                new ConcurrencyLimitPolicyBuilder().build().getSaturationAction());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroMaxConcurrency() {
+        new ConcurrencyLimitPolicyBuilder().withMaxConcurrency(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeMaxQueueSize() {
+        new ConcurrencyLimitPolicyBuilder().withMaxQueueSize(-1);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullSaturationAction() {
+        new ConcurrencyLimitPolicyBuilder().withSaturationAction(null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testShedOldestWithoutQueue() {
+        new ConcurrencyLimitPolicyBuilder()
+                .withMaxQueueSize(0)
+                .withSaturationAction(ConcurrencyLimitPolicy.SaturationAction.SHED_OLDEST)
+                .build();
+    }
+}
@@ -0,0 +1,321 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Callables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ConcurrencyLimiterTest {
+    private Ticker _ticker;
+    private Timer _queueWaitTime;
+    private Meter _numRejected;
+    private Meter _numShed;
+    private ListeningExecutorService _executor;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _queueWaitTime = mock(Timer.class);
+        _numRejected = mock(Meter.class);
+        _numShed = mock(Meter.class);
+        _executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    }
+
+    @After
+    public void teardown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void testDisabled() {
+        ConcurrencyLimiter limiter = newLimiter(ConcurrencyLimitPolicyBuilder.NO_CONCURRENCY_LIMIT);
+
+        assertFalse(limiter.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            limiter.submit(call(SettableFuture.<String>create()));
+        }
+        verify(_numRejected, never()).mark();
+    }
+
+    @Test
+    public void testStartsCallsUpToLimit() {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+
+        assertSame(running, limiter.submit(call(running)));
+    }
+
+    @Test
+    public void testQueuedCallStartsWhenRunningCallFinishes() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+        CountingCall<String> queuedCall = new CountingCall<String>(Futures.immediateFuture("queued"));
+
+        limiter.submit(call(running));
+        when(_ticker.read()).thenReturn(0L);
+        ListenableFuture<String> queued = limiter.submit(queuedCall);
+        assertEquals(0, queuedCall.getNumCalls());
+        assertFalse(queued.isDone());
+
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(5));
+        running.set("running");
+
+        assertEquals(1, queuedCall.getNumCalls());
+        assertEquals("queued", queued.get());
+        verify(_queueWaitTime).update(TimeUnit.MILLISECONDS.toNanos(5), TimeUnit.NANOSECONDS);
+    }
+
+    @Test
+    public void testQueuedCallFailure() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+        RuntimeException failure = new RuntimeException();
+
+        limiter.submit(call(running));
+        ListenableFuture<String> queued = limiter.submit(call(Futures.<String>immediateFailedFuture(failure)));
+        running.set("running");
+
+        try {
+            queued.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test
+    public void testFailRejectsWhenQueueIsFull() {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        limiter.submit(call(SettableFuture.<String>create()));
+        limiter.submit(call(SettableFuture.<String>create()));
+
+        try {
+            limiter.submit(call(SettableFuture.<String>create()));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        verify(_numRejected).mark();
+    }
+
+    @Test
+    public void testShedOldestFailsOldestQueuedCall() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.SHED_OLDEST);
+        SettableFuture<String> running = SettableFuture.create();
+        limiter.submit(call(running));
+        ListenableFuture<String> oldest = limiter.submit(call(Futures.immediateFuture("oldest")));
+        ListenableFuture<String> newest = limiter.submit(call(Futures.immediateFuture("newest")));
+
+        try {
+            oldest.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        verify(_numShed).mark();
+
+        running.set("running");
+        assertEquals("newest", newest.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testWaitBlocksUntilThereIsRoom() throws Exception {
+        final ConcurrencyLimiter limiter = newLimiter(1, 0, ConcurrencyLimitPolicy.SaturationAction.WAIT);
+        SettableFuture<String> running = SettableFuture.create();
+        limiter.submit(call(running));
+
+        final CountDownLatch submitting = new CountDownLatch(1);
+        final AtomicReference<ListenableFuture<String>> waited = new AtomicReference<ListenableFuture<String>>();
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                submitting.countDown();
+                waited.set(limiter.submit(call(Futures.immediateFuture("waited"))));
+            }
+        };
+        caller.start();
+        submitting.await();
+
+        // Give the caller a chance to block.
+        caller.join(100);
+        assertTrue(caller.isAlive());
+
+        running.set("running");
+        caller.join();
+        assertEquals("waited", waited.get().get());
+    }
+
+    @Test
+    public void testCancelledQueuedCallIsNotStarted() {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+        CountingCall<String> queuedCall = new CountingCall<String>(Futures.immediateFuture("queued"));
+        limiter.submit(call(running));
+        ListenableFuture<String> queued = limiter.submit(queuedCall);
+
+        queued.cancel(true);
+
+        // The cancelled call gave up its place in the queue.
+        limiter.submit(call(SettableFuture.<String>create()));
+        running.set("running");
+        assertEquals(0, queuedCall.getNumCalls());
+    }
+
+    @Test
+    public void testCancelStartedQueuedCall() {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+        SettableFuture<String> started = SettableFuture.create();
+        limiter.submit(call(running));
+        ListenableFuture<String> queued = limiter.submit(call(started));
+        running.set("running");
+
+        queued.cancel(true);
+
+        assertTrue(started.isCancelled());
+    }
+
+    @Test
+    public void testFailedStartFreesSlot() {
+        ConcurrencyLimiter limiter = newLimiter(1, 0, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+
+        try {
+            limiter.submit(new Callable<ListenableFuture<String>>() {
+                @Override
+                public ListenableFuture<String> call() throws Exception {
+                    throw new RejectedExecutionException();
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+
+        limiter.submit(call(SettableFuture.<String>create()));
+        verify(_numRejected, never()).mark();
+    }
+
+    @Test
+    public void testManyQueuedCallsThatFinishRightAway() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 100000, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        SettableFuture<String> running = SettableFuture.create();
+        limiter.submit(call(running));
+        ListenableFuture<String> last = null;
+        for (int i = 0; i < 100000; i++) {
+            last = limiter.submit(call(Futures.immediateFuture("done")));
+        }
+
+        running.set("running");
+
+        assertEquals("done", last.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testCancelledRunningTaskKeepsSlotUntilItEnds() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 1, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        ListenableFuture<String> running = limiter.submit(_executor, new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(finish);
+                return "running";
+            }
+        });
+        started.await();
+        running.cancel(true);
+
+        // The task is still using a thread of the executor, so the next call has to wait for it.
+        CountingCall<String> queuedCall = new CountingCall<String>(Futures.immediateFuture("queued"));
+        ListenableFuture<String> queued = limiter.submit(queuedCall);
+        assertEquals(0, queuedCall.getNumCalls());
+
+        finish.countDown();
+        assertEquals("queued", queued.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testTaskCancelledBeforeStartFreesSlot() throws Exception {
+        ConcurrencyLimiter limiter = newLimiter(1, 0, ConcurrencyLimitPolicy.SaturationAction.FAIL);
+        final CountDownLatch finish = new CountDownLatch(1);
+        _executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                Uninterruptibles.awaitUninterruptibly(finish);
+            }
+        });
+        try {
+            ListenableFuture<String> waiting = limiter.submit(_executor, Callables.returning("waiting"));
+            waiting.cancel(false);
+
+            assertEquals("next", limiter.submit(call(Futures.immediateFuture("next"))).get());
+            verify(_numRejected, never()).mark();
+        } finally {
+            finish.countDown();
+        }
+    }
+
+    private ConcurrencyLimiter newLimiter(int maxConcurrency, int maxQueueSize,
+                                          ConcurrencyLimitPolicy.SaturationAction action) {
+        return newLimiter(new ConcurrencyLimitPolicyBuilder()
+                .withMaxConcurrency(maxConcurrency)
+                .withMaxQueueSize(maxQueueSize)
+                .withSaturationAction(action)
+                .build());
+    }
+
+    private ConcurrencyLimiter newLimiter(ConcurrencyLimitPolicy policy) {
+        return new ConcurrencyLimiter(policy, _ticker, _queueWaitTime, _numRejected, _numShed);
+    }
+
+    private static <R> Callable<ListenableFuture<R>> call(ListenableFuture<R> future) {
+        return new CountingCall<R>(future);
+    }
+
+    private static class CountingCall<R> implements Callable<ListenableFuture<R>> {
+        private final ListenableFuture<R> _future;
+        private int _numCalls;
+
+        CountingCall(ListenableFuture<R> future) {
+            _future = future;
+        }
+
+        @Override
+        public ListenableFuture<R> call() {
+            _numCalls++;
+            return _future;
+        }
+
+        int getNumCalls() {
+            return _numCalls;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.yammer.metrics.core.Meter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class HedgedExecutionTest {
+    private final ExecutorService _executor = Executors.newCachedThreadPool();
+    private final CountDownLatch _firstStarted = new CountDownLatch(1);
+    private final CountDownLatch _release = new CountDownLatch(1);
+    private final AtomicReference<RetryPolicy> _firstRetry = new AtomicReference<RetryPolicy>();
+    private final AtomicReference<RetryPolicy> _hedgeRetry = new AtomicReference<RetryPolicy>();
+    private final AtomicReference<Thread> _firstThread = new AtomicReference<Thread>();
+    private RetryPolicy _retry;
+    private ServicePool<Service> _pool;
+    private ServiceCallback<Service, String> _callback;
+
+    @Before
+    public void setup() {
+        _retry = mock(RetryPolicy.class);
+        when(_retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        @SuppressWarnings("unchecked") ServiceCallback<Service, String> callback = mock(ServiceCallback.class);
+        _callback = callback;
+
+        @SuppressWarnings("unchecked") ServicePool<Service> pool = mock(ServicePool.class);
+        _pool = pool;
+        when(_pool.getNumValidEndPoints()).then(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock invocation) throws Throwable {
+                // Don't hedge until the first attempt is under way, so that the attempts always start in order.
+                _firstStarted.await();
+                return 2;
+            }
+        });
+        when(_pool.execute(any(PartitionContext.class), any(Deadline.class), any(RetryPolicy.class), anyCallback(),
+                anyEndPoints())).then(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                RetryPolicy retry = (RetryPolicy) invocation.getArguments()[2];
+                if (_firstStarted.getCount() == 0) {
+                    _hedgeRetry.set(retry);
+                    return "hedge";
+                }
+
+                // The first attempt hangs until the test releases it.
+                _firstRetry.set(retry);
+                _firstThread.set(Thread.currentThread());
+                _firstStarted.countDown();
+                _release.await();
+                return "first";
+            }
+        });
+    }
+
+    @After
+    public void teardown() {
+        _release.countDown();
+        _executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void testHedgedAttemptGetsSingleTry() throws Exception {
+        assertEquals("hedge", newExecution(_executor).start(0).get(10, TimeUnit.SECONDS));
+
+        assertFalse(_hedgeRetry.get().allowRetry(1, 0));
+    }
+
+    @Test(timeout = 10000)
+    public void testFirstAttemptStopsRetryingOnceHedgeWins() throws Exception {
+        assertEquals("hedge", newExecution(_executor).start(0).get(10, TimeUnit.SECONDS));
+
+        // The call's own retry policy would still allow a retry.
+        assertTrue(_retry.allowRetry(1, 0));
+        assertFalse(_firstRetry.get().allowRetry(1, 0));
+    }
+
+    @Test(timeout = 10000)
+    public void testRunsFirstAttemptOnCallingThread() throws Exception {
+        ExecutorService executor = mock(ExecutorService.class);
+        _release.countDown();
+
+        assertEquals("first", newExecution(executor).run(-1).get(10, TimeUnit.SECONDS));
+        assertSame(Thread.currentThread(), _firstThread.get());
+        verifyZeroInteractions(executor);
+    }
+
+    private HedgedExecution<Service, String> newExecution(ExecutorService executor) {
+        return new HedgedExecution<Service, String>(_pool, executor, PartitionContextBuilder.empty(), null,
+                _retry, _callback, mock(Meter.class), mock(Meter.class));
+    }
+
+    private static <R> ServiceCallback<Service, R> anyCallback() {
+        return any();
+    }
+
+    private static Set<ServiceEndPoint> anyEndPoints() {
+        return any();
+    }
+
+    private static interface Service {}
+}
@@ -0,0 +1,74 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutlierDetectionPolicyBuilderTest {
+    @Test
+    public void testNoOutlierDetection() {
+        assertEquals(0, OutlierDetectionPolicyBuilder.NO_OUTLIER_DETECTION.getMaxEjectedPercent());
+    }
+
+    @Test
+    public void testMaxEjectedPercentSet() {
+        OutlierDetectionPolicyBuilder builder = new OutlierDetectionPolicyBuilder();
+        builder.withMaxEjectedPercent(50);
+
+        assertEquals(50, builder.build().getMaxEjectedPercent());
+    }
+
+    @Test
+    public void testLatencyFactorSet() {
+        OutlierDetectionPolicyBuilder builder = new OutlierDetectionPolicyBuilder();
+        builder.withLatencyFactor(2.5);
+
+        assertEquals(2.5, builder.build().getLatencyFactor(), 0);
+    }
+
+    @Test
+    public void testMinNumSamplesSet() {
+        OutlierDetectionPolicyBuilder builder = new OutlierDetectionPolicyBuilder();
+        builder.withMinNumSamples(5);
+
+        assertEquals(5, builder.build().getMinNumSamples());
+    }
+
+    @Test
+    public void testEjectionTimeSet() {
+        OutlierDetectionPolicyBuilder builder = new OutlierDetectionPolicyBuilder();
+        builder.withEjectionTime(10, TimeUnit.SECONDS);
+
+        assertEquals(10, builder.build().getEjectionTime(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDetectionIntervalSet() {
+        OutlierDetectionPolicyBuilder builder = new OutlierDetectionPolicyBuilder();
+        builder.withDetectionInterval(5, TimeUnit.SECONDS);
+
+        assertEquals(5, builder.build().getDetectionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMaxEjectedPercentAboveOneHundred() {
+        new OutlierDetectionPolicyBuilder().withMaxEjectedPercent(101);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLatencyFactorOfOne() {
+        new OutlierDetectionPolicyBuilder().withLatencyFactor(1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroMinNumSamples() {
+        new OutlierDetectionPolicyBuilder().withMinNumSamples(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullEjectionTimeUnit() {
+        new OutlierDetectionPolicyBuilder().withEjectionTime(10, null);
+    }
+}
@@ -0,0 +1,179 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OutlierDetectorTest {
+    private static final ServiceEndPoint FOO_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAR_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final ServiceEndPoint BAZ_ENDPOINT = mock(ServiceEndPoint.class);
+    private static final List<ServiceEndPoint> END_POINTS = ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT, BAZ_ENDPOINT);
+
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        when(_ticker.read()).thenReturn(0L);
+    }
+
+    @Test
+    public void testDisabled() {
+        OutlierDetector detector = new OutlierDetector(OutlierDetectionPolicyBuilder.NO_OUTLIER_DETECTION, _ticker);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 1);
+        record(detector, BAZ_ENDPOINT, 10, 1);
+
+        assertFalse(detector.isEnabled());
+        assertFalse(detector.detect(END_POINTS));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testEjectsSlowEndPoint() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+
+        assertTrue(detector.detect(END_POINTS));
+        assertEquals(ImmutableSet.of(FOO_ENDPOINT), detector.getEjectedEndPoints());
+    }
+
+    @Test
+    public void testDoesNotEjectEndPointWithinFactor() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 250);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+
+        assertFalse(detector.detect(END_POINTS));
+        assertEquals(0, detector.getNumEjectedEndPoints());
+    }
+
+    @Test
+    public void testDoesNotEjectWithoutEnoughSamples() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 9, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+
+        assertFalse(detector.detect(END_POINTS));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testEjectsSlowestFirstWhenCapped() {
+        ServiceEndPoint quxEndPoint = mock(ServiceEndPoint.class);
+        ServiceEndPoint quuxEndPoint = mock(ServiceEndPoint.class);
+        OutlierDetector detector = newDetector(20, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 2000);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+        record(detector, quxEndPoint, 10, 100);
+        record(detector, quuxEndPoint, 10, 100);
+
+        // 20% of 5 end points allows only a single end point to be ejected.
+        detector.detect(ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT, BAZ_ENDPOINT, quxEndPoint, quuxEndPoint));
+        assertEquals(ImmutableSet.of(BAR_ENDPOINT), detector.getEjectedEndPoints());
+    }
+
+    @Test
+    public void testEjectsOneEndPointWhenPercentRoundsToZero() {
+        OutlierDetector detector = newDetector(10, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+
+        assertTrue(detector.detect(END_POINTS));
+        assertTrue(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testBringsBackEndPointAfterEjectionTime() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+        detector.detect(END_POINTS);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(29));
+        assertFalse(detector.detect(END_POINTS));
+        assertTrue(detector.isEjected(FOO_ENDPOINT));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(30));
+        assertTrue(detector.detect(END_POINTS));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testForgetsLatencyAfterEjection() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+        detector.detect(END_POINTS);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(30));
+        detector.detect(END_POINTS);
+
+        // Not enough new samples have been recorded to eject it again.
+        record(detector, FOO_ENDPOINT, 1, 1000);
+        assertFalse(detector.detect(END_POINTS));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testBringsBackRemovedEndPoint() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+        detector.detect(END_POINTS);
+
+        assertTrue(detector.remove(FOO_ENDPOINT));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+        assertFalse(detector.remove(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testBringsBackEndPointNoLongerInPool() {
+        OutlierDetector detector = newDetector(100, 3.0, 10);
+        record(detector, FOO_ENDPOINT, 10, 1000);
+        record(detector, BAR_ENDPOINT, 10, 100);
+        record(detector, BAZ_ENDPOINT, 10, 100);
+        detector.detect(END_POINTS);
+
+        assertTrue(detector.detect(ImmutableList.of(BAR_ENDPOINT, BAZ_ENDPOINT)));
+        assertFalse(detector.isEjected(FOO_ENDPOINT));
+    }
+
+    private OutlierDetector newDetector(int maxEjectedPercent, double latencyFactor, int minNumSamples) {
+        OutlierDetectionPolicy policy = new OutlierDetectionPolicyBuilder()
+                .withMaxEjectedPercent(maxEjectedPercent)
+                .withLatencyFactor(latencyFactor)
+                .withMinNumSamples(minNumSamples)
+                .withEjectionTime(30, TimeUnit.SECONDS)
+                .build();
+        return new OutlierDetector(policy, _ticker);
+    }
+
+    private void record(OutlierDetector detector, ServiceEndPoint endPoint, int numSamples, long latencyNanos) {
+        for (int i = 0; i < numSamples; i++) {
+            detector.recordLatency(endPoint, latencyNanos);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PropertyPathTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPath() {
+        PropertyPath.compile(Outer.class, "");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyStep() {
+        PropertyPath.compile(Outer.class, "inner..name");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingProperty() {
+        PropertyPath.compile(Outer.class, "missing");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testVoidMethodIsNotProperty() {
+        PropertyPath.compile(Outer.class, "reset");
+    }
+
+    @Test
+    public void testGetter() {
+        Outer outer = new Outer(new Inner("name"));
+
+        assertEquals(outer.getInner(), PropertyPath.compile(Outer.class, "inner").get(outer));
+    }
+
+    @Test
+    public void testBooleanGetter() {
+        assertEquals(true, PropertyPath.compile(Outer.class, "active").get(new Outer(null)));
+    }
+
+    @Test
+    public void testPlainMethod() {
+        assertEquals(42, PropertyPath.compile(Outer.class, "size").get(new Outer(null)));
+    }
+
+    @Test
+    public void testField() {
+        assertEquals("name", PropertyPath.compile(Inner.class, "name").get(new Inner("name")));
+    }
+
+    @Test
+    public void testNestedPath() {
+        assertEquals("name", PropertyPath.compile(Outer.class, "inner.name").get(new Outer(new Inner("name"))));
+    }
+
+    @Test
+    public void testNullObject() {
+        assertNull(PropertyPath.compile(Outer.class, "inner.name").get(null));
+    }
+
+    @Test
+    public void testNullAlongTheWay() {
+        assertNull(PropertyPath.compile(Outer.class, "inner.name").get(new Outer(null)));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testExceptionFromGetter() {
+        PropertyPath.compile(Outer.class, "broken").get(new Outer(null));
+    }
+
+    @Test
+    public void testToString() {
+        assertEquals("inner.name", PropertyPath.compile(Outer.class, "inner.name").toString());
+    }
+
+    private static class Outer {
+        private final Inner _inner;
+
+        Outer(Inner inner) {
+            _inner = inner;
+        }
+
+        public Inner getInner() {
+            return _inner;
+        }
+
+        public boolean isActive() {
+            return true;
+        }
+
+        public int size() {
+            return 42;
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException();
+        }
+
+        public void reset() {
+        }
+    }
+
+    private static class Inner {
+        public final String name;
+
+        Inner(String name) {
+            this.name = name;
+        }
+    }
+}
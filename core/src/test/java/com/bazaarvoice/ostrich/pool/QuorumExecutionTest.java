@@ -0,0 +1,193 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.QuorumNotReachedException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class QuorumExecutionTest {
+    private final SettableFuture<String> _first = SettableFuture.create();
+    private final SettableFuture<String> _second = SettableFuture.create();
+    private final SettableFuture<String> _third = SettableFuture.create();
+    private final List<ListenableFuture<String>> _calls = ImmutableList.<ListenableFuture<String>>of(
+            _first, _second, _third);
+
+    @Test
+    public void testSucceedsOnceEnoughCallsSucceed() throws Exception {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 2).start();
+
+        _third.set("third");
+        assertFalse(result.isDone());
+        _first.set("first");
+
+        assertEquals(Arrays.asList("third", "first"), result.get());
+    }
+
+    @Test
+    public void testCancelsRemainingCallsOnceQuorumIsReached() {
+        QuorumExecution.ofSuccesses(_calls, 1).start();
+
+        _second.set("second");
+
+        assertTrue(_first.isCancelled());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testToleratesFailuresWhileQuorumIsReachable() throws Exception {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 1).start();
+
+        _first.setException(new RuntimeException());
+        _second.setException(new RuntimeException());
+        assertFalse(result.isDone());
+        _third.set("third");
+
+        assertEquals(Collections.singletonList("third"), result.get());
+    }
+
+    @Test
+    public void testFailsOnceQuorumIsUnreachable() throws Exception {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 2).start();
+        RuntimeException failure = new RuntimeException();
+
+        _first.setException(new RuntimeException());
+        assertFalse(result.isDone());
+        _second.setException(failure);
+
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QuorumNotReachedException);
+            assertSame(failure, e.getCause().getCause());
+        }
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testFailsWithTooFewCalls() {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 4).start();
+
+        try {
+            result.get();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof QuorumNotReachedException);
+        }
+        assertTrue(_first.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroResults() {
+        QuorumExecution.ofSuccesses(_calls, 0);
+    }
+
+    @Test
+    public void testNullResults() throws Exception {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 1).start();
+
+        _first.set(null);
+
+        assertEquals(Collections.<String>singletonList(null), result.get());
+    }
+
+    @Test
+    public void testCancellingResultCancelsCalls() {
+        ListenableFuture<List<String>> result = QuorumExecution.ofSuccesses(_calls, 1).start();
+
+        result.cancel(true);
+
+        assertTrue(_first.isCancelled());
+        assertTrue(_second.isCancelled());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testAllSuccessesLeavesOutFailures() throws Exception {
+        ListenableFuture<List<String>> result = QuorumExecution.ofAllSuccesses(_calls).start();
+
+        _first.set("first");
+        _second.setException(new RuntimeException());
+        assertFalse(result.isDone());
+        _third.set("third");
+
+        assertEquals(Arrays.asList("first", "third"), result.get());
+    }
+
+    @Test
+    public void testAllSuccessesWithNoCalls() throws Exception {
+        ListenableFuture<List<String>> result =
+                QuorumExecution.ofAllSuccesses(Collections.<ListenableFuture<String>>emptyList()).start();
+
+        assertEquals(Collections.<String>emptyList(), result.get());
+    }
+
+    @Test
+    public void testTimeoutReturnsResultsSoFar() throws Exception {
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        ArgumentCaptor<Runnable> timeout = ArgumentCaptor.forClass(Runnable.class);
+        doReturn(mock(ScheduledFuture.class)).when(timer).schedule(timeout.capture(), eq(100L),
+                eq(TimeUnit.MILLISECONDS));
+
+        ListenableFuture<List<String>> result =
+                QuorumExecution.ofAllSuccesses(_calls).start(100, TimeUnit.MILLISECONDS, timer);
+        _second.set("second");
+        timeout.getValue().run();
+
+        assertEquals(Collections.singletonList("second"), result.get());
+        assertTrue(_first.isCancelled());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testTimeoutCancelledOnceAllCallsFinish() {
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        ScheduledFuture<?> timeoutFuture = mock(ScheduledFuture.class);
+        doReturn(timeoutFuture).when(timer).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        QuorumExecution.ofAllSuccesses(_calls).start(100, TimeUnit.MILLISECONDS, timer);
+        _first.set("first");
+        _second.set("second");
+        _third.set("third");
+
+        verify(timeoutFuture).cancel(anyBoolean());
+    }
+
+    @Test
+    public void testTimeoutRejected() {
+        ScheduledExecutorService timer = mock(ScheduledExecutorService.class);
+        when(timer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenThrow(new RejectedExecutionException());
+
+        ListenableFuture<List<String>> result =
+                QuorumExecution.ofAllSuccesses(_calls).start(100, TimeUnit.MILLISECONDS, timer);
+
+        assertTrue(result.isDone());
+        assertTrue(_first.isCancelled());
+    }
+}
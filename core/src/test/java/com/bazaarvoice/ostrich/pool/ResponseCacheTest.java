@@ -0,0 +1,293 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResponseCacheTest {
+    private static final ServiceEndPoint FOO =
+            new ServiceEndPointBuilder().withServiceName("Foo").withId("foo").build();
+    private static final ServiceEndPoint BAR =
+            new ServiceEndPointBuilder().withServiceName("Foo").withId("bar").build();
+
+    private static final Method GET;
+    private static final Method GET_WITH_STALE;
+    private static final Method GET_SMALL;
+
+    static {
+        try {
+            GET = Service.class.getMethod("get", String.class);
+            GET_WITH_STALE = Service.class.getMethod("getWithStale", String.class);
+            GET_SMALL = Service.class.getMethod("getSmall", String.class);
+        } catch (NoSuchMethodException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Ticker _ticker;
+    private TestLoader _loader;
+    private List<Runnable> _refreshes;
+    private ResponseCache _cache;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _loader = new TestLoader();
+        _refreshes = Lists.newArrayList();
+        Executor refreshExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                _refreshes.add(command);
+            }
+        };
+        _cache = new ResponseCache("ResponseCacheTest", ImmutableList.of(GET, GET_WITH_STALE, GET_SMALL), _loader,
+                _ticker, refreshExecutor);
+    }
+
+    @After
+    public void teardown() {
+        _cache.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMethodWithoutAnnotation() throws Exception {
+        new ResponseCache("ResponseCacheTest", ImmutableList.of(Object.class.getMethod("toString")), _loader);
+    }
+
+    @Test
+    public void testIsCached() throws Exception {
+        assertTrue(_cache.isCached(GET));
+        assertFalse(_cache.isCached(Object.class.getMethod("toString")));
+    }
+
+    @Test
+    public void testMissLoads() throws Throwable {
+        assertEquals("a-1", _cache.get(key(GET, "a")));
+        assertEquals(1, _loader.getNumLoads());
+    }
+
+    @Test
+    public void testHitDoesNotLoad() throws Throwable {
+        _cache.get(key(GET, "a"));
+
+        assertEquals("a-1", _cache.get(key(GET, "a")));
+        assertEquals(1, _loader.getNumLoads());
+    }
+
+    @Test
+    public void testDifferentArgumentsAreCachedSeparately() throws Throwable {
+        assertEquals("a-1", _cache.get(key(GET, "a")));
+        assertEquals("b-2", _cache.get(key(GET, "b")));
+    }
+
+    @Test
+    public void testNullResultIsCached() throws Throwable {
+        _loader.setValue(null);
+
+        assertEquals(null, _cache.get(key(GET, "a")));
+        assertEquals(null, _cache.get(key(GET, "a")));
+        assertEquals(1, _loader.getNumLoads());
+    }
+
+    @Test
+    public void testExceptionIsNotCached() throws Throwable {
+        IllegalStateException exception = new IllegalStateException();
+        _loader.setException(exception);
+        try {
+            _cache.get(key(GET, "a"));
+            fail();
+        } catch (IllegalStateException e) {
+            assertSame(exception, e);
+        }
+
+        _loader.setException(null);
+        assertEquals("a-2", _cache.get(key(GET, "a")));
+    }
+
+    @Test
+    public void testExpiresAfterTtl() throws Throwable {
+        _cache.get(key(GET, "a"));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(11));
+        assertEquals("a-2", _cache.get(key(GET, "a")));
+        assertTrue(_refreshes.isEmpty());
+    }
+
+    @Test
+    public void testServesStaleResultWhileRefreshing() throws Throwable {
+        _cache.get(key(GET_WITH_STALE, "a"));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(15));
+        assertEquals("a-1", _cache.get(key(GET_WITH_STALE, "a")));
+        assertEquals("a-1", _cache.get(key(GET_WITH_STALE, "a")));
+        assertEquals(1, _refreshes.size());
+
+        _refreshes.get(0).run();
+        assertEquals("a-2", _cache.get(key(GET_WITH_STALE, "a")));
+        assertEquals(2, _loader.getNumLoads());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsStaleResult() throws Throwable {
+        _cache.get(key(GET_WITH_STALE, "a"));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(15));
+        _cache.get(key(GET_WITH_STALE, "a"));
+        _loader.setException(new IllegalStateException());
+        _refreshes.get(0).run();
+
+        // The stale result is still served, and the next hit tries to refresh again.
+        assertEquals("a-1", _cache.get(key(GET_WITH_STALE, "a")));
+        assertEquals(2, _refreshes.size());
+    }
+
+    @Test
+    public void testExpiresAfterStaleWindow() throws Throwable {
+        _cache.get(key(GET_WITH_STALE, "a"));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(21));
+        assertEquals("a-2", _cache.get(key(GET_WITH_STALE, "a")));
+        assertTrue(_refreshes.isEmpty());
+    }
+
+    @Test
+    public void testRefreshDoesNotResurrectInvalidatedResult() throws Throwable {
+        _loader.setEndPoint(FOO);
+        _cache.get(key(GET_WITH_STALE, "a"));
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(15));
+        _cache.get(key(GET_WITH_STALE, "a"));
+        _cache.onEndPointRemoved(FOO);
+        _refreshes.get(0).run();
+
+        assertEquals("a-3", _cache.get(key(GET_WITH_STALE, "a")));
+    }
+
+    @Test
+    public void testEvictsBeyondMaxSize() throws Throwable {
+        _cache.get(key(GET_SMALL, "a"));
+        _cache.get(key(GET_SMALL, "b"));
+        _cache.get(key(GET_SMALL, "c"));
+
+        assertEquals("a-4", _cache.get(key(GET_SMALL, "a")));
+    }
+
+    @Test
+    public void testEndPointRemovalInvalidatesTiedResults() throws Throwable {
+        _loader.setEndPoint(FOO);
+        _cache.get(key(GET, "a"));
+        _loader.setEndPoint(BAR);
+        _cache.get(key(GET, "b"));
+
+        _cache.onEndPointRemoved(FOO);
+
+        assertEquals("a-3", _cache.get(key(GET, "a")));
+        assertEquals("b-2", _cache.get(key(GET, "b")));
+    }
+
+    @Test
+    public void testEndPointRemovalKeepsUntiedResults() throws Throwable {
+        _cache.get(key(GET, "a"));
+
+        _cache.onEndPointRemoved(FOO);
+
+        assertEquals("a-1", _cache.get(key(GET, "a")));
+    }
+
+    @Test
+    public void testSharedRefreshExecutor() throws Throwable {
+        ResponseCache cache = new ResponseCache("ResponseCacheTest", ImmutableList.of(GET), _loader);
+        try {
+            assertEquals("a-1", cache.get(key(GET, "a")));
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testSameThreadRefresh() throws Throwable {
+        ResponseCache cache = new ResponseCache("ResponseCacheTest", ImmutableList.of(GET_WITH_STALE), _loader,
+                _ticker, MoreExecutors.sameThreadExecutor());
+        try {
+            cache.get(key(GET_WITH_STALE, "a"));
+            when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(15));
+
+            assertEquals("a-1", cache.get(key(GET_WITH_STALE, "a")));
+            assertEquals("a-2", cache.get(key(GET_WITH_STALE, "a")));
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static CallKey key(Method method, String arg) {
+        return new CallKey(method, new Object[] {arg});
+    }
+
+    /** Loads "<arg>-<number of loads so far>" unless told otherwise. */
+    private static class TestLoader implements ResponseCache.Loader {
+        private final AtomicInteger _numLoads = new AtomicInteger();
+        private volatile boolean _useValue;
+        private volatile Object _value;
+        private volatile RuntimeException _exception;
+        private volatile ServiceEndPoint _endPoint;
+
+        @Override
+        public ResponseCache.Response load(CallKey key) {
+            int numLoads = _numLoads.incrementAndGet();
+            if (_exception != null) {
+                throw _exception;
+            }
+            Object value = _useValue ? _value : key.getArgs()[0] + "-" + numLoads;
+            return new ResponseCache.Response(value, _endPoint);
+        }
+
+        int getNumLoads() {
+            return _numLoads.get();
+        }
+
+        void setValue(Object value) {
+            _useValue = true;
+            _value = value;
+        }
+
+        void setException(RuntimeException exception) {
+            _exception = exception;
+        }
+
+        void setEndPoint(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
+        }
+    }
+
+    private static interface Service {
+        @Cacheable(ttl = 10)
+        String get(String key);
+
+        @Cacheable(ttl = 10, staleWhileRevalidate = 10)
+        String getWithStale(String key);
+
+        @Cacheable(ttl = 10, maxSize = 2)
+        String getSmall(String key);
+    }
+}
@@ -0,0 +1,59 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetPolicyBuilderTest {
+    @Test
+    public void testNoRetryBudget() {
+        assertTrue(RetryBudgetPolicyBuilder.NO_RETRY_BUDGET.getMaxRetryPercent() < 0);
+    }
+
+    @Test
+    public void testMaxRetryPercentSet() {
+        RetryBudgetPolicyBuilder builder = new RetryBudgetPolicyBuilder();
+        builder.withMaxRetryPercent(5);
+
+        assertEquals(5, builder.build().getMaxRetryPercent());
+    }
+
+    @Test
+    public void testMinRetriesPerSecondSet() {
+        RetryBudgetPolicyBuilder builder = new RetryBudgetPolicyBuilder();
+        builder.withMinRetriesPerSecond(3);
+
+        assertEquals(3, builder.build().getMinRetriesPerSecond());
+    }
+
+    @Test
+    public void testWindowSet() {
+        RetryBudgetPolicyBuilder builder = new RetryBudgetPolicyBuilder();
+        builder.withWindow(1, TimeUnit.MINUTES);
+
+        assertEquals(60, builder.build().getWindow(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeMaxRetryPercent() {
+        new RetryBudgetPolicyBuilder().withMaxRetryPercent(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNegativeMinRetriesPerSecond() {
+        new RetryBudgetPolicyBuilder().withMinRetriesPerSecond(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testZeroWindow() {
+        new RetryBudgetPolicyBuilder().withWindow(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullWindowUnit() {
+        new RetryBudgetPolicyBuilder().withWindow(10, null);
+    }
+}
@@ -0,0 +1,97 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RetryBudgetTest {
+    private Ticker _ticker;
+
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        when(_ticker.read()).thenReturn(0L);
+    }
+
+    @Test
+    public void testDisabled() {
+        RetryBudget budget = new RetryBudget(RetryBudgetPolicyBuilder.NO_RETRY_BUDGET, _ticker);
+
+        assertFalse(budget.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(budget.tryRetry());
+        }
+    }
+
+    @Test
+    public void testAllowsPercentageOfCalls() {
+        RetryBudget budget = newBudget(20, 0);
+        recordCalls(budget, 10);
+
+        assertTrue(budget.tryRetry());
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void testAllowsMinRetriesWithoutCalls() {
+        // 1 retry per second over a 10 second window.
+        RetryBudget budget = newBudget(20, 1);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryRetry());
+        }
+        assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void testCallsExpireFromWindow() {
+        RetryBudget budget = newBudget(100, 0);
+        recordCalls(budget, 1);
+
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void testRetriesExpireFromWindow() {
+        RetryBudget budget = newBudget(100, 0);
+        recordCalls(budget, 1);
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+
+        // A new call in a later part of the window doesn't make room while the old retry is still counted.
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(5));
+        recordCalls(budget, 1);
+        assertTrue(budget.tryRetry());
+        assertFalse(budget.tryRetry());
+
+        // Once the first call and retry leave the window only the second call and retry are left.
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        assertFalse(budget.tryRetry());
+        recordCalls(budget, 1);
+        assertTrue(budget.tryRetry());
+    }
+
+    private RetryBudget newBudget(int maxRetryPercent, int minRetriesPerSecond) {
+        RetryBudgetPolicy policy = new RetryBudgetPolicyBuilder()
+                .withMaxRetryPercent(maxRetryPercent)
+                .withMinRetriesPerSecond(minRetriesPerSecond)
+                .withWindow(10, TimeUnit.SECONDS)
+                .build();
+        return new RetryBudget(policy, _ticker);
+    }
+
+    private void recordCalls(RetryBudget budget, int numCalls) {
+        for (int i = 0; i < numCalls; i++) {
+            budget.recordCall();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class ScheduledRetryExecutionTest {
+    private Ticker _ticker;
+    private ScheduledExecutorService _timer;
+    private ScheduledFuture<?> _scheduledRetry;
+
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setup() {
+        _ticker = mock(Ticker.class);
+        _timer = mock(ScheduledExecutorService.class);
+        _scheduledRetry = mock(ScheduledFuture.class);
+        when(_timer.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+                .thenReturn((ScheduledFuture) _scheduledRetry);
+    }
+
+    @Test
+    public void testSucceedsWithoutRetry() throws Exception {
+        TestExecution execution = new TestExecution(10);
+        execution.willReturn("result");
+
+        Future<String> future = execution.start();
+
+        assertEquals("result", future.get());
+        verifyZeroInteractions(_timer);
+    }
+
+    @Test
+    public void testSchedulesRetryInsteadOfWaiting() throws Exception {
+        TestExecution execution = new TestExecution(10);
+        execution.willThrow(new ServiceException());
+        execution.willReturn("result");
+
+        Future<String> future = execution.start();
+
+        // The first attempt failed and the retry is waiting on the timer, not on a thread.
+        assertFalse(future.isDone());
+        runScheduledRetry(10);
+        assertEquals("result", future.get());
+        assertEquals(1, execution._lastNumAttempts);
+    }
+
+    @Test
+    public void testFailsOnNonRetriableException() throws Exception {
+        TestExecution execution = new TestExecution(10);
+        NullPointerException exception = new NullPointerException();
+        execution.willThrow(exception);
+
+        Future<String> future = execution.start();
+
+        assertSame(exception, getFailure(future));
+        verifyZeroInteractions(_timer);
+    }
+
+    @Test
+    public void testFailsWhenRetryPolicyGivesUp() throws Exception {
+        TestExecution execution = new TestExecution(-1);
+        execution.willThrow(new ServiceException());
+
+        Future<String> future = execution.start();
+
+        assertTrue(getFailure(future) instanceof MaxRetriesException);
+        verifyZeroInteractions(_timer);
+    }
+
+    @Test
+    public void testCancelsScheduledRetry() {
+        TestExecution execution = new TestExecution(10);
+        execution.willThrow(new ServiceException());
+
+        Future<String> future = execution.start();
+        future.cancel(false);
+
+        verify(_scheduledRetry).cancel(true);
+    }
+
+    @Test
+    public void testWaitsForAsynchronousAttempt() throws Exception {
+        SettableFuture<String> attempt = SettableFuture.create();
+        TestExecution execution = new TestExecution(10);
+        execution.willComplete(attempt);
+
+        Future<String> future = execution.start();
+        assertFalse(future.isDone());
+
+        attempt.set("result");
+        assertEquals("result", future.get());
+    }
+
+    @Test
+    public void testRetriesFailedAsynchronousAttempt() throws Exception {
+        SettableFuture<String> attempt = SettableFuture.create();
+        TestExecution execution = new TestExecution(10);
+        execution.willComplete(attempt);
+        execution.willReturn("result");
+
+        Future<String> future = execution.start();
+        attempt.setException(new ServiceException());
+
+        runScheduledRetry(10);
+        assertEquals("result", future.get());
+    }
+
+    @Test
+    public void testCompletesAsynchronousAttemptAfterExecutorShutdown() throws Exception {
+        SettableFuture<String> attempt = SettableFuture.create();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        TestExecution execution = new TestExecution(executor, 10);
+        execution.willComplete(attempt);
+
+        Future<String> future = execution.start();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        attempt.set("result");
+        assertEquals("result", future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCancelsAsynchronousAttempt() {
+        SettableFuture<String> attempt = SettableFuture.create();
+        TestExecution execution = new TestExecution(10);
+        execution.willComplete(attempt);
+
+        Future<String> future = execution.start();
+        future.cancel(false);
+
+        assertTrue(attempt.isCancelled());
+    }
+
+    private void runScheduledRetry(long delayNanos) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(_timer).schedule(captor.capture(), eq(delayNanos), eq(TimeUnit.NANOSECONDS));
+        captor.getValue().run();
+    }
+
+    private Throwable getFailure(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    /** Runs attempts on the calling thread, each attempt returning or throwing the next queued outcome. */
+    private class TestExecution extends ScheduledRetryExecution<String> {
+        private final long _retryDelayNanos;
+        private final LinkedList<Object> _outcomes = Lists.newLinkedList();
+        private int _lastNumAttempts;
+
+        TestExecution(long retryDelayNanos) {
+            this(MoreExecutors.sameThreadExecutor(), retryDelayNanos);
+        }
+
+        TestExecution(ExecutorService executor, long retryDelayNanos) {
+            super(_ticker, executor, _timer);
+            _retryDelayNanos = retryDelayNanos;
+        }
+
+        void willReturn(String result) {
+            _outcomes.add(result);
+        }
+
+        void willThrow(Exception exception) {
+            _outcomes.add(exception);
+        }
+
+        void willComplete(ListenableFuture<String> future) {
+            _outcomes.add(future);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        protected ListenableFuture<String> attempt() throws Exception {
+            Object outcome = _outcomes.removeFirst();
+            if (outcome instanceof ListenableFuture) {
+                return (ListenableFuture<String>) outcome;
+            }
+            if (outcome instanceof Exception) {
+                throw (Exception) outcome;
+            }
+            return Futures.immediateFuture((String) outcome);
+        }
+
+        @Override
+        protected boolean isRetriableException(Exception e) {
+            return e instanceof ServiceException;
+        }
+
+        @Override
+        protected long getRetryDelay(int numAttempts, long elapsedTimeMs, TimeUnit unit) {
+            _lastNumAttempts = numAttempts;
+            return _retryDelayNanos;
+        }
+    }
+}
@@ -2,10 +2,13 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +19,8 @@ import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -23,6 +28,8 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -34,15 +41,20 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atMost;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ServiceCacheTest {
     private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
+    private static final ScheduledExecutorService EVICTION_EXECUTOR = mock(ScheduledExecutorService.class);
 
     private ServiceFactory<Service> _factory;
-    private ServiceCachingPolicy _cachingPolicy;
+    private ExtendedServiceCachingPolicy _cachingPolicy;
     private List<ServiceCache<?>> _caches = Lists.newArrayList();
 
     @SuppressWarnings("unchecked")
@@ -58,7 +70,7 @@ public class ServiceCacheTest {
         });
 
         // By default the caching policy will grow infinitely
-        _cachingPolicy = mock(ServiceCachingPolicy.class);
+        _cachingPolicy = mock(ExtendedServiceCachingPolicy.class);
         when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(-1);
         when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
         when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
@@ -71,37 +83,14 @@ public class ServiceCacheTest {
         }
     }
 
-    @Test
-    public void testKeyedObjectPoolIsCorrectlyConfigured() {
-        // Set values to be different from corresponding GenericKeyedObjectPool defaults.
-        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
-        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(20);
-        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(5);
-        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS)).thenReturn(10L);
-
-        GenericKeyedObjectPool<ServiceEndPoint, Service> pool = newCache().getPool();
-        assertEquals(GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, pool.getWhenExhaustedAction());
-        assertEquals(20, pool.getMaxTotal());
-        assertEquals(5, pool.getMaxActive());
-        assertEquals(5, pool.getMaxIdle());
-        assertEquals(10L, pool.getMinEvictableIdleTimeMillis());
-        assertEquals(20, pool.getNumTestsPerEvictionRun());
-    }
-
     @Test(expected = NullPointerException.class)
     public void testCheckOutFromNullEndPoint() throws Exception {
         newCache().checkOut(null);
     }
 
     @Test(expected = NullPointerException.class)
-    public void testCheckInToNullEndPoint() throws Exception {
-        Service service = mock(Service.class);
-        newCache().checkIn(null, service);
-    }
-
-    @Test(expected = NullPointerException.class)
-    public void testCheckInNullServiceInstance() throws Exception {
-        newCache().checkIn(END_POINT, null);
+    public void testCheckInNullHandle() throws Exception {
+        newCache().checkIn(null);
     }
 
     @Test(expected = NullPointerException.class)
@@ -126,10 +115,10 @@ public class ServiceCacheTest {
     @Test
     public void testServiceInstanceIsReused() throws Exception {
         ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
-        cache.checkIn(END_POINT, service);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
 
-        assertSame(service, cache.checkOut(END_POINT));
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
     }
 
     @Test
@@ -138,8 +127,8 @@ public class ServiceCacheTest {
         when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
 
         ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
-        assertNotSame(service, cache.checkOut(END_POINT));
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
     }
 
     @Test
@@ -148,44 +137,44 @@ public class ServiceCacheTest {
         when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
 
         ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
-        cache.checkIn(END_POINT, service);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
         // Check out a different end point to force the currently cached instance out.
         cache.checkOut(mock(ServiceEndPoint.class));
 
-        verify(_factory).destroy(END_POINT, service);
+        verify(_factory).destroy(END_POINT, handle.getService());
     }
 
     @Test
     public void testEvictedEndPointDestroyedManualEviction() throws Exception {
         ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
-        cache.checkIn(END_POINT, service);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
         cache.evict(END_POINT);
 
-        verify(_factory).destroy(END_POINT, service);
+        verify(_factory).destroy(END_POINT, handle.getService());
     }
 
     @Test
     public void testEvictedEndPointHasServiceInstancesRemovedFromCache() throws Exception {
         ServiceCache<Service> cache = newCache();
 
-        Service service = cache.checkOut(END_POINT);
-        cache.checkIn(END_POINT, service);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
         cache.evict(END_POINT);
 
-        assertNotSame(service, cache.checkOut(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
     }
 
     @Test
     public void testEvictedEndPointWhileServiceInstanceCheckedOut() throws Exception {
         ServiceCache<Service> cache = newCache();
 
-        Service service = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
         cache.evict(END_POINT);
-        cache.checkIn(END_POINT, service);
+        cache.checkIn(handle);
 
-        assertNotSame(service, cache.checkOut(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
     }
 
     @Test(expected = NoCachedInstancesAvailableException.class)
@@ -214,22 +203,25 @@ public class ServiceCacheTest {
         ServiceCache<Service> cache = newCache();
 
         // Grow the cache a bunch, remembering each service that was created...
+        List<ServiceHandle<Service>> handles = Lists.newArrayList();
         Set<Service> seenServices = Sets.newHashSet();
         for (int i = 0; i < 10; i++) {
-            seenServices.add(cache.checkOut(END_POINT));
+            ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+            handles.add(handle);
+            seenServices.add(handle.getService());
         }
 
         // Now return each of the services.  Since the cache has a size of 1, only one of them should be retained...
-        for (Service service : seenServices) {
-            cache.checkIn(END_POINT, service);
+        for (ServiceHandle<Service> handle : handles) {
+            cache.checkIn(handle);
         }
 
         // Figure out which one is retained...
-        Service retainedService = cache.checkOut(END_POINT);
+        Service retainedService = cache.checkOut(END_POINT).getService();
         assertTrue(seenServices.contains(retainedService));
 
         // Force the cache to grow again, this new service should have never been seen before...
-        Service newService = cache.checkOut(END_POINT);
+        Service newService = cache.checkOut(END_POINT).getService();
         assertFalse(seenServices.contains(newService));
     }
 
@@ -239,7 +231,7 @@ public class ServiceCacheTest {
         when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
 
         final ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
 
         // Run a 2nd check out operation in a background thread.  It should block because there is only one service
         // instance available, and the above check out operation is holding onto it.  Eventually we're going to call
@@ -251,7 +243,7 @@ public class ServiceCacheTest {
                 @Override
                 public Service call() throws Exception {
                     inCallable.countDown();
-                    return cache.checkOut(END_POINT);
+                    return cache.checkOut(END_POINT).getService();
                 }
             });
 
@@ -269,9 +261,178 @@ public class ServiceCacheTest {
                 // Expected to fail because the instance hasn't been checked in yet.
             }
 
-            cache.checkIn(END_POINT, service);
-            assertSame(service, serviceFuture.get(10, TimeUnit.SECONDS));
+            cache.checkIn(handle);
+            assertSame(handle.getService(), serviceFuture.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNonPositiveMaxNumConcurrentCreationsPerEndPointAllowsOne() throws Exception {
+        when(_cachingPolicy.getMaxNumConcurrentCreationsPerEndPoint()).thenReturn(0);
+
+        ServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+
+        verify(_factory).create(END_POINT);
+    }
+
+    @Test
+    public void testConcurrentMissesCreateOneInstanceAtATime() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final CountDownLatch connected = new CountDownLatch(1);
+        final AtomicInteger numCreating = new AtomicInteger();
+        final AtomicInteger maxNumCreating = new AtomicInteger();
+        when(_factory.create(END_POINT)).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                int current = numCreating.incrementAndGet();
+                maxNumCreating.set(Math.max(maxNumCreating.get(), current));
+                try {
+                    assertTrue(connected.await(10, TimeUnit.SECONDS));
+                    return mock(Service.class);
+                } finally {
+                    numCreating.decrementAndGet();
+                }
+            }
+        });
+
+        final ServiceCache<Service> cache = newCache();
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        try {
+            List<Future<ServiceHandle<Service>>> futures = Lists.newArrayList();
+            for (int i = 0; i < 10; i++) {
+                futures.add(executor.submit(new Callable<ServiceHandle<Service>>() {
+                    @Override
+                    public ServiceHandle<Service> call() throws Exception {
+                        return cache.checkOut(END_POINT);
+                    }
+                }));
+            }
+
+            // All of the callers are waiting on the one instance that's being created.
+            verify(_factory, timeout(10000)).create(END_POINT);
+            Thread.sleep(100);
+            verify(_factory, times(1)).create(END_POINT);
+
+            connected.countDown();
+            Set<Service> services = Sets.newHashSet();
+            for (Future<ServiceHandle<Service>> future : futures) {
+                services.add(future.get(10, TimeUnit.SECONDS).getService());
+            }
+            assertEquals(10, services.size());
+            assertEquals(1, maxNumCreating.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentCheckOutsWithoutCachingCreateInParallel() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(0);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(0);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
+
+        assertCreatesInParallel(newCache(), 16);
+    }
+
+    @Test
+    public void testGrowDoesNotWaitForCreationInFlight() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
+
+        assertCreatesInParallel(newCache(), 4);
+    }
+
+    @Test
+    public void testWaiterGetsCheckedInInstanceBeforeCreationFinishes() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+
+        // Creating the next instance takes until we say so.
+        final CountDownLatch connected = new CountDownLatch(1);
+        when(_factory.create(END_POINT)).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                assertTrue(connected.await(10, TimeUnit.SECONDS));
+                return mock(Service.class);
+            }
+        });
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Service> serviceFuture = executor.submit(new Callable<Service>() {
+                @Override
+                public Service call() throws Exception {
+                    return cache.checkOut(END_POINT).getService();
+                }
+            });
+            verify(_factory, timeout(10000).times(2)).create(END_POINT);
+
+            cache.checkIn(handle);
+            assertSame(handle.getService(), serviceFuture.get(10, TimeUnit.SECONDS));
+
+            // The instance that was being created is kept for whoever needs it next.
+            connected.countDown();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (cache.getNumIdleInstances(END_POINT) == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, cache.getNumIdleInstances(END_POINT));
         } finally {
+            connected.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCreationFailureFailsAllWaiters() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final NullPointerException exception = new NullPointerException();
+        final CountDownLatch failed = new CountDownLatch(1);
+        when(_factory.create(END_POINT)).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                assertTrue(failed.await(10, TimeUnit.SECONDS));
+                throw exception;
+            }
+        });
+
+        final ServiceCache<Service> cache = newCache();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<ServiceHandle<Service>>> futures = Lists.newArrayList();
+            for (int i = 0; i < 2; i++) {
+                futures.add(executor.submit(new Callable<ServiceHandle<Service>>() {
+                    @Override
+                    public ServiceHandle<Service> call() throws Exception {
+                        return cache.checkOut(END_POINT);
+                    }
+                }));
+            }
+            verify(_factory, timeout(10000)).create(END_POINT);
+            Thread.sleep(100);
+
+            failed.countDown();
+            for (Future<ServiceHandle<Service>> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertSame(exception, e.getCause());
+                }
+            }
+            verify(_factory, times(1)).create(END_POINT);
+        } finally {
+            failed.countDown();
             executor.shutdown();
         }
     }
@@ -292,9 +453,655 @@ public class ServiceCacheTest {
         newCache(executor);
         verify(executor).scheduleAtFixedRate(
                 any(Runnable.class),
-                eq(ServiceCache.EVICTION_DURATION_IN_SECONDS),
-                eq(ServiceCache.EVICTION_DURATION_IN_SECONDS),
-                eq(TimeUnit.SECONDS));
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.EVICTION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.EVICTION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testSchedulesEvictionAtPolicyInterval() {
+        when(_cachingPolicy.getEvictionInterval(TimeUnit.NANOSECONDS)).thenReturn(5L);
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCache(executor);
+        verify(executor).scheduleAtFixedRate(any(Runnable.class), eq(5L), eq(5L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPlainPolicySchedulesEvictionAtDefaultInterval() {
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCacheWithPlainPolicy(executor);
+        verify(executor).scheduleAtFixedRate(
+                any(Runnable.class),
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.EVICTION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.EVICTION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testIdleInstancesTrimmedToWorkingSet() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getIdleServiceInstanceTrimmingFactor()).thenReturn(1.0);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        checkOutAndIn(cache, 8);
+
+        // The first run only learns how many instances the end point needed.
+        cache.evictIdleInstances();
+        assertEquals(8, cache.getNumIdleInstances(END_POINT));
+
+        // Once it stops needing that many, the extra ones are trimmed about half at a time.
+        checkOutAndIn(cache, 1);
+        cache.evictIdleInstances();
+        int numIdle = cache.getNumIdleInstances(END_POINT);
+        assertTrue(numIdle < 8 && numIdle > 1);
+
+        for (int i = 0; i < 20; i++) {
+            checkOutAndIn(cache, 1);
+            cache.evictIdleInstances();
+        }
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleInstancesTrimmedWithHeadroom() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getIdleServiceInstanceTrimmingFactor()).thenReturn(2.0);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        checkOutAndIn(cache, 8);
+        cache.evictIdleInstances();
+
+        for (int i = 0; i < 20; i++) {
+            checkOutAndIn(cache, 2);
+            cache.evictIdleInstances();
+        }
+        assertEquals(4, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testTrimmingKeepsMinIdleInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(3);
+        when(_cachingPolicy.getIdleServiceInstanceTrimmingFactor()).thenReturn(1.0);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        checkOutAndIn(cache, 8);
+
+        for (int i = 0; i < 20; i++) {
+            cache.evictIdleInstances();
+        }
+        assertEquals(3, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleInstancesNotTrimmedWithoutTrimmingFactor() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        checkOutAndIn(cache, 8);
+
+        for (int i = 0; i < 20; i++) {
+            cache.evictIdleInstances();
+        }
+        assertEquals(8, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testIdleInstanceEvictedAfterIdleTime() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleInstanceNotEvictedBeforeIdleTime() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(9L);
+        cache.evictIdleInstances();
+
+        verify(_factory, never()).destroy(END_POINT, handle.getService());
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleEvictionSkipsInstancesInUse() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> idle = cache.checkOut(END_POINT);
+        ServiceHandle<Service> inUse = cache.checkOut(END_POINT);
+        cache.checkIn(idle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, idle.getService());
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+
+        // The instance that was in use is kept once it's returned.
+        cache.checkIn(inUse);
+        assertSame(inUse.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test(expected = NoCachedInstancesAvailableException.class)
+    public void testFailWhenCacheFullOfInstancesInUse() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+        cache.checkOut(mock(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testEvictedEndPointDestroyedOnCheckIn() throws Exception {
+        ServiceCache<Service> cache = newCache();
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.evict(END_POINT);
+        cache.checkIn(handle);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testCheckInAfterCloseDestroysInstance() throws Exception {
+        ServiceCache<Service> cache = newCache();
+
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.close();
+        cache.checkIn(handle);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testConcurrentCheckOutsStayWithinLimit() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(4);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final ServiceCache<Service> cache = newCache();
+        final Set<Service> inUse = Sets.newSetFromMap(Maps.<Service, Boolean>newConcurrentMap());
+        final AtomicInteger maxInUse = new AtomicInteger();
+        final AtomicBoolean sharedInstance = new AtomicBoolean();
+
+        int numThreads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+                            if (!inUse.add(handle.getService())) {
+                                sharedInstance.set(true);
+                            }
+                            int numInUse = inUse.size();
+                            if (numInUse > maxInUse.get()) {
+                                maxInUse.set(numInUse);
+                            }
+                            inUse.remove(handle.getService());
+                            cache.checkIn(handle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertFalse(sharedInstance.get());
+        assertTrue(maxInUse.get() <= 4);
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertTrue(cache.getNumIdleInstances(END_POINT) <= 4);
+        verify(_factory, atMost(4)).create(END_POINT);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testWarmUpNullEndPoint() {
+        newCache().warmUp(null);
+    }
+
+    @Test
+    public void testWarmUpCreatesMinIdleInstances() {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(3);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testWarmUpWithoutMinIdleDoesNothing() {
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+
+        verify(_factory, never()).create(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testWarmUpWithPlainPolicyDoesNothing() {
+        ServiceCache<Service> cache = newCacheWithPlainPolicy(EVICTION_EXECUTOR);
+        cache.warmUp(END_POINT);
+
+        verify(_factory, never()).create(any(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testWarmUpStaysWithinPerEndPointLimit() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.checkOut(END_POINT);
+        cache.warmUp(END_POINT);
+
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWarmUpDoesNotEvictOtherEndPoints() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(1);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+        cache.warmUp(mock(ServiceEndPoint.class));
+
+        verify(_factory, times(1)).create(any(ServiceEndPoint.class));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWarmedUpInstanceIsUsed() throws Exception {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+        cache.checkOut(END_POINT);
+
+        verify(_factory, times(1)).create(END_POINT);
+    }
+
+    @Test
+    public void testIdleEvictionKeepsMinIdleInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> older = cache.checkOut(END_POINT);
+        ServiceHandle<Service> newer = cache.checkOut(END_POINT);
+        cache.checkIn(older);
+        when(ticker.read()).thenReturn(1L);
+        cache.checkIn(newer);
+
+        when(ticker.read()).thenReturn(20L);
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, older.getService());
+        verify(_factory, never()).destroy(END_POINT, newer.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testEvictionRunTopsUpMinIdleInstances() throws Exception {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_factory.create(END_POINT)).thenThrow(new RuntimeException()).thenReturn(mock(Service.class));
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+
+        cache.evictIdleInstances();
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWarmUpStaysOffCreationExecutor() {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+        Executor creationExecutor = mock(Executor.class);
+
+        ServiceCache<Service> cache = new ServiceCache<Service>(_cachingPolicy, _factory, EVICTION_EXECUTOR,
+                creationExecutor, MoreExecutors.sameThreadExecutor(), Ticker.systemTicker());
+        _caches.add(cache);
+        cache.warmUp(END_POINT);
+
+        verify(creationExecutor, never()).execute(any(Runnable.class));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testWarmUpOfEvictedEndPointStartsOver() throws Exception {
+        when(_cachingPolicy.getMinNumIdleServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, Ticker.systemTicker());
+        cache.warmUp(END_POINT);
+        cache.evict(END_POINT);
+        cache.warmUp(END_POINT);
+
+        verify(_factory, times(2)).create(END_POINT);
+        verify(_factory).destroy(eq(END_POINT), any(Service.class));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testSchedulesValidationForValidatingFactory() {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        useValidatingFactory();
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCache(executor);
+        verify(executor).scheduleWithFixedDelay(any(Runnable.class), eq(10L), eq(10L), eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testDoesNotScheduleValidationForOtherFactories() {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCache(executor);
+        verify(executor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void testDoesNotScheduleValidationForPlainPolicy() {
+        useValidatingFactory();
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        newCacheWithPlainPolicy(executor);
+        verify(executor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void testValidIdleInstanceIsKept() throws Exception {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(factory.isValid(eq(END_POINT), any(Service.class))).thenReturn(true);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.validateIdleInstances();
+
+        verify(factory).isValid(END_POINT, handle.getService());
+        verify(factory, never()).destroy(END_POINT, handle.getService());
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testInvalidIdleInstanceIsReplaced() throws Exception {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(factory.isValid(eq(END_POINT), any(Service.class))).thenReturn(false);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        verify(factory, times(2)).create(END_POINT);
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testValidationExceptionDestroysIdleInstance() throws Exception {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(factory.isValid(eq(END_POINT), any(Service.class))).thenThrow(new RuntimeException());
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testRecentlyUsedInstanceIsNotValidated() throws Exception {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        cache.checkIn(cache.checkOut(END_POINT));
+
+        when(ticker.read()).thenReturn(9L);
+        cache.validateIdleInstances();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testInstanceInUseIsNotValidated() throws Exception {
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        cache.checkIn(cache.checkOut(END_POINT));
+        cache.checkOut(END_POINT);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.validateIdleInstances();
+
+        verify(factory, never()).isValid(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testValidatedInstanceIsStillEvictedForBeingIdle() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(20L);
+        when(_cachingPolicy.getIdleServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(10L);
+        ValidatingServiceFactory<Service> factory = useValidatingFactory();
+        when(factory.isValid(eq(END_POINT), any(Service.class))).thenReturn(true);
+        Ticker ticker = mock(Ticker.class);
+        when(ticker.read()).thenReturn(0L);
+
+        ServiceCache<Service> cache = newCache(EVICTION_EXECUTOR, ticker);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        when(ticker.read()).thenReturn(10L);
+        cache.validateIdleInstances();
+        when(ticker.read()).thenReturn(20L);
+        cache.evictIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testSharedInstanceUsedByConcurrentCallers() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> first = cache.checkOut(END_POINT);
+        ServiceHandle<Service> second = cache.checkOut(END_POINT);
+
+        assertSame(first.getService(), second.getService());
+        verify(_factory, times(1)).create(END_POINT);
+    }
+
+    @Test(expected = NoCachedInstancesAvailableException.class)
+    public void testPlainPolicyDoesNotShareInstances() throws Exception {
+        // The plain policy allows one instance per end point and fails once it's checked out.
+        ServiceCache<Service> cache = newCacheWithPlainPolicy(EVICTION_EXECUTOR);
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+    }
+
+    @Test
+    public void testSharedInstancesGrowWhenAllInUse() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> first = cache.checkOut(END_POINT);
+        ServiceHandle<Service> second = cache.checkOut(END_POINT);
+        ServiceHandle<Service> third = cache.checkOut(END_POINT);
+
+        assertNotSame(first.getService(), second.getService());
+        assertTrue(third.getService() == first.getService() || third.getService() == second.getService());
+        verify(_factory, times(2)).create(END_POINT);
+        assertEquals(2, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testSharedInstanceNotInUseReusedBeforeCreatingAnother() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(_factory, times(1)).create(END_POINT);
+    }
+
+    @Test
+    public void testLeastUsedSharedInstanceChosen() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> first = cache.checkOut(END_POINT);
+        ServiceHandle<Service> second = cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        cache.checkIn(first);
+
+        // Now the first instance is used by one caller and the second by two.
+        assertSame(first.getService(), cache.checkOut(END_POINT).getService());
+        assertNotSame(first.getService(), second.getService());
+    }
+
+    @Test
+    public void testSharedInstanceNotInUseDestroyedOnEviction() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.evict(END_POINT);
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testSharedInstanceInUseDestroyedOnceLastCallerChecksIn() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> first = cache.checkOut(END_POINT);
+        ServiceHandle<Service> second = cache.checkOut(END_POINT);
+        cache.evict(END_POINT);
+
+        // New callers get a new instance while the old one is still in use.
+        ServiceHandle<Service> third = cache.checkOut(END_POINT);
+        assertNotSame(first.getService(), third.getService());
+
+        cache.checkIn(first);
+        verify(_factory, never()).destroy(END_POINT, first.getService());
+
+        cache.checkIn(second);
+        verify(_factory).destroy(END_POINT, first.getService());
+        verify(_factory, never()).destroy(END_POINT, third.getService());
+    }
+
+    @Test
+    public void testCloseDestroysSharedInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.close();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testConcurrentCallersShareInstances() throws Exception {
+        when(_cachingPolicy.getMaxNumSharedServiceInstancesPerEndPoint()).thenReturn(2);
+
+        final ServiceCache<Service> cache = newCache();
+        int numThreads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = Lists.newArrayList();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            cache.checkIn(cache.checkOut(END_POINT));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        verify(_factory, atMost(2)).create(END_POINT);
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
     }
 
     @Test(expected = NullPointerException.class)
@@ -334,7 +1141,7 @@ public class ServiceCacheTest {
     @Test
     public void testNumIdleUpdatedOnCheckIn() throws Exception {
         ServiceCache<Service> cache = newCache();
-        cache.checkIn(END_POINT, cache.checkOut(END_POINT));
+        cache.checkIn(cache.checkOut(END_POINT));
 
         assertEquals(1, cache.getNumIdleInstances(END_POINT));
     }
@@ -350,7 +1157,7 @@ public class ServiceCacheTest {
     @Test
     public void testIdleServiceNotCountedActive() throws Exception {
         ServiceCache<Service> cache = newCache();
-        cache.checkIn(END_POINT, cache.checkOut(END_POINT));
+        cache.checkIn(cache.checkOut(END_POINT));
 
         assertEquals(0, cache.getNumActiveInstances(END_POINT));
     }
@@ -370,11 +1177,11 @@ public class ServiceCacheTest {
     @Test
     public void testCloseDestroysCachedInstances() throws Exception {
         ServiceCache<Service> cache = newCache();
-        Service service = cache.checkOut(END_POINT);
-        cache.checkIn(END_POINT, service);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
         cache.close();
 
-        verify(_factory).destroy(END_POINT, service);
+        verify(_factory).destroy(END_POINT, handle.getService());
     }
 
     @SuppressWarnings("unchecked")
@@ -402,6 +1209,73 @@ public class ServiceCacheTest {
         cache.close();
     }
 
+    /**
+     * Checks out an instance from each of the given number of threads at once, and checks that every one of them
+     * created its own instance without waiting for the others.
+     */
+    private void assertCreatesInParallel(final ServiceCache<Service> cache, int numCallers) throws Exception {
+        // Each instance can only be created once every caller is creating one.
+        final CountDownLatch creating = new CountDownLatch(numCallers);
+        when(_factory.create(END_POINT)).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                creating.countDown();
+                assertTrue(creating.await(10, TimeUnit.SECONDS));
+                return mock(Service.class);
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(numCallers);
+        try {
+            List<Future<ServiceHandle<Service>>> futures = Lists.newArrayList();
+            for (int i = 0; i < numCallers; i++) {
+                futures.add(executor.submit(new Callable<ServiceHandle<Service>>() {
+                    @Override
+                    public ServiceHandle<Service> call() throws Exception {
+                        return cache.checkOut(END_POINT);
+                    }
+                }));
+            }
+
+            Set<Service> services = Sets.newHashSet();
+            for (Future<ServiceHandle<Service>> future : futures) {
+                services.add(future.get(10, TimeUnit.SECONDS).getService());
+            }
+            assertEquals(numCallers, services.size());
+            verify(_factory, times(numCallers)).create(END_POINT);
+        } finally {
+            creating.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Checks out the given number of instances at once, then checks them all back in.
+     */
+    private void checkOutAndIn(ServiceCache<Service> cache, int numInstances) throws Exception {
+        List<ServiceHandle<Service>> handles = Lists.newArrayList();
+        for (int i = 0; i < numInstances; i++) {
+            handles.add(cache.checkOut(END_POINT));
+        }
+        for (ServiceHandle<Service> handle : handles) {
+            cache.checkIn(handle);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> useValidatingFactory() {
+        ValidatingServiceFactory<Service> factory = mock(ValidatingServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        _factory = factory;
+        return factory;
+    }
+
     private ServiceCache<Service> newCache() {
         ServiceCache<Service> cache = new ServiceCache<Service>(_cachingPolicy, _factory);
         _caches.add(cache);
@@ -414,5 +1288,28 @@ public class ServiceCacheTest {
         return cache;
     }
 
+    private ServiceCache<Service> newCache(ScheduledExecutorService executor, Ticker ticker) {
+        ServiceCache<Service> cache = new ServiceCache<Service>(_cachingPolicy, _factory, executor,
+                MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), ticker);
+        _caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Creates a cache whose policy only implements {@link ServiceCachingPolicy}, so it gets the defaults for every
+     * {@link ExtendedServiceCachingPolicy} setting.  Otherwise the policy matches the one set up by {@link #setup}.
+     */
+    private ServiceCache<Service> newCacheWithPlainPolicy(ScheduledExecutorService executor) {
+        ServiceCachingPolicy policy = mock(ServiceCachingPolicy.class);
+        when(policy.getMaxNumServiceInstances()).thenReturn(-1);
+        when(policy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(policy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
+
+        ServiceCache<Service> cache = new ServiceCache<Service>(policy, _factory, executor,
+                MoreExecutors.sameThreadExecutor(), MoreExecutors.sameThreadExecutor(), Ticker.systemTicker());
+        _caches.add(cache);
+        return cache;
+    }
+
     public static interface Service {}
 }
\ No newline at end of file
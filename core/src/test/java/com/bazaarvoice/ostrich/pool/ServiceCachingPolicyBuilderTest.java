@@ -31,6 +31,51 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(1, builder.build().getMaxNumServiceInstancesPerEndPoint());
     }
     
+    @Test
+    public void testMinNumIdleServiceInstancesPerEndPointSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMinNumIdleServiceInstancesPerEndPoint(1);
+
+        assertEquals(1, ((ExtendedServiceCachingPolicy) builder.build()).getMinNumIdleServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testMinNumIdleServiceInstancesPerEndPointDefault() {
+        ServiceCachingPolicy policy = new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(0, ((ExtendedServiceCachingPolicy) policy).getMinNumIdleServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testSharedServiceInstancesSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withSharedServiceInstances(2);
+
+        assertEquals(2, ((ExtendedServiceCachingPolicy) builder.build()).getMaxNumSharedServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testSharedServiceInstancesDefault() {
+        ServiceCachingPolicy policy = new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(0, ((ExtendedServiceCachingPolicy) policy).getMaxNumSharedServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testMaxNumConcurrentCreationsPerEndPointSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumConcurrentCreationsPerEndPoint(3);
+
+        assertEquals(3, ((ExtendedServiceCachingPolicy) builder.build()).getMaxNumConcurrentCreationsPerEndPoint());
+    }
+
+    @Test
+    public void testMaxNumConcurrentCreationsPerEndPointDefault() {
+        ServiceCachingPolicy policy = new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(1, ((ExtendedServiceCachingPolicy) policy).getMaxNumConcurrentCreationsPerEndPoint());
+    }
+
     @Test
     public void testMinIdleTimeBeforeEvictionSet() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -39,6 +84,71 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(10, builder.build().getMaxServiceInstanceIdleTime(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testIdleServiceInstanceTrimmingFactorSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withIdleServiceInstanceTrimmingFactor(1.5);
+
+        assertEquals(1.5, ((ExtendedServiceCachingPolicy) builder.build()).getIdleServiceInstanceTrimmingFactor(), 0);
+    }
+
+    @Test
+    public void testIdleServiceInstanceTrimmingFactorDefault() {
+        ExtendedServiceCachingPolicy policy = (ExtendedServiceCachingPolicy) new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(0, policy.getIdleServiceInstanceTrimmingFactor(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidIdleServiceInstanceTrimmingFactor() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withIdleServiceInstanceTrimmingFactor(0.5);
+    }
+
+    @Test
+    public void testEvictionIntervalSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withEvictionInterval(10, TimeUnit.SECONDS);
+
+        assertEquals(10, ((ExtendedServiceCachingPolicy) builder.build()).getEvictionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEvictionIntervalDefault() {
+        ExtendedServiceCachingPolicy policy = (ExtendedServiceCachingPolicy) new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(0, policy.getEvictionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidEvictionInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withEvictionInterval(0, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testIdleServiceInstanceValidationIntervalSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withIdleServiceInstanceValidationInterval(30, TimeUnit.SECONDS);
+
+        ExtendedServiceCachingPolicy policy = (ExtendedServiceCachingPolicy) builder.build();
+
+        assertEquals(30, policy.getIdleServiceInstanceValidationInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIdleServiceInstanceValidationIntervalDefault() {
+        ExtendedServiceCachingPolicy policy = (ExtendedServiceCachingPolicy) new ServiceCachingPolicyBuilder().build();
+
+        assertEquals(0, policy.getIdleServiceInstanceValidationInterval(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidIdleServiceInstanceValidationInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withIdleServiceInstanceValidationInterval(0, TimeUnit.SECONDS);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullExhaustionAction() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -57,6 +167,32 @@ public class ServiceCachingPolicyBuilderTest {
         builder.withMaxNumServiceInstancesPerEndPoint(-1);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMinNumIdleServiceInstancesPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMinNumIdleServiceInstancesPerEndPoint(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxNumConcurrentCreationsPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumConcurrentCreationsPerEndPoint(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMinNumIdleMoreThanMaxPerEndPoint() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxNumServiceInstancesPerEndPoint(1);
+        builder.withMinNumIdleServiceInstancesPerEndPoint(2);
+        builder.build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidSharedServiceInstances() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withSharedServiceInstances(0);
+    }
+
     @Test(expected = IllegalStateException.class)
     public void testInvalidMaxServiceInstanceIdleTime() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
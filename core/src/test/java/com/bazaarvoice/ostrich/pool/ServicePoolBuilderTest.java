@@ -64,6 +64,11 @@ public class ServicePoolBuilderTest {
         ServicePoolBuilder.create(Service.class).withCachingPolicy(null);
     }
 
+    @Test(expected = NullPointerException.class)
+    public void testNullConcurrencyLimitPolicy() {
+        ServicePoolBuilder.create(Service.class).withConcurrencyLimitPolicy(null);
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullHealthCheckExecutor() {
         ServicePoolBuilder.create(Service.class).withHealthCheckExecutor(null);
@@ -314,6 +319,30 @@ public class ServicePoolBuilderTest {
                 .buildAsync();
     }
 
+    @Test
+    public void testBuildAsyncWithVirtualThreads() throws IOException {
+        com.bazaarvoice.ostrich.AsyncServicePool<Service> pool = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withPartitionFilter(_partitionFilter)
+                .withVirtualThreads()
+                .buildAsync();
+        pool.close();
+    }
+
+    @Test
+    public void testBuildAsyncWithConcurrencyLimit() throws IOException {
+        com.bazaarvoice.ostrich.AsyncServicePool<Service> pool = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withPartitionFilter(_partitionFilter)
+                .withConcurrencyLimitPolicy(new ConcurrencyLimitPolicyBuilder().withMaxConcurrency(10).build())
+                .buildAsync();
+        pool.close();
+    }
+
     @Test
     public void testBuildProxy() throws IOException {
         Service service = ServicePoolBuilder.create(Service.class)
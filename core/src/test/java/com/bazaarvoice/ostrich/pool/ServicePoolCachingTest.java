@@ -8,6 +8,7 @@ import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.circuitbreaker.SingleFailureCircuitBreakerPolicy;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
@@ -16,6 +17,7 @@ import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -42,6 +44,7 @@ import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -144,6 +147,44 @@ public class ServicePoolCachingTest {
         assertSame(service, pool.execute(NEVER_RETRY, IDENTITY_CALLBACK));
     }
 
+    @Test
+    public void testWarmsUpInitialEndPoints() {
+        newPool(new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(1)
+                .withMinNumIdleServiceInstancesPerEndPoint(1)
+                .build());
+
+        verify(_serviceFactory, timeout(10000)).create(FOO_ENDPOINT);
+    }
+
+    @Test
+    public void testWarmsUpAddedEndPoints() throws InterruptedException {
+        ServiceEndPoint barEndPoint = mock(ServiceEndPoint.class);
+
+        // Wait on a latch rather than verifying with a timeout, which gives up as soon as it sees the warm up of the
+        // initial end point.
+        final CountDownLatch created = new CountDownLatch(1);
+        when(_serviceFactory.create(barEndPoint)).then(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                created.countDown();
+                return mock(Service.class);
+            }
+        });
+
+        newPool(new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(1)
+                .withMinNumIdleServiceInstancesPerEndPoint(1)
+                .build());
+
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery).addListener(listener.capture());
+        listener.getValue().onEndPointAdded(barEndPoint);
+
+        assertTrue(created.await(10, TimeUnit.SECONDS));
+    }
+
     @Test
     public void testEvictsAllCachedInstancesWhenHostDiscoveryRemovesEndPoint() {
         ServicePool<Service> pool = newPool(CACHE_ONE_INSTANCE_PER_ENDPOINT);
@@ -322,7 +363,9 @@ public class ServicePoolCachingTest {
 
     private ServicePool<Service> newPool(ServiceCachingPolicy cachingPolicy) {
         ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
-                cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, true);
+                cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, new SingleFailureCircuitBreakerPolicy(),
+                OutlierDetectionPolicyBuilder.NO_OUTLIER_DETECTION, RetryBudgetPolicyBuilder.NO_RETRY_BUDGET,
+                _healthCheckExecutor, true, MoreExecutors.sameThreadExecutor(), false);
         _pools.add(pool);
         return pool;
     }
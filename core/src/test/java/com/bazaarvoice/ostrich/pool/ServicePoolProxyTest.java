@@ -1,23 +1,48 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.Batched;
+import com.bazaarvoice.ostrich.Cacheable;
+import com.bazaarvoice.ostrich.Coalesced;
+import com.bazaarvoice.ostrich.Deadline;
+import com.bazaarvoice.ostrich.HostDiscovery;
+import com.bazaarvoice.ostrich.HedgePolicy;
+import com.bazaarvoice.ostrich.Idempotent;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import org.junit.Before;
 import org.junit.Test;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -26,14 +51,18 @@ public class ServicePoolProxyTest {
     private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
     private static final PartitionContextSupplier SUPPLIER = mock(PartitionContextSupplier.class);
     private static final PartitionContext CONTEXT = mock(PartitionContext.class);
+    private static final HedgePolicy HEDGE = mock(HedgePolicy.class);
 
     @SuppressWarnings("unchecked")
     private final ServicePool<Service> _pool = mock(ServicePool.class);
+    private final HostDiscovery _hostDiscovery = mock(HostDiscovery.class);
 
     @Before
     public void setup() {
         when(SUPPLIER.forCall(any(Method.class), any(Object[].class))).thenReturn(CONTEXT);
         when(SUPPLIER.forCall(any(Method.class))).thenReturn(CONTEXT);
+        when(_pool.getServiceName()).thenReturn("ServicePoolProxyTest");
+        when(_pool.getHostDiscovery()).thenReturn(_hostDiscovery);
     }
 
     @Test
@@ -75,6 +104,31 @@ public class ServicePoolProxyTest {
         verify(_pool).close();
     }
 
+    @Test
+    public void testObjectMethodsAnsweredByProxy() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        Service other = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        assertTrue(service.equals(service));
+        assertFalse(service.equals(other));
+        assertEquals(System.identityHashCode(service), service.hashCode());
+        assertEquals("ServicePoolProxy[" + Service.class.getName() + "]", service.toString());
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class), anyCallback());
+    }
+
+    @Test
+    public void testMethodsWithArgumentsPassedThrough() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.set("value");
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), captor.capture());
+        captor.getValue().call(FOO_SERVICE);
+
+        verify(FOO_SERVICE).set("value");
+    }
+
     @Test
     public void testGetServicePool() {
         ServicePoolProxy<Service> proxy = new ServicePoolProxy<Service>(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
@@ -82,7 +136,232 @@ public class ServicePoolProxyTest {
         assertSame(_pool, proxy.getServicePool());
     }
 
+    @Test
+    public void testIdempotentMethodIsHedged() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, HEDGE, _pool, SUPPLIER, false);
+        service.get();
+
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), same(HEDGE), anyCallback());
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class), anyCallback());
+    }
+
+    @Test
+    public void testMethodNotHedgedWithoutAnnotation() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, HEDGE, _pool, SUPPLIER, false);
+        service.set("value");
+
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class), any(HedgePolicy.class),
+                anyCallback());
+    }
+
+    @Test
+    public void testIdempotentMethodNotHedgedWithoutHedgePolicy() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.get();
+
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class), any(HedgePolicy.class),
+                anyCallback());
+    }
+
+    @Test
+    public void testCallTimeoutGivesEachCallADeadline() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, null, TimeUnit.SECONDS.toNanos(10),
+                _pool, SUPPLIER, false);
+        service.set("value");
+
+        ArgumentCaptor<Deadline> captor = ArgumentCaptor.forClass(Deadline.class);
+        verify(_pool).execute(same(CONTEXT), captor.capture(), same(NEVER_RETRY), anyCallback());
+        assertTrue(captor.getValue().getRemaining(TimeUnit.SECONDS) <= 10);
+        verify(_pool, never()).execute(any(PartitionContext.class), any(RetryPolicy.class), anyCallback());
+    }
+
+    @Test
+    public void testCallTimeoutWithHedgedMethod() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, HEDGE, TimeUnit.SECONDS.toNanos(10),
+                _pool, SUPPLIER, false);
+        service.get();
+
+        verify(_pool).execute(same(CONTEXT), any(Deadline.class), same(NEVER_RETRY), same(HEDGE), anyCallback());
+    }
+
+    @Test(timeout = 10000)
+    public void testCoalescedMethodSharesConcurrentCalls() throws Exception {
+        final CountDownLatch inFlight = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(_pool.execute(any(PartitionContext.class), any(RetryPolicy.class), anyCallback()))
+                .thenAnswer(new Answer<Object>() {
+                    @Override
+                    public Object answer(InvocationOnMock invocation) throws Throwable {
+                        inFlight.countDown();
+                        release.await();
+                        return "value";
+                    }
+                });
+        final Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> first = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return service.lookup("key");
+                }
+            });
+            inFlight.await();
+
+            Thread second = new Thread() {
+                @Override
+                public void run() {
+                    service.lookup("key");
+                }
+            };
+            second.start();
+            // Wait for the second call to join the first before letting the first finish.
+            CallCoalescer coalescer = ((ServicePoolProxy<?>) Proxy.getInvocationHandler(service)).getCoalescer();
+            while (coalescer.getNumWaiting() == 0) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            second.join();
+
+            assertEquals("value", first.get());
+            verify(_pool, times(1)).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMethodNotCoalescedWithoutAnnotation() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.set("value");
+        service.set("value");
+
+        verify(_pool, times(2)).execute(same(CONTEXT), same(NEVER_RETRY), anyCallback());
+    }
+
+    private static <R> ServiceCallback<Service, R> anyCallback() {
+        return any();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCacheableMethodServedFromCache() {
+        when(_pool.execute(any(PartitionContext.class), any(RetryPolicy.class), any(ServiceCallback.class)))
+                .thenReturn(new ResponseCache.Response("value", null));
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        assertEquals("value", service.find("key"));
+        assertEquals("value", service.find("key"));
+        verify(_pool, times(1)).execute(same(CONTEXT), same(NEVER_RETRY), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void testCacheListensToHostDiscovery() {
+        ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        verify(_hostDiscovery).addListener(any(ResponseCache.class));
+    }
+
+    @Test
+    public void testCloseStopsCacheListening() throws IOException {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, true);
+        ((Closeable) service).close();
+
+        verify(_hostDiscovery).removeListener(any(ResponseCache.class));
+    }
+
+    @Test
+    public void testProxiesCloseStopsCacheListening() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, true);
+        ServicePoolProxies.close(service);
+
+        verify(_hostDiscovery).removeListener(any(ResponseCache.class));
+    }
+
+    @Test
+    public void testBatchedMethodCallsBulkMethod() {
+        when(_pool.executeBatch(any(RetryPolicy.class), anyItems(), anyPartitioner(), anyBatchCallback()))
+                .thenReturn(ImmutableMap.<Object, Object>of("key", true));
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        assertTrue(service.contains("key"));
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<BatchServiceCallback<Service, String, Object>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(BatchServiceCallback.class);
+        verify(_pool).executeBatch(same(NEVER_RETRY), eq(ImmutableList.of("key")),
+                ServicePoolProxyTest.<String>anyPartitioner(), captor.capture());
+        captor.getValue().call(FOO_SERVICE, ImmutableList.of("key"));
+        verify(FOO_SERVICE).containsAll(ImmutableList.of("key"));
+    }
+
+    @Test
+    public void testBatchedMethodPassesCallTimeoutAsDeadline() {
+        when(_pool.executeBatch(any(Deadline.class), any(RetryPolicy.class), anyItems(), anyPartitioner(),
+                anyBatchCallback())).thenReturn(ImmutableMap.<Object, Object>of("key", true));
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, null, TimeUnit.SECONDS.toNanos(10),
+                _pool, SUPPLIER, false);
+
+        assertTrue(service.contains("key"));
+
+        ArgumentCaptor<Deadline> captor = ArgumentCaptor.forClass(Deadline.class);
+        verify(_pool).executeBatch(captor.capture(), same(NEVER_RETRY), eq(ImmutableList.of("key")),
+                ServicePoolProxyTest.<String>anyPartitioner(), ServicePoolProxyTest.<String, Object>anyBatchCallback());
+        assertTrue(captor.getValue().getRemaining(TimeUnit.SECONDS) <= 10);
+        verify(_pool, never()).executeBatch(any(RetryPolicy.class), anyItems(), anyPartitioner(), anyBatchCallback());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBatchedMethodWithMissingPrimitiveResult() {
+        when(_pool.executeBatch(any(RetryPolicy.class), anyItems(), anyPartitioner(), anyBatchCallback()))
+                .thenReturn(ImmutableMap.of());
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        service.contains("key");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBatchedMethodWithoutBulkMethod() {
+        @SuppressWarnings("unchecked") ServicePool<MissingBulkService> pool = mock(ServicePool.class);
+        ServicePoolProxy.create(MissingBulkService.class, NEVER_RETRY, pool, SUPPLIER, false);
+    }
+
+    private static <K> Collection<K> anyItems() {
+        return any();
+    }
+
+    private static <K> Function<K, PartitionContext> anyPartitioner() {
+        return any();
+    }
+
+    private static <K, R> BatchServiceCallback<Service, K, R> anyBatchCallback() {
+        return any();
+    }
+
+    private static interface MissingBulkService {
+        @Batched("missing")
+        boolean contains(String key);
+    }
+
     private static interface Service {
         void close();
+
+        @Batched("containsAll")
+        boolean contains(String key);
+
+        Map<String, Boolean> containsAll(Collection<String> keys);
+
+        @Cacheable(ttl = 1, unit = TimeUnit.MINUTES)
+        String find(String key);
+
+        @Coalesced
+        String lookup(String key);
+
+        @Idempotent
+        String get();
+
+        void set(String value);
     }
 }
@@ -1,25 +1,41 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceCallback;
+import com.bazaarvoice.ostrich.BatchServiceCallback;
+import com.bazaarvoice.ostrich.CircuitBreaker;
+import com.bazaarvoice.ostrich.CircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.Deadline;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ScheduledRetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.bazaarvoice.ostrich.circuitbreaker.SingleFailureCircuitBreakerPolicy;
+import com.bazaarvoice.ostrich.exceptions.DeadlineExceededException;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.hedge.FixedDelayHedgePolicy;
 import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.bazaarvoice.ostrich.exceptions.NoSuitableHostsException;
 import com.bazaarvoice.ostrich.exceptions.OnlyBadHostsException;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
 import com.bazaarvoice.ostrich.partition.PartitionFilter;
+import com.google.common.base.Function;
+import com.google.common.base.Predicates;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -29,18 +45,27 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.bazaarvoice.ostrich.pool.OutlierDetectionPolicyBuilder.NO_OUTLIER_DETECTION;
+import static com.bazaarvoice.ostrich.pool.RetryBudgetPolicyBuilder.NO_RETRY_BUDGET;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -50,9 +75,11 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -66,6 +93,12 @@ public class ServicePoolTest {
     private static final Service BAZ_SERVICE = mock(Service.class);
     private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
     private static final ServiceCachingPolicy UNLIMITED_CACHING = new ServiceCachingPolicyBuilder().build();
+    private static final CircuitBreakerPolicy SINGLE_FAILURE = new SingleFailureCircuitBreakerPolicy();
+    private static final OutlierDetectionPolicy OUTLIER_DETECTION = new OutlierDetectionPolicyBuilder()
+            .withMinNumSamples(1)
+            .withMaxEjectedPercent(50)
+            .withDetectionInterval(10, TimeUnit.SECONDS)
+            .build();
 
     private Ticker _ticker;
     private HostDiscovery _hostDiscovery;
@@ -74,6 +107,7 @@ public class ServicePoolTest {
     private ServiceFactory<Service> _serviceFactory;
     private ScheduledExecutorService _healthCheckExecutor;
     private ScheduledFuture<?> _healthCheckScheduledFuture;
+    private ExecutorService _hedgeExecutor;
     private ServicePool<Service> _pool;
 
     @SuppressWarnings("unchecked")
@@ -141,13 +175,17 @@ public class ServicePoolTest {
                 }
         );
 
+        _hedgeExecutor = Executors.newCachedThreadPool();
+
         _pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory, UNLIMITED_CACHING,
-                _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, true);
+                _partitionFilter, _loadBalanceAlgorithm, SINGLE_FAILURE, NO_OUTLIER_DETECTION, NO_RETRY_BUDGET,
+                _healthCheckExecutor, true, _hedgeExecutor, false);
     }
 
     @After
     public void teardown() throws IOException {
         _pool.close();
+        _hedgeExecutor.shutdownNow();
 
         _hostDiscovery.close();
     }
@@ -173,7 +211,7 @@ public class ServicePoolTest {
     @Test(expected = NoAvailableHostsException.class)
     public void testThrowsNoAvailableHostsExceptionWhenNoEndPointsAvailable() {
         // Host discovery sees no end points...
-        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.<ServiceEndPoint>of());
+        removeAllEndPoints();
         _pool.execute(NEVER_RETRY, null);
     }
 
@@ -374,6 +412,102 @@ public class ServicePoolTest {
         }
     }
 
+    @Test
+    public void testDoesNotAttemptAfterDeadline() {
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+
+        try {
+            _pool.execute(Deadline.after(0, TimeUnit.SECONDS), NEVER_RETRY, callback);
+            fail();
+        } catch (DeadlineExceededException expected) {
+            verifyZeroInteractions(callback);
+        }
+    }
+
+    @Test
+    public void testDoesNotRetryWhenDelayWouldPassDeadline() {
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelay(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(TimeUnit.HOURS.toNanos(1));
+
+        try {
+            _pool.execute(Deadline.after(1, TimeUnit.MINUTES), retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (DeadlineExceededException expected) {
+            verify(retry).getRetryDelay(eq(1), anyLong(), eq(TimeUnit.NANOSECONDS));
+            verify(retry, never()).allowRetry(anyInt(), anyLong());
+        }
+    }
+
+    @Test
+    public void testRetriesWithinDeadline() {
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelay(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(0L, 0L, -1L);
+
+        try {
+            _pool.execute(Deadline.after(1, TimeUnit.MINUTES), retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (DeadlineExceededException e) {
+            fail();
+        } catch (MaxRetriesException expected) {
+            // Make sure we tried 3 times.
+            verify(retry).getRetryDelay(eq(3), anyLong(), eq(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    @Test
+    public void testDeadlineAvailableToCallback() {
+        final Deadline deadline = Deadline.after(1, TimeUnit.MINUTES);
+
+        Deadline current = _pool.execute(deadline, NEVER_RETRY, new ServiceCallback<Service, Deadline>() {
+            @Override
+            public Deadline call(Service service) throws ServiceException {
+                return Deadline.current();
+            }
+        });
+
+        assertSame(deadline, current);
+        assertNull(Deadline.current());
+    }
+
+    @Test
+    public void testNoDeadlineAvailableToCallbackWithoutDeadline() {
+        Deadline current = _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Deadline>() {
+            @Override
+            public Deadline call(Service service) throws ServiceException {
+                return Deadline.current();
+            }
+        });
+
+        assertNull(current);
+    }
+
+    @Test
+    public void testEndPointAvailableToEndPointCallback() {
+        ServiceEndPoint endPoint = _pool.execute(NEVER_RETRY, new EndPointCallback<Service, ServiceEndPoint>() {
+            @Override
+            public ServiceEndPoint call(Service service) throws ServiceException {
+                throw new AssertionError();
+            }
+
+            @Override
+            public ServiceEndPoint call(ServiceEndPoint endPoint, Service service) throws ServiceException {
+                return endPoint;
+            }
+        });
+
+        assertSame(FOO_ENDPOINT, endPoint);
+    }
+
     @Test
     public void testSubmitsHealthCheckOnRetriableException() {
         try {
@@ -527,7 +661,7 @@ public class ServicePoolTest {
 
     @Test
     public void testCheckForHealthyEndPointWhenEmpty() {
-        when(_hostDiscovery.getHosts()).thenReturn(Collections.<ServiceEndPoint>emptySet());
+        removeAllEndPoints();
 
         assertTrue(Iterables.isEmpty(_pool.checkForHealthyEndPoint().getAllResults()));
     }
@@ -813,8 +947,8 @@ public class ServicePoolTest {
     @Test
     public void testDoesNotShutdownHealthCheckExecutorOnClose() {
         ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
-                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                false);
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, SINGLE_FAILURE,
+                NO_OUTLIER_DETECTION, NO_RETRY_BUDGET, _healthCheckExecutor, false, _hedgeExecutor, false);
         pool.close();
 
         verify(_healthCheckExecutor, never()).shutdown();
@@ -824,8 +958,8 @@ public class ServicePoolTest {
     @Test
     public void testDoesShutdownHealthCheckExecutorOnClose() {
         ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
-                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                true);
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, SINGLE_FAILURE,
+                NO_OUTLIER_DETECTION, NO_RETRY_BUDGET, _healthCheckExecutor, true, _hedgeExecutor, false);
         pool.close();
 
         verify(_healthCheckExecutor, never()).shutdown();
@@ -858,8 +992,9 @@ public class ServicePoolTest {
         when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
 
         ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
-                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm,
-                Executors.newScheduledThreadPool(1), true);
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, SINGLE_FAILURE,
+                NO_OUTLIER_DETECTION, NO_RETRY_BUDGET, Executors.newScheduledThreadPool(1), true, _hedgeExecutor,
+                false);
 
         // Make it so that FOO needs to be health checked...
         try {
@@ -916,6 +1051,804 @@ public class ServicePoolTest {
         assertEquals(2, _pool.getNumBadEndPoints());
     }
 
+    @Test
+    public void testEndPointSnapshotNotRebuiltBySuccessfulCalls() {
+        long version = _pool.getEndPointSnapshotVersion();
+
+        for (int i = 0; i < 10; i++) {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    return null;
+                }
+            });
+        }
+
+        assertEquals(version, _pool.getEndPointSnapshotVersion());
+    }
+
+    @Test
+    public void testEndPointSnapshotRebuiltWhenEndPointMarkedBad() {
+        long version = _pool.getEndPointSnapshotVersion();
+
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();  // should have propagated service exception
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+
+        assertTrue(_pool.getEndPointSnapshotVersion() > version);
+        assertEquals(2, _pool.getNumValidEndPoints());
+        assertEquals(ImmutableList.of(BAR_ENDPOINT, BAZ_ENDPOINT), ImmutableList.copyOf(_pool.getValidEndPoints()));
+    }
+
+    @Test
+    public void testEndPointSnapshotRebuiltWhenHostDiscoveryAddsEndPoint() {
+        ServiceEndPoint newEndPoint = mock(ServiceEndPoint.class);
+        when(_hostDiscovery.getHosts()).thenReturn(
+                ImmutableList.of(FOO_ENDPOINT, BAR_ENDPOINT, BAZ_ENDPOINT, newEndPoint));
+
+        // Until host discovery notifies the pool the new end point isn't visible.
+        assertEquals(3, _pool.getNumValidEndPoints());
+
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery).addListener(listener.capture());
+        listener.getValue().onEndPointAdded(newEndPoint);
+
+        assertEquals(4, _pool.getNumValidEndPoints());
+    }
+
+    @Test
+    public void testEndPointNotMarkedBadWhileCircuitBreakerClosed() {
+        CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+        when(circuitBreaker.allowRequest()).thenReturn(true);
+        when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.CLOSED);
+        ServicePool<Service> pool = newPool(circuitBreaker);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();  // should have propagated service exception
+        } catch (MaxRetriesException e) {
+            // Expected
+        } finally {
+            pool.close();
+        }
+
+        verify(circuitBreaker).recordFailure();
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        assertEquals(3, pool.getNumValidEndPoints());
+    }
+
+    @Test
+    public void testSuccessRecordedWithCircuitBreaker() {
+        CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+        when(circuitBreaker.allowRequest()).thenReturn(true);
+        ServicePool<Service> pool = newPool(circuitBreaker);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    return null;
+                }
+            });
+        } finally {
+            pool.close();
+        }
+
+        verify(circuitBreaker).recordSuccess();
+        verify(circuitBreaker, never()).recordFailure();
+    }
+
+    @Test
+    public void testEndPointRefusedByCircuitBreakerIsSkipped() {
+        final CircuitBreaker refusing = mock(CircuitBreaker.class);
+        final CircuitBreaker allowing = mock(CircuitBreaker.class);
+        when(allowing.allowRequest()).thenReturn(true);
+
+        CircuitBreakerPolicy policy = mock(CircuitBreakerPolicy.class);
+        when(policy.newCircuitBreaker(any(ServiceEndPoint.class))).thenAnswer(new Answer<CircuitBreaker>() {
+            @Override
+            public CircuitBreaker answer(InvocationOnMock invocation) throws Throwable {
+                return invocation.getArguments()[0] == FOO_ENDPOINT ? refusing : allowing;
+            }
+        });
+        ServicePool<Service> pool = newPool(policy);
+
+        Service usedService;
+        try {
+            usedService = pool.execute(NEVER_RETRY, new ServiceCallback<Service, Service>() {
+                @Override
+                public Service call(Service service) throws ServiceException {
+                    return service;
+                }
+            });
+        } finally {
+            pool.close();
+        }
+
+        assertSame(BAR_SERVICE, usedService);
+    }
+
+    @Test
+    public void testOpenCircuitBreakerSchedulesHalfOpen() {
+        CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+        when(circuitBreaker.allowRequest()).thenReturn(true);
+        when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.OPEN);
+        when(circuitBreaker.getOpenDuration(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.SECONDS.toNanos(5));
+        ServicePool<Service> pool = newPool(circuitBreaker);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();  // should have propagated service exception
+        } catch (MaxRetriesException e) {
+            // Expected
+        } finally {
+            pool.close();
+        }
+
+        assertEquals(Collections.singleton(FOO_ENDPOINT), pool.getBadEndPoints());
+
+        // Capture the half-open task and run it, FOO should be usable again without its breaker being reset.
+        ArgumentCaptor<Runnable> halfOpen = ArgumentCaptor.forClass(Runnable.class);
+        verify(_healthCheckExecutor).schedule(halfOpen.capture(), eq(TimeUnit.SECONDS.toNanos(5)),
+                eq(TimeUnit.NANOSECONDS));
+        halfOpen.getValue().run();
+
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        verify(circuitBreaker, never()).reset();
+    }
+
+    @Test
+    public void testSuccessfulHealthCheckResetsCircuitBreaker() {
+        when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenReturn(true);
+
+        CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+        when(circuitBreaker.allowRequest()).thenReturn(true);
+        when(circuitBreaker.getState()).thenReturn(CircuitBreaker.State.OPEN);
+        when(circuitBreaker.getOpenDuration(any(TimeUnit.class))).thenReturn(-1L);
+        ServicePool<Service> pool = newPool(circuitBreaker);
+
+        try {
+            pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();  // should have propagated service exception
+        } catch (MaxRetriesException e) {
+            // Expected
+        } finally {
+            pool.close();
+        }
+
+        // The health check runs synchronously and succeeds, so FOO should already be good again.
+        verify(circuitBreaker).reset();
+        assertTrue(pool.getBadEndPoints().isEmpty());
+        verify(_healthCheckExecutor, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testRetryBudgetDeniesRetries() {
+        RetryBudgetPolicy budget = new RetryBudgetPolicyBuilder()
+                .withMaxRetryPercent(0)
+                .withMinRetriesPerSecond(0)
+                .build();
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, NO_OUTLIER_DETECTION, budget);
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        final AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            pool.execute(retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    numAttempts.incrementAndGet();
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException expected) {
+            assertEquals(1, numAttempts.get());
+        }
+    }
+
+    @Test
+    public void testRetryBudgetAllowsPercentageOfCalls() {
+        RetryBudgetPolicy budget = new RetryBudgetPolicyBuilder()
+                .withMaxRetryPercent(50)
+                .withMinRetriesPerSecond(0)
+                .build();
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, NO_OUTLIER_DETECTION, budget);
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        pool.execute(NEVER_RETRY, callback);
+        pool.execute(NEVER_RETRY, callback);
+
+        // Along with this call, there have been 3 calls, and 50% of that allows a single retry.
+        final AtomicInteger numAttempts = new AtomicInteger();
+        try {
+            pool.execute(retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    numAttempts.incrementAndGet();
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException expected) {
+            assertEquals(2, numAttempts.get());
+        }
+    }
+
+    @Test
+    public void testRetryBudgetCheckedBeforeBackoff() {
+        RetryBudgetPolicy budget = new RetryBudgetPolicyBuilder()
+                .withMaxRetryPercent(0)
+                .withMinRetriesPerSecond(0)
+                .build();
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, NO_OUTLIER_DETECTION, budget);
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelay(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(TimeUnit.HOURS.toNanos(1));
+
+        try {
+            pool.execute(retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException expected) {
+            // The hour long backoff would have made the test time out if it had been waited for.
+            verify(retry, never()).allowRetry(anyInt(), anyLong());
+        }
+    }
+
+    @Test
+    public void testOutlierDetectionNotScheduledByDefault() {
+        verify(_healthCheckExecutor, never()).scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(),
+                any(TimeUnit.class));
+    }
+
+    @Test
+    public void testSlowEndPointEjected() throws Exception {
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, OUTLIER_DETECTION);
+        try {
+            executeWithLatency(pool, FOO_ENDPOINT, 1000);
+            executeWithLatency(pool, BAR_ENDPOINT, 100);
+            executeWithLatency(pool, BAZ_ENDPOINT, 100);
+            getOutlierDetection().run();
+
+            assertEquals(Collections.singleton(FOO_ENDPOINT), pool.getEjectedEndPoints());
+            assertEquals(2, pool.getNumValidEndPoints());
+            assertTrue(pool.getBadEndPoints().isEmpty());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testRemovedEndPointNoLongerEjected() throws Exception {
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, OUTLIER_DETECTION);
+        try {
+            executeWithLatency(pool, FOO_ENDPOINT, 1000);
+            executeWithLatency(pool, BAR_ENDPOINT, 100);
+            executeWithLatency(pool, BAZ_ENDPOINT, 100);
+            getOutlierDetection().run();
+
+            ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                    HostDiscovery.EndPointListener.class);
+            verify(_hostDiscovery, atLeastOnce()).addListener(listener.capture());
+            listener.getValue().onEndPointRemoved(FOO_ENDPOINT);
+
+            assertTrue(pool.getEjectedEndPoints().isEmpty());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testEjectedEndPointUsedWhenNoOtherValidEndPoints() throws Exception {
+        ServicePool<Service> pool = newPool(SINGLE_FAILURE, OUTLIER_DETECTION);
+        try {
+            executeWithLatency(pool, FOO_ENDPOINT, 1000);
+            executeWithLatency(pool, BAR_ENDPOINT, 100);
+            executeWithLatency(pool, BAZ_ENDPOINT, 100);
+            getOutlierDetection().run();
+
+            // Knock out the fast end points, the slow one is better than nothing.
+            for (ServiceEndPoint endPoint : ImmutableList.of(BAR_ENDPOINT, BAZ_ENDPOINT)) {
+                try {
+                    pool.executeOnEndPoint(endPoint, new ServiceCallback<Service, Void>() {
+                        @Override
+                        public Void call(Service service) throws ServiceException {
+                            throw new ServiceException();
+                        }
+                    });
+                    fail();
+                } catch (ServiceException e) {
+                    // Expected
+                }
+            }
+
+            assertEquals(Collections.singleton(FOO_ENDPOINT), pool.getEjectedEndPoints());
+            assertEquals(1, pool.getNumValidEndPoints());
+            assertSame(FOO_ENDPOINT, Iterables.getOnlyElement(pool.getValidEndPoints()));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testHedgedRequestSentToDifferentEndPoint() throws Exception {
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+        final Set<Service> servicesUsed = Sets.newSetFromMap(Maps.<Service, Boolean>newConcurrentMap());
+
+        _pool.execute(NEVER_RETRY, new FixedDelayHedgePolicy(50, TimeUnit.MILLISECONDS),
+                new ServiceCallback<Service, String>() {
+                    @Override
+                    public String call(Service service) throws ServiceException {
+                        servicesUsed.add(service);
+                        if (service == FOO_SERVICE) {
+                            // The first attempt hangs until the hedged attempt has started.
+                            awaitQuietly(hedgeStarted);
+                            return "foo";
+                        }
+                        hedgeStarted.countDown();
+                        return "bar";
+                    }
+                });
+
+        assertEquals(Sets.newHashSet(FOO_SERVICE, BAR_SERVICE), servicesUsed);
+    }
+
+    @Test
+    public void testHedgedCallRunsFirstAttemptOnCallingThread() {
+        final Thread caller = Thread.currentThread();
+
+        String result = _pool.execute(NEVER_RETRY, new FixedDelayHedgePolicy(1, TimeUnit.MINUTES),
+                new ServiceCallback<Service, String>() {
+                    @Override
+                    public String call(Service service) throws ServiceException {
+                        return (Thread.currentThread() == caller) ? "caller" : "other";
+                    }
+                });
+
+        assertEquals("caller", result);
+    }
+
+    @Test
+    public void testNoHedgedRequestWhenFirstAttemptIsFast() {
+        final AtomicInteger numCalls = new AtomicInteger();
+
+        String result = _pool.execute(NEVER_RETRY, new FixedDelayHedgePolicy(1, TimeUnit.MINUTES),
+                new ServiceCallback<Service, String>() {
+                    @Override
+                    public String call(Service service) throws ServiceException {
+                        numCalls.incrementAndGet();
+                        return "foo";
+                    }
+                });
+
+        assertEquals("foo", result);
+        assertEquals(1, numCalls.get());
+    }
+
+    @Test(expected = MaxRetriesException.class)
+    public void testHedgedCallFailsWhenFirstAttemptFailsBeforeHedging() {
+        _pool.execute(NEVER_RETRY, new FixedDelayHedgePolicy(1, TimeUnit.MINUTES),
+                new ServiceCallback<Service, Void>() {
+                    @Override
+                    public Void call(Service service) throws ServiceException {
+                        throw new ServiceException();
+                    }
+                });
+    }
+
+    @Test
+    public void testHedgedCallSucceedsWhenOnlyOneAttemptFails() {
+        final CountDownLatch hedgeStarted = new CountDownLatch(1);
+
+        String result = _pool.execute(NEVER_RETRY, new FixedDelayHedgePolicy(50, TimeUnit.MILLISECONDS),
+                new ServiceCallback<Service, String>() {
+                    @Override
+                    public String call(Service service) throws ServiceException {
+                        if (service == FOO_SERVICE) {
+                            // Fail the first attempt, but only once the hedged attempt is under way.
+                            awaitQuietly(hedgeStarted);
+                            throw new ServiceException();
+                        }
+                        hedgeStarted.countDown();
+                        return "bar";
+                    }
+                });
+
+        assertEquals("bar", result);
+    }
+
+    @Test
+    public void testCallbackExecutionTimeStatistics() {
+        // Pools for the same service share their metrics, so make this call slower than any other test's.
+        when(_ticker.read()).thenReturn(0L, 0L, TimeUnit.HOURS.toNanos(1));
+        @SuppressWarnings("unchecked") ServiceCallback<Service, Void> callback = mock(ServiceCallback.class);
+        _pool.execute(NEVER_RETRY, callback);
+
+        ServicePoolStatistics statistics = _pool.getServicePoolStatistics();
+        assertEquals(60, statistics.getCallbackExecutionTime(1, TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testAsyncCallbackHoldsInstanceUntilComplete() throws Exception {
+        final SettableFuture<String> call = SettableFuture.create();
+        ServicePoolStatistics statistics = _pool.getServicePoolStatistics();
+        int numActiveInitially = statistics.getNumActiveInstances(FOO_ENDPOINT);
+
+        ListenableFuture<String> future = _pool.executeOnEndPoint(FOO_ENDPOINT, null,
+                new AsyncServiceCallback<Service, String>() {
+                    @Override
+                    public ListenableFuture<String> call(Service service) throws ServiceException {
+                        return call;
+                    }
+                });
+
+        assertFalse(future.isDone());
+        assertEquals(numActiveInitially + 1, statistics.getNumActiveInstances(FOO_ENDPOINT));
+
+        call.set("result");
+        assertEquals("result", future.get());
+        assertEquals(numActiveInitially, statistics.getNumActiveInstances(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testAsyncCallbackFailureMarksEndPointBad() throws Exception {
+        final SettableFuture<String> call = SettableFuture.create();
+        ServiceException exception = new ServiceException();
+
+        ListenableFuture<String> future = _pool.executeOnEndPoint(FOO_ENDPOINT, null,
+                new AsyncServiceCallback<Service, String>() {
+                    @Override
+                    public ListenableFuture<String> call(Service service) throws ServiceException {
+                        return call;
+                    }
+                });
+        assertFalse(_pool.getBadEndPoints().contains(FOO_ENDPOINT));
+
+        call.setException(exception);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        assertTrue(_pool.getBadEndPoints().contains(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testAsyncCallbackThatThrowsFailsFuture() throws Exception {
+        final ServiceException exception = new ServiceException();
+
+        ListenableFuture<String> future = _pool.executeOnEndPoint(FOO_ENDPOINT, null,
+                new AsyncServiceCallback<Service, String>() {
+                    @Override
+                    public ListenableFuture<String> call(Service service) throws ServiceException {
+                        throw exception;
+                    }
+                });
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        assertTrue(_pool.getBadEndPoints().contains(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testCancellingAsyncCallbackCancelsCall() {
+        final SettableFuture<String> call = SettableFuture.create();
+
+        ListenableFuture<String> future = _pool.executeOnEndPoint(FOO_ENDPOINT, null,
+                new AsyncServiceCallback<Service, String>() {
+                    @Override
+                    public ListenableFuture<String> call(Service service) throws ServiceException {
+                        return call;
+                    }
+                });
+        future.cancel(true);
+
+        assertTrue(call.isCancelled());
+        assertFalse(_pool.getBadEndPoints().contains(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testInterruptedCallDoesNotMarkEndPointBad() throws Exception {
+        try {
+            _pool.executeOnEndPoint(FOO_ENDPOINT, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    // What a call that's cancelled while it waits on the end point looks like.
+                    Thread.currentThread().interrupt();
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (ServiceException e) {
+            // Expected
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertFalse(_pool.getBadEndPoints().contains(FOO_ENDPOINT));
+    }
+
+    @Test
+    public void testExecuteBatchCallsEachEndPointOnceWithItsItems() {
+        partitionItemsByFirstLetter();
+        RecordingBatchCallback callback = new RecordingBatchCallback();
+
+        Map<String, String> results = _pool.executeBatch(NEVER_RETRY, ImmutableList.of("a1", "b1", "a2", "c1"),
+                FIRST_LETTER, callback);
+
+        assertEquals(ImmutableMap.of("a1", "FOO", "a2", "FOO", "b1", "BAR", "c1", "BAZ"), results);
+        assertEquals(ImmutableList.of("a1", "a2"), callback.getItems(FOO_SERVICE));
+        assertEquals(ImmutableList.of("b1"), callback.getItems(BAR_SERVICE));
+        assertEquals(ImmutableList.of("c1"), callback.getItems(BAZ_SERVICE));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteBatchFiltersOncePerPartitionContext() {
+        partitionItemsByFirstLetter();
+
+        _pool.executeBatch(NEVER_RETRY, ImmutableList.of("a1", "a2", "a3", "b1"), FIRST_LETTER,
+                new RecordingBatchCallback());
+
+        verify(_partitionFilter, times(2)).filter(any(Iterable.class), any(PartitionContext.class));
+    }
+
+    @Test
+    public void testExecuteBatchWithNoItems() {
+        RecordingBatchCallback callback = new RecordingBatchCallback();
+
+        Map<String, String> results = _pool.executeBatch(NEVER_RETRY, ImmutableList.<String>of(), FIRST_LETTER,
+                callback);
+
+        assertTrue(results.isEmpty());
+        assertEquals(0, callback.getNumCalls());
+    }
+
+    @Test
+    public void testExecuteBatchRetriesOnlyFailedGroup() {
+        // Items starting with "a" can go to any end point, and are sent to FOO first.  Items starting with "c" can
+        // only go to BAZ.
+        partitionItemsByFirstLetter();
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        RecordingBatchCallback callback = new RecordingBatchCallback(FOO_SERVICE);
+
+        Map<String, String> results = _pool.executeBatch(retry, ImmutableList.of("a1", "c1"),
+                new Function<String, PartitionContext>() {
+                    @Override
+                    public PartitionContext apply(String item) {
+                        return PartitionContextBuilder.of(item.startsWith("a") ? "any" : "c");
+                    }
+                }, callback);
+
+        assertEquals(ImmutableMap.of("a1", "BAR", "c1", "BAZ"), results);
+        assertEquals(ImmutableList.of("a1"), callback.getItems(BAR_SERVICE));
+        assertEquals(ImmutableList.of("c1"), callback.getItems(BAZ_SERVICE));
+        assertEquals(3, callback.getNumCalls());
+    }
+
+    @Test(expected = MaxRetriesException.class)
+    public void testExecuteBatchFailsWhenRetriesRunOut() {
+        partitionItemsByFirstLetter();
+
+        _pool.executeBatch(NEVER_RETRY, ImmutableList.of("a1", "b1"), FIRST_LETTER,
+                new RecordingBatchCallback(FOO_SERVICE));
+    }
+
+    @Test
+    public void testExecuteBatchDoesNotRetryNonRetriableFailure() {
+        partitionItemsByFirstLetter();
+        when(_serviceFactory.isRetriableException(any(Exception.class))).thenReturn(false);
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        try {
+            _pool.executeBatch(retry, ImmutableList.of("a1"), FIRST_LETTER, new RecordingBatchCallback(FOO_SERVICE));
+            fail();
+        } catch (ServiceException e) {
+            // Expected
+        }
+        verify(retry, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testExecuteBatchDoesNotAttemptAfterDeadline() {
+        partitionItemsByFirstLetter();
+        RecordingBatchCallback callback = new RecordingBatchCallback();
+
+        try {
+            _pool.executeBatch(Deadline.after(0, TimeUnit.SECONDS), NEVER_RETRY, ImmutableList.of("a1"), FIRST_LETTER,
+                    callback);
+            fail();
+        } catch (DeadlineExceededException expected) {
+            // Expected
+        }
+        assertEquals(0, callback.getNumCalls());
+    }
+
+    @Test
+    public void testExecuteBatchDoesNotRetryPastDeadline() {
+        partitionItemsByFirstLetter();
+        ScheduledRetryPolicy retry = mock(ScheduledRetryPolicy.class);
+        when(retry.getRetryDelay(anyInt(), anyLong(), any(TimeUnit.class))).thenReturn(TimeUnit.HOURS.toNanos(1));
+        RecordingBatchCallback callback = new RecordingBatchCallback(FOO_SERVICE);
+
+        try {
+            _pool.executeBatch(Deadline.after(1, TimeUnit.MINUTES), retry, ImmutableList.of("a1"), FIRST_LETTER,
+                    callback);
+            fail();
+        } catch (DeadlineExceededException expected) {
+            // Expected
+        }
+        assertEquals(1, callback.getNumCalls());
+    }
+
+    /**
+     * Sends items that start with "a" to FOO, "b" to BAR and "c" to BAZ, and lets any other item go to any end point.
+     */
+    @SuppressWarnings("unchecked")
+    private void partitionItemsByFirstLetter() {
+        when(_partitionFilter.filter(any(Iterable.class), any(PartitionContext.class)))
+                .thenAnswer(new Answer<Iterable<ServiceEndPoint>>() {
+                    @Override
+                    public Iterable<ServiceEndPoint> answer(InvocationOnMock invocation) throws Throwable {
+                        Iterable<ServiceEndPoint> endPoints = (Iterable<ServiceEndPoint>) invocation.getArguments()[0];
+                        Object partition = ((PartitionContext) invocation.getArguments()[1]).get();
+                        if ("a".equals(partition)) {
+                            return Iterables.filter(endPoints, Predicates.equalTo(FOO_ENDPOINT));
+                        } else if ("b".equals(partition)) {
+                            return Iterables.filter(endPoints, Predicates.equalTo(BAR_ENDPOINT));
+                        } else if ("c".equals(partition)) {
+                            return Iterables.filter(endPoints, Predicates.equalTo(BAZ_ENDPOINT));
+                        }
+                        return endPoints;
+                    }
+                });
+    }
+
+    private static final Function<String, PartitionContext> FIRST_LETTER = new Function<String, PartitionContext>() {
+        @Override
+        public PartitionContext apply(String item) {
+            return PartitionContextBuilder.of(item.substring(0, 1));
+        }
+    };
+
+    /**
+     * Answers each item with the name of the service it was sent to, and remembers which items each service was sent.
+     */
+    private static class RecordingBatchCallback implements BatchServiceCallback<Service, String, String> {
+        private final Set<Service> _failingServices;
+        private final Map<Service, List<String>> _items = Maps.newConcurrentMap();
+        private final AtomicInteger _numCalls = new AtomicInteger();
+
+        RecordingBatchCallback(Service... failingServices) {
+            _failingServices = Sets.newHashSet(failingServices);
+        }
+
+        @Override
+        public Map<String, String> call(Service service, Collection<String> items) throws ServiceException {
+            _numCalls.incrementAndGet();
+            if (_failingServices.contains(service)) {
+                throw new ServiceException();
+            }
+            _items.put(service, ImmutableList.copyOf(items));
+
+            String name = (service == FOO_SERVICE) ? "FOO" : (service == BAR_SERVICE) ? "BAR" : "BAZ";
+            Map<String, String> results = Maps.newHashMap();
+            for (String item : items) {
+                results.put(item, name);
+            }
+            return results;
+        }
+
+        List<String> getItems(Service service) {
+            return _items.get(service);
+        }
+
+        int getNumCalls() {
+            return _numCalls.get();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ServicePool<Service> newPool(CircuitBreaker circuitBreaker) {
+        CircuitBreakerPolicy policy = mock(CircuitBreakerPolicy.class);
+        when(policy.newCircuitBreaker(any(ServiceEndPoint.class))).thenReturn(circuitBreaker);
+        return newPool(policy);
+    }
+
+    private ServicePool<Service> newPool(CircuitBreakerPolicy policy) {
+        return newPool(policy, NO_OUTLIER_DETECTION);
+    }
+
+    private ServicePool<Service> newPool(CircuitBreakerPolicy circuitBreakerPolicy,
+                                         OutlierDetectionPolicy outlierDetectionPolicy) {
+        return newPool(circuitBreakerPolicy, outlierDetectionPolicy, NO_RETRY_BUDGET);
+    }
+
+    private ServicePool<Service> newPool(CircuitBreakerPolicy circuitBreakerPolicy,
+                                         OutlierDetectionPolicy outlierDetectionPolicy,
+                                         RetryBudgetPolicy retryBudgetPolicy) {
+        return new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm, circuitBreakerPolicy,
+                outlierDetectionPolicy, retryBudgetPolicy, _healthCheckExecutor, false, _hedgeExecutor, false);
+    }
+
+    /** Makes a successful call to an end point that the pool's ticker sees take the given amount of time. */
+    private void executeWithLatency(ServicePool<Service> pool, ServiceEndPoint endPoint, long latencyNanos)
+            throws Exception {
+        when(_ticker.read()).thenReturn(0L, latencyNanos);
+        pool.executeOnEndPoint(endPoint, new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                return null;
+            }
+        });
+    }
+
+    /** Returns the outlier detection task that the pool scheduled. */
+    private Runnable getOutlierDetection() {
+        ArgumentCaptor<Runnable> detection = ArgumentCaptor.forClass(Runnable.class);
+        verify(_healthCheckExecutor).scheduleWithFixedDelay(detection.capture(), eq(TimeUnit.SECONDS.toNanos(10)),
+                eq(TimeUnit.SECONDS.toNanos(10)), eq(TimeUnit.NANOSECONDS));
+        return detection.getValue();
+    }
+
+    /** Makes host discovery see no end points and notifies the pool of the removals. */
+    private void removeAllEndPoints() {
+        Iterable<ServiceEndPoint> endPoints = _hostDiscovery.getHosts();
+        when(_hostDiscovery.getHosts()).thenReturn(Collections.<ServiceEndPoint>emptySet());
+
+        ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                HostDiscovery.EndPointListener.class);
+        verify(_hostDiscovery).addListener(listener.capture());
+        for (ServiceEndPoint endPoint : endPoints) {
+            listener.getValue().onEndPointRemoved(endPoint);
+        }
+    }
+
     // A dummy interface for testing...
     private static interface Service {
     }
@@ -0,0 +1,84 @@
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualThreadsTest {
+    @Test
+    public void testSupportedWhenJvmHasVirtualThreads() {
+        assertEquals(hasMethod(Thread.class, "ofVirtual"), VirtualThreads.isSupported());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullNamePrefix() {
+        VirtualThreads.newThreadFactory(null);
+    }
+
+    @Test
+    public void testThreadFactoryNamesThreads() {
+        ThreadFactory threadFactory = VirtualThreads.newThreadFactory("test-");
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+
+        assertEquals("test-0", threadFactory.newThread(task).getName());
+        assertEquals("test-1", threadFactory.newThread(task).getName());
+    }
+
+    @Test
+    public void testThreadsAreDaemons() {
+        Thread thread = VirtualThreads.newThreadFactory("test-").newThread(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        assertTrue(thread.isDaemon());
+    }
+
+    @Test
+    public void testPlatformThreadFactoryEscapesNamePrefix() {
+        Thread thread = VirtualThreads.newPlatformThreadFactory("100%-").newThread(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+
+        assertEquals("100%-0", thread.getName());
+    }
+
+    @Test
+    public void testExecutorRunsTasks() throws Exception {
+        ExecutorService executor = VirtualThreads.newExecutor("test-");
+        try {
+            String threadName = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return Thread.currentThread().getName();
+                }
+            }).get(10, TimeUnit.SECONDS);
+
+            assertTrue(threadName.startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static boolean hasMethod(Class<?> cls, String name) {
+        try {
+            cls.getMethod(name);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -70,4 +70,17 @@ public class RetryNTimesTest {
         }
         assertFalse(retry.allowRetry(N, 0));
     }
+
+    @Test
+    public void testRetryDelay() {
+        RetryNTimes retry = new RetryNTimes(2, 123, TimeUnit.MILLISECONDS);
+        assertEquals(123, retry.getRetryDelay(1, 0, TimeUnit.MILLISECONDS));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(123), retry.getRetryDelay(1, 0, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testNoRetryDelayAfterMaxAttempts() {
+        RetryNTimes retry = new RetryNTimes(2, 123, TimeUnit.MILLISECONDS);
+        assertTrue(retry.getRetryDelay(2, 0, TimeUnit.MILLISECONDS) < 0);
+    }
 }
@@ -1,7 +1,13 @@
 package com.bazaarvoice.ostrich.pool;
 
+import com.google.common.base.Throwables;
 import com.google.common.reflect.Reflection;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
+
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -9,10 +15,21 @@ import static org.mockito.Mockito.when;
  * Test helper that exposes package-private methods on {@link ServicePoolProxy}.
  */
 public class ServicePoolProxyHelper {
-    public static <S> S createMock(Class<S> serviceType, com.bazaarvoice.ostrich.ServicePool<S> pool) {
+    public static <S> S createMock(Class<S> serviceType, final com.bazaarvoice.ostrich.ServicePool<S> pool) {
         @SuppressWarnings("unchecked")
         ServicePoolProxy<S> servicePoolProxy = mock(ServicePoolProxy.class);
         when(servicePoolProxy.getServicePool()).thenReturn(pool);
+        try {
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) throws Throwable {
+                    pool.close();
+                    return null;
+                }
+            }).when(servicePoolProxy).close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
         return Reflection.newProxy(serviceType, servicePoolProxy);
     }
 }